@@ -34,10 +34,17 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigFileInputFormat;
 import org.apache.tools.bzip2r.CBZip2InputStream;
+import org.apache.tools.bzip2r.CBZip2ParallelInputStream;
 
 @SuppressWarnings("unchecked")
 public class Bzip2TextInputFormat extends PigFileInputFormat {
 
+    /**
+     * The number of threads decompressing the blocks of a split. With 1,
+     * the default, the blocks are decompressed by the reading thread.
+     */
+    public static final String DECOMPRESS_THREADS = "pig.bzip2.decompress.threads";
+
     /**
      * Treats keys as offset in file and value as line. Since the input file is
      * compressed, the offset for a particular line is not well-defined. This
@@ -53,7 +60,7 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
 
         private long pos;
 
-        private CBZip2InputStream in;
+        private InputStream in;
 
         private ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
         
@@ -102,14 +109,26 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
             FSDataInputStream fileIn = fs.open(split.getPath());
             fileIn.seek(start);
 
-            in = new CBZip2InputStream(fileIn, 9, end);
+            int threads = job.getInt(DECOMPRESS_THREADS, 1);
+            if (threads > 1) {
+                in = new CBZip2ParallelInputStream(fileIn, end, threads);
+            } else {
+                in = new CBZip2InputStream(fileIn, 9, end);
+            }
             if (start != 0) {
                 // skip first line and re-establish "start".
                 // LineRecordReader.readLine(this.in, null);
                 readLine(this.in, null);
-                start = in.getPos();
+                start = getStreamPos();
+            }
+            pos = getStreamPos();
+        }
+
+        private long getStreamPos() throws IOException {
+            if (in instanceof CBZip2ParallelInputStream) {
+                return ((CBZip2ParallelInputStream)in).getPos();
             }
-            pos = in.getPos();
+            return ((CBZip2InputStream)in).getPos();
         }
 
         public LongWritable createKey() {
@@ -181,7 +200,7 @@ public class Bzip2TextInputFormat extends PigFileInputFormat {
             if (bytesRead == 0) {
                 return false;
             }
-            pos = in.getPos();
+            pos = getStreamPos();
             // if we have read ahead because we encountered a carriage return
             // char followed by a non line feed char, decrement the pos
             if(CRFollowedByNonLF) {
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tools.bzip2r;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+
+/**
+ * An input stream that decompresses a BZip2 stream on several threads.
+ * <p>
+ * The compressed stream is scanned for the (bit aligned) block headers.
+ * Each block is copied into a BZip2 stream of its own, decoded by a
+ * {@link CBZip2InputStream} on a thread of a pool, and the decoded blocks
+ * are read back in the order of the file. Up to twice as many blocks as
+ * there are threads are decoded ahead of the reader.
+ * <p>
+ * Like {@link CBZip2InputStream#CBZip2InputStream(FSDataInputStream, int, long)}
+ * it starts at the first block header after the current position of the
+ * compressed stream and reads the blocks up to and including the first one
+ * that starts at or after the end of the split, with the same
+ * {@link #getPos()} contract, so it can be used to read the splits of a file.
+ */
+public class CBZip2ParallelInputStream extends InputStream {
+
+    private final static long mask = 0xffffffffffffL;
+    private final static long eob = 0x314159265359L & mask;
+    private final static long eos = 0x177245385090L & mask;
+
+    // the header of the stream each block is copied into
+    private final static byte[] header = { 'B', 'Z', 'h', '9' };
+
+    private static final int MAGIC_BITS = 48;
+
+    // a block header is the magic followed by the 32 bit CRC of the block
+    private static final int BLOCK_HEADER_BITS = MAGIC_BITS + 32;
+
+    private FSDataInputStream innerBsStream;
+
+    private final ExecutorService pool;
+
+    private final int threads;
+
+    // position of the compressed stream the scan started at
+    private final long startOffset;
+
+    private final long endOffsetOfSplit;
+
+    // the blocks being decoded, in the order of the file
+    private final LinkedList<Block> pending = new LinkedList<Block>();
+
+    // the compressed bytes read from innerBsStream and not scanned yet
+    private final byte[] readBuf = new byte[64 * 1024];
+    private int readLen = 0;
+    private int readIdx = 0;
+
+    // the number of bits scanned and the last 48 of them
+    private long bitCount = 0;
+    private long magic = 0;
+
+    // no header is looked for in the bits of a block header
+    private long searchFrom = MAGIC_BITS;
+
+    // the compressed bytes from the one holding the first bit of the block
+    // being scanned, and the index of that bit from the start of the scan
+    private byte[] raw = new byte[1024 * 1024];
+    private int rawLen = 0;
+    private long blockStartBit = -1;
+
+    private boolean scanDone = false;
+
+    // the decoded block being read
+    private byte[] data = new byte[0];
+    private int dataPos = 0;
+    private int dataLen = 0;
+
+    // see getPos()
+    private long retPos;
+    private boolean signalToStopReading = false;
+
+    /**
+     * @param zStream the compressed stream, positioned at the start of the
+     *            split
+     * @param end the end of the split, Long.MAX_VALUE to read the whole
+     *            stream
+     * @param threads the number of threads decoding blocks
+     */
+    public CBZip2ParallelInputStream(FSDataInputStream zStream, long end,
+            int threads) throws IOException {
+        innerBsStream = zStream;
+        startOffset = zStream.getPos();
+        retPos = startOffset;
+        endOffsetOfSplit = end;
+        this.threads = Math.max(1, threads);
+        pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "bzip2-decoder");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        fill();
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (dataPos == dataLen) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        if (signalToStopReading) {
+            retPos = endOffsetOfSplit + 1;
+        }
+        return data[dataPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (dataPos == dataLen) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        if (signalToStopReading) {
+            retPos = endOffsetOfSplit + 1;
+        }
+        int n = Math.min(len, dataLen - dataPos);
+        System.arraycopy(data, dataPos, b, off, n);
+        dataPos += n;
+        return n;
+    }
+
+    /**
+     * Returns the start of the split until the first byte of a block that
+     * starts at or after the end of the split is read, and a position past
+     * the end of the split from then on, see
+     * {@link CBZip2InputStream#getPos()}.
+     */
+    public long getPos() throws IOException {
+        return retPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        pending.clear();
+        if (innerBsStream != null) {
+            innerBsStream.close();
+            innerBsStream = null;
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        fill();
+        if (pending.isEmpty()) {
+            return false;
+        }
+        Block block = pending.removeFirst();
+        try {
+            data = block.data.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while decoding a bzip2 block");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            IOException ioe = new IOException("Error decoding a bzip2 block");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+        dataPos = 0;
+        dataLen = data.length;
+        if (block.start >= endOffsetOfSplit) {
+            signalToStopReading = true;
+        }
+        fill();
+        return true;
+    }
+
+    /**
+     * Scans blocks and hands them to the pool until enough are pending
+     */
+    private void fill() throws IOException {
+        while (!scanDone && pending.size() < 2 * threads) {
+            scanBlock();
+        }
+    }
+
+    /**
+     * Scans the compressed stream up to the next header. If it ends a block,
+     * the block is handed to the pool.
+     */
+    private void scanBlock() throws IOException {
+        while (true) {
+            if (readIdx == readLen) {
+                readLen = innerBsStream.read(readBuf, 0, readBuf.length);
+                readIdx = 0;
+                if (readLen <= 0) {
+                    readLen = 0;
+                    scanDone = true;
+                    if (blockStartBit >= 0) {
+                        throw new IOException("compressedStream EOF");
+                    }
+                    return;
+                }
+            }
+            int b = readBuf[readIdx++] & 0xff;
+            if (blockStartBit >= 0) {
+                if (rawLen == raw.length) {
+                    byte[] bigger = new byte[raw.length * 2];
+                    System.arraycopy(raw, 0, bigger, 0, rawLen);
+                    raw = bigger;
+                }
+                raw[rawLen++] = (byte)b;
+            }
+            boolean emitted = false;
+            for (int i = 7; i >= 0; i--) {
+                magic = ((magic << 1) | ((b >> i) & 1)) & mask;
+                bitCount++;
+                if (bitCount < searchFrom || (magic != eob && magic != eos)) {
+                    continue;
+                }
+                long headerBit = bitCount - MAGIC_BITS;
+                if (blockStartBit >= 0) {
+                    emitted = true;
+                    emitBlock(headerBit);
+                    if (startOffset + blockStartBit / 8 >= endOffsetOfSplit) {
+                        // the block read past the end of the split is done
+                        scanDone = true;
+                        return;
+                    }
+                }
+                if (magic == eos) {
+                    scanDone = true;
+                    return;
+                }
+                startBlock(headerBit, b);
+                // no other header can start within this one
+                searchFrom = headerBit + BLOCK_HEADER_BITS + MAGIC_BITS;
+            }
+            if (emitted) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts collecting a block whose header starts at headerBit. The
+     * current byte b holds the last bit of the magic.
+     */
+    private void startBlock(long headerBit, int b) {
+        long firstByte = headerBit / 8;
+        long currentByte = (bitCount - 1) / 8;
+        if (blockStartBit >= 0) {
+            // keep the bytes of the previous block that hold the header
+            int keep = (int)(currentByte - firstByte + 1);
+            System.arraycopy(raw, rawLen - keep, raw, 0, keep);
+            rawLen = keep;
+        } else {
+            // the bytes before the current one are only left in magic,
+            // bitCount - 1 is the bit at index 7 - unread of the current byte
+            int keep = (int)(currentByte - firstByte + 1);
+            int unread = 7 - (int)((bitCount - 1) % 8);
+            rawLen = 0;
+            for (int i = keep - 1; i > 0; i--) {
+                raw[rawLen++] = (byte)(magic >>> (8 * i - unread));
+            }
+            raw[rawLen++] = (byte)b;
+        }
+        blockStartBit = headerBit;
+    }
+
+    /**
+     * Copies the block collected so far, which ends before endBit, into a
+     * stream of its own and hands it to the pool
+     */
+    private void emitBlock(long endBit) {
+        int offset = (int)(blockStartBit % 8);
+        long length = endBit - blockStartBit;
+        int crc = (int)getBits(raw, offset + MAGIC_BITS, 32);
+        BitWriter w = new BitWriter((int)((length + 7) / 8)
+                + header.length + 11);
+        for (byte h : header) {
+            w.write(h & 0xff, 8);
+        }
+        int full = (int)(length / 8);
+        for (int i = 0; i < full; i++) {
+            int v = raw[i] & 0xff;
+            if (offset > 0) {
+                v = ((v << offset) | ((raw[i + 1] & 0xff) >>> (8 - offset))) & 0xff;
+            }
+            w.write(v, 8);
+        }
+        int rest = (int)(length % 8);
+        if (rest > 0) {
+            w.write((int)getBits(raw, offset + 8L * full, rest), rest);
+        }
+        // a single block stream, whose combined CRC is the one of the block
+        w.write((int)(eos >>> 24), 24);
+        w.write((int)(eos & 0xffffff), 24);
+        w.write(crc, 32);
+        final byte[] stream = w.toByteArray();
+        Block block = new Block();
+        block.start = startOffset + blockStartBit / 8;
+        block.data = pool.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                return decode(stream);
+            }
+        });
+        pending.add(block);
+    }
+
+    private static long getBits(byte[] b, long bitOffset, int n) {
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            long bit = bitOffset + i;
+            v = (v << 1) | ((b[(int)(bit >>> 3)] >> (7 - (int)(bit & 7))) & 1);
+        }
+        return v;
+    }
+
+    private static byte[] decode(byte[] stream) throws IOException {
+        CBZip2InputStream in = new CBZip2InputStream(new FSDataInputStream(
+                new SeekableByteArrayInputStream(stream)));
+        byte[] out = new byte[Math.max(1024, stream.length * 4)];
+        int len = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (len == out.length) {
+                byte[] bigger = new byte[out.length * 2];
+                System.arraycopy(out, 0, bigger, 0, len);
+                out = bigger;
+            }
+            out[len++] = (byte)c;
+        }
+        byte[] result = new byte[len];
+        System.arraycopy(out, 0, result, 0, len);
+        return result;
+    }
+
+    private static class Block {
+        // position of the byte holding the first bit of the block header
+        long start;
+        Future<byte[]> data;
+    }
+
+    private static class BitWriter {
+        private byte[] buf;
+        private int len = 0;
+        private long bits = 0;
+        private int live = 0;
+
+        BitWriter(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void write(int v, int n) {
+            bits = (bits << n) | (v & ((1L << n) - 1));
+            live += n;
+            while (live >= 8) {
+                buf[len++] = (byte)(bits >>> (live - 8));
+                live -= 8;
+            }
+        }
+
+        byte[] toByteArray() {
+            if (live > 0) {
+                buf[len++] = (byte)(bits << (8 - live));
+                live = 0;
+            }
+            byte[] result = new byte[len];
+            System.arraycopy(buf, 0, result, 0, len);
+            return result;
+        }
+    }
+
+    /**
+     * Lets a {@link CBZip2InputStream} read a block from memory
+     */
+    private static class SeekableByteArrayInputStream extends ByteArrayInputStream
+            implements Seekable, PositionedReadable {
+
+        SeekableByteArrayInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        public long getPos() {
+            return pos;
+        }
+
+        public void seek(long newPos) throws IOException {
+            if (newPos < 0 || newPos > count) {
+                throw new IOException("Cannot seek to " + newPos);
+            }
+            pos = (int)newPos;
+        }
+
+        public boolean seekToNewSource(long targetPos) {
+            return false;
+        }
+
+        public int read(long position, byte[] buffer, int offset, int length) {
+            if (position >= count) {
+                return -1;
+            }
+            int n = Math.min(length, count - (int)position);
+            System.arraycopy(buf, (int)position, buffer, offset, n);
+            return n;
+        }
+
+        public void readFully(long position, byte[] buffer, int offset,
+                int length) throws IOException {
+            if (read(position, buffer, offset, length) < length) {
+                throw new IOException("Read past the end of the block");
+            }
+        }
+
+        public void readFully(long position, byte[] buffer) throws IOException {
+            readFully(position, buffer, 0, buffer.length);
+        }
+    }
+}
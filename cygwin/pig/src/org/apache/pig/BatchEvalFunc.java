@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.data.Tuple;
+
+/**
+ * An interface that allows EvalFuncs to process a block of input tuples in
+ * one call rather than a tuple per call to exec.  This is intended for UDFs
+ * with a high fixed cost per call, such as UDFs written in a scripting
+ * language, where crossing into the interpreter once per block is much
+ * cheaper than once per tuple.  Blocks are only handed to the UDF when the
+ * map plan runs in batches (see pig.exec.batch.size) and all the arguments
+ * of the UDF can be evaluated for a batch; exec is called otherwise.
+ * @since Pig 0.8
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface BatchEvalFunc {
+    /**
+     * Evaluates the UDF for a block of input tuples.
+     * @param input the input tuples, each one as it would be passed to exec.
+     * The tuples may be kept but the list may not, it is reused for the
+     * next block.
+     * @param output receives the result for each input tuple, at the same
+     * index.  It holds at least input.size() entries.
+     */
+    public void execBatch(List<Tuple> input, Object[] output) throws IOException;
+}
@@ -35,5 +35,19 @@ public enum ExecType implements Serializable {
     /**
      * Use the Experimental Hadoop framework; not available yet.
      */
-    PIG
+    PIG,
+    /**
+     * Run everything on the local machine, executing the map reduce plan
+     * in-process on a pool of threads instead of through Hadoop's local
+     * job runner
+     */
+    THREADED;
+
+    /**
+     * @return true if this execution type runs against the local file
+     * system and the local job tracker
+     */
+    public boolean isLocal() {
+        return this == LOCAL || this == THREADED;
+    }
 }
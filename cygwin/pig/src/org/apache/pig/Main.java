@@ -704,7 +704,7 @@ public static void usage()
         System.out.println("        All optimizations are enabled by default. Optimization values are case insensitive.");
         System.out.println("    -v, -verbose - Print all error messages to screen");
         System.out.println("    -w, -warning - Turn warning logging on; also turns warning aggregation off");
-        System.out.println("    -x, -exectype - Set execution mode: local|mapreduce, default is mapreduce.");
+        System.out.println("    -x, -exectype - Set execution mode: local|threaded|mapreduce, default is mapreduce.");
         System.out.println("    -F, -stop_on_failure - Aborts execution on the first failed job; default is off");
         System.out.println("    -M, -no_multiquery - Turn multiquery optimization off; default is on");
         System.out.println("    -P, -propertyFile - Path to property file");
@@ -731,10 +731,12 @@ public static void printProperties(){
         System.out.println("            Determines whether output of intermediate jobs is compressed.");
         System.out.println("        pig.tmpfilecompression.codec=lzo|gzip; default is gzip.");
         System.out.println("            Used in conjunction with pig.tmpfilecompression. Defines compression type."); 
+        System.out.println("        pig.tmpfile.columnar=true|false; default is false.");
+        System.out.println("            Stores output of intermediate jobs column by column, so later jobs only decode the columns they use.");
         System.out.println("        pig.noSplitCombination=true|false. Split combination is on by default.");
         System.out.println("            Determines if multiple small files are combined into a single map.");
         System.out.println("    Miscellaneous:");
-        System.out.println("        exectype=mapreduce|local; default is mapreduce. This property is the same as -x switch");
+        System.out.println("        exectype=mapreduce|local|threaded; default is mapreduce. This property is the same as -x switch");
         System.out.println("        pig.additional.jars=<comma seperated list of jars>. Used in place of register command.");
         System.out.println("        udf.import.list=<comma seperated list of imports>. Used to avoid package names in UDF.");
         System.out.println("        stop.on.failure=true|false; default is false. Set to true to terminate on the first error.");
@@ -24,9 +24,30 @@ package org.apache.pig;
 public enum PigCounters {
     SPILLABLE_MEMORY_MANAGER_SPILL_COUNT,
     
+    // estimated bytes freed by the spillable memory manager
+    SPILLABLE_MEMORY_MANAGER_SPILL_BYTES,
+    
+    // time the spillable memory manager spent spilling, in milliseconds
+    SPILLABLE_MEMORY_MANAGER_SPILL_MILLIS,
+    
     // total number of bags that have spilled proactively
     PROACTIVE_SPILL_COUNT_BAGS, 
     
     //total number of records that have been spilled to disk
-    PROACTIVE_SPILL_COUNT_RECS;
+    PROACTIVE_SPILL_COUNT_RECS,
+    
+    // records read by map side partial aggregation
+    PARTIAL_AGG_INPUT_RECORDS,
+    
+    // records of aggregated partials written by map side partial aggregation
+    PARTIAL_AGG_OUTPUT_RECORDS,
+    
+    // times the partial aggregation table was full and emptied
+    PARTIAL_AGG_EVICTIONS,
+    
+    // partitions of replicated inputs written to disk by fragment replicate joins
+    FRJOIN_SPILLED_PARTITIONS,
+    
+    // tuples of either side written to disk by fragment replicate joins
+    FRJOIN_SPILLED_RECORDS;
 }
\ No newline at end of file
@@ -51,7 +51,10 @@ import org.apache.pig.backend.datastorage.ElementDescriptor;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.executionengine.ExecJob;
 import org.apache.pig.backend.executionengine.ExecJob.JOB_STATUS;
+import org.apache.pig.backend.hadoop.executionengine.HExecutionEngine;
 import org.apache.pig.backend.hadoop.executionengine.HJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRPlanCache;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.builtin.PigStorage;
@@ -131,7 +134,7 @@ public class PigServer {
     
     /**
      * Given a string, determine the exec type.
-     * @param str accepted values are 'local', 'mapreduce', and 'mapred'
+     * @param str accepted values are 'local', 'mapreduce', 'mapred' and 'threaded'
      * @return exectype as ExecType
      */
     public static ExecType parseExecType(String str) throws IOException {
@@ -140,6 +143,7 @@ public class PigServer {
         if (normStr.equals("local")) return ExecType.LOCAL;
         if (normStr.equals("mapreduce")) return ExecType.MAPREDUCE;
         if (normStr.equals("mapred")) return ExecType.MAPREDUCE;
+        if (normStr.equals("threaded")) return ExecType.THREADED;
         if (normStr.equals("pig")) return ExecType.PIG;
         if (normStr.equals("pigbody")) return ExecType.PIG;
    
@@ -971,7 +975,7 @@ public class PigServer {
      * @throws IOException
      */
     public long capacity() throws IOException {
-        if (pigContext.getExecType() == ExecType.LOCAL) {
+        if (pigContext.getExecType().isLocal()) {
             throw new IOException("capacity only supported for non-local execution");
         } 
         else {
@@ -1175,6 +1179,34 @@ public class PigServer {
     }
     
     private PigStats execute(String alias) throws FrontendException, ExecException {
+        // the whole script is run, look for its compiled plan
+        MRPlanCache planCache = (alias == null) ? MRPlanCache.get(pigContext) : null;
+        List<LOLoad> loads = null;
+        String key = null;
+        if (planCache != null) {
+            Set<LOLoad> loadSet = new HashSet<LOLoad>();
+            for (LogicalPlan lp : currDAG.getAliases().values()) {
+                for (LogicalOperator op : lp) {
+                    if (op instanceof LOLoad) {
+                        loadSet.add((LOLoad)op);
+                    }
+                }
+            }
+            loads = new ArrayList<LOLoad>(loadSet);
+            try {
+                key = planCache.getKey(currDAG.getScriptCache(),
+                        currDAG.processedStores, loads);
+            } catch (IOException e) {
+                log.warn("Unable to compute the key of the plan cache", e);
+            }
+            if (key != null) {
+                MROperPlan mrp = planCache.get(key, loads);
+                if (mrp != null) {
+                    return getStats(pigContext.getExecutionEngine().execute(mrp, "job_pigexec_"));
+                }
+            }
+        }
+
         LogicalPlan typeCheckedLp = compileLp(alias);
 
         if (typeCheckedLp.size() == 0) {
@@ -1187,6 +1219,15 @@ public class PigServer {
             return PigStatsUtil.getEmptyPigStats();
         }
 
+        if (key != null) {
+            ScriptState.get().setScriptFeatures(typeCheckedLp);
+            HExecutionEngine engine = pigContext.getExecutionEngine();
+            MROperPlan mrp = engine.compileToMR(compilePp(typeCheckedLp));
+            // cache the plan before running it, running consumes it
+            planCache.put(key, loads, mrp);
+            return getStats(engine.execute(mrp, "job_pigexec_"));
+        }
+
         return executeCompiledLogicalPlan(typeCheckedLp);
     }
     
@@ -1196,6 +1237,10 @@ public class PigServer {
         PhysicalPlan pp = compilePp(compiledLp);
         // execute using appropriate engine
         List<ExecJob> jobs = pigContext.getExecutionEngine().execute(pp, "job_pigexec_");
+        return getStats(jobs);
+    }
+
+    private PigStats getStats(List<ExecJob> jobs) throws ExecException {
         PigStats stats = null;
         if (jobs.size() > 0) {
             stats = jobs.get(0).getStatistics();
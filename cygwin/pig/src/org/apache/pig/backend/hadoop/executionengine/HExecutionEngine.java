@@ -48,6 +48,8 @@ import org.apache.pig.backend.executionengine.ExecJob;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.datastorage.HDataStorage;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceLauncher;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ThreadedLocalLauncher;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.LogToPhyTranslationVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
@@ -360,11 +362,29 @@ public class HExecutionEngine {
         }
     }
 
+    private MapReduceLauncher newLauncher() {
+        return (pigContext.getExecType() == ExecType.THREADED)
+                ? new ThreadedLocalLauncher() : new MapReduceLauncher();
+    }
+
+    /**
+     * Compiles a physical plan into the map reduce plan that
+     * {@link #execute(MROperPlan, String)} runs.
+     */
+    public MROperPlan compileToMR(PhysicalPlan plan) throws ExecException {
+        try {
+            return newLauncher().compile(plan, pigContext);
+        } catch (ExecException e) {
+            throw e;
+        } catch (IOException e) {
+            int errCode = 2269;
+            String msg = "Unable to compile the map reduce plan.";
+            throw new ExecException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
     public List<ExecJob> execute(PhysicalPlan plan,
                                  String jobName) throws ExecException, FrontendException {
-        MapReduceLauncher launcher = new MapReduceLauncher();
-        List<ExecJob> jobs = new ArrayList<ExecJob>();
-
         Map<String, PhysicalOperator> leafMap = new HashMap<String, PhysicalOperator>();
         for (PhysicalOperator physOp : plan.getLeaves()) {
             log.info(physOp);
@@ -374,8 +394,26 @@ public class HExecutionEngine {
                     leafMap.put(spec.toString(), physOp);
             }
         }
+        return execute(plan, null, jobName);
+    }
+
+    /**
+     * Runs a map reduce plan that is already compiled, see
+     * {@link #compileToMR(PhysicalPlan)}.
+     */
+    public List<ExecJob> execute(MROperPlan plan,
+                                 String jobName) throws ExecException, FrontendException {
+        return execute(null, plan, jobName);
+    }
+
+    private List<ExecJob> execute(PhysicalPlan plan, MROperPlan mrPlan,
+            String jobName) throws ExecException, FrontendException {
+        MapReduceLauncher launcher = newLauncher();
+        List<ExecJob> jobs = new ArrayList<ExecJob>();
         try {
-            PigStats stats = launcher.launchPig(plan, jobName, pigContext);
+            PigStats stats = (mrPlan == null)
+                    ? launcher.launchPig(plan, jobName, pigContext)
+                    : launcher.launchPig(mrPlan, jobName, pigContext);
 
             for (OutputStats output : stats.getOutputStats()) {
                 POStore store = output.getPOStore();               
@@ -18,7 +18,12 @@
 package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,6 +46,8 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLimit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAgg;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAggPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POCombinerPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
@@ -93,7 +100,11 @@ import org.apache.pig.impl.plan.optimizer.OptimizerException;
  * Again, the trick here is properly decomposing the plan since A may be more
  * than a simply projection.
  *
- * #2 should probably be the next area of focus.
+ * When partial aggregation is turned on, such scripts aggregate the
+ * algebraic parts in the map instead (see {@link POPartialAgg}), as long as
+ * the other parts read only some columns of A: the map runs the initial
+ * functions and passes those columns through, and the reduce runs the
+ * final functions beside the other parts.
  *
  */
 public class CombinerOptimizer extends MROpPlanVisitor {
@@ -116,6 +127,14 @@ public class CombinerOptimizer extends MROpPlanVisitor {
     
     private CompilationMessageCollector messageCollector = null;
 
+    /**
+     * If true, foreachs that cannot use the combiner because some of their
+     * parts are not algebraic aggregate the others in the map
+     */
+    public static final String PARTIAL_AGG = "pig.exec.partialagg";
+
+    private boolean partialAgg = false;
+
     public CombinerOptimizer(MROperPlan plan, String chunkSize) {
         super(plan, new DepthFirstWalker<MapReduceOper, MROperPlan>(plan));
         messageCollector = new CompilationMessageCollector() ; 
@@ -131,6 +150,10 @@ public class CombinerOptimizer extends MROpPlanVisitor {
     	return messageCollector;
     }
 
+    public void setPartialAgg(boolean partialAgg) {
+        this.partialAgg = partialAgg;
+    }
+
     @Override
     public void visitMROp(MapReduceOper mr) throws VisitorException {
         resetState();
@@ -301,6 +324,193 @@ public class CombinerOptimizer extends MROpPlanVisitor {
                     String msg = "Internal error. Unable to introduce the combiner for optimization.";
                     throw new OptimizerException(msg, errCode, PigException.BUG, e);
                 }
+            } else if (partialAgg) {
+                addPartialAgg(mr, rearrange, pack, foreach);
+            }
+        }
+    }
+
+    /**
+     * Aggregates the algebraic parts of a foreach that cannot use the
+     * combiner in the map. The map plan becomes
+     * PreCombinerLocalRearrange - PartialAgg - LocalRearrange on the key, and
+     * the package in the reduce is replaced by a POPartialAggPackage, which
+     * gives the foreach the bags of partials at the positions of the
+     * algebraic parts, the key after the last part and the bag of the
+     * columns passed through after it.
+     */
+    private void addPartialAgg(MapReduceOper mr, POLocalRearrange rearrange,
+            POPackage pack, POForEach foreach) throws VisitorException {
+        if (pack.getNumInps() != 1 || !mr.combinePlan.isEmpty()) return;
+        List<PhysicalPlan> plans = foreach.getInputPlans();
+        List<ExprType> types = getExprTypes(plans, foreach.getToBeFlattened());
+
+        // the columns of the grouped relation read by the parts that are
+        // not algebraic, which have to be passed through
+        Set<Integer> rawCols = new TreeSet<Integer>();
+        Set<Integer> algebraicCols = new HashSet<Integer>();
+        boolean algebraicReadsAll = false;
+        int numAlgebraic = 0;
+        int numOther = 0;
+        for (int i = 0; i < plans.size(); i++) {
+            if (types.get(i) == ExprType.SIMPLE_PROJECT) continue;
+            Set<Integer> cols = getBagColumns(plans.get(i));
+            if (types.get(i) == ExprType.ALGEBRAIC) {
+                numAlgebraic++;
+                if (cols == null) algebraicReadsAll = true;
+                else algebraicCols.addAll(cols);
+            } else {
+                // can't tell which columns it reads
+                if (cols == null) return;
+                numOther++;
+                rawCols.addAll(cols);
+            }
+        }
+        if (numAlgebraic == 0 || numOther == 0) return;
+
+        // Only worth it if the algebraic parts read columns that do not
+        // have to be passed through anyway.
+        algebraicCols.removeAll(rawCols);
+        algebraicCols.removeAll(getKeyColumns(rearrange));
+        if (!algebraicReadsAll && algebraicCols.isEmpty()) return;
+
+        log.info("Choosing to aggregate algebraic parts of foreach in map");
+        try {
+            int n = plans.size();
+            POForEach mfe = foreach.clone();
+            POForEach cfe = foreach.clone();
+            List<PhysicalPlan> mPlans = mfe.getInputPlans();
+            List<PhysicalPlan> cPlans = cfe.getInputPlans();
+            List<PhysicalPlan> rPlans = foreach.getInputPlans();
+            List<PhysicalPlan> initialPlans = new ArrayList<PhysicalPlan>();
+            List<PhysicalPlan> intermediatePlans = new ArrayList<PhysicalPlan>();
+            int[] algebraicFields = new int[numAlgebraic];
+            boolean[] keyPositions = new boolean[n + 2];
+            keyPositions[n] = true;
+
+            // position of each column in the tuples passed through
+            Map<Integer, Integer> rawPositions = new HashMap<Integer, Integer>();
+            int[] rawColumns = new int[rawCols.size()];
+            for (int col : rawCols) {
+                rawColumns[rawPositions.size()] = col;
+                rawPositions.put(col, rawPositions.size());
+            }
+
+            int j = 0;
+            for (int i = 0; i < n; i++) {
+                PhysicalPlan rPlan = rPlans.get(i);
+                if (types.get(i) == ExprType.ALGEBRAIC) {
+                    PhysicalPlan mPlan = mPlans.get(i);
+                    changeFunc(mfe, mPlan, POUserFunc.INITIAL);
+                    new fixMapProjects(mPlan).visit();
+                    initialPlans.add(mPlan);
+
+                    PhysicalPlan cPlan = cPlans.get(i);
+                    changeFunc(cfe, cPlan, POUserFunc.INTERMEDIATE);
+                    setProjectInput(cPlan.getLeaves().get(0), cPlan, j);
+                    intermediatePlans.add(cPlan);
+
+                    changeFunc(foreach, rPlan, POUserFunc.FINAL);
+                    setProjectInput(rPlan.getLeaves().get(0), rPlan, i);
+                    algebraicFields[j++] = i;
+                } else if (types.get(i) == ExprType.SIMPLE_PROJECT) {
+                    // the group, the package puts the key here
+                    ((POProject)rPlan.getLeaves().get(0)).setColumn(i);
+                    keyPositions[i] = true;
+                } else {
+                    fixPassThroughProjects(rPlan, n, n + 1, rawPositions);
+                }
+            }
+            // the plans have changed, see fixUpForeachs
+            foreach.setInputPlans(rPlans);
+
+            String scope = rearrange.getOperatorKey().scope;
+            POPartialAgg partialAggOp = new POPartialAgg(new OperatorKey(scope,
+                    NodeIdGenerator.getGenerator().getNextNodeId(scope)));
+            partialAggOp.setInitialPlans(initialPlans);
+            partialAggOp.setIntermediatePlans(intermediatePlans);
+            partialAggOp.setRawColumns(rawColumns);
+            partialAggOp.setResultType(DataType.TUPLE);
+            partialAggOp.setAlias(foreach.getAlias());
+
+            POLocalRearrange mlr = rearrange.clone();
+            fixUpRearrange(mlr, 0, rearrange.getKeyType());
+            patchUpMap(mr.mapPlan, getPreCombinerLR(rearrange), partialAggOp, mlr);
+
+            POPartialAggPackage newReducePack =
+                new POPartialAggPackage(pack, algebraicFields, keyPositions);
+            // replace() also makes the package the input of the foreach
+            mr.reducePlan.replace(pack, newReducePack);
+        } catch (Exception e) {
+            int errCode = 2265;
+            String msg = "Internal error. Unable to introduce map side partial aggregation.";
+            throw new OptimizerException(msg, errCode, PigException.BUG, e);
+        }
+    }
+
+    /**
+     * @return the columns of the grouped relation read by a foreach inner
+     * plan, or null if it reads all of them or in a way that can't be
+     * followed
+     */
+    private Set<Integer> getBagColumns(PhysicalPlan plan) {
+        Set<Integer> cols = new HashSet<Integer>();
+        for (PhysicalOperator root : plan.getRoots()) {
+            if (!(root instanceof POProject)) continue;
+            POProject proj = (POProject)root;
+            if (proj.isStar() || proj.getColumns().size() != 1) return null;
+            int col = proj.getColumns().get(0);
+            if (col == 0) continue;
+            if (col != 1) return null;
+            List<PhysicalOperator> succs = plan.getSuccessors(proj);
+            if (succs == null) return null;
+            for (PhysicalOperator succ : succs) {
+                if (!(succ instanceof POProject) || ((POProject)succ).isStar()) {
+                    return null;
+                }
+                cols.addAll(((POProject)succ).getColumns());
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * @return the columns that are the group key by themselves
+     */
+    private Set<Integer> getKeyColumns(POLocalRearrange rearrange) {
+        Set<Integer> cols = new HashSet<Integer>();
+        for (PhysicalPlan plan : rearrange.getPlans()) {
+            List<PhysicalOperator> leaves = plan.getLeaves();
+            if (leaves.size() == 1 && leaves.get(0) instanceof POProject
+                    && plan.getPredecessors(leaves.get(0)) == null) {
+                POProject proj = (POProject)leaves.get(0);
+                if (!proj.isStar()) cols.addAll(proj.getColumns());
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * Points a part of the foreach that is not algebraic at the key and the
+     * bag of columns passed through.
+     */
+    private void fixPassThroughProjects(PhysicalPlan plan, int keyField,
+            int rawField, Map<Integer, Integer> rawPositions) {
+        for (PhysicalOperator root : plan.getRoots()) {
+            if (!(root instanceof POProject)) continue;
+            POProject proj = (POProject)root;
+            if (proj.getColumns().get(0) == 0) {
+                proj.setColumn(keyField);
+                continue;
+            }
+            proj.setColumn(rawField);
+            for (PhysicalOperator succ : plan.getSuccessors(proj)) {
+                POProject colProj = (POProject)succ;
+                ArrayList<Integer> cols = new ArrayList<Integer>();
+                for (int col : colProj.getColumns()) {
+                    cols.add(rawPositions.get(col));
+                }
+                colProj.setColumns(cols);
             }
         }
     }
@@ -313,7 +523,7 @@ public class CombinerOptimizer extends MROpPlanVisitor {
      * @throws PlanException 
      */
     private void patchUpMap(PhysicalPlan mapPlan, POPreCombinerLocalRearrange preCombinerLR,
-            POForEach mfe, POLocalRearrange mlr) throws PlanException {
+            PhysicalOperator mfe, POLocalRearrange mlr) throws PlanException {
         
         POLocalRearrange oldLR = (POLocalRearrange)mapPlan.getLeaves().get(0);
         mapPlan.replace(oldLR, preCombinerLR);
@@ -358,13 +568,10 @@ public class CombinerOptimizer extends MROpPlanVisitor {
     private List<ExprType> algebraic(
             List<PhysicalPlan> plans,
             List<Boolean> flattens) throws VisitorException {
-        List<ExprType> types = new ArrayList<ExprType>(plans.size());
+        List<ExprType> types = getExprTypes(plans, flattens);
         boolean atLeastOneAlgebraic = false;
         boolean noNonAlgebraics = true;
-        keyFieldPositions = new boolean[plans.size()];
-        for (int i = 0; i < plans.size(); i++) {
-            ExprType t = algebraic(plans.get(i), flattens.get(i), i);
-            types.add(t);
+        for (ExprType t : types) {
             atLeastOneAlgebraic |= 
                 (t == ExprType.ALGEBRAIC || t == ExprType.DISTINCT);
             noNonAlgebraics &= (t != ExprType.NOT_ALGEBRAIC);
@@ -373,6 +580,17 @@ public class CombinerOptimizer extends MROpPlanVisitor {
         else return types;
     }
 
+    private List<ExprType> getExprTypes(
+            List<PhysicalPlan> plans,
+            List<Boolean> flattens) throws VisitorException {
+        List<ExprType> types = new ArrayList<ExprType>(plans.size());
+        keyFieldPositions = new boolean[plans.size()];
+        for (int i = 0; i < plans.size(); i++) {
+            types.add(algebraic(plans.get(i), flattens.get(i), i));
+        }
+        return types;
+    }
+
     private ExprType algebraic(
             PhysicalPlan pp,
             Boolean toBeFlattened,
@@ -707,13 +925,18 @@ public class CombinerOptimizer extends MROpPlanVisitor {
     }
 
     private void fixUpRearrange(POLocalRearrange rearrange) throws PlanException {
+        fixUpRearrange(rearrange, mKeyField, mKeyType);
+    }
+
+    private void fixUpRearrange(POLocalRearrange rearrange, int keyField,
+            byte keyType) throws PlanException {
         // Set the projection to be the key
         PhysicalPlan newPlan = new PhysicalPlan();
         String scope = rearrange.getOperatorKey().scope;
         POProject proj = new POProject(new OperatorKey(scope, 
             NodeIdGenerator.getGenerator().getNextNodeId(scope)), -1,
-            mKeyField);
-        proj.setResultType(mKeyType);
+            keyField);
+        proj.setResultType(keyType);
         newPlan.add(proj);
         List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>(1);
         plans.add(newPlan);
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.CompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.impl.plan.DependencyOrderWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Compiles the expression plans of the filters and foreachs of a map or
+ * reduce plan when the task starts, see {@link ExpressionCompiler}.
+ */
+public class ExpressionCompilerVisitor extends PhyPlanVisitor {
+
+    private ExpressionCompiler compiler = new ExpressionCompiler();
+
+    public ExpressionCompilerVisitor(PhysicalPlan plan) {
+        super(plan, new DependencyOrderWalker<PhysicalOperator, PhysicalPlan>(plan));
+    }
+
+    @Override
+    public void visitFilter(POFilter fl) throws VisitorException {
+        super.visitFilter(fl);
+        List<ExpressionOperator> roots = new ArrayList<ExpressionOperator>();
+        roots.add(getRoot(fl.getPlan()));
+        fl.setCompiledPredicate(compiler.compile(roots)[0]);
+    }
+
+    @Override
+    public void visitPOForEach(POForEach nfe) throws VisitorException {
+        // nested filters
+        super.visitPOForEach(nfe);
+        if (nfe.isAccumulative()) {
+            return;
+        }
+        List<ExpressionOperator> roots = new ArrayList<ExpressionOperator>();
+        for (PhysicalPlan plan : nfe.getInputPlans()) {
+            roots.add(getRoot(plan));
+        }
+        nfe.setCompiledPlans(compiler.compile(roots));
+    }
+
+    /**
+     * @return the leaf of the expression plan, null if it is not a plain
+     *         expression
+     */
+    private ExpressionOperator getRoot(PhysicalPlan plan) {
+        List<PhysicalOperator> leaves = plan.getLeaves();
+        if (leaves == null || leaves.size() != 1
+                || !(leaves.get(0) instanceof ExpressionOperator)) {
+            return null;
+        }
+        return (ExpressionOperator)leaves.get(0);
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -65,6 +66,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMergeJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataType;
@@ -188,6 +190,8 @@ public class JobControlCompiler{
      */
     public void moveResults(List<Job> completedJobs) throws IOException {
         for (Job job: completedJobs) {
+            MergeJoinIndexCache.publish(job.getJobConf());
+
             Pair<List<POStore>, Path> pair = jobStoreMap.get(job);
             if (pair != null && pair.second != null) {
                 Path tmp = pair.second;
@@ -241,7 +245,24 @@ public class JobControlCompiler{
      * @throws JobCreationException
      */
     public JobControl compile(MROperPlan plan, String grpName) throws JobCreationException{
-        // Assert plan.size() != 0
+        return compile(plan, grpName, Collections.<MapReduceOper>emptySet());
+    }
+
+    /**
+     * Compiles the jobs that have no dependencies, except the ones given,
+     * which were compiled before and may still be running. The jobs are
+     * removed from the plan by {@link #updateMROpPlan(List, List)} as they
+     * complete, so that the jobs that depend on them can be compiled
+     * meanwhile.
+     * @param plan - The MROperPlan to be compiled
+     * @param grpName - The name given to the JobControl
+     * @param skip - The roots not to compile
+     * @return JobControl object - null if a root to compile is a native
+     * map reduce job
+     * @throws JobCreationException
+     */
+    public JobControl compile(MROperPlan plan, String grpName,
+            Collection<MapReduceOper> skip) throws JobCreationException{
         this.plan = plan;
 
         JobControl jobCtrl = new JobControl(grpName);
@@ -249,6 +270,7 @@ public class JobControlCompiler{
         try {
             List<MapReduceOper> roots = new LinkedList<MapReduceOper>();
             roots.addAll(plan.getRoots());
+            roots.removeAll(skip);
             for (MapReduceOper mro: roots) {
                 if(mro instanceof NativeMapReduceOper) {
                     return null;
@@ -295,6 +317,28 @@ public class JobControlCompiler{
         int sizeAfter = plan.size();
         return sizeBefore-sizeAfter;
     }
+
+    /**
+     * Updates the Map-Reduce plan with the execution status of some of the
+     * jobs compiled so far, leaving the others to be updated once they are
+     * done. Returns the number of MapReduceOper removed from the plan.
+     */
+    public int updateMROpPlan(List<Job> succeededJobs, List<Job> completeFailedJobs)
+    {
+        int sizeBefore = plan.size();
+        for (Job job : completeFailedJobs)  // remove all subsequent jobs
+        {
+            MapReduceOper mrOper = jobMroMap.remove(job);
+            plan.trimBelow(mrOper);
+            plan.remove(mrOper);
+        }
+        for (Job job : succeededJobs)
+        {
+            plan.remove(jobMroMap.remove(job));
+        }
+        int sizeAfter = plan.size();
+        return sizeBefore-sizeAfter;
+    }
         
     /**
      * The method that creates the Job corresponding to a MapReduceOper.
@@ -470,6 +514,12 @@ public class JobControlCompiler{
                 conf.set("pig.streaming.log.dir", 
                             new Path(outputPath, LOG_DIR).toString());
                 conf.set("pig.streaming.task.output.dir", outputPath);
+
+                if (mro.getIndexCacheFile() != null) {
+                    // cache the merge join index once the job succeeds
+                    MergeJoinIndexCache.setPublish(conf, outputPath,
+                            mro.getIndexCacheFile());
+                }
             } 
            else { // multi store case
                 log.info("Setting up multi store job");
@@ -503,6 +553,12 @@ public class JobControlCompiler{
             // serialized
             setupDistributedCacheForJoin(mro, pigContext, conf);
 
+            if (conf.getBoolean(OperatorProfiler.PROFILE, false)) {
+                // the tasks write the profiles of their operators there
+                conf.set(OperatorProfiler.PROFILE_DIR, FileLocalizer
+                        .getTemporaryPath(pigContext).toString());
+            }
+
             POPackage pack = null;
             if(mro.reducePlan.isEmpty()){
                 //MapOnly Job
@@ -584,9 +640,14 @@ public class JobControlCompiler{
                 // Only set the quantiles file and sort partitioner if we're a
                 // global sort, not for limit after sort.
                 if (mro.isGlobalSort()) {
-                    String symlink = addSingleFileToDistributedCache(
-                            pigContext, conf, mro.getQuantFile(), "pigsample");
-                    conf.set("pig.quantilesFile", symlink);
+                    if (mro.getQuantSketchDir() != null) {
+                        conf.set(WeightedRangePartitioner.QUANTILES_SKETCH,
+                                mro.getQuantSketchDir());
+                    } else {
+                        String symlink = addSingleFileToDistributedCache(
+                                pigContext, conf, mro.getQuantFile(), "pigsample");
+                        conf.set("pig.quantilesFile", symlink);
+                    }
                     nwJob.setPartitionerClass(WeightedRangePartitioner.class);
                 }
                 
@@ -631,7 +692,9 @@ public class JobControlCompiler{
             for (POStore st: reduceStores) { st.setInputs(null); st.setParentPlan(null);}
 
             // tmp file compression setups
-            if (Utils.tmpFileCompression(pigContext)) {
+            if (Utils.tmpFileColumnar(pigContext)) {
+                conf.setBoolean("pig.tmpfile.columnar", true);
+            } else if (Utils.tmpFileCompression(pigContext)) {
                 conf.setBoolean("pig.tmpfilecompression", true);
                 conf.set("pig.tmpfilecompression.codec", Utils.tmpFileCompressionCodec(pigContext));
             }
@@ -941,7 +1004,10 @@ public class JobControlCompiler{
             List<MapReduceOper> succs = plan.getSuccessors(mro);
             if (succs != null) {
                 MapReduceOper succ = succs.get(0);
-                if (succ.isGlobalSort()) hasOrderBy = true;
+                // a job that only feeds quantile sketches to the order by
+                // keeps its own comparators
+                if (succ.isGlobalSort() && succ.getQuantSketchDir() == null)
+                    hasOrderBy = true;
             }
         }
         if (hasOrderBy) {
@@ -1140,7 +1206,7 @@ public class JobControlCompiler{
                      
         // XXX Hadoop currently doesn't support distributed cache in local mode.
         // This line will be removed after the support is added by Hadoop team.
-        if (pigContext.getExecType() != ExecType.LOCAL) {
+        if (!pigContext.getExecType().isLocal()) {
             symlink = prefix + "_" 
                     + Integer.toString(System.identityHashCode(filename)) + "_"
                     + Long.toString(System.currentTimeMillis());
@@ -1171,7 +1237,7 @@ public class JobControlCompiler{
              
              // XXX Hadoop currently doesn't support distributed cache in local mode.
              // This line will be removed after the support is added
-             if (pigContext.getExecType() == ExecType.LOCAL) return;
+             if (pigContext.getExecType().isLocal()) return;
              
              // set up distributed cache for the replicated files
              FileSpec[] replFiles = join.getReplFiles();
@@ -1212,7 +1278,7 @@ public class JobControlCompiler{
              
         	 // XXX Hadoop currently doesn't support distributed cache in local mode.
              // This line will be removed after the support is added
-             if (pigContext.getExecType() == ExecType.LOCAL) return;
+             if (pigContext.getExecType().isLocal()) return;
              
              String indexFile = join.getIndexFile();
              
@@ -1236,7 +1302,7 @@ public class JobControlCompiler{
           
              // XXX Hadoop currently doesn't support distributed cache in local mode.
              // This line will be removed after the support is added
-             if (pigContext.getExecType() == ExecType.LOCAL) return;
+             if (pigContext.getExecType().isLocal()) return;
              
              String indexFile = mergeCoGrp.getIndexFileName();
              
@@ -17,6 +17,7 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -39,7 +40,6 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.pig.CollectableLoadFunc;
-import org.apache.pig.ExecType;
 import org.apache.pig.FuncSpec;
 import org.apache.pig.IndexableLoadFunc;
 import org.apache.pig.LoadFunc;
@@ -53,6 +53,7 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPl
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.ScalarPhyFinder;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.UDFFinder;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.QuantileSketch;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
@@ -77,12 +78,14 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartitionRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSkewedJoin;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSort;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POQuantileSketch;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage.PackageType;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
+import org.apache.pig.backend.hadoop.executionengine.util.CompactReplicatedTable;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.DataType;
 import org.apache.pig.impl.PigContext;
@@ -92,8 +95,11 @@ import org.apache.pig.impl.builtin.GetMemNumRows;
 import org.apache.pig.impl.builtin.PartitionSkewedKeys;
 import org.apache.pig.impl.builtin.PoissonSampleLoader;
 import org.apache.pig.impl.builtin.RandomSampleLoader;
+import org.apache.pig.impl.io.ColumnarStorage;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.io.InterStorage;
+import org.apache.pig.impl.io.TFileStorage;
 import org.apache.pig.impl.plan.CompilationMessageCollector;
 import org.apache.pig.impl.plan.DepthFirstWalker;
 import org.apache.pig.impl.plan.NodeIdGenerator;
@@ -188,9 +194,24 @@ public class MRCompiler extends PhyPlanVisitor {
     
     public static final String FILE_CONCATENATION_THRESHOLD = "pig.files.concatenation.threshold";
     public static final String OPTIMISTIC_FILE_CONCATENATION = "pig.optimistic.files.concatenation";
+
+    /**
+     * If true, order by takes its partition boundaries from quantile
+     * sketches built by the job before it, instead of from a sampling job
+     */
+    public static final String ORDER_SKETCH = "pig.exec.order.sketch";
+
+    /**
+     * Number of keys kept in the highest level of each quantile sketch
+     */
+    public static final String ORDER_SKETCH_K = "pig.exec.order.sketch.k";
     
     private int fileConcatenationThreshold = 100;
     private boolean optimisticFileConcatenation = false;
+    private boolean orderSketch = false;
+    private int orderSketchK = QuantileSketch.DEFAULT_K;
+    private boolean indexCache = false;
+    private boolean compactFRJoin = false;
     
     public MRCompiler(PhysicalPlan plan) throws MRCompilerException {
         this(plan,null);
@@ -223,6 +244,14 @@ public class MRCompiler extends PhyPlanVisitor {
                 OPTIMISTIC_FILE_CONCATENATION, "false").equals("true");
         LOG.info("File concatenation threshold: " + fileConcatenationThreshold
                 + " optimistic? " + optimisticFileConcatenation);
+        orderSketch = pigContext.getProperties().getProperty(
+                ORDER_SKETCH, "false").equals("true");
+        orderSketchK = Integer.parseInt(pigContext.getProperties()
+                .getProperty(ORDER_SKETCH_K, String.valueOf(QuantileSketch.DEFAULT_K)));
+        indexCache = pigContext.getProperties().getProperty(
+                MergeJoinIndexCache.CACHE, "false").equals("true");
+        compactFRJoin = pigContext.getProperties().getProperty(
+                CompactReplicatedTable.COMPACT_FRJOIN, "false").equals("true");
     }
     
     public void aggregateScalarsFiles() throws PlanException, IOException {
@@ -1192,6 +1221,8 @@ public class MRCompiler extends PhyPlanVisitor {
                 replFiles[i] = getTempFileSpec();
             }
             op.setReplFiles(replFiles);
+            String[] replSources = new String[replFiles.length];
+            op.setReplSources(replSources);
             
 
             curMROp = phyToMROpMap.get(op.getInputs().get(op.getFragment()));
@@ -1199,6 +1230,9 @@ public class MRCompiler extends PhyPlanVisitor {
                 MapReduceOper mro = compiledInputs[i];
                 if(curMROp.equals(mro))
                     continue;
+                if (compactFRJoin) {
+                    replSources[i] = getReplicatedSource(mro);
+                }
                 POStore str = getStore();
                 str.setSFile(replFiles[i]);
                 
@@ -1268,7 +1302,7 @@ public class MRCompiler extends PhyPlanVisitor {
   
     @SuppressWarnings("unchecked")
     private boolean hasTooManyInputFiles(MapReduceOper mro, Configuration conf) {
-        if (pigContext == null || pigContext.getExecType() == ExecType.LOCAL) {
+        if (pigContext == null || pigContext.getExecType().isLocal()) {
             return false;
         }
         
@@ -1709,43 +1743,72 @@ public class MRCompiler extends PhyPlanVisitor {
                     throw new MRCompilerException(errMsg,errCode);
                 }
 
-                String[] indexerArgs = new String[6];
                 List<PhysicalPlan> rightInpPlans = joinOp.getInnerPlansOf(1);
                 FileSpec origRightLoaderFileSpec = rightLoader.getLFile();
+                FuncSpec indexFuncSpec = new FuncSpec(Utils.getTmpFileCompressorName(pigContext));
+                String indexFile;
 
-                indexerArgs[0] = origRightLoaderFileSpec.getFuncSpec().toString();
-                indexerArgs[1] = ObjectSerializer.serialize((Serializable)rightInpPlans);
-                indexerArgs[2] = ObjectSerializer.serialize(rightPipelinePlan);
-                indexerArgs[3] = rightLoader.getSignature();
-                indexerArgs[4] = rightLoader.getOperatorKey().scope;
-                indexerArgs[5] = Boolean.toString(true);
+                String cachedIndex = null;
+                if (indexCache) {
+                    cachedIndex = getCachedMergeJoinIndex(origRightLoaderFileSpec,
+                            indexFuncSpec, rightInpPlans, rightPipelinePlan);
+                }
+                if (cachedIndex != null && MergeJoinIndexCache.exists(
+                        ConfigurationUtil.toConfiguration(pigContext.getProperties()),
+                        cachedIndex)) {
+                    // the right input has not changed since it was last
+                    // indexed, so there is no need for the indexing job
+                    LOG.info("Using cached merge join index " + cachedIndex);
+                    MRPlan.remove(rightMROpr);
+                    if(rightMROpr == compiledInputs[0]) {
+                        compiledInputs[0] = null;
+                    } else if(rightMROpr == compiledInputs[1]) {
+                        compiledInputs[1] = null;
+                    } 
+                    rightMROpr = null;
+                    indexFile = cachedIndex;
+                } else {
+                    String[] indexerArgs = new String[6];
+
+                    indexerArgs[0] = origRightLoaderFileSpec.getFuncSpec().toString();
+                    indexerArgs[1] = ObjectSerializer.serialize((Serializable)rightInpPlans);
+                    indexerArgs[2] = ObjectSerializer.serialize(rightPipelinePlan);
+                    indexerArgs[3] = rightLoader.getSignature();
+                    indexerArgs[4] = rightLoader.getOperatorKey().scope;
+                    indexerArgs[5] = Boolean.toString(true);
                 
-                FileSpec lFile = new FileSpec(rightLoader.getLFile().getFileName(),new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs));
-                rightLoader.setLFile(lFile);
+                    FileSpec lFile = new FileSpec(rightLoader.getLFile().getFileName(),new FuncSpec(MergeJoinIndexer.class.getName(), indexerArgs));
+                    rightLoader.setLFile(lFile);
     
-                // Loader of mro will return a tuple of form - 
-                // (keyFirst1, keyFirst2, .. , position, splitIndex) See MergeJoinIndexer
+                    // Loader of mro will return a tuple of form - 
+                    // (keyFirst1, keyFirst2, .. , position, splitIndex) See MergeJoinIndexer
 
-                simpleConnectMapToReduce(rightMROpr);
-                rightMROpr.useTypedComparator(true);
+                    simpleConnectMapToReduce(rightMROpr);
+                    rightMROpr.useTypedComparator(true);
                 
-                POStore st = getStore();
-                FileSpec strFile = getTempFileSpec();
-                st.setSFile(strFile);
-                rightMROpr.reducePlan.addAsLeaf(st);
-                rightMROpr.setReduceDone(true);
+                    POStore st = getStore();
+                    FileSpec strFile = new FileSpec(
+                            FileLocalizer.getTemporaryPath(pigContext).toString(), indexFuncSpec);
+                    st.setSFile(strFile);
+                    rightMROpr.reducePlan.addAsLeaf(st);
+                    rightMROpr.setReduceDone(true);
+                    indexFile = strFile.getFileName();
+                    if (cachedIndex != null) {
+                        rightMROpr.setIndexCacheFile(cachedIndex);
+                    }
+                }
                 
                 // set up the DefaultIndexableLoader for the join operator
                 String[] defaultIndexableLoaderArgs = new String[5];
                 defaultIndexableLoaderArgs[0] = origRightLoaderFileSpec.getFuncSpec().toString();
-                defaultIndexableLoaderArgs[1] = strFile.getFileName();
-                defaultIndexableLoaderArgs[2] = strFile.getFuncSpec().toString();
+                defaultIndexableLoaderArgs[1] = indexFile;
+                defaultIndexableLoaderArgs[2] = indexFuncSpec.toString();
                 defaultIndexableLoaderArgs[3] = joinOp.getOperatorKey().scope;
                 defaultIndexableLoaderArgs[4] = origRightLoaderFileSpec.getFileName();
                 joinOp.setRightLoaderFuncSpec((new FuncSpec(DefaultIndexableLoader.class.getName(), defaultIndexableLoaderArgs)));
                 joinOp.setRightInputFileName(origRightLoaderFileSpec.getFileName());  
                 
-                joinOp.setIndexFile(strFile.getFileName());
+                joinOp.setIndexFile(indexFile);
             }
             
             // We are done with right side. Lets work on left now.
@@ -2024,14 +2087,25 @@ public class MRCompiler extends PhyPlanVisitor {
     public void visitSort(POSort op) throws VisitorException {
         try{
             FileSpec fSpec = getTempFileSpec();
-            MapReduceOper mro = endSingleInputPlanWithStr(fSpec);
-            FileSpec quantFile = getTempFileSpec();
             int rp = op.getRequestedParallelism();
             Pair<Integer,Byte>[] fields = getSortCols(op.getSortPlans());
-            Pair<MapReduceOper, Integer> quantJobParallelismPair = 
-                getQuantileJob(op, mro, fSpec, quantFile, rp, fields);
-            curMROp = getSortJob(op, quantJobParallelismPair.first, fSpec, quantFile, 
-                    quantJobParallelismPair.second, fields);
+            if (useQuantileSketch(op, fields)) {
+                // the previous job sketches the keys as it writes them, so
+                // no sampling job is needed
+                FileSpec sketchDir = getTempFileSpec();
+                addQuantileSketch(op, compiledInputs[0], sketchDir.getFileName(), fields);
+                MapReduceOper mro = endSingleInputPlanWithStr(fSpec);
+                curMROp = getSortJob(op, mro, fSpec, null,
+                        getSortParallelism(rp), fields);
+                curMROp.setQuantSketchDir(sketchDir.getFileName());
+            } else {
+                MapReduceOper mro = endSingleInputPlanWithStr(fSpec);
+                FileSpec quantFile = getTempFileSpec();
+                Pair<MapReduceOper, Integer> quantJobParallelismPair = 
+                    getQuantileJob(op, mro, fSpec, quantFile, rp, fields);
+                curMROp = getSortJob(op, quantJobParallelismPair.first, fSpec, quantFile, 
+                        quantJobParallelismPair.second, fields);
+            }
             
             if(op.isUDFComparatorUsed){
                 curMROp.UDFs.add(op.getMSortFunc().getFuncSpec().toString());
@@ -2045,6 +2119,134 @@ public class MRCompiler extends PhyPlanVisitor {
         }
     }
     
+    /**
+     * Names the cached index of the right input of a merge join.
+     * @return the cached index, which may not exist yet, or null if the
+     * index of the input cannot be cached
+     */
+    private String getCachedMergeJoinIndex(FileSpec rightFile,
+            FuncSpec indexFuncSpec, List<PhysicalPlan> keyPlans,
+            PhysicalPlan rightPipelinePlan) throws VisitorException {
+        // temp files are new on every run
+        if (rightFile.getFuncSpec().getClassName().equals(
+                indexFuncSpec.getClassName())) {
+            return null;
+        }
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>(keyPlans);
+        if (rightPipelinePlan != null) {
+            plans.add(rightPipelinePlan);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(rightFile.getFuncSpec()).append('\t').append(indexFuncSpec);
+        for (PhysicalPlan plan : plans) {
+            // udfs and streaming need not give the same output every time
+            DeterministicPlanVisitor v = new DeterministicPlanVisitor(plan);
+            v.visit();
+            if (!v.deterministic) {
+                return null;
+            }
+            // operator keys differ from run to run, the rest of the plan
+            // describes what is done to the input
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            plan.explain(baos, false);
+            sb.append('\t').append(baos.toString().replaceAll("scope-\\d+", ""));
+        }
+        return MergeJoinIndexCache.getCachedIndex(
+                ConfigurationUtil.toConfiguration(pigContext.getProperties()),
+                rightFile.getFileName(), sb.toString());
+    }
+
+    /**
+     * Describes the load a replicated input of a fragment replicate join
+     * is copied from, so that its compact table can be cached across runs.
+     * @return the description, see {@link CompactReplicatedTable#getSource},
+     * or null if the table of the input cannot be cached
+     */
+    private String getReplicatedSource(MapReduceOper mro)
+            throws VisitorException {
+        // only a map plan reading one file is described by its load
+        if (mro instanceof NativeMapReduceOper || mro.isMapDone()
+                || mro.mapPlan.getRoots().size() != 1
+                || mro.mapPlan.getLeaves().size() != 1
+                || !(mro.mapPlan.getRoots().get(0) instanceof POLoad)) {
+            return null;
+        }
+        FileSpec lFile = ((POLoad)mro.mapPlan.getRoots().get(0)).getLFile();
+        // temp files are new on every run
+        if (isTempStorage(lFile.getFuncSpec())) {
+            return null;
+        }
+        // udfs and streaming need not give the same output every time
+        DeterministicPlanVisitor v = new DeterministicPlanVisitor(mro.mapPlan);
+        v.visit();
+        if (!v.deterministic) {
+            return null;
+        }
+        // operator keys differ from run to run, the rest of the plan
+        // describes what is done to the input
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        mro.mapPlan.explain(baos, false);
+        return CompactReplicatedTable.getSource(
+                ConfigurationUtil.toConfiguration(pigContext.getProperties()),
+                lFile.getFileName(),
+                baos.toString().replaceAll("scope-\\d+", ""));
+    }
+
+    private static boolean isTempStorage(FuncSpec funcSpec) {
+        String className = funcSpec.getClassName();
+        return className.equals(InterStorage.class.getName())
+                || className.equals(TFileStorage.class.getName())
+                || className.equals(ColumnarStorage.class.getName());
+    }
+
+    private boolean useQuantileSketch(POSort sort, Pair<Integer,Byte>[] fields) {
+        // user comparators only work on the sampled keys
+        if (!orderSketch || sort.isUDFComparatorUsed || compiledInputs.length != 1) {
+            return false;
+        }
+        MapReduceOper mro = compiledInputs[0];
+        if (mro.isMapDone() && mro.isReduceDone()) {
+            return false;
+        }
+        if (fields != null) {
+            for (Pair<Integer,Byte> field : fields) {
+                if (field.first == -1) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a {@link POQuantileSketch} of the sort keys as the leaf of the
+     * open plan of the job, ahead of the store that ends it.
+     */
+    private void addQuantileSketch(POSort sort, MapReduceOper mro,
+            String sketchDir, Pair<Integer,Byte>[] fields) throws PlanException {
+        POQuantileSketch sketch = new POQuantileSketch(
+                new OperatorKey(scope,nig.getNextNodeId(scope)));
+        sketch.setAlias(sort.getAlias());
+        sketch.setSketchDir(sketchDir);
+        sketch.setK(orderSketchK);
+        if (fields != null) {
+            int[] keyColumns = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                keyColumns[i] = fields[i].first;
+            }
+            sketch.setKeyColumns(keyColumns);
+        }
+        List<Boolean> ascCols = sort.getMAscCols();
+        boolean[] asc = new boolean[ascCols.size()];
+        for (int i = 0; i < asc.length; i++) {
+            asc[i] = ascCols.get(i);
+        }
+        sketch.setAscCols(asc);
+        if (!mro.isMapDone()) {
+            mro.mapPlan.addAsLeaf(sketch);
+        } else {
+            mro.reducePlan.addAsLeaf(sketch);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     // Suppress the type conversion warning for Pair. There is no way to create a generic array
     private Pair<Integer, Byte>[] getSortCols(List<PhysicalPlan> plans) throws PlanException, ExecException {
@@ -2079,7 +2281,9 @@ public class MRCompiler extends PhyPlanVisitor {
             int rp,
             Pair<Integer,Byte>[] fields) throws PlanException{
         MapReduceOper mro = startNew(lFile, quantJob);
-        mro.setQuantFile(quantFile.getFileName());
+        if (quantFile != null) {
+            mro.setQuantFile(quantFile.getFileName());
+        }
         mro.setGlobalSort(true);
         mro.requestedParallelism = rp;
 
@@ -2517,27 +2721,7 @@ public class MRCompiler extends PhyPlanVisitor {
         PhysicalPlan rpep = new PhysicalPlan();
         ConstantExpression rpce = new ConstantExpression(new OperatorKey(scope,nig.getNextNodeId(scope)));
         rpce.setRequestedParallelism(rp);
-        int val = rp;
-        if(val<=0){
-            HExecutionEngine eng = pigContext.getExecutionEngine();
-            if(pigContext.getExecType() != ExecType.LOCAL){
-                try {
-                    if(val<=0)
-                        val = pigContext.defaultParallel;
-                    if (val<=0)
-                        val = eng.getJobConf().getNumReduceTasks();
-                    if (val<=0)
-                        val = 1;
-                } catch (Exception e) {
-                    int errCode = 6015;
-                    String msg = "Problem getting the default number of reduces from the Job Client.";
-                    throw new MRCompilerException(msg, errCode, PigException.REMOTE_ENVIRONMENT, e);
-                }
-            } else {
-            	val = 1; // local mode, set it to 1
-            }
-        }
-        int parallelismForSort = (rp <= 0 ? val : rp);
+        int parallelismForSort = getSortParallelism(rp);
         rpce.setValue(parallelismForSort);
         
         rpce.setResultType(DataType.INTEGER);
@@ -2595,6 +2779,34 @@ public class MRCompiler extends PhyPlanVisitor {
         return new Pair<MapReduceOper, Integer>(mro, parallelismForSort);
     }
 
+    /**
+     * @return the number of reduces of an order by, given its requested
+     * parallelism
+     */
+    private int getSortParallelism(int rp) throws MRCompilerException {
+        int val = rp;
+        if(val<=0){
+            HExecutionEngine eng = pigContext.getExecutionEngine();
+            if(!pigContext.getExecType().isLocal()){
+                try {
+                    if(val<=0)
+                        val = pigContext.defaultParallel;
+                    if (val<=0)
+                        val = eng.getJobConf().getNumReduceTasks();
+                    if (val<=0)
+                        val = 1;
+                } catch (Exception e) {
+                    int errCode = 6015;
+                    String msg = "Problem getting the default number of reduces from the Job Client.";
+                    throw new MRCompilerException(msg, errCode, PigException.REMOTE_ENVIRONMENT, e);
+                }
+            } else {
+            	val = 1; // local mode, set it to 1
+            }
+        }
+        return (rp <= 0 ? val : rp);
+    }
+
     static class LastInputStreamingOptimizer extends MROpPlanVisitor {
         String chunkSize;
         LastInputStreamingOptimizer(MROperPlan plan, String chunkSize) {
@@ -3029,4 +3241,24 @@ public class MRCompiler extends PhyPlanVisitor {
             }           
         }
     }
+
+    private static class DeterministicPlanVisitor extends PhyPlanVisitor {
+
+        boolean deterministic = true;
+
+        DeterministicPlanVisitor(PhysicalPlan plan) {
+            super(plan,
+                new DepthFirstWalker<PhysicalOperator, PhysicalPlan>(plan));
+        }
+
+        @Override
+        public void visitUserFunc(POUserFunc userFunc) throws VisitorException {
+            deterministic = false;
+        }
+
+        @Override
+        public void visitStream(POStream stream) throws VisitorException {
+            deterministic = false;
+        }
+    }
 }
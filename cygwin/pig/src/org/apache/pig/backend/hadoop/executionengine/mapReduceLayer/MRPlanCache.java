@@ -0,0 +1,510 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.util.CompactReplicatedTable;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.FileLocalizer;
+import org.apache.pig.impl.logicalLayer.LOLoad;
+import org.apache.pig.impl.logicalLayer.LogicalPlanBuilder;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.newplan.logical.rules.CostBasedJoinOptimizer;
+import org.apache.pig.tools.pigstats.ScriptState;
+
+/**
+ * A persistent cache of compiled map reduce plans, for scripts that are run
+ * over and over with only the names of their input files changing.
+ * <p>
+ * A plan is keyed on the script text, with the locations of the load
+ * statements replaced by a placeholder and white space outside of quotes
+ * collapsed, together with the schemas of the inputs, the content of the
+ * registered jars and scripts, and the Pig and Hadoop properties.  A change
+ * to any of them gives another key, so a stale plan is never found.  On a
+ * hit the input locations and the temporary files of the cached plan are
+ * replaced by those of the current run while the plan is read, which is
+ * why scripts that load a location more than once are not cached.
+ * <p>
+ * Plans that depend on the content of their inputs, because merge joins
+ * reuse the index of their right input, replicated joins reuse the tables
+ * of their inputs or joins are chosen by the size of their inputs, are
+ * also keyed on the location, length and modification
+ * time of every input file, so they are only reused for unchanged inputs.
+ * <p>
+ * The cache is used when pig.plan.cache.dir is set to a local directory.
+ * Entries are never removed, the directory can be cleared at any time.
+ */
+public class MRPlanCache {
+
+    private static final Log log = LogFactory.getLog(MRPlanCache.class);
+
+    public static final String CACHE_DIR = "pig.plan.cache.dir";
+
+    private static final String SUFFIX = ".plan";
+
+    // the location of a load statement
+    private static final Pattern LOAD_LOCATION =
+        Pattern.compile("(?i)(^|[^\\w$])(load\\s*)'(?:[^'\\\\]|\\\\.)*'");
+
+    // prefixes of the Pig and Hadoop properties that can change the plan,
+    // the system properties merged into the properties are left out
+    private static final String[] COMPILE_PROPERTY_PREFIXES = {
+        "pig.", "opt.", "mapred.", "mapreduce.", "io.", "fs.", "dfs.",
+        "hadoop.", "udf.", "stream."
+    };
+
+    // properties that change from run to run without changing the plan
+    private static final String[] RUN_PROPERTIES = {
+        "pig.logfile", PigContext.JOB_NAME, PigContext.JOB_PRIORITY, CACHE_DIR
+    };
+
+    private PigContext pigContext;
+
+    private File dir;
+
+    public MRPlanCache(PigContext pigContext, File dir) {
+        this.pigContext = pigContext;
+        this.dir = dir;
+    }
+
+    /**
+     * @return the plan cache set up in the properties, null if there is none
+     */
+    public static MRPlanCache get(PigContext pigContext) {
+        String dir = pigContext.getProperties().getProperty(CACHE_DIR);
+        if (dir == null || dir.length() == 0) {
+            return null;
+        }
+        return new MRPlanCache(pigContext, new File(dir));
+    }
+
+    /**
+     * Computes the key of a script.
+     * @param script the statements of the script
+     * @param executedStores the number of stores of the script that have
+     * already been run
+     * @param loads the load operators of the script
+     * @return the key, null if the script cannot be cached
+     */
+    public String getKey(List<String> script, int executedStores,
+            List<LOLoad> loads) throws IOException {
+        MessageDigest digest = newDigest();
+        int locations = 0;
+        for (String statement : script) {
+            Matcher m = LOAD_LOCATION.matcher(normalize(statement));
+            StringBuffer sb = new StringBuffer();
+            while (m.find()) {
+                m.appendReplacement(sb, "$1$2'\\$input'");
+                locations++;
+            }
+            m.appendTail(sb);
+            update(digest, sb.toString());
+        }
+        if (locations != loads.size()) {
+            log.info("Not caching the plan, the script has " + locations
+                    + " load locations for " + loads.size() + " loads");
+            return null;
+        }
+        // cached inputs are relocated by their location, which has to tell
+        // the loads apart
+        List<String> inputs = getInputs(loads);
+        if (new HashSet<String>(inputs).size() != inputs.size()) {
+            log.info("Not caching the plan, the script loads a location more than once");
+            return null;
+        }
+        update(digest, "stores: " + executedStores);
+        for (LOLoad load : sort(loads)) {
+            update(digest, "schema: " + load.getSchema());
+        }
+        if (dependsOnInputs()) {
+            Configuration conf = ConfigurationUtil.toConfiguration(
+                    pigContext.getProperties());
+            for (String input : inputs) {
+                if (!updateInput(digest, conf, input)) {
+                    log.info("Not caching the plan, the state of the input "
+                            + input + " is not known");
+                    return null;
+                }
+            }
+        }
+
+        TreeMap<String, String> props = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> e : pigContext.getProperties().entrySet()) {
+            String name = e.getKey().toString();
+            if (isCompileProperty(name)) {
+                props.put(name, e.getValue().toString());
+            }
+        }
+        update(digest, props.toString());
+
+        for (URL jar : pigContext.extraJars) {
+            update(digest, "jar: " + jar);
+            updateContent(digest, jar.openStream());
+        }
+        for (String path : pigContext.scriptFiles) {
+            update(digest, "script: " + path);
+            File f = new File(path);
+            if (f.exists()) {
+                updateContent(digest, new FileInputStream(f));
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads a cached plan and moves it to the inputs and temporary files of
+     * the current run.  The information set for the UDFs when the plan was
+     * compiled and the features of the script are restored as well.
+     * @param key the key of the script, see {@link #getKey}
+     * @param loads the load operators of the script
+     * @return the plan, null if it is not in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public MROperPlan get(String key, List<LOLoad> loads) {
+        File f = new File(dir, key + SUFFIX);
+        if (!f.exists()) {
+            return null;
+        }
+        RelocatingInputStream in = null;
+        try {
+            in = new RelocatingInputStream(new BufferedInputStream(
+                    new FileInputStream(f)));
+            List<String> cachedInputs = (List<String>) in.readObject();
+            String cachedTempRoot = (String) in.readObject();
+            List<String> inputs = getInputs(loads);
+            for (int i = 0; i < inputs.size(); i++) {
+                in.relocated.put(cachedInputs.get(i), inputs.get(i));
+            }
+            in.tempRoot = cachedTempRoot;
+            in.newTempRoot = getTempRoot();
+            Map<Integer, Properties> udfProps = (Map<Integer, Properties>) in.readObject();
+            long features = in.readLong();
+            MROperPlan plan = (MROperPlan) in.readObject();
+            UDFContext.getUDFContext().addUDFProperties(udfProps);
+            ScriptState.get().setScriptFeatures(features);
+            log.info("Using the map reduce plan cached in " + f);
+            return plan;
+        } catch (Exception e) {
+            log.warn("Unable to read the cached plan " + f + ", compiling the script", e);
+            f.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Adds a plan to the cache.  This has to be done before the plan is
+     * run, since running it removes its jobs.
+     * @param key the key of the script, see {@link #getKey}
+     * @param loads the load operators of the script
+     * @param plan the compiled plan
+     */
+    public void put(String key, List<LOLoad> loads, MROperPlan plan) {
+        File f = new File(dir, key + SUFFIX);
+        File tmp = null;
+        ObjectOutputStream out = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile(key, ".tmp", dir);
+            out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            // copies, so that the plan does not refer to the strings of
+            // the header, which are read before relocating
+            ArrayList<String> inputs = new ArrayList<String>();
+            for (String input : getInputs(loads)) {
+                inputs.add(new String(input));
+            }
+            out.writeObject(inputs);
+            out.writeObject(getTempRoot());
+            out.writeObject(UDFContext.getUDFContext().getUDFPropertiesCopy());
+            out.writeLong(ScriptState.get().getScriptFeatureBits());
+            out.writeObject(plan);
+            out.close();
+            out = null;
+            // other runs of the script may read the entry at any time
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache the plan in " + f, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * @return true if the plan depends on the content of the inputs and not
+     * only on their schemas
+     */
+    private boolean dependsOnInputs() {
+        Properties props = pigContext.getProperties();
+        return "true".equals(props.getProperty(MergeJoinIndexCache.CACHE))
+                || "true".equals(props.getProperty(
+                        CompactReplicatedTable.COMPACT_FRJOIN))
+                || "true".equals(props.getProperty(
+                        CostBasedJoinOptimizer.COST_BASED_JOIN));
+    }
+
+    private static boolean isCompileProperty(String name) {
+        for (String runProperty : RUN_PROPERTIES) {
+            if (name.equals(runProperty)) {
+                return false;
+            }
+        }
+        for (String prefix : COMPILE_PROPERTY_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the location, length and modification time of the files of an
+     * input to the key.
+     * @return false if the files of the input cannot be listed
+     */
+    private static boolean updateInput(MessageDigest digest,
+            Configuration conf, String input) {
+        update(digest, "input: " + input);
+        try {
+            for (String name : LoadFunc.getPathStrings(input)) {
+                Path path = new Path(name);
+                FileSystem fs = path.getFileSystem(conf);
+                FileStatus[] statuses = fs.globStatus(path);
+                if (statuses == null || statuses.length == 0) {
+                    return false;
+                }
+                for (FileStatus status : statuses) {
+                    updateFile(digest, fs, status);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.debug("Unable to list the files of " + input, e);
+            return false;
+        } catch (RuntimeException e) {
+            // locations that are not files, such as tables
+            log.debug("Unable to list the files of " + input, e);
+            return false;
+        }
+    }
+
+    private static void updateFile(MessageDigest digest, FileSystem fs,
+            FileStatus status) throws IOException {
+        update(digest, "file: " + status.getPath() + " " + status.getLen()
+                + " " + status.getModificationTime());
+        if (status.isDir()) {
+            FileStatus[] children = fs.listStatus(status.getPath());
+            if (children != null) {
+                Arrays.sort(children);
+                for (FileStatus child : children) {
+                    updateFile(digest, fs, child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collapses white space outside of quotes.
+     */
+    static String normalize(String statement) {
+        StringBuilder sb = new StringBuilder(statement.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == '\\' && i + 1 < statement.length()) {
+                    sb.append(statement.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                sb.append(c);
+                if (c == '\'' || c == '`') {
+                    quote = c;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private List<LOLoad> sort(List<LOLoad> loads) {
+        // the loads in the order they were parsed
+        List<LOLoad> sorted = new ArrayList<LOLoad>(loads);
+        Collections.sort(sorted, new Comparator<LOLoad>() {
+            public int compare(LOLoad l1, LOLoad l2) {
+                long id1 = l1.getOperatorKey().getId();
+                long id2 = l2.getOperatorKey().getId();
+                return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private List<String> getInputs(List<LOLoad> loads) {
+        List<String> inputs = new ArrayList<String>();
+        for (LOLoad load : sort(loads)) {
+            inputs.add(load.getInputFile().getFileName());
+        }
+        return inputs;
+    }
+
+    private String getTempRoot() throws IOException {
+        return FileLocalizer.getTemporaryPath(pigContext).getParent().toString();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        try {
+            digest.update(s.getBytes("UTF-8"));
+            digest.update((byte) '\n');
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void updateContent(MessageDigest digest, InputStream in)
+            throws IOException {
+        try {
+            byte[] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                digest.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void close(java.io.Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the cached plan", e);
+            }
+        }
+    }
+
+    /**
+     * Reads a cached plan, replacing the inputs and the temporary files it
+     * was compiled with.  Input locations are replaced where a string is
+     * the location, temporary files wherever a string contains them.
+     */
+    private static class RelocatingInputStream extends ObjectInputStream {
+
+        Map<String, String> relocated = new HashMap<String, String>();
+
+        String tempRoot;
+
+        String newTempRoot;
+
+        RelocatingInputStream(InputStream in) throws IOException {
+            super(in);
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (!(obj instanceof String)) {
+                return obj;
+            }
+            String s = (String) obj;
+            String location = relocated.get(s);
+            if (location != null) {
+                return location;
+            }
+            if (tempRoot != null && s.contains(tempRoot)) {
+                return s.replace(tempRoot, newTempRoot);
+            }
+            return s;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            // the classes of registered jars
+            try {
+                return Class.forName(desc.getName(), false,
+                        LogicalPlanBuilder.classloader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -39,7 +39,6 @@ import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.jobcontrol.Job;
 import org.apache.hadoop.mapred.jobcontrol.JobControl;
 import org.apache.hadoop.mapreduce.JobContext;
-import org.apache.pig.ExecType;
 import org.apache.pig.PigException;
 import org.apache.pig.PigWarning;
 import org.apache.pig.PigRunner.ReturnCode;
@@ -64,6 +63,7 @@ import org.apache.pig.impl.plan.VisitorException;
 import org.apache.pig.impl.plan.CompilationMessageCollector.MessageType;
 import org.apache.pig.impl.util.ConfigurationValidator;
 import org.apache.pig.impl.util.LogUtils;
+import org.apache.pig.impl.util.Utils;
 import org.apache.pig.tools.pigstats.PigStats;
 import org.apache.pig.tools.pigstats.PigStatsUtil;
 import org.apache.pig.tools.pigstats.ScriptState;
@@ -79,9 +79,9 @@ public class MapReduceLauncher extends Launcher{
     //used to track the exception thrown by the job control which is run in a separate thread
     private Exception jobControlException = null;
     private String jobControlExceptionStackTrace = null;
-    private boolean aggregateWarning = false;
+    protected boolean aggregateWarning = false;
 
-    private Map<FileSpec, Exception> failureMap;
+    protected Map<FileSpec, Exception> failureMap;
 
     public static final String SUCCEEDED_FILE_NAME = "_SUCCESS";
     
@@ -112,9 +112,21 @@ public class MapReduceLauncher extends Launcher{
                                                     ExecException,
                                                     JobCreationException,
                                                     Exception {
+        aggregateWarning = "true".equalsIgnoreCase(pc.getProperties().getProperty("aggregate.warning"));
+        return launchPig(compile(php, pc), grpName, pc);
+    }
+
+    /**
+     * Runs a plan compiled by {@link #compile(PhysicalPlan, PigContext)},
+     * for instance one read back from the {@link MRPlanCache}.  The plan
+     * is consumed, jobs are removed from it as they complete.
+     */
+    @SuppressWarnings("deprecation")
+    public PigStats launchPig(MROperPlan mrp,
+                              String grpName,
+                              PigContext pc) throws Exception {
         long sleepTime = 500;
         aggregateWarning = "true".equalsIgnoreCase(pc.getProperties().getProperty("aggregate.warning"));
-        MROperPlan mrp = compile(php, pc);
                 
         HExecutionEngine exe = pc.getExecutionEngine();
         ConfigurationValidator.validatePigProperties(exe.getConfiguration());
@@ -367,7 +379,7 @@ public class MapReduceLauncher extends Launcher{
                     // IS FIXED - TestStore.testSetStoreSchema() should fail at
                     // that time and removing this code should fix it.
                     /**********************************************************/
-                    if (pc.getExecType() == ExecType.LOCAL) {
+                    if (pc.getExecType().isLocal()) {
                         storeSchema(job, st);
                     }
 
@@ -411,7 +423,7 @@ public class MapReduceLauncher extends Launcher{
         return PigStatsUtil.getPigStats(ret);
     }
 
-    private String getStackStraceStr(Throwable e) {
+    protected String getStackStraceStr(Throwable e) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         PrintStream ps = new PrintStream(baos);
         e.printStackTrace(ps);
@@ -423,7 +435,7 @@ public class MapReduceLauncher extends Launcher{
      * @param prog current progress
      * @param lastProg progress last time
      */
-    private void notifyProgress(double prog, double lastProg) {
+    protected void notifyProgress(double prog, double lastProg) {
         if(prog>=(lastProg+0.01)){
             int perCom = (int)(prog * 100);
             if(perCom!=100) {
@@ -461,7 +473,10 @@ public class MapReduceLauncher extends Launcher{
         }
     }
 
-    private MROperPlan compile(
+    /**
+     * Compiles a physical plan into map reduce jobs and optimizes them.
+     */
+    public MROperPlan compile(
             PhysicalPlan php,
             PigContext pc) throws PlanException, IOException, VisitorException {
         MRCompiler comp = new MRCompiler(php, pc);
@@ -481,6 +496,8 @@ public class MapReduceLauncher extends Launcher{
         String prop = pc.getProperties().getProperty("pig.exec.nocombiner");
         if (!("true".equals(prop)))  {
             CombinerOptimizer co = new CombinerOptimizer(plan, lastInputChunkSize);
+            co.setPartialAgg("true".equals(pc.getProperties().getProperty(
+                    CombinerOptimizer.PARTIAL_AGG)));
             co.visit();
             //display the warning message(s) from the CombinerOptimizer
             co.getMessageCollector().logMessages(MessageType.Warning, aggregateWarning, log);
@@ -533,11 +550,18 @@ public class MapReduceLauncher extends Launcher{
         // NoopFilterRemover.
         NoopStoreRemover sRem = new NoopStoreRemover(plan);
         sRem.visit();
+
+        // read only the columns used from columnar temp files
+        if (Utils.tmpFileColumnar(pc)) {
+            TmpFileProjectionOptimizer tpo = new TmpFileProjectionOptimizer(plan);
+            tpo.visit();
+        }
       
         // check whether stream operator is present
         // after MultiQueryOptimizer because it can shift streams from
         // map to reduce, etc.
-        EndOfAllInputSetter checker = new EndOfAllInputSetter(plan);
+        EndOfAllInputSetter checker = new EndOfAllInputSetter(plan,
+                pc.getProperties());
         checker.visit();
         
         boolean isAccum = 
@@ -566,7 +590,7 @@ public class MapReduceLauncher extends Launcher{
                                false);
     }
     
-    private void createSuccessFile(Job job, POStore store) throws IOException {
+    protected void createSuccessFile(Job job, POStore store) throws IOException {
         if(shouldMarkOutputDir(job)) {            
             Path outputPath = new Path(store.getSFile().getFileName());
             FileSystem fs = outputPath.getFileSystem(job.getJobConf());
@@ -607,29 +631,7 @@ public class MapReduceLauncher extends Launcher{
         try {
             runningJob = jobClient.getJob(mapRedJobID);
             if(runningJob != null) {
-                Counters counters = runningJob.getCounters();
-                if (counters==null)
-                {
-                    long nullCounterCount = aggMap.get(PigWarning.NULL_COUNTER_COUNT)==null?0 : aggMap.get(PigWarning.NULL_COUNTER_COUNT);
-                    nullCounterCount++;
-                    aggMap.put(PigWarning.NULL_COUNTER_COUNT, nullCounterCount);
-                }
-                for (Enum e : PigWarning.values()) {
-                    if (e != PigWarning.NULL_COUNTER_COUNT) {
-                        Long currentCount = aggMap.get(e);
-                        currentCount = (currentCount == null ? 0 : currentCount);
-                        // This code checks if the counters is null, if it is,
-                        // we need to report to the user that the number
-                        // of warning aggregations may not be correct. In fact,
-                        // Counters should not be null, it is
-                        // a hadoop bug, once this bug is fixed in hadoop, the
-                        // null handling code should never be hit.
-                        // See Pig-943
-                        if (counters != null)
-                            currentCount += counters.getCounter(e);
-                        aggMap.put(e, currentCount);
-                    }
-                }
+                computeWarningAggregate(runningJob.getCounters(), aggMap);
             }
         } catch (IOException ioe) {
             String msg = "Unable to retrieve job to compute warning aggregation.";
@@ -637,4 +639,30 @@ public class MapReduceLauncher extends Launcher{
         }    	
     }
 
+    @SuppressWarnings("deprecation")
+    protected void computeWarningAggregate(Counters counters, Map<Enum, Long> aggMap) {
+        if (counters==null)
+        {
+            long nullCounterCount = aggMap.get(PigWarning.NULL_COUNTER_COUNT)==null?0 : aggMap.get(PigWarning.NULL_COUNTER_COUNT);
+            nullCounterCount++;
+            aggMap.put(PigWarning.NULL_COUNTER_COUNT, nullCounterCount);
+        }
+        for (Enum e : PigWarning.values()) {
+            if (e != PigWarning.NULL_COUNTER_COUNT) {
+                Long currentCount = aggMap.get(e);
+                currentCount = (currentCount == null ? 0 : currentCount);
+                // This code checks if the counters is null, if it is,
+                // we need to report to the user that the number
+                // of warning aggregations may not be correct. In fact,
+                // Counters should not be null, it is
+                // a hadoop bug, once this bug is fixed in hadoop, the
+                // null handling code should never be hit.
+                // See Pig-943
+                if (counters != null)
+                    currentCount += counters.getCounter(e);
+                aggMap.put(e, currentCount);
+            }
+        }
+    }
+
 }
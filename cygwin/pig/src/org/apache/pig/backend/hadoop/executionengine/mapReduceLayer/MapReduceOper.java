@@ -96,6 +96,13 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
     
     //The quantiles file name if globalSort is true
     String quantFile;
+
+    //The directory of the quantile sketches written by the previous job,
+    //used instead of quantFile if set
+    String quantSketchDir;
+
+    //Where the index written by a merge join indexer is cached
+    String indexCacheFile;
     
     //The sort order of the columns;
     //asc is true and desc is false
@@ -331,6 +338,17 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
     public void markIndexer() {
         feature = OPER_FEATURE.INDEXER;
     }
+
+    /**
+     * @return where the index written by this indexer is cached, or null
+     */
+    public String getIndexCacheFile() {
+        return indexCacheFile;
+    }
+
+    public void setIndexCacheFile(String indexCacheFile) {
+        this.indexCacheFile = indexCacheFile;
+    }
     
     public boolean isSampler() {
         return (feature == OPER_FEATURE.SAMPLER);
@@ -380,6 +398,14 @@ public class MapReduceOper extends Operator<MROpPlanVisitor> {
         this.quantFile = quantFile;
     }
 
+    public String getQuantSketchDir() {
+        return quantSketchDir;
+    }
+
+    public void setQuantSketchDir(String quantSketchDir) {
+        this.quantSketchDir = quantSketchDir;
+    }
+
     public void setSortOrder(boolean[] sortOrder) {
         if(null == sortOrder) return;
         this.sortOrder = new boolean[sortOrder.length];
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Keeps the indexes built by {@link MergeJoinIndexer} for the right input
+ * of merge joins, so that a script that joins the same unchanged input
+ * again reads the index instead of running the indexing job. An index is
+ * named by a digest of the path, length, block size and modification time
+ * of every file of the input, the load function, the operators applied to
+ * it before the join and the join keys, so any change to the input gives a
+ * new name and a stale index is never used. Inputs that go through udfs or
+ * streaming are not cached, as their output may differ from run to run.
+ * <p>
+ * The indexing job writes its index to a temp file as before. Once the job
+ * has succeeded, the index is copied into the cache under a temporary name
+ * and renamed, so readers never see a partial index.
+ */
+public class MergeJoinIndexCache {
+
+    private static final Log log = LogFactory.getLog(MergeJoinIndexCache.class);
+
+    /**
+     * If true, merge joins reuse cached indexes of their right input
+     */
+    public static final String CACHE = "pig.mergejoin.index.cache";
+
+    /**
+     * Directory of the cached indexes, on the default file system
+     */
+    public static final String CACHE_DIR = "pig.mergejoin.index.cache.dir";
+
+    private static final String DEFAULT_CACHE_DIR = "/tmp/pig-mergejoin-index";
+
+    // set on the indexing job: the index it writes and where to cache it
+    static final String PUBLISH_FROM = "pig.mergejoin.index.publish.from";
+
+    static final String PUBLISH_TO = "pig.mergejoin.index.publish.to";
+
+    private MergeJoinIndexCache() {
+    }
+
+    /**
+     * Names the cached index of an input.
+     *
+     * @param conf configuration with {@link #CACHE_DIR}
+     * @param input the right input of the merge join
+     * @param signature describes the load function and the join keys
+     * @return the cached index, which may not exist yet, or null if the
+     * input does not exist
+     */
+    public static String getCachedIndex(Configuration conf, String input,
+            String signature) {
+        try {
+            Path inputPath = new Path(input);
+            FileSystem fs = inputPath.getFileSystem(conf);
+            FileStatus[] statuses = fs.globStatus(inputPath);
+            if (statuses == null || statuses.length == 0) {
+                return null;
+            }
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(signature.getBytes("UTF-8"));
+            // the split indexes in the index depend on the split sizes
+            md.update(("\t" + conf.get("mapred.min.split.size")
+                    + "\t" + conf.get("mapred.max.split.size")).getBytes("UTF-8"));
+            Arrays.sort(statuses);
+            for (FileStatus status : statuses) {
+                addIdentity(md, fs, status);
+            }
+            StringBuilder sb = new StringBuilder("idx-");
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            Path dir = new Path(conf.get(CACHE_DIR, DEFAULT_CACHE_DIR));
+            return new Path(dir, sb.toString()).toString();
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Unable to name cached merge join index", e);
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to name cached merge join index", e);
+            return null;
+        }
+    }
+
+    private static void addIdentity(MessageDigest md, FileSystem fs,
+            FileStatus status) throws IOException {
+        Path p = status.getPath();
+        String name = p.getName();
+        // skip hidden files the way input formats do
+        if (name.startsWith("_") || name.startsWith(".")) {
+            return;
+        }
+        md.update((fs.makeQualified(p) + "\t" + status.getLen() + "\t"
+                + status.getBlockSize() + "\t" + status.getModificationTime()
+                + "\n").getBytes("UTF-8"));
+        if (status.isDir()) {
+            FileStatus[] children = fs.listStatus(p);
+            if (children != null) {
+                Arrays.sort(children);
+                for (FileStatus child : children) {
+                    addIdentity(md, fs, child);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the cached index has been written
+     */
+    public static boolean exists(Configuration conf, String cachedIndex)
+            throws IOException {
+        Path p = new Path(cachedIndex);
+        return p.getFileSystem(conf).exists(p);
+    }
+
+    /**
+     * Marks an indexing job so that its index is cached once it succeeds.
+     */
+    static void setPublish(Configuration conf, String index, String cachedIndex) {
+        conf.set(PUBLISH_FROM, index);
+        conf.set(PUBLISH_TO, cachedIndex);
+    }
+
+    /**
+     * Copies the index written by a successful indexing job into the cache.
+     * Failures only lose the cached copy, so they are logged and ignored.
+     *
+     * @param conf configuration of the job
+     */
+    static void publish(Configuration conf) {
+        String from = conf.get(PUBLISH_FROM);
+        String to = conf.get(PUBLISH_TO);
+        if (from == null || to == null) {
+            return;
+        }
+        try {
+            Path src = new Path(from);
+            Path dst = new Path(to);
+            FileSystem srcFs = src.getFileSystem(conf);
+            FileSystem dstFs = dst.getFileSystem(conf);
+            if (dstFs.exists(dst)) {
+                // cached by another script in the meantime
+                return;
+            }
+            Path tmp = new Path(dst.getParent(), "_" + dst.getName() + "-"
+                    + System.nanoTime());
+            dstFs.mkdirs(dst.getParent());
+            FileUtil.copy(srcFs, src, dstFs, tmp, false, conf);
+            if (!dstFs.rename(tmp, dst)) {
+                dstFs.delete(tmp, true);
+            } else {
+                log.info("Cached merge join index " + src + " as " + dst);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache merge join index " + from, e);
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOpe
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POMultiQueryPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAggPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.data.DataType;
@@ -452,6 +453,14 @@ class MultiQueryOptimizer extends MROpPlanVisitor {
             return false;           
         }
         
+        // cannot have partial aggregation, its package is not demuxed
+        if (!splittee.reducePlan.isEmpty() && splittee.reducePlan.getRoots()
+                .get(0) instanceof POPartialAggPackage) {
+            log.info("Cannot merge this splittee: " +
+                    "it has map side partial aggregation.");
+            return false;
+        }
+        
         return true;
     }
        
@@ -255,6 +255,22 @@ public class PhyPlanSetter extends PhyPlanVisitor {
     public void visitLimit(POLimit lim) throws VisitorException{
         lim.setParentPlan(parent);
     }
+
+    @Override
+    public void visitQuantileSketch(POQuantileSketch sketch) throws VisitorException{
+        sketch.setParentPlan(parent);
+    }
+
+    @Override
+    public void visitPartialAgg(POPartialAgg partAgg) throws VisitorException{
+        super.visitPartialAgg(partAgg);
+        partAgg.setParentPlan(parent);
+    }
+
+    @Override
+    public void visitPartialAggPackage(POPartialAggPackage pkg) throws VisitorException{
+        pkg.setParentPlan(parent);
+    }
     
     @Override
     public void visitFRJoin(POFRJoin join) throws VisitorException {
@@ -24,6 +24,8 @@ import java.util.List;
 import java.util.HashSet;
 import java.util.HashMap;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,6 +49,9 @@ import org.apache.pig.CollectableLoadFunc;
 import org.apache.pig.OrderedLoadFunc;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
@@ -70,6 +75,12 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
     
     public static final String PIG_INPUTS = "pig.inputs";
 
+    /**
+     * Makes map tasks in local mode read the inputs of a union concurrently,
+     * see {@link PigUnionRecordReader}
+     */
+    public static final String PARALLEL_UNION = "pig.exec.union.parallel";
+
     /**
      * @deprecated Use {@link UDFContext} instead in the following way to get 
      * the job's {@link Configuration}:
@@ -93,6 +104,9 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
         // TaskAttemptContext based on it and then call the real InputFormat's
         // createRecordReader() method
         
+        if (split instanceof PigUnionSplit) {
+            return new PigUnionRecordReader(this, (PigUnionSplit)split, context);
+        }
         PigSplit pigSplit = (PigSplit)split;
         activeSplit = pigSplit;
         // XXX hadoop 20 new API integration: get around a hadoop 20 bug by 
@@ -295,10 +309,77 @@ public class PigInputFormat extends InputFormat<Text, Tuple> {
             ((PigSplit) split).setTotalSplits(n);
             if (m > 1) ((PigSplit) split).setMultiInputs(true);
         }
+
+        // Hadoop's local job runner runs one map task after the other, so
+        // the inputs of a union are only read in parallel by one task
+        if (m > 1 && pigContext.getExecType() == ExecType.LOCAL
+                && conf.getBoolean(PARALLEL_UNION, false)) {
+            return getUnionSplits(splits, conf);
+        }
         
         return splits;
     }
 
+    /**
+     * Puts together the splits of the inputs feeding the same union. The
+     * other splits are left alone.
+     */
+    private List<InputSplit> getUnionSplits(List<InputSplit> splits,
+            Configuration conf) throws IOException {
+        PhysicalPlan mp = (PhysicalPlan)ObjectSerializer.deserialize(
+                conf.get("pig.mapPlan"));
+        List<InputSplit> result = new ArrayList<InputSplit>();
+        Map<OperatorKey, List<PigSplit>> unions =
+            new LinkedHashMap<OperatorKey, List<PigSplit>>();
+        for (InputSplit split : splits) {
+            PigSplit pigSplit = (PigSplit)split;
+            OperatorKey union = getUnion(mp, pigSplit.getTargetOps());
+            if (union == null) {
+                result.add(split);
+                continue;
+            }
+            List<PigSplit> parts = unions.get(union);
+            if (parts == null) {
+                parts = new ArrayList<PigSplit>();
+                unions.put(union, parts);
+            }
+            parts.add(pigSplit);
+        }
+        for (Map.Entry<OperatorKey, List<PigSplit>> e : unions.entrySet()) {
+            List<PigSplit> parts = e.getValue();
+            if (parts.size() == 1) {
+                result.add(parts.get(0));
+            } else {
+                PigUnionSplit unionSplit = new PigUnionSplit(parts);
+                unionSplit.setConf(conf);
+                result.add(unionSplit);
+                log.info("Reading " + parts.size() + " splits of union "
+                        + e.getKey() + " in one map task");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the key of the union all the targets lead to through
+     * operators with one successor, or null if there is none
+     */
+    private static OperatorKey getUnion(PhysicalPlan mp, List<OperatorKey> targets) {
+        OperatorKey union = null;
+        for (OperatorKey target : targets) {
+            PhysicalOperator op = mp.getOperator(target);
+            while (op != null && !(op instanceof POUnion)) {
+                List<PhysicalOperator> succs = mp.getSuccessors(op);
+                op = (succs != null && succs.size() == 1) ? succs.get(0) : null;
+            }
+            if (op == null || (union != null && !union.equals(op.getOperatorKey()))) {
+                return null;
+            }
+            union = op.getOperatorKey();
+        }
+        return union;
+    }
+
     protected List<InputSplit> getPigSplits(List<InputSplit> oneInputSplits, 
             int inputIndex, ArrayList<OperatorKey> targetOps, long blockSize, boolean combinable, Configuration conf)
             throws IOException, InterruptedException {
@@ -27,6 +27,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.log4j.PropertyConfigurator;
 import org.apache.pig.PigException;
@@ -35,8 +36,12 @@ import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.TupleBatch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.Tuple;
@@ -53,6 +58,13 @@ import org.apache.pig.tools.pigstats.PigStatusReporter;
 public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable, Writable> {
     private static final Tuple DUMMYTUPLE = null;
 
+    /**
+     * The number of input tuples to push through the map plan at once, if
+     * the plan starts with operators that support batch processing. 0, the
+     * default, turns batching off.
+     */
+    public static final String BATCH_SIZE = "pig.exec.batch.size";
+
     private final Log log = LogFactory.getLog(getClass());
     
     protected byte keyType;
@@ -75,10 +87,28 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
     
     PhysicalOperator[] roots;
 
+    // The roots each part of a PigUnionSplit is attached to, or null if
+    // the input is a single split
+    private PhysicalOperator[][] partRoots;
+
     private PhysicalOperator leaf;
 
     PigContext pigContext = null;
     private volatile boolean initialized = false;
+
+    // The input tuples not yet pushed through the plan when batching
+    private TupleBatch batch;
+
+    // First and last operator of the part of the plan run a batch at a time
+    // and the operator that gets the output of batchLeaf tuple by tuple, if
+    // batchLeaf is not the leaf of the plan
+    private PhysicalOperator batchRoot;
+    private PhysicalOperator batchLeaf;
+    private PhysicalOperator batchSuccessor;
+
+    // Profiles the operators of the map plan, null unless
+    // OperatorProfiler.PROFILE is set
+    private OperatorProfiler profiler;
     
     /**
      * Will be called when all the tuples in the input
@@ -91,8 +121,12 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
             //error in map - returning
             return;
         }
+
+        if (batch != null && !batch.isEmpty()) {
+            runBatch();
+        }
             
-        if(PigMapReduce.sJobConf.get(JobControlCompiler.END_OF_INP_IN_MAP, "false").equals("true")) {
+        if(context.getConfiguration().get(JobControlCompiler.END_OF_INP_IN_MAP, "false").equals("true")) {
             // If there is a stream in the pipeline or if this map job belongs to merge-join we could 
             // potentially have more to process - so lets
             // set the flag stating that all map input has been sent
@@ -123,6 +157,12 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
             throw new VisitorException(msg, errCode, PigException.BUG, e);
         }
         
+        if (profiler != null) {
+            profiler.write(context.getConfiguration(), context
+                    .getTaskAttemptID().toString());
+            profiler = null;
+        }
+
         mp = null;
 
         PhysicalOperator.setReporter(null);
@@ -140,8 +180,7 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
         
         Configuration job = context.getConfiguration();
         SpillableMemoryManager.configure(ConfigurationUtil.toProperties(job));
-        PigMapReduce.sJobContext = context;
-        PigMapReduce.sJobConf = context.getConfiguration();
+        PigMapReduce.setJobContext(context);
         
         PigContext.setPackageImportList((ArrayList<String>)ObjectSerializer.deserialize(job.get("udf.import.list")));
         pigContext = (PigContext)ObjectSerializer.deserialize(job.get("pig.pigContext"));
@@ -167,17 +206,33 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
         // Get the UDF specific context
         MapRedUtil.setupUDFContext(job);
 
+        profiler = null;
         if(!(mp.isEmpty())) {
 
-            PigSplit split = (PigSplit)context.getInputSplit();
-            List<OperatorKey> targetOpKeys = split.getTargetOps();
-            
-            ArrayList<PhysicalOperator> targetOpsAsList = new ArrayList<PhysicalOperator>();
-            for (OperatorKey targetKey : targetOpKeys) {                    
-                targetOpsAsList.add(mp.getOperator(targetKey));
+            InputSplit split = context.getInputSplit();
+            List<OperatorKey> targetOpKeys;
+            partRoots = null;
+            if (split instanceof PigUnionSplit) {
+                PigUnionSplit unionSplit = (PigUnionSplit)split;
+                targetOpKeys = unionSplit.getTargetOps();
+                partRoots = new PhysicalOperator[unionSplit.getNumParts()][];
+                for (int i = 0; i < partRoots.length; i++) {
+                    partRoots[i] = getOperators(unionSplit.getPart(i).getTargetOps());
+                }
+            } else {
+                targetOpKeys = ((PigSplit)split).getTargetOps();
             }
-            roots = targetOpsAsList.toArray(new PhysicalOperator[1]);
+            roots = getOperators(targetOpKeys);
             leaf = mp.getLeaves().get(0);               
+            if (job.getBoolean(ExpressionCompiler.COMPILE_EXPRESSIONS, false)) {
+                new ExpressionCompilerVisitor(mp).visit();
+            }
+            setupBatch(job.getInt(BATCH_SIZE, 0));
+            profiler = OperatorProfiler.create(job);
+            if (profiler != null) {
+                profiler.attach(mp);
+                profiler.attachLoad();
+            }
         }
         
         PigStatusReporter.setContext(context);
@@ -224,16 +279,116 @@ public abstract class PigMapBase extends Mapper<Text, Tuple, PigNullableWritable
             return;
         }
         
-        for (PhysicalOperator root : roots) {
-            root.attachInput(tf.newTupleNoCopy(inpTuple.getAll()));
+        if (profiler != null) {
+            profiler.startRecord();
+        }
+
+        if (batch != null) {
+            batch.add(tf.newTupleNoCopy(inpTuple.getAll()));
+            if (batch.isFull()) {
+                runBatch();
+            }
+        } else {
+            PhysicalOperator[] targets = roots;
+            if (partRoots != null) {
+                targets = partRoots[PigUnionSplit.getPartIndex(key)];
+            }
+            for (PhysicalOperator root : targets) {
+                root.attachInput(tf.newTupleNoCopy(inpTuple.getAll()));
+            }
+
+            runPipeline(leaf);
+        }
+
+        if (profiler != null) {
+            profiler.endRecord();
         }
-            
-        runPipeline(leaf);
+    }
+
+    private PhysicalOperator[] getOperators(List<OperatorKey> keys) {
+        ArrayList<PhysicalOperator> ops = new ArrayList<PhysicalOperator>();
+        for (OperatorKey key : keys) {
+            ops.add(mp.getOperator(key));
+        }
+        return ops.toArray(new PhysicalOperator[1]);
+    }
+
+    /**
+     * Finds the longest chain of operators starting at the only root of the
+     * map plan that can process a batch of tuples at once. Batching is left
+     * off if there is none.
+     */
+    private void setupBatch(int batchSize) {
+        batch = null;
+        batchRoot = batchLeaf = batchSuccessor = null;
+        if (batchSize <= 0 || roots.length != 1 || roots[0] == null) {
+            return;
+        }
+        PhysicalOperator op = roots[0];
+        while (op.supportsBatch()) {
+            batchLeaf = op;
+            List<PhysicalOperator> succs = mp.getSuccessors(op);
+            if (succs == null || succs.size() != 1
+                    || mp.getPredecessors(succs.get(0)).size() != 1) {
+                break;
+            }
+            op = succs.get(0);
+        }
+        if (batchLeaf == null) {
+            return;
+        }
+        if (batchLeaf != leaf) {
+            List<PhysicalOperator> succs = mp.getSuccessors(batchLeaf);
+            if (succs == null || succs.size() != 1) {
+                // the plan branches out below batchLeaf
+                batchLeaf = null;
+                return;
+            }
+            batchSuccessor = succs.get(0);
+        }
+        batchRoot = roots[0];
+        batch = new TupleBatch(batchSize);
+        log.info("Processing map input in batches of " + batchSize
+                + " tuples up to " + batchLeaf.name());
+    }
+
+    /**
+     * Pushes the buffered input tuples through the batch part of the plan
+     * and the output through the rest of the plan one tuple at a time
+     */
+    private void runBatch() throws IOException, InterruptedException {
+        batchRoot.attachInputBatch(batch);
+        OperatorProfile leafProfile = batchLeaf.getProfile();
+        if (leafProfile != null) {
+            leafProfile.enter();
+        }
+        TupleBatch output = batchLeaf.getNextBatch();
+        if (leafProfile != null) {
+            leafProfile.exitBatch(output);
+        }
+        if (output != null) {
+            for (int i = 0; i < output.size(); i++) {
+                if (batchSuccessor == null) {
+                    collect(outputCollector, output.get(i));
+                } else {
+                    batchSuccessor.attachInput(output.get(i));
+                    runPipeline(leaf);
+                }
+            }
+        }
+        batch.clear();
     }
 
     protected void runPipeline(PhysicalOperator leaf) throws IOException, InterruptedException {
+        OperatorProfile leafProfile = leaf.getProfile();
         while(true){
+            if (leafProfile != null) {
+                leafProfile.enter();
+            }
             Result res = leaf.getNext(DUMMYTUPLE);
+            if (leafProfile != null) {
+                leafProfile.exit(res);
+            }
             if(res.returnStatus==POStatus.STATUS_OK){
                 collect(outputCollector,(Tuple)res.result);
                 continue;
@@ -37,10 +37,13 @@ import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POJoinPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPackage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.PlanHelper;
 import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
 import org.apache.pig.data.DataBag;
@@ -93,7 +96,68 @@ public class PigMapReduce {
     // used by Pig internal code to set up UDFContext's conf among other things.
     @Deprecated
     public static Configuration sJobConf = null;
+
+    // The job of the task run by the current thread, as the
+    // ThreadedJobRunner runs tasks of several jobs at once. Threads working
+    // for the task are given it by TaskState. sJobContext and sJobConf are
+    // those of the last task set up.
+    private static final ThreadLocal<JobContext> taskJobContext =
+        new ThreadLocal<JobContext>();
+
     private final static Tuple DUMMYTUPLE = null;
+
+    /**
+     * Sets the job of the task run by the current thread
+     */
+    static void setJobContext(JobContext context) {
+        sJobContext = context;
+        sJobConf = context.getConfiguration();
+        taskJobContext.set(context);
+    }
+
+    /**
+     * Forgets the job of the task run by the current thread, once the task
+     * is done
+     */
+    static void removeJobContext() {
+        taskJobContext.remove();
+    }
+
+    /**
+     * @return the job of the task run by the current thread, null if it
+     * runs none
+     */
+    static JobContext getTaskJobContext() {
+        return taskJobContext.get();
+    }
+
+    /**
+     * Makes the current thread work for a task of the job, without
+     * changing the job of the last task set up
+     */
+    static void setTaskJobContext(JobContext context) {
+        taskJobContext.set(context);
+    }
+
+    /**
+     * Used by internal pig code only.
+     * @return the context of the job of the task run by the current
+     * thread, or of the last task set up if the thread runs none
+     */
+    public static JobContext getJobContext() {
+        JobContext context = taskJobContext.get();
+        return (context == null) ? sJobContext : context;
+    }
+
+    /**
+     * Used by internal pig code only, see {@link #sJobConf}.
+     * @return the configuration of the job of the task run by the current
+     * thread, or of the last task set up if the thread runs none
+     */
+    public static Configuration getJobConf() {
+        JobContext context = taskJobContext.get();
+        return (context == null) ? sJobConf : context.getConfiguration();
+    }
     
     public static class Map extends PigMapBase {
 
@@ -278,6 +342,10 @@ public class PigMapReduce {
         
         PigContext pigContext = null;
         protected volatile boolean initialized = false;
+
+        // Profiles the package and the operators of the reduce plan, null
+        // unless OperatorProfiler.PROFILE is set
+        protected OperatorProfiler profiler;
         
         /**
          * Configures the Reduce plan, the POPackage operator
@@ -290,8 +358,7 @@ public class PigMapReduce {
             
             Configuration jConf = context.getConfiguration();
             SpillableMemoryManager.configure(ConfigurationUtil.toProperties(jConf));
-            sJobContext = context;
-            sJobConf = context.getConfiguration();
+            setJobContext(context);
             try {
                 PigContext.setPackageImportList((ArrayList<String>)ObjectSerializer.deserialize(jConf.get("udf.import.list")));
                 pigContext = (PigContext)ObjectSerializer.deserialize(jConf.get("pig.pigContext"));
@@ -313,8 +380,17 @@ public class PigMapReduce {
                 if(!(rp.isEmpty())) {
                     roots = rp.getRoots().toArray(new PhysicalOperator[1]);
                     leaf = rp.getLeaves().get(0);
+                    if (jConf.getBoolean(ExpressionCompiler.COMPILE_EXPRESSIONS, false)) {
+                        new ExpressionCompilerVisitor(rp).visit();
+                    }
                 }
                 
+                profiler = OperatorProfiler.create(jConf);
+                if (profiler != null) {
+                    profiler.attach(pack);
+                    profiler.attach(rp);
+                }
+
                 // Get the UDF specific context
             	MapRedUtil.setupUDFContext(jConf);
             
@@ -360,6 +436,10 @@ public class PigMapReduce {
                 }
             }
           
+            if (profiler != null) {
+                profiler.startRecord();
+            }
+
             // In the case we optimize the join, we combine
             // POPackage and POForeach - so we could get many
             // tuples out of the getnext() call of POJoinPackage
@@ -380,6 +460,10 @@ public class PigMapReduce {
                 pack.attachInput(key, tupIter.iterator());
                 processOnePackageOutput(context);
             } 
+
+            if (profiler != null) {
+                profiler.endRecord();
+            }
         }
         
         // return: false-more output
@@ -387,7 +471,7 @@ public class PigMapReduce {
         public boolean processOnePackageOutput(Context oc) 
                 throws IOException, InterruptedException {
 
-            Result res = pack.getNext(DUMMYTUPLE);
+            Result res = getNextPackageOutput();
             if(res.returnStatus==POStatus.STATUS_OK){
                 Tuple packRes = (Tuple)res.result;
                 
@@ -420,6 +504,18 @@ public class PigMapReduce {
             
         }
         
+        /**
+         * @return the next output of the package for the attached key
+         */
+        protected Result getNextPackageOutput() throws ExecException {
+            OperatorProfile packProfile = pack.getProfile();
+            if (packProfile == null) {
+                return pack.getNext(DUMMYTUPLE);
+            }
+            packProfile.enter();
+            return packProfile.exit(pack.getNext(DUMMYTUPLE));
+        }
+
         /**
          * @param leaf
          * @throws InterruptedException
@@ -428,9 +524,16 @@ public class PigMapReduce {
         protected void runPipeline(PhysicalOperator leaf) 
                 throws InterruptedException, IOException {
             
+            OperatorProfile leafProfile = leaf.getProfile();
             while(true)
             {
+                if (leafProfile != null) {
+                    leafProfile.enter();
+                }
                 Result redRes = leaf.getNext(DUMMYTUPLE);
+                if (leafProfile != null) {
+                    leafProfile.exit(redRes);
+                }
                 if(redRes.returnStatus==POStatus.STATUS_OK){
                     try{
                         outputCollector.write(null, (Tuple)redRes.result);
@@ -480,7 +583,7 @@ public class PigMapReduce {
                 return;
             }
             
-            if(PigMapReduce.sJobConf.get("pig.stream.in.reduce", "false").equals("true")) {
+            if(context.getConfiguration().get("pig.stream.in.reduce", "false").equals("true")) {
                 // If there is a stream in the pipeline we could 
                 // potentially have more to process - so lets
                 // set the flag stating that all map input has been sent
@@ -509,6 +612,12 @@ public class PigMapReduce {
                 throw new IOException("Error trying to finish UDFs",e);
             }
             
+            if (profiler != null) {
+                profiler.write(context.getConfiguration(), context
+                        .getTaskAttemptID().toString());
+                profiler = null;
+            }
+
             PhysicalOperator.setReporter(null);
             initialized = false;
         }
@@ -587,36 +696,45 @@ public class PigMapReduce {
                 }
             }
             
-            pack.attachInput(key, tupIter.iterator());
+            if (profiler != null) {
+                profiler.startRecord();
+            }
+            try {
+                pack.attachInput(key, tupIter.iterator());
             
-            Result res = pack.getNext(DUMMYTUPLE);
-            if(res.returnStatus==POStatus.STATUS_OK){
-                Tuple packRes = (Tuple)res.result;
+                Result res = getNextPackageOutput();
+                if(res.returnStatus==POStatus.STATUS_OK){
+                    Tuple packRes = (Tuple)res.result;
                 
-                if(rp.isEmpty()){
-                    context.write(null, packRes);
-                    return;
-                }
+                    if(rp.isEmpty()){
+                        context.write(null, packRes);
+                        return;
+                    }
                 
-                rp.attachInput(packRes);
+                    rp.attachInput(packRes);
 
-                List<PhysicalOperator> leaves = rp.getLeaves();
+                    List<PhysicalOperator> leaves = rp.getLeaves();
                 
-                PhysicalOperator leaf = leaves.get(0);
-                runPipeline(leaf);
+                    PhysicalOperator leaf = leaves.get(0);
+                    runPipeline(leaf);
                 
-            }
+                }
             
-            if(res.returnStatus==POStatus.STATUS_NULL) {
-                return;
-            }
+                if(res.returnStatus==POStatus.STATUS_NULL) {
+                    return;
+                }
             
-            if(res.returnStatus==POStatus.STATUS_ERR){
-                int errCode = 2093;
-                String msg = "Encountered error in package operator while processing group.";
-                throw new ExecException(msg, errCode, PigException.BUG);
-            }
+                if(res.returnStatus==POStatus.STATUS_ERR){
+                    int errCode = 2093;
+                    String msg = "Encountered error in package operator while processing group.";
+                    throw new ExecException(msg, errCode, PigException.BUG);
+                }
 
+            } finally {
+                if (profiler != null) {
+                    profiler.endRecord();
+                }
+            }
         }
 
     }
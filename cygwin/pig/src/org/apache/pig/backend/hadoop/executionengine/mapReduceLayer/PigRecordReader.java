@@ -68,6 +68,9 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
     // the Hadoop counter for multi-input jobs 
     transient private Counter inputRecordCounter = null;
     
+    // the records counted since they were last added to the counter
+    transient private long inputRecords = 0;
+    
     // the Hadoop counter name
     transient private String counterName = null;
     
@@ -115,6 +118,22 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
             curReader.close();
             curReader = null;
         }
+        addInputRecords();
+    }
+
+    /**
+     * Adds the records read so far to the counter. Readers of the splits of
+     * the same input may share the counter and run on several threads, see
+     * {@link PigUnionRecordReader}, so the records are counted by each
+     * reader and added once it is closed.
+     */
+    private void addInputRecords() {
+        if (inputRecordCounter != null && inputRecords > 0) {
+            synchronized (inputRecordCounter) {
+                inputRecordCounter.increment(inputRecords);
+            }
+            inputRecords = 0;
+        }
     }
 
     @Override
@@ -139,7 +158,7 @@ public class PigRecordReader extends RecordReader<Text, Tuple> {
         }
         // Increment the multi-input record counter
         if (inputRecordCounter != null && curValue != null) {
-            inputRecordCounter.increment(1);            
+            inputRecords++;
         }
        
         return curValue;
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+
+/**
+ * Reads the splits of a {@link PigUnionSplit} concurrently. Each split is
+ * read by its own {@link PigRecordReader} on a pool of threads, and the
+ * tuples are handed to the map task through a bounded queue, so that at
+ * most a fixed number of tuples is held in memory whatever the number of
+ * inputs. Tuples of different splits are interleaved, so this is only
+ * used where the order does not matter.
+ * <p>
+ * Like in any queue the tuples are read ahead of the map, so loaders must
+ * return a new tuple from each call to getNext(), as the builtin ones do.
+ */
+public class PigUnionRecordReader extends RecordReader<Text, Tuple> {
+
+    private static final Log log = LogFactory.getLog(PigUnionRecordReader.class);
+
+    /**
+     * Number of splits read concurrently, defaults to the number of
+     * available processors
+     */
+    public static final String THREADS = "pig.exec.union.threads";
+
+    /**
+     * Maximum number of tuples read ahead of the map task
+     */
+    public static final String QUEUE_SIZE = "pig.exec.union.queue";
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    // tuples are handed over in chunks of up to this many
+    private static final int CHUNK_SIZE = 256;
+
+    // readers are set up one at a time as loaders and the UDFContext are
+    // not meant to be set up concurrently
+    private static final Object SETUP_LOCK = new Object();
+
+    private static class Chunk {
+        int part;
+        Tuple[] tuples;
+        int size = 0;
+        // set on the last chunk of a split
+        boolean last = false;
+        Throwable error = null;
+
+        Chunk(int part, int capacity) {
+            this.part = part;
+            tuples = new Tuple[capacity];
+        }
+    }
+
+    private PigInputFormat inputFormat;
+
+    private PigUnionSplit split;
+
+    private TaskAttemptContext context;
+
+    private Text[] keys;
+
+    private int chunkSize;
+
+    private BlockingQueue<Chunk> queue;
+
+    private ExecutorService pool = null;
+
+    private Chunk current = null;
+
+    private int pos = 0;
+
+    private int partsDone = 0;
+
+    private volatile boolean closed = false;
+
+    public PigUnionRecordReader(PigInputFormat inputFormat, PigUnionSplit split,
+            TaskAttemptContext context) {
+        this.inputFormat = inputFormat;
+        this.split = split;
+        this.context = context;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        this.split = (PigUnionSplit)split;
+        this.context = context;
+        int n = this.split.getNumParts();
+        keys = new Text[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = PigUnionSplit.getPartKey(i);
+        }
+        Configuration conf = context.getConfiguration();
+        int queueSize = Math.max(1, conf.getInt(QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+        chunkSize = Math.min(CHUNK_SIZE, queueSize);
+        queue = new ArrayBlockingQueue<Chunk>(Math.max(1, queueSize / chunkSize));
+    }
+
+    /**
+     * Starts reading the splits. This is left until the first tuple is
+     * asked for, as the map task is only set up after the reader has been
+     * initialized.
+     */
+    private void start() {
+        int n = split.getNumParts();
+        int threads = context.getConfiguration().getInt(THREADS,
+                Runtime.getRuntime().availableProcessors());
+        threads = Math.max(1, Math.min(threads, n));
+        log.info("Reading " + n + " union inputs on " + threads + " threads");
+        // the loaders read the job configuration and UDF context of the task
+        final TaskState taskState = TaskState.get();
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger number = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "UnionReader-" + number.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            final int part = i;
+            pool.execute(new Runnable() {
+                public void run() {
+                    taskState.attach();
+                    try {
+                        readPart(part);
+                    } finally {
+                        TaskState.clear();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    private void readPart(int part) {
+        Chunk chunk = new Chunk(part, chunkSize);
+        RecordReader<Text, Tuple> reader = null;
+        try {
+            PigSplit pigSplit = split.getPart(part);
+            // each input has its own copy of the configuration, as in a
+            // map task of its own
+            TaskAttemptContext partContext = new TaskAttemptContext(
+                    new Configuration(context.getConfiguration()),
+                    context.getTaskAttemptID());
+            synchronized (SETUP_LOCK) {
+                reader = inputFormat.createRecordReader(pigSplit, partContext);
+                reader.initialize(pigSplit, partContext);
+            }
+            while (!closed && reader.nextKeyValue()) {
+                chunk.tuples[chunk.size++] = reader.getCurrentValue();
+                if (chunk.size == chunk.tuples.length) {
+                    queue.put(chunk);
+                    chunk = new Chunk(part, chunkSize);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+            return;
+        } catch (Throwable t) {
+            chunk.error = t;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close reader of union input " + part, e);
+                }
+            }
+        }
+        chunk.last = true;
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+        if (pool == null) {
+            start();
+        }
+        while (current == null || pos == current.size) {
+            if (current != null && current.last) {
+                partsDone++;
+            }
+            if (partsDone == split.getNumParts()) {
+                current = null;
+                return false;
+            }
+            current = queue.take();
+            pos = 0;
+            if (current.error != null) {
+                Throwable t = current.error;
+                if (t instanceof IOException) {
+                    throw (IOException)t;
+                }
+                int errCode = 2262;
+                String msg = "Unable to read split " + current.part
+                        + " of union input";
+                throw new ExecException(msg, errCode,
+                        PigException.REMOTE_ENVIRONMENT, t);
+            }
+        }
+        pos++;
+        return true;
+    }
+
+    @Override
+    public Text getCurrentKey() {
+        return keys[current.part];
+    }
+
+    @Override
+    public Tuple getCurrentValue() {
+        return current.tuples[pos - 1];
+    }
+
+    @Override
+    public float getProgress() {
+        return (float)partsDone / split.getNumParts();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (pool != null) {
+            // unblocks the readers waiting on a full queue
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+}
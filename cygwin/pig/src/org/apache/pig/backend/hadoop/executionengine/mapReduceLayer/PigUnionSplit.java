@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * A split made of the splits of several inputs that feed the same union,
+ * so that a single map task reads them concurrently. See
+ * {@link PigUnionRecordReader}.
+ * <p>
+ * The keys handed to the map tell which of the splits a tuple was read
+ * from, see {@link #getPartIndex(Text)}, so that it can be attached to the
+ * operators that split feeds.
+ */
+public class PigUnionSplit extends InputSplit implements Writable, Configurable {
+
+    private PigSplit[] parts;
+
+    private Configuration conf;
+
+    // this seems necessary for Hadoop to instatiate this split on the
+    // backend
+    public PigUnionSplit() {}
+
+    public PigUnionSplit(List<PigSplit> parts) {
+        this.parts = parts.toArray(new PigSplit[parts.size()]);
+    }
+
+    /**
+     * @return the number of splits this split is made of
+     */
+    public int getNumParts() {
+        return parts.length;
+    }
+
+    /**
+     * @param idx the index of the split
+     * @return the idx-th split
+     */
+    public PigSplit getPart(int idx) {
+        return parts[idx];
+    }
+
+    /**
+     * @return the operators the tuples of any of the splits are attached to
+     */
+    public List<OperatorKey> getTargetOps() {
+        Set<OperatorKey> targets = new LinkedHashSet<OperatorKey>();
+        for (PigSplit part : parts) {
+            targets.addAll(part.getTargetOps());
+        }
+        return new ArrayList<OperatorKey>(targets);
+    }
+
+    /**
+     * @param idx the index of a split
+     * @return the key the tuples read from the split are given
+     */
+    static Text getPartKey(int idx) {
+        byte[] b = new byte[4];
+        b[0] = (byte)(idx >>> 24);
+        b[1] = (byte)(idx >>> 16);
+        b[2] = (byte)(idx >>> 8);
+        b[3] = (byte)idx;
+        return new Text(b);
+    }
+
+    /**
+     * @param key the key a tuple was given by a {@link PigUnionRecordReader}
+     * @return the index of the split the tuple was read from
+     */
+    public static int getPartIndex(Text key) {
+        return WritableComparator.readInt(key.getBytes(), 0);
+    }
+
+    @Override
+    public long getLength() throws IOException, InterruptedException {
+        long length = 0;
+        for (PigSplit part : parts) {
+            length += part.getLength();
+        }
+        return length;
+    }
+
+    @Override
+    public String[] getLocations() throws IOException, InterruptedException {
+        // only run in local mode, but keep to the first few hosts as
+        // PigSplit does
+        Set<String> locations = new LinkedHashSet<String>();
+        for (PigSplit part : parts) {
+            for (String location : part.getLocations()) {
+                if (locations.size() < 5) {
+                    locations.add(location);
+                }
+            }
+        }
+        return locations.toArray(new String[locations.size()]);
+    }
+
+    public void write(DataOutput os) throws IOException {
+        os.writeInt(parts.length);
+        for (PigSplit part : parts) {
+            part.write(os);
+        }
+    }
+
+    public void readFields(DataInput is) throws IOException {
+        parts = new PigSplit[is.readInt()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new PigSplit();
+            parts[i].setConf(conf);
+            parts[i].readFields(is);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder st = new StringBuilder();
+        st.append("Number of union splits :" + parts.length + "\n");
+        for (int i = 0; i < parts.length; i++) {
+            st.append("Union split[" + i + "]:\n" + parts[i]);
+        }
+        return st.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigProgressable;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * The job configuration, UDF context and reporters of the task run by a
+ * thread. They are kept per thread so that tasks of several jobs can run
+ * at once in one JVM, and are not inherited by the threads a task starts:
+ * threads that work for the task are given them explicitly, while threads
+ * that outlive the task, such as the spill thread, get none.
+ */
+class TaskState {
+
+    private final JobContext jobContext;
+
+    private final UDFContext udfContext;
+
+    private final PigStatusReporter statusReporter;
+
+    private final PigProgressable reporter;
+
+    private TaskState() {
+        jobContext = PigMapReduce.getTaskJobContext();
+        udfContext = UDFContext.getUDFContext();
+        statusReporter = PigStatusReporter.getInstance();
+        reporter = PhysicalOperator.getReporter();
+    }
+
+    /**
+     * @return the state of the task run by the current thread
+     */
+    static TaskState get() {
+        return new TaskState();
+    }
+
+    /**
+     * Makes the current thread work for the task, until {@link #clear()}
+     * is called
+     */
+    void attach() {
+        if (jobContext != null) {
+            PigMapReduce.setTaskJobContext(jobContext);
+        }
+        UDFContext.setTaskContext(udfContext);
+        PigStatusReporter.setInstance(statusReporter);
+        PhysicalOperator.setReporter(reporter);
+    }
+
+    /**
+     * Forgets the state of the task run by the current thread, before the
+     * thread runs a task of another job or ends
+     */
+    static void clear() {
+        UDFContext.removeTaskContext();
+        PigStatusReporter.removeContext();
+        PhysicalOperator.setReporter(null);
+        PigMapReduce.removeJobContext();
+    }
+}
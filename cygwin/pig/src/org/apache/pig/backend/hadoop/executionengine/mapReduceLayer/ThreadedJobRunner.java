@@ -0,0 +1,1050 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.util.MapRedUtil;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.PigNullableWritable;
+import org.apache.pig.impl.logicalLayer.LogicalPlanBuilder;
+import org.apache.pig.impl.util.UDFContext;
+import org.apache.pig.tools.pigstats.PigStatsUtil;
+
+/**
+ * Runs the map reduce jobs produced by the {@link JobControlCompiler}
+ * inside the current JVM. The map tasks of a job are executed concurrently
+ * on a pool of threads, one task per input split. Map output is serialized
+ * into per task sort buffers which are sorted (and combined) as runs, kept in
+ * memory while they fit into the shuffle budget and spilled to local disk
+ * otherwise. Like Hadoop's local job runner at most one reduce task is run,
+ * which merges all runs, so the output is the same as in local mode.
+ * <p>
+ * The mapper, combiner and reducer classes set up by the
+ * {@link JobControlCompiler} are used unchanged.
+ */
+public class ThreadedJobRunner {
+
+    private static final Log log = LogFactory.getLog(ThreadedJobRunner.class);
+
+    /**
+     * Number of map tasks run concurrently, defaults to the number of
+     * available processors
+     */
+    public static final String THREADS = "pig.exec.threaded.maps";
+
+    /**
+     * Size of the sort buffer of each map task in megabytes
+     */
+    public static final String SORT_MB = "pig.exec.threaded.sort.mb";
+
+    /**
+     * Memory in megabytes shared by all finished map outputs of a job before
+     * they are spilled to local disk
+     */
+    public static final String SHUFFLE_MB = "pig.exec.threaded.shuffle.mb";
+
+    private static final String DEFAULT_SORT_MB = "32";
+
+    private static final String DEFAULT_SHUFFLE_MB = "128";
+
+    private static final String JOB_TRACKER_ID = "threaded";
+
+    // PigMapBase.setup() initializes singletons such as the package import
+    // list which are shared by all tasks of the JVM, and by the compilation
+    // of the jobs that are run while others are running. The UDFContext,
+    // the reporters and the job configuration are kept per task thread,
+    // see beginTask().
+    static final Object SETUP_LOCK = new Object();
+
+    private final int numThreads;
+
+    private final int sortBufferSize;
+
+    private final long shuffleMemory;
+
+    private final ExecutorService pool;
+
+    private int jobNumber = 0;
+
+    // the tasks done and the tasks of each running job
+    private final Map<JobID, AtomicIntegerArray> taskCounts =
+        new ConcurrentHashMap<JobID, AtomicIntegerArray>();
+
+    public ThreadedJobRunner(Properties properties) {
+        String threads = properties.getProperty(THREADS);
+        numThreads = (threads == null) ? Runtime.getRuntime()
+                .availableProcessors() : Integer.parseInt(threads);
+        sortBufferSize = Integer.parseInt(properties.getProperty(SORT_MB,
+                DEFAULT_SORT_MB)) * 1024 * 1024;
+        shuffleMemory = Long.parseLong(properties.getProperty(SHUFFLE_MB,
+                DEFAULT_SHUFFLE_MB)) * 1024 * 1024;
+        pool = Executors.newFixedThreadPool(numThreads, new TaskThreadFactory("PigThreadedMap-"));
+        log.info("Running map tasks on " + numThreads + " threads");
+    }
+
+    /**
+     * Returns a new id for the next job run by this runner
+     */
+    @SuppressWarnings("deprecation")
+    public org.apache.hadoop.mapred.JobID nextJobID() {
+        return new org.apache.hadoop.mapred.JobID(JOB_TRACKER_ID, ++jobNumber);
+    }
+
+    /**
+     * @return the memory in bytes the map outputs of a job with a reduce
+     *         may take
+     */
+    public long getShuffleMemory() {
+        return shuffleMemory;
+    }
+
+    /**
+     * @return the fraction of the tasks of a running job that are done, 0
+     *         if its tasks are not known yet
+     */
+    public float getProgress(JobID jobId) {
+        AtomicIntegerArray counts = taskCounts.get(jobId);
+        if (counts == null || counts.get(1) == 0) {
+            return 0;
+        }
+        return ((float)counts.get(0)) / counts.get(1);
+    }
+
+    /**
+     * Stops the threads of the pool. Must be called once all jobs are done.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs a job to completion.
+     *
+     * @param jobConf the configuration created by the {@link JobControlCompiler}
+     * @param jobId the id of the job
+     * @return the counters of the job
+     * @throws Exception the exception of the first task that failed
+     */
+    public Counters run(JobConf jobConf, JobID jobId) throws Exception {
+        beginTask();
+        try {
+            return runJob(jobConf, jobId);
+        } finally {
+            endTask();
+        }
+    }
+
+    /**
+     * Gives the current thread the state of a task of its own, so that
+     * tasks of other jobs running at the same time do not see it
+     */
+    private static void beginTask() {
+        UDFContext.createTaskContext();
+    }
+
+    /**
+     * Forgets the state of the task run by the current thread, before the
+     * thread runs a task of another job
+     */
+    private static void endTask() {
+        TaskState.clear();
+    }
+
+    @SuppressWarnings({ "unchecked", "deprecation" })
+    private Counters runJob(JobConf jobConf, JobID jobId) throws Exception {
+        // the load and store functions set up on this thread see the UDF
+        // properties of this job, as they would on the front end
+        MapRedUtil.setupUDFContext(jobConf);
+        JobContext jobContext = new JobContext(jobConf, jobId);
+        TaskReporter reporter = new TaskReporter();
+
+        InputFormat inputFormat = ReflectionUtils.newInstance(
+                jobContext.getInputFormatClass(), jobConf);
+        List<InputSplit> splits = inputFormat.getSplits(jobContext);
+        OutputFormat outputFormat = ReflectionUtils.newInstance(
+                jobContext.getOutputFormatClass(), jobConf);
+        OutputCommitter jobCommitter = outputFormat.getOutputCommitter(
+                new TaskAttemptContext(jobConf, newAttemptID(jobId, true, 0)));
+        jobCommitter.setupJob(jobContext);
+
+        // as with the local job runner there is at most one reducer
+        Shuffle shuffle = (jobContext.getNumReduceTasks() > 0) ? new Shuffle(
+                jobContext) : null;
+        AtomicIntegerArray counts = new AtomicIntegerArray(2);
+        counts.set(1, splits.size() + (shuffle == null ? 0 : 1));
+        taskCounts.put(jobId, counts);
+        try {
+            log.info("Running " + splits.size() + " map task(s) for " + jobId);
+            List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+            for (int i = 0; i < splits.size(); i++) {
+                tasks.add(pool.submit(new MapTask(jobConf, jobId, i, splits
+                        .get(i), shuffle, reporter, counts)));
+            }
+            waitFor(tasks);
+
+            if (shuffle != null) {
+                runReduce(jobConf, jobId, shuffle, reporter);
+                counts.incrementAndGet(0);
+            }
+        } finally {
+            taskCounts.remove(jobId);
+            if (shuffle != null) {
+                shuffle.close();
+            }
+        }
+
+        jobCommitter.cleanupJob(jobContext);
+        return reporter.getCounters();
+    }
+
+    private void waitFor(List<Future<Object>> tasks) throws Exception {
+        try {
+            for (Future<Object> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Object> task : tasks) {
+                task.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            } else if (cause instanceof OutOfMemoryError) {
+                int errCode = 6016;
+                String msg = "Out of memory.";
+                throw new ExecException(msg, errCode,
+                        PigException.REMOTE_ENVIRONMENT, cause);
+            } else {
+                int errCode = 2117;
+                String msg = "Unexpected error when running map task.";
+                throw new ExecException(msg, errCode, PigException.BUG, cause);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "deprecation" })
+    private void runReduce(JobConf jobConf, JobID jobId, Shuffle shuffle,
+            TaskReporter reporter) throws Exception {
+        TaskAttemptID attemptId = newAttemptID(jobId, false, 0);
+        JobConf taskConf = localize(jobConf, attemptId, false, 0);
+        TaskAttemptContext taskContext = new TaskAttemptContext(taskConf,
+                attemptId);
+
+        OutputFormat outputFormat = ReflectionUtils.newInstance(
+                taskContext.getOutputFormatClass(), taskConf);
+        OutputCommitter committer = outputFormat.getOutputCommitter(taskContext);
+        committer.setupTask(taskContext);
+
+        Reducer reducer = ReflectionUtils.newInstance(
+                taskContext.getReducerClass(), taskConf);
+        RecordWriter output = new CountingRecordWriter(outputFormat
+                .getRecordWriter(taskContext), reporter
+                .getTaskCounter(PigStatsUtil.REDUCE_OUTPUT_RECORDS));
+        RawKeyValueIterator input = shuffle.merge();
+        try {
+            Reducer.Context context = reducer.new Context(taskConf, attemptId,
+                    input, reporter.getTaskCounter("REDUCE_INPUT_GROUPS"),
+                    reporter.getTaskCounter(PigStatsUtil.REDUCE_INPUT_RECORDS),
+                    output, committer, reporter, taskContext
+                            .getGroupingComparator(), taskContext
+                            .getMapOutputKeyClass(), taskContext
+                            .getMapOutputValueClass());
+            if (reducer instanceof PigMapReduce.Reduce) {
+                PigMapReduce.Reduce pigReducer = (PigMapReduce.Reduce)reducer;
+                synchronized (SETUP_LOCK) {
+                    pigReducer.setup(context);
+                }
+                while (context.nextKey()) {
+                    pigReducer.reduce((PigNullableWritable)context
+                            .getCurrentKey(), context.getValues(), context);
+                }
+                pigReducer.cleanup(context);
+            } else {
+                reducer.run(context);
+            }
+            output.close(context);
+            if (committer.needsTaskCommit(taskContext)) {
+                committer.commitTask(taskContext);
+            }
+        } catch (Exception e) {
+            committer.abortTask(taskContext);
+            throw e;
+        } finally {
+            input.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static TaskAttemptID newAttemptID(JobID jobId, boolean isMap,
+            int partition) {
+        return new TaskAttemptID(new TaskID(jobId, isMap, partition), 0);
+    }
+
+    /**
+     * Creates the configuration of a task, filling in the task specific
+     * properties that the task tracker would set
+     */
+    private static JobConf localize(JobConf jobConf, TaskAttemptID attemptId,
+            boolean isMap, int partition) {
+        JobConf taskConf = new JobConf(jobConf);
+        taskConf.set("mapred.job.id", attemptId.getJobID().toString());
+        taskConf.set("mapred.tip.id", attemptId.getTaskID().toString());
+        taskConf.set("mapred.task.id", attemptId.toString());
+        taskConf.setBoolean("mapred.task.is.map", isMap);
+        taskConf.setInt("mapred.task.partition", partition);
+        return taskConf;
+    }
+
+    /**
+     * Runs one input split through the mapper of the job
+     */
+    private class MapTask implements java.util.concurrent.Callable<Object> {
+
+        private JobConf jobConf;
+        private JobID jobId;
+        private int partition;
+        private InputSplit split;
+        private Shuffle shuffle;
+        private TaskReporter reporter;
+        private AtomicIntegerArray counts;
+
+        MapTask(JobConf jobConf, JobID jobId, int partition, InputSplit split,
+                Shuffle shuffle, TaskReporter reporter, AtomicIntegerArray counts) {
+            this.jobConf = jobConf;
+            this.jobId = jobId;
+            this.partition = partition;
+            this.split = split;
+            this.shuffle = shuffle;
+            this.reporter = reporter;
+            this.counts = counts;
+        }
+
+        public Object call() throws Exception {
+            beginTask();
+            try {
+                runTask();
+            } finally {
+                endTask();
+            }
+            counts.incrementAndGet(0);
+            return null;
+        }
+
+        @SuppressWarnings({ "unchecked", "deprecation" })
+        private void runTask() throws Exception {
+            TaskAttemptID attemptId = newAttemptID(jobId, true, partition);
+            JobConf taskConf = localize(jobConf, attemptId, true, partition);
+            TaskAttemptContext taskContext = new TaskAttemptContext(taskConf,
+                    attemptId);
+
+            InputFormat inputFormat = ReflectionUtils.newInstance(
+                    taskContext.getInputFormatClass(), taskConf);
+            OutputFormat outputFormat = ReflectionUtils.newInstance(
+                    taskContext.getOutputFormatClass(), taskConf);
+            OutputCommitter committer = outputFormat
+                    .getOutputCommitter(taskContext);
+            committer.setupTask(taskContext);
+
+            Mapper mapper = ReflectionUtils.newInstance(taskContext
+                    .getMapperClass(), taskConf);
+            RecordReader input = new CountingRecordReader(inputFormat
+                    .createRecordReader(split, taskContext), reporter
+                    .getTaskCounter(PigStatsUtil.MAP_INPUT_RECORDS));
+            Counter outputCounter = reporter
+                    .getTaskCounter(PigStatsUtil.MAP_OUTPUT_RECORDS);
+            RecordWriter output = (shuffle == null) ? new CountingRecordWriter(
+                    outputFormat.getRecordWriter(taskContext), outputCounter)
+                    : new MapOutputBuffer(shuffle, taskConf, attemptId,
+                            committer, reporter, outputCounter);
+            try {
+                Mapper.Context context = mapper.new Context(taskConf,
+                        attemptId, input, output, committer, reporter, split);
+                input.initialize(split, context);
+                if (mapper instanceof PigMapBase) {
+                    PigMapBase pigMapper = (PigMapBase)mapper;
+                    synchronized (SETUP_LOCK) {
+                        pigMapper.setup(context);
+                    }
+                    while (context.nextKeyValue()) {
+                        pigMapper.map((Text)context.getCurrentKey(),
+                                (Tuple)context.getCurrentValue(), context);
+                    }
+                    pigMapper.cleanup(context);
+                } else {
+                    mapper.run(context);
+                }
+                input.close();
+                output.close(context);
+                if (committer.needsTaskCommit(taskContext)) {
+                    committer.commitTask(taskContext);
+                }
+            } catch (Exception e) {
+                committer.abortTask(taskContext);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Collects the sorted runs of all map tasks of a job and merges them
+     * for the reducer
+     */
+    private class Shuffle {
+
+        private JobContext jobContext;
+
+        private RawComparator<?> comparator;
+
+        private List<Run> runs = Collections.synchronizedList(new ArrayList<Run>());
+
+        private AtomicLong memoryUsed = new AtomicLong(0);
+
+        private AtomicInteger runNumber = new AtomicInteger(0);
+
+        Shuffle(JobContext jobContext) {
+            this.jobContext = jobContext;
+            this.comparator = jobContext.getSortComparator();
+        }
+
+        /**
+         * Adds a sorted run to the shuffle. The run stays in memory if there
+         * is room left in the shuffle budget and is written to a local file
+         * otherwise.
+         */
+        void addRun(int mapIndex, DataOutputBuffer data, boolean lastRun)
+                throws IOException {
+            int length = data.getLength();
+            Run run;
+            if (lastRun && memoryUsed.addAndGet(length) <= shuffleMemory) {
+                byte[] bytes = new byte[length];
+                System.arraycopy(data.getData(), 0, bytes, 0, length);
+                run = new Run(mapIndex, runNumber.getAndIncrement(), bytes);
+            } else {
+                if (lastRun) {
+                    memoryUsed.addAndGet(-length);
+                }
+                File file = File.createTempFile("pigshuffle", ".run");
+                file.deleteOnExit();
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(data.getData(), 0, length);
+                } finally {
+                    out.close();
+                }
+                run = new Run(mapIndex, runNumber.getAndIncrement(), file);
+            }
+            runs.add(run);
+        }
+
+        RawKeyValueIterator merge() throws IOException {
+            List<Run> sorted = new ArrayList<Run>(runs);
+            // merge the runs in map order so that the reducer sees the
+            // values of a key in the same order as with the local job runner
+            Collections.sort(sorted);
+            log.info("Merging " + sorted.size() + " sorted map output run(s)");
+            return new MergingIterator(sorted, comparator);
+        }
+
+        void close() {
+            for (Run run : runs) {
+                run.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * A sorted run of serialized key value pairs, each stored as
+     * &lt;key length&gt;&lt;value length&gt;&lt;key&gt;&lt;value&gt; with
+     * lengths written as vints
+     */
+    private static class Run implements Comparable<Run> {
+
+        private int mapIndex;
+        private int number;
+        private byte[] data;
+        private File file;
+
+        Run(int mapIndex, int number, byte[] data) {
+            this.mapIndex = mapIndex;
+            this.number = number;
+            this.data = data;
+        }
+
+        Run(int mapIndex, int number, File file) {
+            this.mapIndex = mapIndex;
+            this.number = number;
+            this.file = file;
+        }
+
+        RunReader open() throws IOException {
+            if (data != null) {
+                return new RunReader(this, new DataInputStream(
+                        new ByteArrayInputStream(data)));
+            }
+            return new RunReader(this, new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 65536)));
+        }
+
+        void delete() {
+            data = null;
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        public int compareTo(Run other) {
+            if (mapIndex != other.mapIndex) {
+                return (mapIndex < other.mapIndex) ? -1 : 1;
+            }
+            return (number < other.number) ? -1 : (number == other.number ? 0 : 1);
+        }
+    }
+
+    /**
+     * Reads the records of a run one at a time
+     */
+    private static class RunReader {
+
+        private Run run;
+        private DataInputStream in;
+        private byte[] key = new byte[256];
+        private byte[] value = new byte[1024];
+        private int keyLength;
+        private int valueLength;
+
+        RunReader(Run run, DataInputStream in) {
+            this.run = run;
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            try {
+                keyLength = WritableUtils.readVInt(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            valueLength = WritableUtils.readVInt(in);
+            if (key.length < keyLength) {
+                key = new byte[Math.max(keyLength, key.length * 2)];
+            }
+            if (value.length < valueLength) {
+                value = new byte[Math.max(valueLength, value.length * 2)];
+            }
+            in.readFully(key, 0, keyLength);
+            in.readFully(value, 0, valueLength);
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Merges the sorted runs into one sorted stream for the reducer. The
+     * order of runs breaks ties between equal keys.
+     */
+    private static class MergingIterator implements RawKeyValueIterator {
+
+        private PriorityQueue<RunReader> queue;
+        private List<RunReader> readers = new ArrayList<RunReader>();
+        private RunReader current = null;
+        private DataInputBuffer key = new DataInputBuffer();
+        private DataInputBuffer value = new DataInputBuffer();
+        private Progress progress = new Progress();
+
+        @SuppressWarnings("unchecked")
+        MergingIterator(List<Run> runs, final RawComparator comparator)
+                throws IOException {
+            queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()),
+                    new Comparator<RunReader>() {
+                        public int compare(RunReader r1, RunReader r2) {
+                            int c = comparator.compare(r1.key, 0,
+                                    r1.keyLength, r2.key, 0, r2.keyLength);
+                            return (c != 0) ? c : r1.run.compareTo(r2.run);
+                        }
+                    });
+            for (Run run : runs) {
+                RunReader reader = run.open();
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        }
+
+        public boolean next() throws IOException {
+            if (current != null && current.next()) {
+                queue.add(current);
+            }
+            current = queue.poll();
+            if (current == null) {
+                return false;
+            }
+            key.reset(current.key, 0, current.keyLength);
+            value.reset(current.value, 0, current.valueLength);
+            return true;
+        }
+
+        public DataInputBuffer getKey() throws IOException {
+            return key;
+        }
+
+        public DataInputBuffer getValue() throws IOException {
+            return value;
+        }
+
+        public Progress getProgress() {
+            return progress;
+        }
+
+        public void close() throws IOException {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the records of a sort buffer in sorted order, used to
+     * feed the combiner
+     */
+    private static class BufferIterator implements RawKeyValueIterator {
+
+        private MapOutputBuffer buffer;
+        private int index = -1;
+        private DataInputBuffer key = new DataInputBuffer();
+        private DataInputBuffer value = new DataInputBuffer();
+        private Progress progress = new Progress();
+
+        BufferIterator(MapOutputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public boolean next() throws IOException {
+            if (++index >= buffer.count) {
+                return false;
+            }
+            int record = buffer.order[index] * 3;
+            int[] offsets = buffer.offsets;
+            byte[] data = buffer.data.getData();
+            key.reset(data, offsets[record], offsets[record + 1] - offsets[record]);
+            value.reset(data, offsets[record + 1], offsets[record + 2]
+                    - offsets[record + 1]);
+            return true;
+        }
+
+        public DataInputBuffer getKey() throws IOException {
+            return key;
+        }
+
+        public DataInputBuffer getValue() throws IOException {
+            return value;
+        }
+
+        public Progress getProgress() {
+            return progress;
+        }
+
+        public void close() throws IOException {
+        }
+    }
+
+    /**
+     * The output collector of a map task in a job with a reduce phase. Keeps
+     * the serialized map output in a buffer which is sorted, combined and
+     * handed to the shuffle as a run whenever it fills up and when the task
+     * is done.
+     */
+    @SuppressWarnings("unchecked")
+    private class MapOutputBuffer extends RecordWriter<Object, Object>
+            implements IndexedSortable {
+
+        private Shuffle shuffle;
+        private JobConf taskConf;
+        private TaskAttemptID attemptId;
+        private OutputCommitter committer;
+        private TaskReporter reporter;
+        private Counter outputCounter;
+        private RawComparator comparator;
+        private Class<?> combinerClass;
+
+        private DataOutputBuffer data = new DataOutputBuffer();
+        private Serializer keySerializer;
+        private Serializer valueSerializer;
+
+        // key start, value start and end of each record
+        private int[] offsets = new int[3 * 1024];
+        private int[] order = new int[1024];
+        private int count = 0;
+
+        MapOutputBuffer(Shuffle shuffle, JobConf taskConf,
+                TaskAttemptID attemptId, OutputCommitter committer,
+                TaskReporter reporter, Counter outputCounter)
+                throws IOException, ClassNotFoundException {
+            this.shuffle = shuffle;
+            this.taskConf = taskConf;
+            this.attemptId = attemptId;
+            this.committer = committer;
+            this.reporter = reporter;
+            this.outputCounter = outputCounter;
+            comparator = shuffle.jobContext.getSortComparator();
+            combinerClass = shuffle.jobContext.getCombinerClass();
+            SerializationFactory factory = new SerializationFactory(taskConf);
+            keySerializer = factory.getSerializer(shuffle.jobContext
+                    .getMapOutputKeyClass());
+            keySerializer.open(data);
+            valueSerializer = factory.getSerializer(shuffle.jobContext
+                    .getMapOutputValueClass());
+            valueSerializer.open(data);
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException {
+            if (count == order.length) {
+                int[] newOffsets = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, newOffsets, 0, offsets.length);
+                offsets = newOffsets;
+                order = new int[order.length * 2];
+            }
+            int record = count * 3;
+            offsets[record] = data.getLength();
+            keySerializer.serialize(key);
+            offsets[record + 1] = data.getLength();
+            valueSerializer.serialize(value);
+            offsets[record + 2] = data.getLength();
+            count++;
+            outputCounter.increment(1);
+            if (data.getLength() >= sortBufferSize) {
+                flush(false);
+            }
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException,
+                InterruptedException {
+            if (count > 0) {
+                flush(true);
+            }
+            keySerializer.close();
+            valueSerializer.close();
+        }
+
+        public int compare(int i, int j) {
+            int ri = order[i] * 3;
+            int rj = order[j] * 3;
+            byte[] bytes = data.getData();
+            return comparator.compare(bytes, offsets[ri], offsets[ri + 1]
+                    - offsets[ri], bytes, offsets[rj], offsets[rj + 1]
+                    - offsets[rj]);
+        }
+
+        public void swap(int i, int j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        private void flush(boolean lastRun) throws IOException {
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            new QuickSort().sort(this, 0, count, reporter);
+
+            DataOutputBuffer run = new DataOutputBuffer(data.getLength() + 5 * count);
+            if (combinerClass != null) {
+                combine(run);
+            } else {
+                BufferIterator records = new BufferIterator(this);
+                while (records.next()) {
+                    writeRecord(run, records.getKey(), records.getValue());
+                }
+            }
+            shuffle.addRun(attemptId.getTaskID().getId(), run, lastRun);
+            data.reset();
+            count = 0;
+        }
+
+        private void combine(final DataOutputBuffer run) throws IOException {
+            final SerializationFactory factory = new SerializationFactory(taskConf);
+            RecordWriter<Object, Object> sink = new RecordWriter<Object, Object>() {
+                private DataOutputBuffer record = new DataOutputBuffer();
+                private Serializer keyOut = factory.getSerializer(shuffle.jobContext
+                        .getMapOutputKeyClass());
+                private Serializer valueOut = factory.getSerializer(shuffle.jobContext
+                        .getMapOutputValueClass());
+                {
+                    keyOut.open(record);
+                    valueOut.open(record);
+                }
+
+                @Override
+                public void write(Object key, Object value) throws IOException {
+                    record.reset();
+                    keyOut.serialize(key);
+                    int keyLength = record.getLength();
+                    valueOut.serialize(value);
+                    WritableUtils.writeVInt(run, keyLength);
+                    WritableUtils.writeVInt(run, record.getLength() - keyLength);
+                    run.write(record.getData(), 0, record.getLength());
+                }
+
+                @Override
+                public void close(TaskAttemptContext context) {
+                }
+            };
+            Reducer combiner = (Reducer)ReflectionUtils.newInstance(
+                    combinerClass, taskConf);
+            try {
+                Reducer.Context context = combiner.new Context(taskConf,
+                        attemptId, new BufferIterator(this), reporter
+                                .getTaskCounter("COMBINE_INPUT_RECORDS"),
+                        reporter.getTaskCounter("COMBINE_OUTPUT_RECORDS"),
+                        sink, committer, reporter, comparator, shuffle.jobContext
+                                .getMapOutputKeyClass(), shuffle.jobContext
+                                .getMapOutputValueClass());
+                if (combiner instanceof PigCombiner.Combine) {
+                    // the combiner is set up like the mapper, the map tasks
+                    // of the job combine their output at the same time
+                    PigCombiner.Combine pigCombiner = (PigCombiner.Combine)combiner;
+                    synchronized (SETUP_LOCK) {
+                        pigCombiner.setup(context);
+                    }
+                    while (context.nextKey()) {
+                        pigCombiner.reduce((PigNullableWritable)context
+                                .getCurrentKey(), context.getValues(), context);
+                    }
+                    pigCombiner.cleanup(context);
+                } else {
+                    combiner.run(context);
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void writeRecord(DataOutputStream out, DataInputBuffer key,
+                DataInputBuffer value) throws IOException {
+            int keyLength = key.getLength() - key.getPosition();
+            int valueLength = value.getLength() - value.getPosition();
+            WritableUtils.writeVInt(out, keyLength);
+            WritableUtils.writeVInt(out, valueLength);
+            out.write(key.getData(), key.getPosition(), keyLength);
+            out.write(value.getData(), value.getPosition(), valueLength);
+        }
+    }
+
+    /**
+     * Counts the records read by a map task
+     */
+    @SuppressWarnings("unchecked")
+    private static class CountingRecordReader extends RecordReader {
+
+        private RecordReader in;
+        private Counter counter;
+
+        CountingRecordReader(RecordReader in, Counter counter) {
+            this.in = in;
+            this.counter = counter;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context)
+                throws IOException, InterruptedException {
+            in.initialize(split, context);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            boolean next = in.nextKeyValue();
+            if (next) {
+                counter.increment(1);
+            }
+            return next;
+        }
+
+        @Override
+        public Object getCurrentKey() throws IOException, InterruptedException {
+            return in.getCurrentKey();
+        }
+
+        @Override
+        public Object getCurrentValue() throws IOException,
+                InterruptedException {
+            return in.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return in.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Counts the records written to the job output
+     */
+    @SuppressWarnings("unchecked")
+    private static class CountingRecordWriter extends RecordWriter {
+
+        private RecordWriter out;
+        private Counter counter;
+
+        CountingRecordWriter(RecordWriter out, Counter counter) {
+            this.out = out;
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(Object key, Object value) throws IOException,
+                InterruptedException {
+            out.write(key, value);
+            counter.increment(1);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException,
+                InterruptedException {
+            out.close(context);
+        }
+    }
+
+    /**
+     * The status reporter shared by all tasks of a job. It collects the
+     * counters of the job.
+     */
+    @SuppressWarnings("deprecation")
+    private static class TaskReporter extends StatusReporter implements
+            org.apache.hadoop.util.Progressable {
+
+        private Counters counters = new Counters();
+
+        Counters getCounters() {
+            return counters;
+        }
+
+        Counter getTaskCounter(String name) {
+            return counters.findCounter(PigStatsUtil.TASK_COUNTER_GROUP, name);
+        }
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+
+    /**
+     * Creates the daemon threads that run the jobs and their map tasks. Like
+     * the job control thread they use the class loader of registered UDF jars.
+     */
+    static class TaskThreadFactory implements ThreadFactory {
+
+        private AtomicInteger threadNumber = new AtomicInteger(0);
+
+        private final String prefix;
+
+        TaskThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix
+                    + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(LogicalPlanBuilder.classloader);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.jobcontrol.Job;
+import org.apache.hadoop.mapred.jobcontrol.JobControl;
+import org.apache.pig.PigException;
+import org.apache.pig.PigRunner.ReturnCode;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.HExecutionEngine;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.plan.CompilationMessageCollector;
+import org.apache.pig.impl.plan.CompilationMessageCollector.MessageType;
+import org.apache.pig.impl.util.ConfigurationValidator;
+import org.apache.pig.impl.util.LogUtils;
+import org.apache.pig.tools.pigstats.PigStats;
+import org.apache.pig.tools.pigstats.PigStatsUtil;
+import org.apache.pig.tools.pigstats.ScriptState;
+
+/**
+ * Launcher for the threaded execution type. The map reduce plan is
+ * compiled into jobs exactly as in local mode, but the jobs are run by a
+ * {@link ThreadedJobRunner} inside this JVM instead of being submitted to
+ * Hadoop's local job runner.
+ * <p>
+ * Each job is compiled as soon as the jobs it depends on are done, and up
+ * to {@link #JOBS} independent jobs run at once, their map tasks sharing
+ * the threads of the job runner. A job with a reduce is only started while
+ * the map outputs of the running jobs can take its shuffle memory within
+ * {@link #JOBS_MB}.
+ */
+public class ThreadedLocalLauncher extends MapReduceLauncher {
+
+    private static final Log log = LogFactory.getLog(ThreadedLocalLauncher.class);
+
+    /**
+     * Number of jobs run at once
+     */
+    public static final String JOBS = "pig.exec.threaded.jobs";
+
+    /**
+     * Memory in megabytes the shuffles of the jobs run at once may take
+     */
+    public static final String JOBS_MB = "pig.exec.threaded.jobs.mb";
+
+    private static final String DEFAULT_JOBS = "1";
+
+    private static final String DEFAULT_JOBS_MB = "256";
+
+    // milliseconds between two progress updates
+    private static final long PROGRESS_INTERVAL = 500;
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public PigStats launchPig(PhysicalPlan php, String grpName, PigContext pc)
+            throws Exception {
+        aggregateWarning = "true".equalsIgnoreCase(pc.getProperties().getProperty("aggregate.warning"));
+        return launchPig(compile(php, pc), grpName, pc);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public PigStats launchPig(MROperPlan mrp, String grpName, PigContext pc)
+            throws Exception {
+        aggregateWarning = "true".equalsIgnoreCase(pc.getProperties().getProperty("aggregate.warning"));
+
+        HExecutionEngine exe = pc.getExecutionEngine();
+        ConfigurationValidator.validatePigProperties(exe.getConfiguration());
+        Configuration conf = ConfigurationUtil.toConfiguration(exe.getConfiguration());
+        JobClient jobClient = new JobClient(exe.getJobConf());
+
+        JobControlCompiler jcc = new JobControlCompiler(pc, conf);
+
+        // start collecting statistics
+        PigStatsUtil.startCollection(pc, jobClient, jcc, mrp);
+
+        List<Job> failedJobs = new LinkedList<Job>();
+        List<NativeMapReduceOper> failedNativeMR = new LinkedList<NativeMapReduceOper>();
+        List<Job> succJobs = new LinkedList<Job>();
+        Map<Job, Counters> jobCounters = new HashMap<Job, Counters>();
+        Map<Job, Exception> jobExceptions = new HashMap<Job, Exception>();
+        int totalMRJobs = mrp.size();
+        int numMRJobsCompl = 0;
+        double lastProg = -1;
+
+        boolean stop_on_failure =
+            pc.getProperties().getProperty("stop.on.failure", "false").equals("true");
+
+        Properties props = pc.getProperties();
+        int maxJobs = Integer.parseInt(props.getProperty(JOBS, DEFAULT_JOBS));
+        long jobsMemory = Long.parseLong(props.getProperty(JOBS_MB,
+                DEFAULT_JOBS_MB)) * 1024 * 1024;
+
+        ThreadedJobRunner runner = new ThreadedJobRunner(props);
+        ExecutorService jobPool = Executors.newFixedThreadPool(maxJobs,
+                new ThreadedJobRunner.TaskThreadFactory("PigThreadedJob-"));
+        CompletionService<JobRun> completed = new ExecutorCompletionService<JobRun>(jobPool);
+        // jobs compiled but not started yet, and jobs running
+        LinkedList<Job> queued = new LinkedList<Job>();
+        List<JobRun> running = new LinkedList<JobRun>();
+        Map<JobRun, Integer> lastJobProg = new HashMap<JobRun, Integer>();
+        long reserved = 0;
+        try {
+            while (mrp.size() != 0) {
+                if (hasNativeRoot(mrp)) {
+                    numMRJobsCompl += runNativeRoots(mrp, pc, failedNativeMR,
+                            stop_on_failure);
+                    double prog = ((double)numMRJobsCompl)/totalMRJobs;
+                    notifyProgress(prog, lastProg);
+                    lastProg = prog;
+                    continue;
+                }
+
+                // the roots of the plan that are not compiled yet have
+                // just become independent of the jobs left
+                JobControl jc;
+                synchronized (ThreadedJobRunner.SETUP_LOCK) {
+                    jc = jcc.compile(mrp, grpName, jcc.getJobMroMap().values());
+                }
+                List<Job> jobs = jc.getWaitingJobs();
+                if (!jobs.isEmpty()) {
+                    log.info(jobs.size() + " map-reduce job(s) waiting for execution.");
+                    ScriptState.get().emitJobsSubmittedNotification(jobs.size());
+                    queued.addAll(jobs);
+                }
+
+                Iterator<Job> it = queued.iterator();
+                while (it.hasNext()) {
+                    Job job = it.next();
+                    long memory = (job.getJobConf().getNumReduceTasks() > 0)
+                            ? runner.getShuffleMemory() : 0;
+                    // there is always one job running, whatever its memory
+                    if (!running.isEmpty() && (running.size() >= maxJobs
+                            || reserved + memory > jobsMemory)) {
+                        continue;
+                    }
+                    it.remove();
+                    JobID jobId = runner.nextJobID();
+                    job.setAssignedJobID(jobId);
+                    log.info("HadoopJobId: " + jobId);
+                    ScriptState.get().emitJobStartedNotification(jobId.toString());
+                    JobRun run = new JobRun(runner, job, jobId, memory);
+                    completed.submit(run);
+                    running.add(run);
+                    reserved += memory;
+                }
+                // update Pig stats' job DAG with the ids of the started jobs
+                PigStatsUtil.updateJobMroMap(jcc.getJobMroMap());
+
+                Future<JobRun> f = completed.poll(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                if (f == null) {
+                    double prog = numMRJobsCompl;
+                    for (JobRun run : running) {
+                        float jobProg = runner.getProgress(run.jobId);
+                        prog += jobProg;
+                        Integer last = lastJobProg.get(run);
+                        if (last == null || (int)(jobProg * 100) > last) {
+                            lastJobProg.put(run, (int)(jobProg * 100));
+                            ScriptState.get().emitJobProgressNotification(
+                                    run.jobId.toString(), (int)(jobProg * 100));
+                        }
+                    }
+                    prog /= totalMRJobs;
+                    notifyProgress(prog, lastProg);
+                    lastProg = Math.max(prog, lastProg);
+                    continue;
+                }
+
+                JobRun run = f.get();
+                running.remove(run);
+                lastJobProg.remove(run);
+                reserved -= run.memory;
+                Job job = run.job;
+                List<Job> failedInThisRun = new LinkedList<Job>();
+                List<Job> succeededInThisRun = new LinkedList<Job>();
+                if (run.exception == null) {
+                    jobCounters.put(job, run.counters);
+                    succeededInThisRun.add(job);
+                    ScriptState.get().emitJobProgressNotification(
+                            run.jobId.toString(), 100);
+                } else {
+                    Exception e = run.exception;
+                    job.setMessage(getStackStraceStr(e));
+                    LogUtils.writeLog("Error running job " + run.jobId,
+                            job.getMessage(), props.getProperty("pig.logfile"), log);
+                    if (stop_on_failure) {
+                        int errCode = 6017;
+                        throw new ExecException(
+                                getFirstLineFromMessage(job.getMessage()),
+                                errCode, PigException.REMOTE_ENVIRONMENT, e);
+                    }
+                    log.info("job " + run.jobId + " has failed! Stop running all dependent jobs");
+                    jobExceptions.put(job, e);
+                    failedInThisRun.add(job);
+                }
+                double prog = ((double)++numMRJobsCompl)/totalMRJobs;
+                notifyProgress(prog, lastProg);
+                lastProg = Math.max(prog, lastProg);
+                failedJobs.addAll(failedInThisRun);
+
+                // removes the job from the plan, so that the jobs that
+                // depend on it become roots
+                jcc.updateMROpPlan(succeededInThisRun, failedInThisRun);
+
+                jcc.moveResults(succeededInThisRun);
+                succJobs.addAll(succeededInThisRun);
+
+                // collecting statistics
+                PigStatsUtil.accumulateStats(succeededInThisRun,
+                        failedInThisRun, jobCounters);
+            }
+        } finally {
+            jobPool.shutdownNow();
+            runner.shutdown();
+        }
+
+        ScriptState.get().emitProgressUpdatedNotification(100);
+
+        log.info( "100% complete");
+
+        boolean failed = failedNativeMR.size() > 0;
+
+        for (Job fj : failedJobs) {
+            Exception backendException = jobExceptions.get(fj);
+            for (POStore st : jcc.getStores(fj)) {
+                failureMap.put(st.getSFile(), backendException);
+            }
+            PigStatsUtil.setBackendException(fj, backendException);
+            failed = true;
+        }
+
+        // stats collection is done, log the results
+        PigStatsUtil.stopCollection(true);
+
+        Map<Enum, Long> warningAggMap = new HashMap<Enum, Long>();
+
+        for (Job job : succJobs) {
+            // the job runner cleans up the output committer of a job, so
+            // unlike with the local job runner the schema is already stored
+            for (POStore st : jcc.getStores(job)) {
+                if (!st.isTmpStore()) {
+                    // create an "_SUCCESS" file in output location if
+                    // output location is a filesystem dir
+                    createSuccessFile(job, st);
+                } else {
+                    log.debug("Successfully stored result in: \""
+                            + st.getSFile().getFileName() + "\"");
+                }
+            }
+            if (aggregateWarning) {
+                computeWarningAggregate(jobCounters.get(job), warningAggMap);
+            }
+        }
+
+        if(aggregateWarning) {
+            CompilationMessageCollector.logAggregate(warningAggMap, MessageType.Warning, log) ;
+        }
+
+        if (!failed) {
+            log.info("Success!");
+        } else {
+            if (succJobs.size() > 0) {
+                log.info("Some jobs have failed! Stop running all dependent jobs");
+            } else {
+                log.info("Failed!");
+            }
+        }
+        jcc.reset();
+
+        int ret = failed ? ((succJobs.size() > 0)
+                ? ReturnCode.PARTIAL_FAILURE
+                : ReturnCode.FAILURE)
+                : ReturnCode.SUCCESS;
+        return PigStatsUtil.getPigStats(ret);
+    }
+
+    private static boolean hasNativeRoot(MROperPlan mrp) {
+        for (MapReduceOper mro : mrp.getRoots()) {
+            if (mro instanceof NativeMapReduceOper) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a job with the job runner, on a thread of its own
+     */
+    private static class JobRun implements Callable<JobRun> {
+        final ThreadedJobRunner runner;
+        final Job job;
+        final JobID jobId;
+        final long memory;
+        Counters counters = null;
+        Exception exception = null;
+
+        JobRun(ThreadedJobRunner runner, Job job, JobID jobId, long memory) {
+            this.runner = runner;
+            this.job = job;
+            this.jobId = jobId;
+            this.memory = memory;
+        }
+
+        public JobRun call() {
+            try {
+                counters = runner.run(job.getJobConf(), jobId);
+            } catch (Exception e) {
+                exception = e;
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Runs the native map reduce operators among the roots of the plan and
+     * removes them from the plan
+     *
+     * @return the number of native jobs that were run
+     */
+    private int runNativeRoots(MROperPlan mrp, PigContext pc,
+            List<NativeMapReduceOper> failedNativeMR, boolean stop_on_failure)
+            throws ExecException {
+        int numRun = 0;
+        List<MapReduceOper> roots = new LinkedList<MapReduceOper>();
+        roots.addAll(mrp.getRoots());
+        for (MapReduceOper mro : roots) {
+            if (mro instanceof NativeMapReduceOper) {
+                NativeMapReduceOper natOp = (NativeMapReduceOper)mro;
+                try {
+                    ScriptState.get().emitJobsSubmittedNotification(1);
+                    natOp.runJob();
+                } catch (IOException e) {
+                    mrp.trimBelow(natOp);
+                    failedNativeMR.add(natOp);
+
+                    String msg = "Error running native mapreduce" +
+                    " operator job :" + natOp.getJobId() + e.getMessage();
+                    LogUtils.writeLog(msg, getStackStraceStr(e), pc
+                            .getProperties().getProperty("pig.logfile"), log);
+                    log.info(msg);
+
+                    if (stop_on_failure) {
+                        int errCode = 6017;
+                        throw new ExecException(msg, errCode,
+                                PigException.REMOTE_ENVIRONMENT);
+                    }
+                }
+                numRun++;
+                mrp.remove(natOp);
+            }
+        }
+        return numRun;
+    }
+}
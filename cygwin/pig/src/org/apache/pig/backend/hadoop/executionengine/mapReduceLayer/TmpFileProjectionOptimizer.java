@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.FuncSpec;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLoad;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POUnion;
+import org.apache.pig.impl.io.ColumnarStorage;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.plan.DependencyOrderWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Tells the loads of temp files written with {@link ColumnarStorage}
+ * which columns the map reads, so that the others are not decoded. The
+ * columns are known when the load only feeds foreachs, possibly through
+ * filters and unions, whose inner plans project explicit columns.
+ */
+class TmpFileProjectionOptimizer extends MROpPlanVisitor {
+
+    private Log log = LogFactory.getLog(getClass());
+
+    TmpFileProjectionOptimizer(MROperPlan plan) {
+        super(plan, new DependencyOrderWalker<MapReduceOper, MROperPlan>(plan));
+    }
+
+    @Override
+    public void visitMROp(MapReduceOper mr) throws VisitorException {
+        for (PhysicalOperator root : mr.mapPlan.getRoots()) {
+            if (!(root instanceof POLoad)) continue;
+            POLoad load = (POLoad)root;
+            FileSpec lFile = load.getLFile();
+            if (lFile == null
+                    || !ColumnarStorage.class.getName().equals(lFile.getFuncName())
+                    || lFile.getFuncSpec().getCtorArgs() != null) {
+                continue;
+            }
+            Set<Integer> cols = new TreeSet<Integer>();
+            if (!addRequiredColumns(mr.mapPlan, load, cols) || cols.isEmpty()) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int col : cols) {
+                if (sb.length() > 0) sb.append(",");
+                sb.append(col);
+            }
+            log.info("Reading columns " + sb + " of " + lFile.getFileName());
+            load.setLFile(new FileSpec(lFile.getFileName(),
+                    new FuncSpec(ColumnarStorage.class.getName(),
+                            new String[] { sb.toString() })));
+        }
+    }
+
+    /**
+     * Adds the columns of the output of op that its successors read.
+     * @return false if they may read all of them
+     */
+    private boolean addRequiredColumns(PhysicalPlan plan, PhysicalOperator op,
+            Set<Integer> cols) {
+        List<PhysicalOperator> succs = plan.getSuccessors(op);
+        if (succs == null || succs.isEmpty()) {
+            return false;
+        }
+        for (PhysicalOperator succ : succs) {
+            if (succ instanceof POForEach) {
+                for (PhysicalPlan inner : ((POForEach)succ).getInputPlans()) {
+                    if (!addProjectedColumns(inner, cols)) return false;
+                }
+            } else if (succ instanceof POFilter) {
+                // a filter passes its input on whole
+                if (!addProjectedColumns(((POFilter)succ).getPlan(), cols)
+                        || !addRequiredColumns(plan, succ, cols)) {
+                    return false;
+                }
+            } else if (succ instanceof POUnion) {
+                if (!addRequiredColumns(plan, succ, cols)) return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean addProjectedColumns(PhysicalPlan inner, Set<Integer> cols) {
+        for (PhysicalOperator root : inner.getRoots()) {
+            if (!(root instanceof POProject)) continue;
+            POProject proj = (POProject)root;
+            if (proj.isStar() || proj.getColumns() == null
+                    || proj.getColumns().isEmpty()) {
+                return false;
+            }
+            cols.addAll(proj.getColumns());
+        }
+        return true;
+    }
+}
@@ -17,10 +17,12 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer;
 
+import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POUserFunc;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFRJoin;
 import org.apache.pig.impl.plan.PlanWalker;
 import org.apache.pig.impl.plan.VisitorException;
 
@@ -36,4 +38,14 @@ public class UDFFinishVisitor extends PhyPlanVisitor {
         userFunc.finish();
     }
 
+    @Override
+    public void visitFRJoin(POFRJoin join) throws VisitorException {
+        super.visitFRJoin(join);
+        try {
+            join.cleanup();
+        } catch (ExecException e) {
+            throw new VisitorException(e);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataReaderWriter;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A mergeable quantile sketch of sort keys, after the KLL sketch of Karnin,
+ * Lang and Liberty. Keys are kept in levels, the keys of level i standing
+ * for 2^i keys each. When a level is full it is sorted and every other key
+ * is promoted to the next level, so that a sketch of n keys holds
+ * O(k log(n/k)) of them whatever the size of the input. The lower levels
+ * are given less room than the higher ones, which keeps the rank error
+ * close to n/k.
+ * <p>
+ * Sketches built in different tasks are merged by concatenating their
+ * levels, so the partition boundaries of an order by can be found from
+ * the sketches of all the tasks that wrote its input.
+ */
+public class QuantileSketch {
+
+    /**
+     * Default number of keys kept in the highest level
+     */
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private static final double CAPACITY_RATIO = 2.0 / 3;
+
+    private final int k;
+
+    private final Comparator<Tuple> comparator;
+
+    // levels.get(i) holds the keys of weight 2^i
+    private final List<List<Tuple>> levels = new ArrayList<List<Tuple>>();
+
+    private long count = 0;
+
+    private final Random random = new Random();
+
+    public QuantileSketch(int k, Comparator<Tuple> comparator) {
+        this.k = Math.max(MIN_CAPACITY, k);
+        this.comparator = comparator;
+        levels.add(new ArrayList<Tuple>());
+    }
+
+    /**
+     * @return the number of keys that were added to this sketch and the
+     * sketches merged into it
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of keys held by the sketch
+     */
+    public int getRetained() {
+        int retained = 0;
+        for (List<Tuple> level : levels) {
+            retained += level.size();
+        }
+        return retained;
+    }
+
+    public void add(Tuple key) {
+        List<Tuple> level = levels.get(0);
+        level.add(key);
+        count++;
+        if (level.size() >= capacity(0)) {
+            compress();
+        }
+    }
+
+    public void merge(QuantileSketch other) {
+        while (levels.size() < other.levels.size()) {
+            levels.add(new ArrayList<Tuple>());
+        }
+        for (int i = 0; i < other.levels.size(); i++) {
+            levels.get(i).addAll(other.levels.get(i));
+        }
+        count += other.count;
+        compress();
+    }
+
+    private int capacity(int level) {
+        int depth = levels.size() - level - 1;
+        return Math.max(MIN_CAPACITY,
+                (int)Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private void compress() {
+        for (int i = 0; i < levels.size(); i++) {
+            List<Tuple> level = levels.get(i);
+            if (level.size() < capacity(i)) {
+                continue;
+            }
+            if (i + 1 == levels.size()) {
+                levels.add(new ArrayList<Tuple>());
+            }
+            List<Tuple> next = levels.get(i + 1);
+            Collections.sort(level, comparator);
+            // an odd key stays behind, so that no weight is lost
+            int pairs = level.size() / 2;
+            int offset = random.nextBoolean() ? 1 : 0;
+            for (int j = 0; j < pairs; j++) {
+                next.add(level.get(2 * j + offset));
+            }
+            List<Tuple> rest = new ArrayList<Tuple>();
+            if (level.size() % 2 == 1) {
+                rest.add(level.get(level.size() - 1));
+            }
+            levels.set(i, rest);
+        }
+    }
+
+    /**
+     * Returns a sorted sample of the keys, as a sampler of the input would.
+     * The keys are evenly spaced by rank, so a key that covers a large part
+     * of the input is repeated in the sample.
+     * @param size number of keys to return
+     * @return the sorted sample, empty if no key was added
+     */
+    public List<Tuple> getSample(int size) {
+        List<Tuple> keys = new ArrayList<Tuple>(getRetained());
+        List<Long> weights = new ArrayList<Long>(getRetained());
+        List<Integer> order = new ArrayList<Integer>(getRetained());
+        for (int i = 0; i < levels.size(); i++) {
+            for (Tuple key : levels.get(i)) {
+                order.add(keys.size());
+                keys.add(key);
+                weights.add(1L << i);
+            }
+        }
+        final List<Tuple> all = keys;
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return comparator.compare(all.get(i1), all.get(i2));
+            }
+        });
+
+        List<Tuple> sample = new ArrayList<Tuple>(size);
+        long total = 0;
+        for (long w : weights) {
+            total += w;
+        }
+        if (total == 0 || size <= 0) {
+            return sample;
+        }
+        long seen = 0;
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            // the key at the middle of the i-th of size equal ranges
+            double rank = (i + 0.5) * total / size;
+            while (next < order.size() - 1
+                    && seen + weights.get(order.get(next)) <= rank) {
+                seen += weights.get(order.get(next));
+                next++;
+            }
+            sample.add(keys.get(order.get(next)));
+        }
+        return sample;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(k);
+        out.writeLong(count);
+        out.writeInt(levels.size());
+        for (List<Tuple> level : levels) {
+            out.writeInt(level.size());
+            for (Tuple key : level) {
+                DataReaderWriter.writeDatum(out, key);
+            }
+        }
+    }
+
+    public static QuantileSketch read(DataInput in, Comparator<Tuple> comparator)
+            throws IOException {
+        QuantileSketch sketch = new QuantileSketch(in.readInt(), comparator);
+        sketch.count = in.readLong();
+        int numLevels = in.readInt();
+        sketch.levels.clear();
+        for (int i = 0; i < numLevels; i++) {
+            int size = in.readInt();
+            List<Tuple> level = new ArrayList<Tuple>(size);
+            for (int j = 0; j < size; j++) {
+                level.add((Tuple)DataReaderWriter.readDatum(in));
+            }
+            sketch.levels.add(level);
+        }
+        return sketch;
+    }
+
+    /**
+     * Orders sort keys the way the order by does, given the asc/desc flag
+     * of each key column. A single flag applies to the whole key.
+     */
+    public static class KeyComparator implements Comparator<Tuple> {
+
+        private boolean[] asc;
+
+        private boolean allAsc = true;
+
+        private boolean allDesc = true;
+
+        public KeyComparator(boolean[] asc) {
+            this.asc = asc == null ? new boolean[0] : asc;
+            for (boolean b : this.asc) {
+                if (b) allDesc = false;
+                else allAsc = false;
+            }
+            if (this.asc.length == 0) {
+                allDesc = false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public int compare(Tuple t1, Tuple t2) {
+            if (allAsc) {
+                return t1.compareTo(t2);
+            }
+            if (allDesc) {
+                return t2.compareTo(t1);
+            }
+            int sz1 = t1.size();
+            int sz2 = t2.size();
+            if (sz1 != sz2) {
+                return sz1 < sz2 ? -1 : 1;
+            }
+            for (int i = 0; i < sz1; i++) {
+                try {
+                    int c = DataType.compare(t1.get(i), t2.get(i));
+                    if (c != 0) {
+                        return i < asc.length && !asc[i] ? -c : c;
+                    }
+                } catch (ExecException e) {
+                    throw new RuntimeException("Unable to compare tuples", e);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -88,6 +88,9 @@ public class MRPrinter extends MROpPlanVisitor {
         if (mr.getQuantFile() != null) {
             mStream.println("Quantile file: " + mr.getQuantFile());
         }
+        if (mr.getQuantSketchDir() != null) {
+            mStream.println("Quantile sketches: " + mr.getQuantSketchDir());
+        }
         if (mr.getUseSecondaryKey())
             mStream.println("Secondary sort: " + mr.getUseSecondaryKey());
         mStream.println("----------------");
@@ -23,6 +23,7 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
@@ -31,6 +32,7 @@ import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
 import org.apache.pig.impl.plan.Operator;
 import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.impl.plan.VisitorException;
@@ -86,6 +88,9 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
     // If inputAttached is true, input is set to the input tuple
     protected Tuple input = null;
 
+    // A batch of input tuples attached directly to this operator
+    protected transient TupleBatch inputBatch = null;
+
     // The result of performing the operation along with the output
     protected Result res = null;
     
@@ -98,6 +103,11 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
     // wrap their own version of a reporter.
     public static PigProgressable reporter;
 
+    // The reporter of the task run by the current thread, as tasks of
+    // several jobs may run at once in one JVM. reporter is the one set last.
+    private static final ThreadLocal<PigProgressable> taskReporter =
+        new ThreadLocal<PigProgressable>();
+
     // Will be used by operators to aggregate warning messages
     // Should be set by the backends to appropriate implementations that
     // wrap their own version of a logger.
@@ -130,6 +140,10 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
     private boolean accum;
     private transient boolean accumStart;
 
+    // The runtime profile of this operator, null unless the task profiles
+    // its operators
+    protected transient OperatorProfile profile = null;
+
     public PhysicalOperator(OperatorKey k) {
         this(k, -1, null);
     }
@@ -207,6 +221,18 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
         this.resultType = resultType;
     }
 
+    /**
+     * @return the runtime profile of this operator, or null if it is not
+     *         profiled
+     */
+    public OperatorProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(OperatorProfile profile) {
+        this.profile = profile;
+    }
+
     public List<PhysicalOperator> getInputs() {
         return inputs;
     }
@@ -240,6 +266,74 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
         this.inputAttached = false;
     }
 
+    /**
+     * Shorts the input path of this operator by providing a whole batch of
+     * input tuples directly, see {@link #getNextBatch()}
+     * 
+     * @param batch -
+     *            The batch that should be used as input
+     */
+    public void attachInputBatch(TupleBatch batch) {
+        inputBatch = batch;
+    }
+
+    /**
+     * Operators that can process a whole {@link TupleBatch} per call should
+     * override this to return true. Expression operators should return true
+     * only if all their inputs support batches too.
+     * 
+     * @return true if {@link #getNextBatch()} (relational operators) or
+     *         getNextBatch(TupleBatch, Object[]) (expression operators)
+     *         is implemented
+     */
+    public boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * Processes a whole batch of input at once instead of a tuple per call
+     * to getNext. The input is the attached batch or the next batch of the
+     * predecessor. The returned batch may be reused by the next call, and
+     * may be empty if all of its input was filtered out.
+     * 
+     * @return the processed batch or null if there is no more input
+     * @throws ExecException
+     */
+    public TupleBatch getNextBatch() throws ExecException {
+        int errCode = 2259;
+        String msg = name() + " does not support batch processing.";
+        throw new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    /**
+     * The batch counterpart of {@link #processInput()}: returns the attached
+     * batch if there is one, otherwise fetches the next batch from the
+     * predecessor.
+     * 
+     * @return the batch to process or null if there is no more input
+     * @throws ExecException
+     */
+    protected TupleBatch processInputBatch() throws ExecException {
+        progress();
+        TupleBatch batch = null;
+        if (inputBatch != null) {
+            batch = inputBatch;
+            inputBatch = null;
+        } else if (inputs != null && inputs.size() > 0) {
+            PhysicalOperator in = inputs.get(0);
+            if (in.profile == null) {
+                batch = in.getNextBatch();
+            } else {
+                in.profile.enter();
+                batch = in.profile.exitBatch(in.getNextBatch());
+            }
+        }
+        if (profile != null) {
+            profile.input(batch);
+        }
+        return batch;
+    }
+
     /**
      * A blocking operator should override this to return true. Blocking
      * operators are those that need the full bag before operate on the tuples
@@ -270,16 +364,24 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
         }
         
         //Should be removed once the model is clear
-        if(reporter!=null) reporter.progress();
+        progress();
             
         if (!isInputAttached()) {
-            return inputs.get(0).getNext(dummyTuple);
+            PhysicalOperator in = inputs.get(0);
+            if (in.profile == null) {
+                return in.getNext(dummyTuple);
+            }
+            in.profile.enter();
+            res = in.profile.exit(in.getNext(dummyTuple));
         } else {
             res.result = input;
             res.returnStatus = (res.result == null ? POStatus.STATUS_NULL: POStatus.STATUS_OK);
             detachInput();
-            return res;
         }
+        if (profile != null) {
+            profile.input(res);
+        }
+        return res;
     }
 
     public abstract void visit(PhyPlanVisitor v) throws VisitorException;
@@ -345,6 +447,32 @@ public abstract class PhysicalOperator extends Operator<PhyPlanVisitor> implemen
 
     public static void setReporter(PigProgressable reporter) {
         PhysicalOperator.reporter = reporter;
+        if (reporter == null) {
+            taskReporter.remove();
+        } else {
+            taskReporter.set(reporter);
+        }
+    }
+
+    /**
+     * @return the reporter of the task run by the current thread, or the
+     * one set last if the thread runs none
+     */
+    public static PigProgressable getReporter() {
+        PigProgressable rep = taskReporter.get();
+        return (rep == null) ? reporter : rep;
+    }
+
+    /**
+     * Send a heartbeat through the current reporter, if any. The shared
+     * reporter may be reset by another task at any time, so it is read
+     * only once.
+     */
+    protected static void progress() {
+        PigProgressable rep = getReporter();
+        if (rep != null) {
+            rep.progress();
+        }
     }
 
     /**
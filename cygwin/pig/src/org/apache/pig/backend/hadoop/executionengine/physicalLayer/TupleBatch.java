@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer;
+
+import org.apache.pig.data.Tuple;
+
+/**
+ * A reusable batch of tuples passed between operators that support batch
+ * execution, see {@link PhysicalOperator#getNextBatch()}. The batch only
+ * holds references; the tuples in it may be kept by the consumer, the batch
+ * itself may be changed in place (e.g. by a filter) but not kept, as the
+ * producer refills it on its next call.
+ */
+public class TupleBatch {
+
+    /**
+     * The number of tuples in a batch unless configured otherwise
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private Tuple[] tuples;
+
+    private int size = 0;
+
+    public TupleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(int capacity) {
+        tuples = new Tuple[capacity];
+    }
+
+    /**
+     * @return the maximum number of tuples the batch can hold
+     */
+    public int capacity() {
+        return tuples.length;
+    }
+
+    /**
+     * @return the number of tuples in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    public Tuple get(int i) {
+        return tuples[i];
+    }
+
+    /**
+     * Adds a tuple at the end of the batch. The batch must not be full.
+     */
+    public void add(Tuple t) {
+        tuples[size++] = t;
+    }
+
+    /**
+     * Keeps only the tuples for which the corresponding entry of
+     * conditions is {@link Boolean#TRUE}, preserving their order
+     *
+     * @param conditions one value per tuple in the batch
+     */
+    public void retain(Object[] conditions) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (Boolean.TRUE.equals(conditions[i])) {
+                tuples[kept++] = tuples[i];
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            tuples[i] = null;
+        }
+        size = kept;
+    }
+
+    /**
+     * Empties the batch so that it can be filled again
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            tuples[i] = null;
+        }
+        size = 0;
+    }
+}
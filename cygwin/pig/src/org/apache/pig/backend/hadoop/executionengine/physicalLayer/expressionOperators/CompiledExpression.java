@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.LoadCaster;
+import org.apache.pig.PigException;
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.builtin.Utf8NumberParser;
+import org.apache.pig.builtin.Utf8StorageConverter;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The base class of the classes generated by {@link ExpressionCompiler}.
+ * A generated class evaluates an expression plan for a tuple in a single
+ * method call. Parts of the plan that could not be compiled are evaluated
+ * by calling getNext on their operators as usual; the plan must have the
+ * tuple attached for them.
+ */
+public abstract class CompiledExpression {
+
+    private static final Log log = LogFactory.getLog(CompiledExpression.class);
+
+    // operators the generated code refers to, either to interpret them or
+    // to report warnings on their behalf
+    protected final ExpressionOperator[] ops;
+
+    protected final Object[] constants;
+
+    protected final LoadCaster[] casters;
+
+    // whether each caster converts numbers the way Utf8StorageConverter
+    // does, so that they can be parsed without boxing them
+    private final boolean[] utf8Casters;
+
+    // the value of the last number parsed by parseBytes
+    protected long parsedLong;
+    protected double parsedDouble;
+
+    protected CompiledExpression(ExpressionOperator[] ops, Object[] constants,
+            LoadCaster[] casters) {
+        this.ops = ops;
+        this.constants = constants;
+        this.casters = casters;
+        utf8Casters = new boolean[casters == null ? 0 : casters.length];
+        for (int i = 0; i < utf8Casters.length; i++) {
+            utf8Casters[i] = isUtf8Caster(casters[i]);
+        }
+    }
+
+    private static boolean isUtf8Caster(LoadCaster caster) {
+        if (!(caster instanceof Utf8StorageConverter)) {
+            return false;
+        }
+        String[] methods = { "bytesToInteger", "bytesToLong", "bytesToFloat",
+                "bytesToDouble" };
+        try {
+            for (String method : methods) {
+                if (caster.getClass().getMethod(method, byte[].class)
+                        .getDeclaringClass() != Utf8StorageConverter.class) {
+                    return false;
+                }
+            }
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the expression
+     *
+     * @param t the input tuple of the plan
+     * @return the value of the expression, null if it is null
+     * @throws ExecException
+     */
+    public abstract Object evaluate(Tuple t) throws ExecException;
+
+    /**
+     * Reads a field of the input tuple the way {@link POProject} does
+     */
+    protected final Object field(Tuple t, int column, int op)
+            throws ExecException {
+        try {
+            return t.get(column);
+        } catch (IndexOutOfBoundsException ie) {
+            PigLogger pigLogger = PhysicalOperator.getPigLogger();
+            if (pigLogger != null) {
+                pigLogger.warn(ops[op], "Attempt to access field "
+                        + "which was not found in the input",
+                        PigWarning.ACCESSING_NON_EXISTENT_FIELD);
+            }
+            return null;
+        } catch (NullPointerException npe) {
+            // the tuple is null, so a dereference should also produce a null
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates an operator that was not compiled, and everything below it,
+     * with the interpreter
+     */
+    @SuppressWarnings("unchecked")
+    protected final Object interpret(int op) throws ExecException {
+        ExpressionOperator e = ops[op];
+        Result res;
+        switch (e.getResultType()) {
+        case DataType.BAG:
+            res = e.getNext((DataBag)null);
+            break;
+        case DataType.TUPLE:
+            res = e.getNext((Tuple)null);
+            break;
+        case DataType.BYTEARRAY:
+            res = e.getNext((DataByteArray)null);
+            break;
+        case DataType.MAP:
+            res = e.getNext((Map)null);
+            break;
+        case DataType.BOOLEAN:
+            res = e.getNext((Boolean)null);
+            break;
+        case DataType.INTEGER:
+            res = e.getNext((Integer)null);
+            break;
+        case DataType.DOUBLE:
+            res = e.getNext((Double)null);
+            break;
+        case DataType.LONG:
+            res = e.getNext((Long)null);
+            break;
+        case DataType.FLOAT:
+            res = e.getNext((Float)null);
+            break;
+        case DataType.CHARARRAY:
+            res = e.getNext((String)null);
+            break;
+        default: {
+            int errCode = 2080;
+            String msg = "Compiled expression does not handle type "
+                    + DataType.findTypeName(e.getResultType());
+            throw new ExecException(msg, errCode, PigException.BUG);
+        }
+        }
+        if (res.returnStatus == POStatus.STATUS_OK
+                || res.returnStatus == POStatus.STATUS_NULL) {
+            return res.result;
+        }
+        int errCode = 2260;
+        String msg = "Received error while evaluating " + e.name()
+                + ((res.result != null) ? ": " + res.result : ".");
+        throw new ExecException(msg, errCode, PigException.BUG);
+    }
+
+    /**
+     * Parses a bytearray into a number without boxing it, if the caster is
+     * a {@link Utf8StorageConverter} and the bytes are a plain decimal
+     * number. The value is left in parsedLong for ints and longs, and in
+     * parsedDouble for floats and doubles.
+     *
+     * @return false if the value has to be cast with castBytes instead
+     */
+    protected final boolean parseBytes(int caster, Object o, byte type) {
+        if (!utf8Casters[caster] || !(o instanceof DataByteArray)) {
+            return false;
+        }
+        byte[] bytes = ((DataByteArray)o).get();
+        switch (type) {
+        case DataType.INTEGER:
+            parsedLong = Utf8NumberParser.parseInt(bytes, 0, bytes.length);
+            return parsedLong != Utf8NumberParser.NOT_PARSED;
+        case DataType.LONG:
+            parsedLong = Utf8NumberParser.parseLong(bytes, 0, bytes.length);
+            return parsedLong != Utf8NumberParser.NOT_PARSED;
+        case DataType.FLOAT:
+            parsedDouble = Utf8NumberParser.parseFloat(bytes, 0, bytes.length);
+            return !Double.isNaN(parsedDouble);
+        case DataType.DOUBLE:
+            parsedDouble = Utf8NumberParser.parseDouble(bytes, 0, bytes.length);
+            return !Double.isNaN(parsedDouble);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Casts a bytearray the way {@link POCast} does
+     */
+    protected final Object castBytes(int caster, Object o, byte type)
+            throws ExecException {
+        if (!(o instanceof DataByteArray)) {
+            // the loader already produced a typed value
+            switch (type) {
+            case DataType.INTEGER:
+                return DataType.toInteger(o);
+            case DataType.LONG:
+                return DataType.toLong(o);
+            case DataType.FLOAT:
+                return DataType.toFloat(o);
+            case DataType.DOUBLE:
+                return DataType.toDouble(o);
+            default:
+                return DataType.toString(o);
+            }
+        }
+        byte[] bytes = ((DataByteArray)o).get();
+        try {
+            switch (type) {
+            case DataType.INTEGER:
+                return casters[caster].bytesToInteger(bytes);
+            case DataType.LONG:
+                return casters[caster].bytesToLong(bytes);
+            case DataType.FLOAT:
+                return casters[caster].bytesToFloat(bytes);
+            case DataType.DOUBLE:
+                return casters[caster].bytesToDouble(bytes);
+            default:
+                return casters[caster].bytesToCharArray(bytes);
+            }
+        } catch (ExecException ee) {
+            throw ee;
+        } catch (IOException e) {
+            log.error("Error while casting from ByteArray to "
+                    + DataType.findTypeName(type));
+            return null;
+        }
+    }
+
+    /**
+     * Compares two values the way the comparison operators do for
+     * bytearrays
+     */
+    @SuppressWarnings("unchecked")
+    protected final int compare(Object left, Object right)
+            throws ExecException {
+        if (left instanceof Comparable && right instanceof Comparable) {
+            return ((Comparable)left).compareTo(right);
+        }
+        throw new ExecException("The left side and right side has the different types");
+    }
+
+    /**
+     * Checks two values for equality the way {@link EqualToExpr} does for
+     * bytearrays
+     */
+    protected final boolean equal(Object left, Object right)
+            throws ExecException {
+        if (left instanceof HashMap && right instanceof HashMap) {
+            return left.equals(right);
+        }
+        return compare(left, right) == 0;
+    }
+
+    protected final void divideByZero(int op) {
+        PigLogger pigLogger = PhysicalOperator.getPigLogger();
+        if (pigLogger != null) {
+            pigLogger.warn(ops[op], "Divide by zero. Converting it to NULL.",
+                    PigWarning.DIVIDE_BY_ZERO);
+        }
+    }
+}
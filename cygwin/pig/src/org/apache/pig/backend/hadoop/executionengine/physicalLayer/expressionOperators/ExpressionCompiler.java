@@ -0,0 +1,704 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.LoadCaster;
+import org.apache.pig.data.DataType;
+
+/**
+ * Compiles expression plans into Java classes extending
+ * {@link CompiledExpression}, using the Java compiler of the JVM the task
+ * runs in. Projections, constants, casts between atomic types, arithmetic,
+ * comparisons and boolean operators are turned into code working on
+ * primitives. Any other operator, such as a UDF, is evaluated by the
+ * interpreter from within the generated code.
+ * <p>
+ * If the JVM has no compiler, or compiling fails, the expressions are left
+ * to the interpreter.
+ */
+public class ExpressionCompiler {
+
+    private static final Log log = LogFactory.getLog(ExpressionCompiler.class);
+
+    /**
+     * Set to true to compile the expressions of filters and foreachs when a
+     * task starts
+     */
+    public static final String COMPILE_EXPRESSIONS = "pig.exec.compile.expressions";
+
+    private static final String PACKAGE =
+        "org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators";
+
+    private static final String CLASS_PREFIX = "GeneratedExpression";
+
+    // the classes generated in this JVM by the evaluate method they were
+    // generated for, tasks run in the same JVM compile the same plans
+    private static final Map<String, Class<?>> classCache = new HashMap<String, Class<?>>();
+
+    private static int classCount = 0;
+
+    private static boolean noCompiler = false;
+
+    // the operators, constants and casters of the expression being generated
+    private List<ExpressionOperator> ops;
+    private List<Object> constants;
+    private List<LoadCaster> casters;
+
+    private StringBuilder decls;
+    private StringBuilder body;
+    private int nodeCount;
+    private int indent;
+
+    /**
+     * Compiles the given expressions together
+     *
+     * @param roots the leaves of the expression plans to compile, may
+     *          contain null
+     * @return the compiled expression for each root, null where the
+     *         expression is better left to the interpreter
+     */
+    public CompiledExpression[] compile(List<ExpressionOperator> roots) {
+        CompiledExpression[] compiled = new CompiledExpression[roots.size()];
+        String[] methods = new String[roots.size()];
+        List<List<ExpressionOperator>> allOps = new ArrayList<List<ExpressionOperator>>();
+        List<List<Object>> allConstants = new ArrayList<List<Object>>();
+        List<List<LoadCaster>> allCasters = new ArrayList<List<LoadCaster>>();
+        for (int i = 0; i < roots.size(); i++) {
+            methods[i] = roots.get(i) == null ? null : generate(roots.get(i));
+            allOps.add(ops);
+            allConstants.add(constants);
+            allCasters.add(casters);
+        }
+        Class<?>[] classes = getClasses(methods);
+        for (int i = 0; i < roots.size(); i++) {
+            if (classes[i] == null) {
+                continue;
+            }
+            try {
+                compiled[i] = (CompiledExpression)classes[i].getConstructor(
+                        ExpressionOperator[].class, Object[].class,
+                        LoadCaster[].class).newInstance(
+                        allOps.get(i).toArray(new ExpressionOperator[0]),
+                        allConstants.get(i).toArray(),
+                        allCasters.get(i).toArray(new LoadCaster[0]));
+            } catch (Exception e) {
+                log.warn("Unable to instantiate the compiled expression for "
+                        + roots.get(i).name() + ", it will be interpreted: "
+                        + e);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Generates the body of the evaluate method for an expression
+     *
+     * @return the source of the method, null if the root of the expression
+     *         can not be compiled
+     */
+    private String generate(ExpressionOperator root) {
+        ops = new ArrayList<ExpressionOperator>();
+        constants = new ArrayList<Object>();
+        casters = new ArrayList<LoadCaster>();
+        decls = new StringBuilder();
+        body = new StringBuilder();
+        nodeCount = 0;
+        indent = 2;
+        try {
+            int k = nodeCount++;
+            declare(k, root.getResultType());
+            if (!generateNode(root, k)) {
+                // nothing to gain
+                return null;
+            }
+            byte type = root.getResultType();
+            String value;
+            if (isPrimitive(type)) {
+                value = "n" + k + " ? null : " + boxedType(type) + ".valueOf(v" + k + ")";
+            } else {
+                value = "n" + k + " ? null : v" + k;
+            }
+            return decls.toString() + body.toString() + "        return " + value + ";\n";
+        } catch (IOException e) {
+            log.warn("Unable to compile " + root.name() + ", it will be interpreted: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Generates the code of an operator that sets its null flag n&lt;k&gt; and
+     * value v&lt;k&gt;, falling back to the interpreter if the operator is
+     * not supported
+     *
+     * @return k
+     */
+    private int generateChild(ExpressionOperator e) throws IOException {
+        int k = nodeCount++;
+        byte type = e.getResultType();
+        declare(k, type);
+        if (!generateNode(e, k)) {
+            emit(unbox(k, type, "interpret(" + register(e) + ")"));
+        }
+        return k;
+    }
+
+    private boolean generateNode(ExpressionOperator e, int k) throws IOException {
+        byte type = e.getResultType();
+        if (e.getClass() == POProject.class) {
+            POProject p = (POProject)e;
+            if (p.star || p.overloaded || p.columns.size() != 1
+                    || type == DataType.BAG || type == DataType.TUPLE
+                    || (p.getInputs() != null && p.getInputs().size() > 0)) {
+                return false;
+            }
+            emit(unbox(k, type, "field(t, " + p.columns.get(0) + ", " + register(e) + ")"));
+            return true;
+        } else if (e instanceof ConstantExpression) {
+            return generateConstant(((ConstantExpression)e).value, type, k);
+        } else if (e instanceof POCast) {
+            return generateCast((POCast)e, type, k);
+        } else if (e instanceof PONot) {
+            ExpressionOperator expr = ((PONot)e).getExpr();
+            if (expr.getResultType() != DataType.BOOLEAN) {
+                return false;
+            }
+            int c = generateChild(expr);
+            emit("n" + k + " = n" + c + ";");
+            emit("if (!n" + k + ") v" + k + " = !v" + c + ";");
+            return true;
+        } else if (e instanceof POIsNull) {
+            // a null comparison is not an operand that is null
+            ExpressionOperator expr = ((POIsNull)e).getExpr();
+            if (expr.getResultType() == DataType.BOOLEAN) {
+                return false;
+            }
+            int c = generateChild(expr);
+            emit("n" + k + " = false;");
+            emit("v" + k + " = n" + c + ";");
+            return true;
+        } else if (e instanceof PONegative) {
+            ExpressionOperator expr = ((PONegative)e).getExpr();
+            if (!DataType.isNumberType(type) || expr.getResultType() != type) {
+                return false;
+            }
+            int c = generateChild(expr);
+            emit("n" + k + " = n" + c + ";");
+            emit("if (!n" + k + ") v" + k + " = -1 * v" + c + ";");
+            return true;
+        } else if (e instanceof POAnd || e instanceof POOr) {
+            return generateBoolean((BinaryExpressionOperator)e, e instanceof POAnd, k);
+        } else if (e instanceof EqualToExpr) {
+            return generateComparison((BinaryExpressionOperator)e, "==", k);
+        } else if (e instanceof NotEqualToExpr) {
+            return generateComparison((BinaryExpressionOperator)e, "!=", k);
+        } else if (e instanceof GreaterThanExpr) {
+            return generateComparison((BinaryExpressionOperator)e, ">", k);
+        } else if (e instanceof GTOrEqualToExpr) {
+            return generateComparison((BinaryExpressionOperator)e, ">=", k);
+        } else if (e instanceof LessThanExpr) {
+            return generateComparison((BinaryExpressionOperator)e, "<", k);
+        } else if (e instanceof LTOrEqualToExpr) {
+            return generateComparison((BinaryExpressionOperator)e, "<=", k);
+        } else if (e instanceof Add) {
+            return generateArithmetic((BinaryExpressionOperator)e, "+", k);
+        } else if (e instanceof Subtract) {
+            return generateArithmetic((BinaryExpressionOperator)e, "-", k);
+        } else if (e instanceof Multiply) {
+            return generateArithmetic((BinaryExpressionOperator)e, "*", k);
+        } else if (e instanceof Divide) {
+            return generateArithmetic((BinaryExpressionOperator)e, "/", k);
+        } else if (e instanceof Mod) {
+            if (type != DataType.INTEGER && type != DataType.LONG) {
+                return false;
+            }
+            return generateArithmetic((BinaryExpressionOperator)e, "%", k);
+        }
+        return false;
+    }
+
+    private boolean generateConstant(Object value, byte type, int k) {
+        if (value == null) {
+            // the null flag is set already
+            return true;
+        }
+        String literal = null;
+        switch (type) {
+        case DataType.INTEGER:
+            if (value instanceof Integer) {
+                literal = value.toString();
+            }
+            break;
+        case DataType.LONG:
+            if (value instanceof Long) {
+                literal = value + "L";
+            }
+            break;
+        case DataType.FLOAT:
+            if (value instanceof Float) {
+                literal = "Float.intBitsToFloat(0x"
+                        + Integer.toHexString(Float.floatToRawIntBits((Float)value)) + ")";
+            }
+            break;
+        case DataType.DOUBLE:
+            if (value instanceof Double) {
+                literal = "Double.longBitsToDouble(0x"
+                        + Long.toHexString(Double.doubleToRawLongBits((Double)value)) + "L)";
+            }
+            break;
+        case DataType.BOOLEAN:
+            if (value instanceof Boolean) {
+                literal = value.toString();
+            }
+            break;
+        }
+        if (literal != null) {
+            emit("n" + k + " = false;");
+            emit("v" + k + " = " + literal + ";");
+        } else {
+            if (isPrimitive(type) || type == DataType.CHARARRAY) {
+                if (value.getClass() != javaClass(type)) {
+                    return false;
+                }
+            }
+            constants.add(value);
+            emit(unbox(k, type, "constants[" + (constants.size() - 1) + "]"));
+        }
+        return true;
+    }
+
+    private boolean generateCast(POCast cast, byte type, int k) throws IOException {
+        if (cast.getInputs() == null || cast.getInputs().size() != 1
+                || !(cast.getInputs().get(0) instanceof ExpressionOperator)) {
+            return false;
+        }
+        ExpressionOperator expr = (ExpressionOperator)cast.getInputs().get(0);
+        byte from = expr.getResultType();
+        if (!DataType.isNumberType(type) && type != DataType.CHARARRAY) {
+            return false;
+        }
+        if (from == DataType.BYTEARRAY) {
+            LoadCaster caster = cast.getLoadCaster();
+            if (caster == null) {
+                return false;
+            }
+            casters.add(caster);
+            int i = casters.size() - 1;
+            int c = generateChild(expr);
+            emit("if (!n" + c + ") {");
+            indent++;
+            String castBytes = unbox(k, type, "castBytes(" + i + ", v" + c
+                    + ", (byte)" + type + ")");
+            if (type == DataType.CHARARRAY) {
+                emit(castBytes);
+            } else {
+                // numbers are parsed without boxing where possible
+                String parsed = (type == DataType.INTEGER || type == DataType.LONG)
+                        ? "parsedLong" : "parsedDouble";
+                emit("if (parseBytes(" + i + ", v" + c + ", (byte)" + type + ")) {");
+                emit("    n" + k + " = false;");
+                emit("    v" + k + " = (" + javaType(type) + ")" + parsed + ";");
+                emit("} else {");
+                emit("    " + castBytes);
+                emit("}");
+            }
+            indent--;
+            emit("}");
+            return true;
+        }
+        if (from == type) {
+            int c = generateChild(expr);
+            emit("n" + k + " = n" + c + ";");
+            emit("v" + k + " = v" + c + ";");
+            return true;
+        }
+        if (!DataType.isNumberType(from)) {
+            return false;
+        }
+        int c = generateChild(expr);
+        emit("n" + k + " = n" + c + ";");
+        if (type == DataType.CHARARRAY) {
+            emit("if (!n" + k + ") v" + k + " = String.valueOf(v" + c + ");");
+        } else {
+            emit("if (!n" + k + ") v" + k + " = (" + javaType(type) + ")v" + c + ";");
+        }
+        return true;
+    }
+
+    private boolean generateBoolean(BinaryExpressionOperator e, boolean and, int k)
+            throws IOException {
+        if (e.getLhs().getResultType() != DataType.BOOLEAN
+                || e.getRhs().getResultType() != DataType.BOOLEAN) {
+            return false;
+        }
+        // the rhs is only evaluated if the lhs does not decide the result
+        int l = generateChild(e.getLhs());
+        emit("if (!n" + l + " && " + (and ? "!" : "") + "v" + l + ") {");
+        emit("    n" + k + " = false;");
+        emit("    v" + k + " = " + (!and) + ";");
+        emit("} else {");
+        indent++;
+        int r = generateChild(e.getRhs());
+        emit("if (n" + l + " && !n" + r + " && " + (and ? "" : "!") + "v" + r + ") {");
+        emit("    n" + k + " = true;");
+        emit("} else {");
+        emit("    n" + k + " = n" + r + ";");
+        emit("    v" + k + " = v" + r + ";");
+        emit("}");
+        indent--;
+        emit("}");
+        return true;
+    }
+
+    private boolean generateComparison(BinaryExpressionOperator e, String op, int k)
+            throws IOException {
+        byte operandType = ((ComparisonOperator)e).getOperandType();
+        if (e.getLhs().getResultType() != operandType
+                || e.getRhs().getResultType() != operandType) {
+            return false;
+        }
+        String l = null, r = null;
+        String comparison;
+        switch (operandType) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+            comparison = "%1$s " + op + " %2$s";
+            break;
+        case DataType.FLOAT:
+            comparison = "Float.compare(%1$s, %2$s) " + op + " 0";
+            break;
+        case DataType.DOUBLE:
+            comparison = "Double.compare(%1$s, %2$s) " + op + " 0";
+            break;
+        case DataType.CHARARRAY:
+            comparison = "%1$s.compareTo(%2$s) " + op + " 0";
+            break;
+        case DataType.BYTEARRAY:
+            if (op.equals("==")) {
+                comparison = "equal(%1$s, %2$s)";
+            } else if (op.equals("!=")) {
+                comparison = "!equal(%1$s, %2$s)";
+            } else {
+                comparison = "compare(%1$s, %2$s) " + op + " 0";
+            }
+            break;
+        default:
+            return false;
+        }
+        int lk = generateChild(e.getLhs());
+        int rk = generateChild(e.getRhs());
+        emit("n" + k + " = n" + lk + " || n" + rk + ";");
+        emit("if (!n" + k + ") v" + k + " = "
+                + String.format(comparison, "v" + lk, "v" + rk) + ";");
+        return true;
+    }
+
+    private boolean generateArithmetic(BinaryExpressionOperator e, String op, int k)
+            throws IOException {
+        byte type = e.getResultType();
+        if (!DataType.isNumberType(type) || e.getLhs().getResultType() != type
+                || e.getRhs().getResultType() != type) {
+            return false;
+        }
+        // the rhs is only evaluated if the lhs is not null
+        int l = generateChild(e.getLhs());
+        emit("if (!n" + l + ") {");
+        indent++;
+        int r = generateChild(e.getRhs());
+        if (op.equals("/")) {
+            emit("if (!n" + r + " && v" + r + " == 0) {");
+            emit("    divideByZero(" + register(e) + ");");
+            emit("} else if (!n" + r + ") {");
+        } else {
+            emit("if (!n" + r + ") {");
+        }
+        emit("    n" + k + " = false;");
+        emit("    v" + k + " = v" + l + " " + op + " v" + r + ";");
+        emit("}");
+        indent--;
+        emit("}");
+        return true;
+    }
+
+    private int register(ExpressionOperator e) {
+        ops.add(e);
+        return ops.size() - 1;
+    }
+
+    private void declare(int k, byte type) {
+        decls.append("        boolean n").append(k).append(" = true;\n");
+        decls.append("        ").append(javaType(type)).append(" v").append(k)
+                .append(" = ").append(defaultValue(type)).append(";\n");
+    }
+
+    private void emit(String line) {
+        for (int i = 0; i < indent; i++) {
+            body.append("    ");
+        }
+        body.append(line).append('\n');
+    }
+
+    /**
+     * @return a statement setting n&lt;k&gt; and v&lt;k&gt; from the object
+     *         the given expression evaluates to
+     */
+    private String unbox(int k, byte type, String object) {
+        if (isPrimitive(type)) {
+            return "{ Object o" + k + " = " + object + "; n" + k + " = o" + k
+                    + " == null; if (!n" + k + ") v" + k + " = ((" + boxedType(type)
+                    + ")o" + k + ")." + javaType(type) + "Value(); }";
+        }
+        return "v" + k + " = (" + javaType(type) + ")" + object + "; n" + k
+                + " = v" + k + " == null;";
+    }
+
+    private static boolean isPrimitive(byte type) {
+        return DataType.isNumberType(type) || type == DataType.BOOLEAN;
+    }
+
+    private static String javaType(byte type) {
+        switch (type) {
+        case DataType.INTEGER: return "int";
+        case DataType.LONG: return "long";
+        case DataType.FLOAT: return "float";
+        case DataType.DOUBLE: return "double";
+        case DataType.BOOLEAN: return "boolean";
+        case DataType.CHARARRAY: return "String";
+        default: return "Object";
+        }
+    }
+
+    private static Class<?> javaClass(byte type) {
+        switch (type) {
+        case DataType.INTEGER: return Integer.class;
+        case DataType.LONG: return Long.class;
+        case DataType.FLOAT: return Float.class;
+        case DataType.DOUBLE: return Double.class;
+        case DataType.BOOLEAN: return Boolean.class;
+        case DataType.CHARARRAY: return String.class;
+        default: return Object.class;
+        }
+    }
+
+    private static String boxedType(byte type) {
+        return javaClass(type).getSimpleName();
+    }
+
+    private static String defaultValue(byte type) {
+        switch (type) {
+        case DataType.INTEGER: return "0";
+        case DataType.LONG: return "0L";
+        case DataType.FLOAT: return "0.0f";
+        case DataType.DOUBLE: return "0.0";
+        case DataType.BOOLEAN: return "false";
+        default: return "null";
+        }
+    }
+
+    /**
+     * Looks up or compiles the classes for the given evaluate methods
+     *
+     * @return the class for each method, null where there is none
+     */
+    private static synchronized Class<?>[] getClasses(String[] methods) {
+        Class<?>[] classes = new Class<?>[methods.length];
+        Map<String, String> sources = new HashMap<String, String>();
+        String[] names = new String[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i] == null) {
+                continue;
+            }
+            classes[i] = classCache.get(methods[i]);
+            if (classes[i] == null) {
+                names[i] = PACKAGE + "." + CLASS_PREFIX + (++classCount);
+                sources.put(names[i], source(CLASS_PREFIX + classCount, methods[i]));
+            }
+        }
+        if (sources.isEmpty()) {
+            return classes;
+        }
+        ClassLoader loader = compileSources(sources);
+        if (loader == null) {
+            return classes;
+        }
+        for (int i = 0; i < methods.length; i++) {
+            if (names[i] == null) {
+                continue;
+            }
+            try {
+                classes[i] = loader.loadClass(names[i]);
+                classCache.put(methods[i], classes[i]);
+            } catch (ClassNotFoundException e) {
+                log.warn("Unable to load compiled expression " + names[i] + ": " + e);
+            }
+        }
+        return classes;
+    }
+
+    private static String source(String name, String method) {
+        return "package " + PACKAGE + ";\n\n"
+            + "import org.apache.pig.LoadCaster;\n"
+            + "import org.apache.pig.backend.executionengine.ExecException;\n"
+            + "import org.apache.pig.data.Tuple;\n\n"
+            + "public final class " + name + " extends CompiledExpression {\n\n"
+            + "    public " + name + "(ExpressionOperator[] ops, Object[] constants,\n"
+            + "            LoadCaster[] casters) {\n"
+            + "        super(ops, constants, casters);\n"
+            + "    }\n\n"
+            + "    public Object evaluate(Tuple t) throws ExecException {\n"
+            + method
+            + "    }\n"
+            + "}\n";
+    }
+
+    /**
+     * Compiles the given sources in memory
+     *
+     * @return a class loader for the compiled classes, null if they could not
+     *         be compiled
+     */
+    private static ClassLoader compileSources(Map<String, String> sources) {
+        if (noCompiler) {
+            return null;
+        }
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            log.info("No Java compiler available, expressions will be interpreted");
+            noCompiler = true;
+            return null;
+        }
+        List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, String> entry : sources.entrySet()) {
+            files.add(new SourceFile(entry.getKey(), entry.getValue()));
+        }
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        StandardJavaFileManager standardManager = javac.getStandardFileManager(null, null, null);
+        JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standardManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location,
+                    final String className, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///"
+                        + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        classes.put(className, out);
+                        return out;
+                    }
+                };
+            }
+        };
+        StringWriter errors = new StringWriter();
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+        long start = System.currentTimeMillis();
+        boolean success;
+        try {
+            success = javac.getTask(errors, manager, null, options, null, files).call();
+            manager.close();
+        } catch (Exception e) {
+            log.warn("Unable to compile expressions, they will be interpreted: " + e);
+            return null;
+        }
+        if (!success) {
+            log.warn("Unable to compile expressions, they will be interpreted: " + errors);
+            return null;
+        }
+        log.info("Compiled " + sources.size() + " expression(s) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        Map<String, byte[]> bytes = new HashMap<String, byte[]>();
+        for (Map.Entry<String, ByteArrayOutputStream> entry : classes.entrySet()) {
+            bytes.put(entry.getKey(), entry.getValue().toByteArray());
+        }
+        return new GeneratedClassLoader(CompiledExpression.class.getClassLoader(), bytes);
+    }
+
+    /**
+     * The class path of the JVM plus wherever Pig was loaded from, which is
+     * not on the class path if it was loaded from the job jar of a task
+     */
+    private static String classPath() {
+        String classPath = System.getProperty("java.class.path");
+        CodeSource codeSource = CompiledExpression.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null && codeSource.getLocation() != null) {
+            try {
+                classPath += File.pathSeparator
+                        + new File(codeSource.getLocation().toURI()).getPath();
+            } catch (Exception e) {
+                // not a file, go with the class path
+            }
+        }
+        return classPath;
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/')
+                    + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        GeneratedClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] b = classes.get(name);
+            if (b == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+}
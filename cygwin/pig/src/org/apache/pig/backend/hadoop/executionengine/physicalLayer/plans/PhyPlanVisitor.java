@@ -17,6 +17,7 @@
  */
 package org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
@@ -262,6 +263,24 @@ public class PhyPlanVisitor extends PlanVisitor<PhysicalOperator,PhysicalPlan> {
     public void visitLimit(POLimit lim) throws VisitorException{
         //do nothing
     }
+
+    public void visitPartialAgg(POPartialAgg partAgg) throws VisitorException {
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>(partAgg.getInitialPlans());
+        plans.addAll(partAgg.getIntermediatePlans());
+        for (PhysicalPlan plan : plans) {
+            pushWalker(mCurrentWalker.spawnChildWalker(plan));
+            visit();
+            popWalker();
+        }
+    }
+
+    public void visitPartialAggPackage(POPartialAggPackage pkg) throws VisitorException {
+        //do nothing
+    }
+
+    public void visitQuantileSketch(POQuantileSketch sketch) throws VisitorException{
+        //do nothing
+    }
     
     public void visitFRJoin(POFRJoin join) throws VisitorException {
         //do nothing
@@ -159,6 +159,9 @@ public class PlanPrinter<O extends Operator, P extends OperatorPlan<O>> extends
           else if(node instanceof POCollectedGroup){
             sb.append(planString(((POCollectedGroup)node).getPlans()));
           }
+          else if(node instanceof POPartialAgg){
+            sb.append(planString(((POPartialAgg)node).getInitialPlans()));
+          }
           else if(node instanceof POSort){
             sb.append(planString(((POSort)node).getSortPlans())); 
           }
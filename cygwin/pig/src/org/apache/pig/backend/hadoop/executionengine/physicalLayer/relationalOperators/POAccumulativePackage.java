@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.data.AccumulativeBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+
+/**
+ * The package of a reduce that runs in accumulative mode. Its bags are
+ * {@link AccumulativeBag}s that pull the tuples of the key from the reduce
+ * value iterator a chunk at a time, as the accumulators ask for them. A
+ * chunk ends after pig.accumulative.batchsize tuples, or once its tuples
+ * take an estimated pig.accumulative.memusage of the heap, whichever comes
+ * first, so that memory use stays flat whatever the size of the group and
+ * of its tuples.
+ */
+public class POAccumulativePackage extends POPackage {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Fraction of the heap the tuples of a chunk may take
+     */
+    public static final String MEMORY = "pig.accumulative.memusage";
+
+    public static final String BATCH_SIZE = "pig.accumulative.batchsize";
+
+    private static final float DEFAULT_MEMORY = 0.1f;
+
+    private static final int DEFAULT_BATCH_SIZE = 20000;
+
+    // one in this many tuples is measured to estimate the size of a chunk
+    private static final int SAMPLE_RATE = 16;
+
+    /**
+     * Takes the place of a package set to run in accumulative mode
+     */
+    public POAccumulativePackage(POPackage pkg) {
+        super(new OperatorKey(pkg.getOperatorKey().scope, NodeIdGenerator
+                .getGenerator().getNextNodeId(pkg.getOperatorKey().scope)),
+                pkg.getRequestedParallelism(), pkg.getInputs());
+        setKeyType(pkg.getKeyType());
+        setNumInps(pkg.getNumInps());
+        setInner(pkg.getInner());
+        setKeyInfo(pkg.getKeyInfo());
+        setKeyTuple(pkg.isKeyTuple);
+        setUseSecondaryKey(pkg.useSecondaryKey);
+        setDistinct(pkg.isDistinct());
+        setPackageType(pkg.getPackageType());
+        setResultType(pkg.getResultType());
+        setAlias(pkg.getAlias());
+        setAccumulative();
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        if (!isAccumulative() || isDistinct()) {
+            return super.getNext(t);
+        }
+        ChunkedTupleBuffer buffer = new ChunkedTupleBuffer();
+        Tuple res = mTupleFactory.newTuple(numInputs + 1);
+        res.set(0, key);
+        for (int i = 0; i < numInputs; i++) {
+            res.set(i + 1, new AccumulativeBag(buffer, i));
+        }
+        detachInput();
+        Result r = new Result();
+        r.result = res;
+        r.returnStatus = POStatus.STATUS_OK;
+        return r;
+    }
+
+    /**
+     * Reads the values of one key from the reduce iterator, a chunk at a
+     * time
+     */
+    private class ChunkedTupleBuffer implements AccumulativeTupleBuffer {
+
+        private final List<Tuple>[] bags;
+
+        private final Iterator<NullableTuple> iter;
+
+        private final Object currKey;
+
+        private final int batchSize;
+
+        private final long maxMemory;
+
+        private long read = 0;
+
+        private long sampledSize = 0;
+
+        private long sampled = 0;
+
+        @SuppressWarnings("unchecked")
+        ChunkedTupleBuffer() {
+            int size = DEFAULT_BATCH_SIZE;
+            float memory = DEFAULT_MEMORY;
+            Configuration conf = PigMapReduce.getJobConf();
+            if (conf != null) {
+                size = conf.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+                memory = conf.getFloat(MEMORY, DEFAULT_MEMORY);
+            }
+            batchSize = size;
+            maxMemory = (long)(Runtime.getRuntime().maxMemory() * memory);
+            bags = new List[numInputs];
+            for (int i = 0; i < numInputs; i++) {
+                bags[i] = new ArrayList<Tuple>();
+            }
+            iter = tupIter;
+            currKey = key;
+        }
+
+        public boolean hasNextBatch() {
+            return iter.hasNext();
+        }
+
+        public void nextBatch() throws IOException {
+            clear();
+            // getValueTuple puts the fields of the key back in the values
+            key = currKey;
+            long memory = 0;
+            for (int i = 0; i < batchSize && iter.hasNext(); i++) {
+                NullableTuple ntup = iter.next();
+                int index = ntup.getIndex();
+                Tuple copy = getValueTuple(ntup, index);
+                if (numInputs == 1) {
+                    bags[0].add(copy);
+                } else {
+                    bags[index].add(copy);
+                }
+                if (read++ % SAMPLE_RATE == 0) {
+                    sampledSize += copy.getMemorySize();
+                    sampled++;
+                }
+                memory += sampledSize / sampled;
+                if (memory >= maxMemory) {
+                    break;
+                }
+                progress();
+            }
+        }
+
+        public void clear() {
+            for (List<Tuple> bag : bags) {
+                bag.clear();
+            }
+        }
+
+        public Iterator<Tuple> getTuples(int index) {
+            return bags[index].iterator();
+        }
+    }
+}
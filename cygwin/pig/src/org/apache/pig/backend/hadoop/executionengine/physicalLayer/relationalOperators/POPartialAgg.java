@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.pig.PigCounters;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.NonSpillableDataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
+
+/**
+ * Aggregates the algebraic parts of a foreach after a group in the map,
+ * when the foreach also has parts that are not algebraic and so cannot use
+ * the combiner. Its input is the output of a
+ * {@link POPreCombinerLocalRearrange}, (key, {value}).
+ * <p>
+ * The initial functions of the algebraic parts are run on each value, and
+ * their results are kept per key in a hash table, where the intermediate
+ * functions aggregate them. When the table takes more than its share of
+ * the heap it is emptied into the shuffle, as it is at the end of the
+ * input. The parts that are not algebraic are handed the columns of the
+ * values they read, which are passed through as they come. So the output
+ * has two kinds of records, (key, partials, null) and (key, null, columns),
+ * which {@link POPartialAggPackage} puts back together in the reduce.
+ * <p>
+ * If the first records show that few of them share a key, the table is
+ * dropped and each record is passed on with its own partials.
+ */
+public class POPartialAgg extends PhysicalOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(POPartialAgg.class);
+
+    /**
+     * Fraction of the heap the hash table may take
+     */
+    public static final String MEMORY = "pig.exec.partialagg.memory";
+
+    /**
+     * Aggregation is turned off if the records seen before the check are
+     * fewer than this many times the keys they have
+     */
+    public static final String MIN_REDUCTION = "pig.exec.partialagg.minreduction";
+
+    private static final float DEFAULT_MEMORY = 0.1f;
+
+    private static final float DEFAULT_MIN_REDUCTION = 3;
+
+    // records read before the reduction is checked
+    private static final long REDUCTION_CHECK = 10000;
+
+    // partials kept for a key before they are aggregated
+    private static final int MAX_BUFFERED = 16;
+
+    // keys and partials measured before their average size is used
+    private static final int SAMPLE_SIZE = 100;
+
+    // memory of a hash table entry and its list, besides the key
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    // initial functions of the algebraic parts, on (key, {value})
+    private List<PhysicalPlan> initialPlans;
+
+    // intermediate functions of the algebraic parts, on a tuple with a bag
+    // of partials for each part
+    private List<PhysicalPlan> intermediatePlans;
+
+    // the columns of the values read by the parts that are not algebraic
+    private int[] rawColumns;
+
+    transient private Map<Object, List<Tuple>> table;
+
+    transient private LinkedList<Tuple> output;
+
+    transient private long maxMemory;
+
+    transient private float minReduction;
+
+    transient private long tableMemory;
+
+    transient private long keyMemory;
+
+    transient private long keysMeasured;
+
+    transient private long partialMemory;
+
+    transient private long partialsMeasured;
+
+    transient private boolean disabled;
+
+    transient private boolean flushed;
+
+    transient private long inputRecords;
+
+    transient private long outputRecords;
+
+    transient private long evictions;
+
+    public POPartialAgg(OperatorKey k) {
+        this(k, -1, null);
+    }
+
+    public POPartialAgg(OperatorKey k, int rp, List<PhysicalOperator> inputs) {
+        super(k, rp, inputs);
+    }
+
+    public void setInitialPlans(List<PhysicalPlan> initialPlans) {
+        this.initialPlans = initialPlans;
+    }
+
+    public List<PhysicalPlan> getInitialPlans() {
+        return initialPlans;
+    }
+
+    public void setIntermediatePlans(List<PhysicalPlan> intermediatePlans) {
+        this.intermediatePlans = intermediatePlans;
+    }
+
+    public List<PhysicalPlan> getIntermediatePlans() {
+        return intermediatePlans;
+    }
+
+    public void setRawColumns(int[] rawColumns) {
+        this.rawColumns = rawColumns;
+    }
+
+    public int[] getRawColumns() {
+        return rawColumns;
+    }
+
+    private void init() {
+        table = new HashMap<Object, List<Tuple>>();
+        output = new LinkedList<Tuple>();
+        float memory = DEFAULT_MEMORY;
+        minReduction = DEFAULT_MIN_REDUCTION;
+        Configuration conf = PigMapReduce.getJobConf();
+        if (conf != null) {
+            memory = conf.getFloat(MEMORY, DEFAULT_MEMORY);
+            minReduction = conf.getFloat(MIN_REDUCTION, DEFAULT_MIN_REDUCTION);
+        }
+        maxMemory = (long)(Runtime.getRuntime().maxMemory() * memory);
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        if (table == null) {
+            init();
+        }
+        while (true) {
+            if (!output.isEmpty()) {
+                return new Result(POStatus.STATUS_OK, output.removeFirst());
+            }
+            Result inp = processInput();
+            if (inp.returnStatus == POStatus.STATUS_EOP) {
+                if (parentPlan.endOfAllInput && !flushed) {
+                    flushed = true;
+                    evict();
+                    report();
+                    if (!output.isEmpty()) {
+                        continue;
+                    }
+                }
+                return inp;
+            }
+            if (inp.returnStatus != POStatus.STATUS_OK) {
+                return inp;
+            }
+            aggregate((Tuple)inp.result);
+        }
+    }
+
+    private void aggregate(Tuple in) throws ExecException {
+        Object key = in.get(0);
+        Tuple partial = run(initialPlans, in);
+        inputRecords++;
+
+        Tuple raw = null;
+        if (rawColumns.length > 0) {
+            Tuple value = ((DataBag)in.get(1)).iterator().next();
+            raw = mTupleFactory.newTuple(rawColumns.length);
+            for (int i = 0; i < rawColumns.length; i++) {
+                raw.set(i, value.get(rawColumns[i]));
+            }
+        }
+
+        if (disabled) {
+            output.add(row(key, partial, raw));
+            outputRecords++;
+            return;
+        }
+        if (raw != null) {
+            output.add(row(key, null, raw));
+        }
+
+        List<Tuple> partials = table.get(key);
+        if (partials == null) {
+            partials = new ArrayList<Tuple>();
+            table.put(key, partials);
+            tableMemory += ENTRY_OVERHEAD + keySize(key);
+        }
+        partials.add(partial);
+        tableMemory += partialSize(partial);
+        if (partials.size() >= MAX_BUFFERED) {
+            compact(partials);
+        }
+
+        if (tableMemory > maxMemory) {
+            for (List<Tuple> p : table.values()) {
+                compact(p);
+            }
+            // empty the table if aggregating did not free enough of it
+            if (tableMemory > maxMemory / 2) {
+                evictions++;
+                evict();
+            }
+        }
+
+        if (inputRecords == REDUCTION_CHECK) {
+            double reduction = (double)inputRecords / (table.size() + outputRecords);
+            if (reduction < minReduction) {
+                log.info("Turning off partial aggregation: " + inputRecords
+                        + " records have " + (table.size() + outputRecords)
+                        + " keys");
+                disabled = true;
+                evict();
+            }
+        }
+    }
+
+    private Tuple row(Object key, Tuple partial, Tuple raw) throws ExecException {
+        Tuple row = mTupleFactory.newTuple(3);
+        row.set(0, key);
+        row.set(1, partial);
+        row.set(2, raw);
+        return row;
+    }
+
+    /**
+     * Aggregates the partials of a key into one.
+     */
+    private void compact(List<Tuple> partials) throws ExecException {
+        if (partials.size() < 2) {
+            return;
+        }
+        Tuple in = mTupleFactory.newTuple(intermediatePlans.size());
+        for (int i = 0; i < intermediatePlans.size(); i++) {
+            DataBag bag = new NonSpillableDataBag(partials.size());
+            for (Tuple p : partials) {
+                bag.add((Tuple)p.get(i));
+            }
+            in.set(i, bag);
+        }
+        Tuple partial = run(intermediatePlans, in);
+        tableMemory -= (partials.size() - 1) * averagePartialSize();
+        partials.clear();
+        partials.add(partial);
+    }
+
+    /**
+     * Moves the aggregated partials of every key to the output.
+     */
+    private void evict() throws ExecException {
+        for (Map.Entry<Object, List<Tuple>> e : table.entrySet()) {
+            compact(e.getValue());
+            output.add(row(e.getKey(), e.getValue().get(0), null));
+            outputRecords++;
+        }
+        table.clear();
+        tableMemory = 0;
+    }
+
+    private Tuple run(List<PhysicalPlan> plans, Tuple in) throws ExecException {
+        Tuple out = mTupleFactory.newTuple(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            PhysicalPlan plan = plans.get(i);
+            plan.attachInput(in);
+            Result res = plan.getLeaves().get(0).getNext(dummyTuple);
+            if (res.returnStatus != POStatus.STATUS_OK
+                    && res.returnStatus != POStatus.STATUS_NULL) {
+                int errCode = 2264;
+                String msg = "Unable to compute partial aggregate.";
+                throw new ExecException(msg, errCode, PigException.BUG);
+            }
+            out.set(i, res.result);
+        }
+        return out;
+    }
+
+    private long keySize(Object key) throws ExecException {
+        if (keysMeasured < SAMPLE_SIZE) {
+            Tuple t = mTupleFactory.newTuple(1);
+            t.set(0, key);
+            keyMemory += t.getMemorySize();
+            keysMeasured++;
+        }
+        return keyMemory / keysMeasured;
+    }
+
+    private long partialSize(Tuple partial) {
+        if (partialsMeasured < SAMPLE_SIZE) {
+            partialMemory += partial.getMemorySize();
+            partialsMeasured++;
+        }
+        return averagePartialSize();
+    }
+
+    private long averagePartialSize() {
+        return partialsMeasured == 0 ? 0 : partialMemory / partialsMeasured;
+    }
+
+    private void report() {
+        log.info("Partial aggregation of " + inputRecords + " records gave "
+                + outputRecords + ", the table was emptied " + evictions
+                + " times before the end of the input");
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        if (reporter == null) {
+            return;
+        }
+        incCounter(reporter, PigCounters.PARTIAL_AGG_INPUT_RECORDS, inputRecords);
+        incCounter(reporter, PigCounters.PARTIAL_AGG_OUTPUT_RECORDS, outputRecords);
+        incCounter(reporter, PigCounters.PARTIAL_AGG_EVICTIONS, evictions);
+    }
+
+    private void incCounter(PigStatusReporter reporter, PigCounters counter,
+            long value) {
+        Counter c = reporter.getCounter(counter);
+        if (c != null) {
+            c.increment(value);
+        }
+    }
+
+    @Override
+    public String name() {
+        return getAliasString() + "Partial Agg" + " - " + mKey.toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMultipleOutputs() {
+        return false;
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitPartialAgg(this);
+    }
+
+    @Override
+    public POPartialAgg clone() throws CloneNotSupportedException {
+        POPartialAgg clone = new POPartialAgg(new OperatorKey(mKey.scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(mKey.scope)),
+                requestedParallelism, inputs);
+        List<PhysicalPlan> initial = new ArrayList<PhysicalPlan>(initialPlans.size());
+        for (PhysicalPlan plan : initialPlans) {
+            initial.add(plan.clone());
+        }
+        List<PhysicalPlan> intermediate =
+            new ArrayList<PhysicalPlan>(intermediatePlans.size());
+        for (PhysicalPlan plan : intermediatePlans) {
+            intermediate.add(plan.clone());
+        }
+        clone.initialPlans = initial;
+        clone.intermediatePlans = intermediate;
+        clone.rawColumns = rawColumns;
+        clone.setAlias(alias);
+        return clone;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InternalCachedBag;
+import org.apache.pig.data.NonSpillableDataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.io.NullableTuple;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * The package operator for the output of {@link POPartialAgg}. The
+ * partials of each algebraic part are put in a bag at the position of the
+ * part in the foreach that follows, for its final function. The columns
+ * passed through for the other parts are put in a bag after the key, at
+ * the end of the tuple.
+ */
+public class POPartialAggPackage extends POPackage {
+
+    private static final long serialVersionUID = 1L;
+
+    // the positions of the bags of partials, in the order of the partials
+    private int[] algebraicFields;
+
+    private boolean[] keyPositions;
+
+    private Map<Integer, Integer> keyLookup;
+
+    /**
+     * @param pkg POPackage to replace
+     * @param algebraicFields for each partial, the position of its bag
+     * @param keyPos for each field of the output, whether it is the key.
+     * The next to last field has to be the key, and the last is the bag of
+     * the columns passed through.
+     */
+    public POPartialAggPackage(POPackage pkg, int[] algebraicFields, boolean[] keyPos) {
+        super(new OperatorKey(pkg.getOperatorKey().scope,
+            NodeIdGenerator.getGenerator().getNextNodeId(pkg.getOperatorKey().scope)),
+            pkg.getRequestedParallelism(), pkg.getInputs());
+        resultType = pkg.getResultType();
+        keyType = pkg.keyType;
+        numInputs = 1;
+        inner = new boolean[] { true };
+        this.algebraicFields = Arrays.copyOf(algebraicFields, algebraicFields.length);
+        this.keyPositions = Arrays.copyOf(keyPos, keyPos.length);
+    }
+
+    @Override
+    public String name() {
+        return "POPartialAggPackage" + "[" + DataType.findTypeName(resultType) + "]" + "{" + DataType.findTypeName(keyType) + "}" +" - " + mKey.toString();
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitPartialAggPackage(this);
+    }
+
+    @Override
+    public void setKeyInfo(Map<Integer, Pair<Boolean, Map<Integer, Integer>>> keyInfo) {
+        this.keyInfo = keyInfo;
+        // only groups are aggregated, so there is a single LocalRearrange
+        keyLookup = keyInfo.get(0).second;
+    }
+
+    private DataBag createDataBag(int numBags) {
+        String bagType = null;
+        if (PigMapReduce.getJobConf() != null) {
+            bagType = PigMapReduce.getJobConf().get("pig.cachedbag.type");
+        }
+        if (bagType != null && bagType.equalsIgnoreCase("default")) {
+            return new NonSpillableDataBag();
+        }
+        return new InternalCachedBag(numBags);
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        int numBags = algebraicFields.length + 1;
+        DataBag[] partials = new DataBag[algebraicFields.length];
+        for (int i = 0; i < partials.length; i++) {
+            partials[i] = createDataBag(numBags);
+        }
+        DataBag raw = createDataBag(numBags);
+
+        // the key is not in the value if the LocalRearrange took it out
+        int offset = keyLookup != null && keyLookup.containsKey(0) ? 0 : 1;
+        while (tupIter.hasNext()) {
+            NullableTuple ntup = tupIter.next();
+            Tuple tup = (Tuple)ntup.getValueAsPigType();
+            Tuple partial = (Tuple)tup.get(offset);
+            if (partial != null) {
+                for (int i = 0; i < partials.length; i++) {
+                    partials[i].add((Tuple)partial.get(i));
+                }
+            }
+            Tuple columns = (Tuple)tup.get(offset + 1);
+            if (columns != null) {
+                raw.add(columns);
+            }
+        }
+
+        Tuple res = mTupleFactory.newTuple(keyPositions.length);
+        for (int i = 0; i < keyPositions.length; i++) {
+            if (keyPositions[i]) {
+                res.set(i, key);
+            }
+        }
+        for (int i = 0; i < algebraicFields.length; i++) {
+            res.set(algebraicFields[i], partials[i]);
+        }
+        res.set(keyPositions.length - 1, raw);
+        return new Result(POStatus.STATUS_OK, res);
+    }
+
+    @Override
+    public boolean[] getKeyPositionsInTuple() {
+        return keyPositions.clone();
+    }
+
+    @Override
+    public POPartialAggPackage clone() throws CloneNotSupportedException {
+        POPartialAggPackage clone = new POPartialAggPackage(this,
+                algebraicFields, keyPositions);
+        clone.keyInfo = keyInfo;
+        clone.keyLookup = keyLookup;
+        return clone;
+    }
+}
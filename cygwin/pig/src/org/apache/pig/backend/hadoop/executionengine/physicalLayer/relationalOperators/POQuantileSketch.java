@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.PigException;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.QuantileSketch;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.NodeIdGenerator;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Passes its input through unchanged, while building a
+ * {@link QuantileSketch} of the keys of the order by that reads it. Once
+ * all the input of the task has been seen, the sketch is written to a file
+ * of its own in the sketch directory, where the partitioner of the order
+ * by picks it up. This takes the place of the sampling job.
+ */
+public class POQuantileSketch extends PhysicalOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(POQuantileSketch.class);
+
+    // the columns of the sort keys, null if the whole tuple is the key
+    private int[] keyColumns;
+
+    private boolean[] ascCols;
+
+    private int k = QuantileSketch.DEFAULT_K;
+
+    private String sketchDir;
+
+    transient private QuantileSketch sketch;
+
+    transient private boolean written = false;
+
+    private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    public POQuantileSketch(OperatorKey k) {
+        this(k, -1, null);
+    }
+
+    public POQuantileSketch(OperatorKey k, int rp, List<PhysicalOperator> inputs) {
+        super(k, rp, inputs);
+    }
+
+    public void setKeyColumns(int[] keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    public int[] getKeyColumns() {
+        return keyColumns;
+    }
+
+    public void setAscCols(boolean[] ascCols) {
+        this.ascCols = ascCols;
+    }
+
+    public boolean[] getAscCols() {
+        return ascCols;
+    }
+
+    /**
+     * @param k number of keys kept in the highest level of the sketch
+     */
+    public void setK(int k) {
+        this.k = k;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public void setSketchDir(String sketchDir) {
+        this.sketchDir = sketchDir;
+    }
+
+    public String getSketchDir() {
+        return sketchDir;
+    }
+
+    @Override
+    public Result getNext(Tuple t) throws ExecException {
+        Result inp = processInput();
+        if (inp.returnStatus == POStatus.STATUS_OK) {
+            if (sketch == null) {
+                sketch = new QuantileSketch(k,
+                        new QuantileSketch.KeyComparator(ascCols));
+            }
+            sketch.add(getKey((Tuple)inp.result));
+        } else if (inp.returnStatus == POStatus.STATUS_EOP
+                && parentPlan.endOfAllInput && !written) {
+            written = true;
+            writeSketch();
+        }
+        return inp;
+    }
+
+    private Tuple getKey(Tuple t) throws ExecException {
+        if (keyColumns == null) {
+            return mTupleFactory.newTuple(t.getAll());
+        }
+        Tuple key = mTupleFactory.newTuple(keyColumns.length);
+        for (int i = 0; i < keyColumns.length; i++) {
+            key.set(i, t.get(keyColumns[i]));
+        }
+        return key;
+    }
+
+    private void writeSketch() throws ExecException {
+        Configuration conf = PigMapReduce.getJobConf();
+        if (conf == null || sketch == null) {
+            // not in a task, or no input
+            return;
+        }
+        // a task that is run again replaces the sketch of its earlier attempt
+        String task = conf.get("mapred.tip.id");
+        if (task == null) {
+            task = UUID.randomUUID().toString();
+        }
+        try {
+            Path dir = new Path(sketchDir);
+            FileSystem fs = dir.getFileSystem(conf);
+            Path tmp = new Path(dir, "_" + task + "-" + UUID.randomUUID());
+            DataOutputStream out = fs.create(tmp);
+            try {
+                sketch.write(out);
+            } finally {
+                out.close();
+            }
+            Path dst = new Path(dir, task);
+            fs.delete(dst, false);
+            if (!fs.rename(tmp, dst)) {
+                throw new IOException("Unable to rename " + tmp + " to " + dst);
+            }
+            log.info("Wrote quantile sketch of " + sketch.getCount()
+                    + " keys, holding " + sketch.getRetained() + ", to " + dst);
+        } catch (IOException e) {
+            int errCode = 2263;
+            String msg = "Unable to write quantile sketch to " + sketchDir;
+            throw new ExecException(msg, errCode, PigException.REMOTE_ENVIRONMENT, e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return getAliasString() + "QuantileSketch - " + mKey.toString();
+    }
+
+    @Override
+    public boolean supportsMultipleInputs() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMultipleOutputs() {
+        return false;
+    }
+
+    @Override
+    public void visit(PhyPlanVisitor v) throws VisitorException {
+        v.visitQuantileSketch(this);
+    }
+
+    @Override
+    public void reset() {
+        sketch = null;
+        written = false;
+    }
+
+    @Override
+    public POQuantileSketch clone() throws CloneNotSupportedException {
+        POQuantileSketch clone = new POQuantileSketch(new OperatorKey(mKey.scope,
+                NodeIdGenerator.getGenerator().getNextNodeId(mKey.scope)),
+                requestedParallelism, inputs);
+        clone.keyColumns = keyColumns;
+        clone.ascCols = ascCols;
+        clone.k = k;
+        clone.sketchDir = sketchDir;
+        clone.setAlias(alias);
+        return clone;
+    }
+}
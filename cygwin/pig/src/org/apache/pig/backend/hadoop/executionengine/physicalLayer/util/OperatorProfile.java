@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.util;
+
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.TupleBatch;
+import org.apache.pig.data.DefaultTuple;
+import org.apache.pig.tools.timer.PerformanceTimer;
+
+/**
+ * The runtime profile of one physical operator: the calls to its getNext,
+ * the records it read and produced, the time spent in it and an estimate of
+ * the memory taken by the records it produced. The time is the self time of
+ * the operator, the time spent in the operators it calls is left out.
+ * <p>
+ * The calls and records are counted for every call. The time and memory
+ * are measured only while the {@link OperatorProfiler} of the task samples
+ * a record, and are scaled up to all the records of the task when the
+ * profile is written.
+ */
+public class OperatorProfile {
+
+    private final OperatorProfiler profiler;
+
+    private final String key;
+
+    private final String name;
+
+    // runs while a sampled call is in this operator and not in an operator
+    // it called
+    final PerformanceTimer timer;
+
+    long calls = 0;
+
+    long in = 0;
+
+    long out = 0;
+
+    long nanos = 0;
+
+    long bytes = 0;
+
+    OperatorProfile(OperatorProfiler profiler, String key, String name) {
+        this.profiler = profiler;
+        this.key = key;
+        this.name = name;
+        timer = (profiler == null) ? null : new PerformanceTimer(key);
+    }
+
+    /**
+     * Called before the operator's getNext
+     */
+    public void enter() {
+        calls++;
+        if (profiler.isSampling()) {
+            profiler.push(this);
+        }
+    }
+
+    /**
+     * Called after the operator's getNext
+     *
+     * @param res the result of getNext
+     * @return res
+     */
+    public Result exit(Result res) {
+        boolean ok = res.returnStatus == POStatus.STATUS_OK;
+        if (ok) {
+            out++;
+        }
+        if (profiler.isSampling()) {
+            profiler.pop(this);
+            if (ok && res.result != null) {
+                bytes += DefaultTuple.getFieldMemorySize(res.result);
+            }
+            profiler.resume();
+        }
+        return res;
+    }
+
+    /**
+     * Called after the operator's getNextBatch
+     *
+     * @param batch the result of getNextBatch
+     * @return batch
+     */
+    public TupleBatch exitBatch(TupleBatch batch) {
+        if (batch != null) {
+            out += batch.size();
+        }
+        if (profiler.isSampling()) {
+            profiler.pop(this);
+            if (batch != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    bytes += batch.get(i).getMemorySize();
+                }
+            }
+            profiler.resume();
+        }
+        return batch;
+    }
+
+    /**
+     * Counts the records the operator reads
+     *
+     * @param res the input of the operator
+     */
+    public void input(Result res) {
+        if (res.returnStatus == POStatus.STATUS_OK) {
+            in++;
+        }
+    }
+
+    /**
+     * Counts a batch of records the operator reads
+     *
+     * @param batch the input of the operator
+     */
+    public void input(TupleBatch batch) {
+        if (batch != null) {
+            in += batch.size();
+        }
+    }
+
+    /**
+     * @return the key of the operator
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the name of the operator, as in the plans explained
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of calls to getNext
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of records the operator read
+     */
+    public long getRecordsIn() {
+        return in;
+    }
+
+    /**
+     * @return the number of records the operator produced
+     */
+    public long getRecordsOut() {
+        return out;
+    }
+
+    /**
+     * @return the estimated time spent in the operator, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the estimated memory taken by the records the operator
+     *         produced, in bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    void add(OperatorProfile other) {
+        calls += other.calls;
+        in += other.in;
+        out += other.out;
+        nanos += other.nanos;
+        bytes += other.bytes;
+    }
+
+    /**
+     * @return the profile as a line of the profile files
+     */
+    String toLine() {
+        return key + "\t" + calls + "\t" + in + "\t" + out + "\t" + nanos
+                + "\t" + bytes + "\t" + name.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * @return the profile read from a line written by {@link #toLine()}
+     */
+    static OperatorProfile fromLine(String line) {
+        String[] fields = line.split("\t", 7);
+        OperatorProfile p = new OperatorProfile(null, fields[0], fields[6]);
+        p.calls = Long.parseLong(fields[1]);
+        p.in = Long.parseLong(fields[2]);
+        p.out = Long.parseLong(fields[3]);
+        p.nanos = Long.parseLong(fields[4]);
+        p.bytes = Long.parseLong(fields[5]);
+        return p;
+    }
+
+    @Override
+    public String toString() {
+        return "in " + in + ", out " + out + ", " + (nanos / 1000000)
+                + " ms, ~" + (bytes / 1024) + " KB";
+    }
+}
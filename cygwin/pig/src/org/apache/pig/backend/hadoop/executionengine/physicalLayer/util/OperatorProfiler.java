@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.pig.backend.hadoop.executionengine.physicalLayer.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhyPlanVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.impl.plan.PlanVisitor;
+import org.apache.pig.impl.plan.PlanWalker;
+import org.apache.pig.impl.plan.VisitorException;
+
+/**
+ * Profiles the physical operators run by a task. Every operator of the
+ * plans it is attached to gets an {@link OperatorProfile}, which the
+ * callers of the operator's getNext enter and exit.
+ * <p>
+ * To keep the overhead low, only one in {@link #SAMPLE_RATE} of the input
+ * records of the task (or keys, in a reduce) is timed, from the time the
+ * record is read to the time all the output for it is collected. The
+ * calls and records are counted for all of them. When the task is done,
+ * the times are scaled up to all the records and the profiles are written
+ * to a file in {@link #PROFILE_DIR}, for the front end to {@link #read}
+ * once the job is done.
+ */
+public class OperatorProfiler {
+
+    private static final Log log = LogFactory.getLog(OperatorProfiler.class);
+
+    /**
+     * Set to true to profile the physical operators of the jobs
+     */
+    public static final String PROFILE = "pig.exec.profile";
+
+    /**
+     * One in this many input records of a task is timed, 100 by default
+     */
+    public static final String SAMPLE_RATE = "pig.exec.profile.sample";
+
+    /**
+     * The file the front end writes the profiles of all the jobs to
+     */
+    public static final String OUTPUT = "pig.exec.profile.output";
+
+    /**
+     * The directory the tasks of a job write their profiles to, set by
+     * JobControlCompiler
+     */
+    public static final String PROFILE_DIR = "pig.exec.profile.dir";
+
+    /**
+     * The key of the profile of the load function, which is not an
+     * operator of the map plan
+     */
+    public static final String LOAD = "load";
+
+    private final int sampleRate;
+
+    private final Random random = new Random();
+
+    private final Map<String, OperatorProfile> profiles =
+        new LinkedHashMap<String, OperatorProfile>();
+
+    // the profiles of the operators in the getNext calls being timed
+    private final ArrayList<OperatorProfile> stack =
+        new ArrayList<OperatorProfile>();
+
+    private OperatorProfile load = null;
+
+    private long units = 0;
+
+    private long sampledUnits = 0;
+
+    private boolean sampling = false;
+
+    private boolean nextSampled = true;
+
+    private OperatorProfiler(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param conf the configuration of the task
+     * @return the profiler of the task, or null if {@link #PROFILE} is not
+     *         set
+     */
+    public static OperatorProfiler create(Configuration conf) {
+        if (!conf.getBoolean(PROFILE, false) || conf.get(PROFILE_DIR) == null) {
+            return null;
+        }
+        return new OperatorProfiler(Math.max(1, conf.getInt(SAMPLE_RATE, 100)));
+    }
+
+    /**
+     * Profiles the operators of the plan and of its nested plans
+     */
+    public void attach(PhysicalPlan plan) throws VisitorException {
+        new PhyPlanVisitor(plan, new AttachingWalker(plan)).visit();
+    }
+
+    /**
+     * Profiles an operator that is not part of the plans attached
+     */
+    public void attach(PhysicalOperator op) {
+        if (op.getProfile() == null) {
+            String key = op.getOperatorKey().toString();
+            OperatorProfile profile = new OperatorProfile(this, key, op.name());
+            profiles.put(key, profile);
+            op.setProfile(profile);
+        }
+    }
+
+    /**
+     * Profiles the time spent reading the input records, between the
+     * calls to {@link #startRecord()}
+     */
+    public void attachLoad() {
+        load = new OperatorProfile(this, LOAD, "Load");
+        profiles.put(LOAD, load);
+    }
+
+    /**
+     * Called when the task starts processing an input record or key
+     */
+    public void startRecord() {
+        units++;
+        if (load != null) {
+            load.calls++;
+            load.out++;
+        }
+        sampling = nextSampled;
+        if (sampling) {
+            sampledUnits++;
+            // the time to read the first record is not timed
+            if (load != null && units > 1) {
+                load.timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Called when the task is done with an input record or key
+     */
+    public void endRecord() {
+        sampling = false;
+        stack.clear();
+        nextSampled = sampleRate == 1 || random.nextInt(sampleRate) == 0;
+        if (nextSampled && load != null) {
+            load.timer.start();
+        }
+    }
+
+    boolean isSampling() {
+        return sampling;
+    }
+
+    void push(OperatorProfile profile) {
+        if (!stack.isEmpty()) {
+            stack.get(stack.size() - 1).timer.stop();
+        }
+        profile.timer.start();
+        stack.add(profile);
+    }
+
+    void pop(OperatorProfile profile) {
+        profile.timer.stop();
+        stack.remove(stack.size() - 1);
+    }
+
+    void resume() {
+        if (!stack.isEmpty()) {
+            stack.get(stack.size() - 1).timer.start();
+        }
+    }
+
+    /**
+     * Writes the profiles of the operators that were called, with their
+     * times and memory scaled up to all the records of the task
+     *
+     * @param conf the configuration of the task
+     * @param taskId the id of the task attempt, the name of the file
+     */
+    public void write(Configuration conf, String taskId) throws IOException {
+        double scale = (sampledUnits == 0) ? 0 : (double)units / sampledUnits;
+        Path path = new Path(conf.get(PROFILE_DIR), taskId);
+        FileSystem fs = path.getFileSystem(conf);
+        PrintWriter out = new PrintWriter(fs.create(path, true));
+        try {
+            for (OperatorProfile profile : profiles.values()) {
+                if (profile.calls == 0) {
+                    continue;
+                }
+                profile.nanos = (long)(profile.timer.getNanos() * scale);
+                profile.bytes = (long)(profile.bytes * scale);
+                out.println(profile.toLine());
+            }
+        } finally {
+            out.close();
+        }
+        log.info("Profiled " + sampledUnits + " of " + units + " records");
+    }
+
+    /**
+     * Reads the profiles the tasks of a job wrote, adds up the profiles of
+     * the same operators and removes the files.
+     *
+     * @param conf the configuration of the job
+     * @return the profiles of the operators by operator key, empty if the
+     *         job was not profiled
+     */
+    public static Map<String, OperatorProfile> read(Configuration conf)
+            throws IOException {
+        Map<String, OperatorProfile> result =
+            new LinkedHashMap<String, OperatorProfile>();
+        String dir = conf.get(PROFILE_DIR);
+        if (dir == null) {
+            return result;
+        }
+        Path path = new Path(dir);
+        FileSystem fs = path.getFileSystem(conf);
+        if (!fs.exists(path)) {
+            return result;
+        }
+        for (FileStatus status : fs.listStatus(path)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    fs.open(status.getPath())));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    OperatorProfile profile = OperatorProfile.fromLine(line);
+                    OperatorProfile total = result.get(profile.getKey());
+                    if (total == null) {
+                        result.put(profile.getKey(), profile);
+                    } else {
+                        total.add(profile);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        fs.delete(path, true);
+        return result;
+    }
+
+    /**
+     * Attaches a profile to every operator it walks, and walks the nested
+     * plans the visitor pushes the same way
+     */
+    private class AttachingWalker extends PlanWalker<PhysicalOperator, PhysicalPlan> {
+
+        AttachingWalker(PhysicalPlan plan) {
+            super(plan);
+        }
+
+        @Override
+        public void walk(PlanVisitor<PhysicalOperator, PhysicalPlan> visitor)
+                throws VisitorException {
+            for (PhysicalOperator op : mPlan) {
+                attach(op);
+                op.visit((PhyPlanVisitor)visitor);
+            }
+        }
+
+        @Override
+        public PlanWalker<PhysicalOperator, PhysicalPlan> spawnChildWalker(
+                PhysicalPlan plan) {
+            return new AttachingWalker(plan);
+        }
+    }
+}
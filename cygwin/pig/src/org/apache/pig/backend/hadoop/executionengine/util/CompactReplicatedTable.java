@@ -0,0 +1,703 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A read only hash table from join keys to lists of tuples, for the
+ * replicated inputs of a fragment replicate join. Keys and values are kept
+ * serialized in a memory mapped file, with an open addressing index of key
+ * hashes and offsets, so the table takes next to no heap and the pages are
+ * shared by the tasks running on a node. The file can be kept in a cache
+ * directory on local disk, so that later tasks and joins with the same
+ * replicated input open it instead of building it again. Replicated inputs
+ * reach the join through temp files that are new on every run, so a table
+ * is named after the load the temp file was written from, see
+ * {@link #getSource}, and the way keys and values are extracted. The least
+ * recently used tables are deleted once the cache grows beyond
+ * {@link #CACHE_SIZE} bytes.
+ * <p>
+ * Keys are matched on their serialized form, which is the same for equal
+ * keys of the types that can be join keys, except for maps.
+ */
+public class CompactReplicatedTable {
+
+    private static final Log log = LogFactory.getLog(CompactReplicatedTable.class);
+
+    /**
+     * Makes fragment replicate joins use compact tables instead of hash maps
+     */
+    public static final String COMPACT_FRJOIN = "pig.frjoin.compact";
+
+    /**
+     * Local directory where the tables of replicated inputs are kept
+     */
+    public static final String CACHE_DIR = "pig.frjoin.cache.dir";
+
+    /**
+     * Bytes of tables kept in the cache directory; the least recently used
+     * ones are deleted beyond it
+     */
+    public static final String CACHE_SIZE = "pig.frjoin.cache.size";
+
+    private static final long DEFAULT_CACHE_SIZE = 10L * 1024 * 1024 * 1024;
+
+    private static final int MAGIC = 0x50524A54;
+
+    private static final int VERSION = 1;
+
+    // magic, version, number of keys, index capacity, index offset
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+
+    // entries are never split across mappings of this size
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final MappedByteBuffer[] segments;
+
+    // hashes of the keys followed by offsets of the entries plus one, one
+    // of each per slot; a zero offset is an empty slot
+    private final MappedByteBuffer index;
+
+    private final int capacity;
+
+    private final long numKeys;
+
+    private final DataOutputBuffer keyBuffer = new DataOutputBuffer();
+
+    private final ByteBufferInputStream valueStream = new ByteBufferInputStream();
+
+    private final DataInputStream valueIn = new DataInputStream(valueStream);
+
+    // the last key looked up and its values, join inputs often repeat keys
+    private byte[] lastKey = null;
+
+    private List<Tuple> lastValues = null;
+
+    private CompactReplicatedTable(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                    || header.getInt() != VERSION) {
+                throw new IOException("Not a replicated table: " + file);
+            }
+            numKeys = header.getLong();
+            capacity = header.getInt();
+            long indexOffset = header.getLong();
+            if (indexOffset + (long)capacity * 12 != channel.size()) {
+                throw new IOException("Truncated replicated table: " + file);
+            }
+            int n = (int)((indexOffset - HEADER_SIZE + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = HEADER_SIZE + i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE, indexOffset - start));
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                    (long)capacity * 12);
+        } finally {
+            // the mappings stay valid
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens a table written by a {@link Builder}
+     * @throws IOException if the file is not a complete table
+     */
+    public static CompactReplicatedTable open(File file) throws IOException {
+        return new CompactReplicatedTable(file);
+    }
+
+    /**
+     * @return the number of distinct keys
+     */
+    public long getNumKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return the tuples added with the key, in the order they were added,
+     * or null if there are none
+     */
+    public List<Tuple> get(Tuple key) throws IOException {
+        keyBuffer.reset();
+        sedes.writeDatum(keyBuffer, key);
+        byte[] bytes = keyBuffer.getData();
+        int len = keyBuffer.getLength();
+        if (lastKey != null && lastKey.length == len
+                && equalBytes(lastKey, bytes, len)) {
+            return lastValues;
+        }
+        int h = hash(bytes, len);
+        int slot = h & (capacity - 1);
+        List<Tuple> values = null;
+        while (true) {
+            long offset = index.getLong(capacity * 4 + slot * 8);
+            if (offset == 0) {
+                break;
+            }
+            if (index.getInt(slot * 4) == h && keyMatches(offset - 1, bytes, len)) {
+                values = readValues(offset - 1, len);
+                break;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        lastKey = Arrays.copyOf(bytes, len);
+        lastValues = values;
+        return values;
+    }
+
+    private boolean keyMatches(long offset, byte[] key, int len) {
+        ByteBuffer segment = segments[(int)(offset / SEGMENT_SIZE)];
+        int pos = (int)(offset % SEGMENT_SIZE);
+        if (segment.getInt(pos) != len) {
+            return false;
+        }
+        pos += 4;
+        for (int i = 0; i < len; i++) {
+            if (segment.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Tuple> readValues(long offset, int keyLen) throws IOException {
+        ByteBuffer segment = segments[(int)(offset / SEGMENT_SIZE)].duplicate();
+        int pos = (int)(offset % SEGMENT_SIZE) + 4 + keyLen;
+        int count = segment.getInt(pos);
+        segment.position(pos + 4);
+        valueStream.buffer = segment;
+        List<Tuple> values = new ArrayList<Tuple>(count);
+        for (int i = 0; i < count; i++) {
+            values.add((Tuple)sedes.readDatum(valueIn));
+        }
+        return values;
+    }
+
+    private static boolean equalBytes(byte[] a, byte[] b, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(byte[] b, int len) {
+        // FNV-1a followed by the murmur3 finalizer
+        int h = 0x811c9dc5;
+        for (int i = 0; i < len; i++) {
+            h = (h ^ b[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Describes where a replicated input comes from, for naming its cached
+     * table.
+     *
+     * @param conf configuration of the file system of the input
+     * @param location location the input is loaded from
+     * @param pipeline describes the load function and the operators applied
+     * to the input before it is written to the temp file read by the join
+     * @return the description, with the length and modification time of
+     * every file of the input, or null if the files cannot be listed
+     */
+    public static String getSource(Configuration conf, String location,
+            String pipeline) {
+        StringBuilder sb = new StringBuilder(pipeline).append('\n');
+        try {
+            for (String name : LoadFunc.getPathStrings(location)) {
+                Path path = new Path(name);
+                FileSystem fs = path.getFileSystem(conf);
+                FileStatus[] statuses = fs.globStatus(path);
+                if (statuses == null || statuses.length == 0) {
+                    return null;
+                }
+                Arrays.sort(statuses);
+                for (FileStatus status : statuses) {
+                    addIdentity(sb, fs, status);
+                }
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            log.warn("Unable to describe replicated input " + location, e);
+            return null;
+        } catch (RuntimeException e) {
+            // locations that are not files, such as tables
+            log.debug("Unable to describe replicated input " + location, e);
+            return null;
+        }
+    }
+
+    /**
+     * Names the cached table of a replicated input.
+     *
+     * @param conf configuration with {@link #CACHE_DIR}, may be null
+     * @param source where the input comes from, see {@link #getSource}
+     * @param signature describes how keys and values are extracted from the
+     * input
+     * @return the file for the table, which may not exist yet
+     */
+    public static File getCacheFile(Configuration conf, String source,
+            String signature) {
+        File dir = getCacheDir(conf);
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(signature.getBytes("UTF-8"));
+            md.update(source.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder("repl-");
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return new File(dir, sb.append(".tbl").toString());
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Unable to name cached replicated table", e);
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to name cached replicated table", e);
+            return null;
+        }
+    }
+
+    private static File getCacheDir(Configuration conf) {
+        String dir = (conf == null) ? null : conf.get(CACHE_DIR);
+        if (dir == null) {
+            dir = System.getProperty("java.io.tmpdir") + File.separator
+                    + "pig-frjoin-cache";
+        }
+        return new File(dir);
+    }
+
+    /**
+     * Deletes the least recently used tables of the cache directory until
+     * they take at most {@link #CACHE_SIZE} bytes. Tables are marked as
+     * used by {@link #touch(File)}.
+     *
+     * @param conf configuration with {@link #CACHE_DIR}, may be null
+     * @param keep a table that is never deleted, may be null
+     */
+    public static void trimCache(Configuration conf, File keep) {
+        long maxSize = (conf == null) ? DEFAULT_CACHE_SIZE
+                : conf.getLong(CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        File[] tables = getCacheDir(conf).listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.getName().startsWith("repl-")
+                        && f.getName().endsWith(".tbl");
+            }
+        });
+        if (tables == null) {
+            return;
+        }
+        // most recently used first
+        Arrays.sort(tables, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return (m1 > m2) ? -1 : ((m1 == m2) ? 0 : 1);
+            }
+        });
+        long size = (keep == null) ? 0 : keep.length();
+        for (File table : tables) {
+            if (table.equals(keep)) {
+                continue;
+            }
+            long length = table.length();
+            if (size + length <= maxSize) {
+                size += length;
+            } else if (table.delete()) {
+                // tasks that have it open keep their mappings
+                log.info("Deleted cached replicated table " + table);
+            } else {
+                log.warn("Failed to delete file: " + table);
+            }
+        }
+    }
+
+    /**
+     * Marks a cached table as used, so that it is kept over the tables not
+     * used since
+     */
+    public static void touch(File table) {
+        if (!table.setLastModified(System.currentTimeMillis())) {
+            log.debug("Unable to mark " + table + " as used");
+        }
+    }
+
+    private static void addIdentity(StringBuilder sb, FileSystem fs,
+            FileStatus status) throws IOException {
+        Path p = status.getPath();
+        String name = p.getName();
+        // skip hidden files the way input formats do
+        if (name.startsWith("_") || name.startsWith(".")) {
+            return;
+        }
+        sb.append(fs.makeQualified(p)).append('\t').append(status.getLen())
+                .append('\t').append(status.getModificationTime()).append('\n');
+        if (status.isDir()) {
+            FileStatus[] children = fs.listStatus(p);
+            if (children != null) {
+                Arrays.sort(children);
+                for (FileStatus child : children) {
+                    addIdentity(sb, fs, child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a table. Pairs are first appended to a temporary file; finish
+     * groups them by key, which only keeps a hash and an offset per pair on
+     * the heap.
+     */
+    public static class Builder {
+        private final File file;
+
+        private final File pairsFile;
+
+        private DataOutputStream pairsOut;
+
+        private long pairsPos = 0;
+
+        // hash and offset of every pair
+        private long[] pairs = new long[2 * 1024];
+
+        private int count = 0;
+
+        private final DataOutputBuffer buf = new DataOutputBuffer();
+
+        /**
+         * @param file where to write the table; it is written under another
+         * name and renamed when complete, so that readers never see a
+         * partial table
+         */
+        public Builder(File file) throws IOException {
+            this.file = file;
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            pairsFile = File.createTempFile("pigrepl", ".pairs", dir);
+            pairsFile.deleteOnExit();
+            pairsOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(pairsFile)));
+        }
+
+        public void add(Tuple key, Tuple value) throws IOException {
+            buf.reset();
+            sedes.writeDatum(buf, key);
+            int keyLen = buf.getLength();
+            int h = hash(buf.getData(), keyLen);
+            sedes.writeDatum(buf, value);
+            int valueLen = buf.getLength() - keyLen;
+            pairsOut.writeInt(keyLen);
+            pairsOut.writeInt(valueLen);
+            pairsOut.write(buf.getData(), 0, buf.getLength());
+            if (count * 2 == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[count * 2] = h;
+            pairs[count * 2 + 1] = pairsPos;
+            count++;
+            pairsPos += 8 + buf.getLength();
+        }
+
+        /**
+         * Writes the table and opens it
+         */
+        public CompactReplicatedTable finish() throws IOException {
+            pairsOut.close();
+            // by hash, and in the order they were added for the same hash
+            sortPairs(pairs, 0, count - 1);
+
+            File tmp = File.createTempFile("pigrepl", ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+            tmp.deleteOnExit();
+            RandomAccessFile in = new RandomAccessFile(pairsFile, "r");
+            long[] entries = new long[2 * 1024];
+            int numKeys = 0;
+            long dataEnd;
+            try {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp)));
+                try {
+                    out.write(new byte[HEADER_SIZE]);
+                    long pos = 0;
+                    boolean[] done = new boolean[0];
+                    byte[] key = new byte[0];
+                    byte[] other = new byte[0];
+                    int i = 0;
+                    while (i < count) {
+                        int j = i + 1;
+                        while (j < count && pairs[j * 2] == pairs[i * 2]) {
+                            j++;
+                        }
+                        // group the pairs with the same hash by key
+                        if (done.length < j - i) {
+                            done = new boolean[j - i];
+                        }
+                        Arrays.fill(done, 0, j - i, false);
+                        for (int k = i; k < j; k++) {
+                            if (done[k - i]) {
+                                continue;
+                            }
+                            in.seek(pairs[k * 2 + 1]);
+                            int keyLen = in.readInt();
+                            if (key.length < keyLen) {
+                                key = new byte[keyLen];
+                            }
+                            in.readInt();
+                            in.readFully(key, 0, keyLen);
+                            List<Integer> group = new ArrayList<Integer>();
+                            long size = 4 + keyLen + 4;
+                            for (int m = k; m < j; m++) {
+                                if (done[m - i]) {
+                                    continue;
+                                }
+                                in.seek(pairs[m * 2 + 1]);
+                                int otherLen = in.readInt();
+                                int valueLen = in.readInt();
+                                if (otherLen != keyLen) {
+                                    continue;
+                                }
+                                if (other.length < otherLen) {
+                                    other = new byte[otherLen];
+                                }
+                                in.readFully(other, 0, otherLen);
+                                if (equalBytes(key, other, keyLen)) {
+                                    done[m - i] = true;
+                                    group.add(m);
+                                    size += valueLen;
+                                }
+                            }
+                            if (size > SEGMENT_SIZE) {
+                                throw new IOException("Too many tuples for one key in replicated input");
+                            }
+                            // do not split an entry across two mappings
+                            long room = SEGMENT_SIZE - pos % SEGMENT_SIZE;
+                            if (size > room) {
+                                for (long p = 0; p < room; p++) {
+                                    out.write(0);
+                                }
+                                pos += room;
+                            }
+                            if (numKeys * 2 == entries.length) {
+                                entries = Arrays.copyOf(entries, entries.length * 2);
+                            }
+                            entries[numKeys * 2] = pairs[k * 2];
+                            entries[numKeys * 2 + 1] = pos;
+                            numKeys++;
+                            out.writeInt(keyLen);
+                            out.write(key, 0, keyLen);
+                            out.writeInt(group.size());
+                            for (int m : group) {
+                                in.seek(pairs[m * 2 + 1]);
+                                int kl = in.readInt();
+                                int valueLen = in.readInt();
+                                in.skipBytes(kl);
+                                if (other.length < valueLen) {
+                                    other = new byte[valueLen];
+                                }
+                                in.readFully(other, 0, valueLen);
+                                out.write(other, 0, valueLen);
+                            }
+                            pos += size;
+                        }
+                        i = j;
+                    }
+                    dataEnd = HEADER_SIZE + pos;
+
+                    // at most half full
+                    int capacity = 16;
+                    while (capacity < numKeys * 2L) {
+                        capacity <<= 1;
+                        if (capacity > (Integer.MAX_VALUE / 12)) {
+                            throw new IOException("Too many keys in replicated input");
+                        }
+                    }
+                    int[] hashes = new int[capacity];
+                    long[] offsets = new long[capacity];
+                    for (int k = 0; k < numKeys; k++) {
+                        int h = (int)entries[k * 2];
+                        int slot = h & (capacity - 1);
+                        while (offsets[slot] != 0) {
+                            slot = (slot + 1) & (capacity - 1);
+                        }
+                        hashes[slot] = h;
+                        offsets[slot] = entries[k * 2 + 1] + 1;
+                    }
+                    for (int k = 0; k < capacity; k++) {
+                        out.writeInt(hashes[k]);
+                    }
+                    for (int k = 0; k < capacity; k++) {
+                        out.writeLong(offsets[k]);
+                    }
+                    out.close();
+                    out = null;
+
+                    RandomAccessFile header = new RandomAccessFile(tmp, "rw");
+                    try {
+                        header.writeInt(MAGIC);
+                        header.writeInt(VERSION);
+                        header.writeLong(numKeys);
+                        header.writeInt(capacity);
+                        header.writeLong(dataEnd);
+                    } finally {
+                        header.close();
+                    }
+                } finally {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            } finally {
+                in.close();
+                if (!pairsFile.delete()) {
+                    log.warn("Failed to delete file: " + pairsFile);
+                }
+            }
+            // Another task may have built the same table meanwhile, either
+            // one will do.
+            if (!tmp.renameTo(file)) {
+                if (file.exists()) {
+                    if (!tmp.delete()) {
+                        log.warn("Failed to delete file: " + tmp);
+                    }
+                } else {
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            }
+            log.info("Built replicated table " + file + " with " + numKeys
+                    + " keys for " + count + " tuples");
+            return open(file);
+        }
+    }
+
+    /**
+     * Quick sort of (hash, offset) pairs by hash then offset
+     */
+    private static void sortPairs(long[] a, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (less(a, mid, lo)) swap(a, mid, lo);
+            if (less(a, hi, lo)) swap(a, hi, lo);
+            if (less(a, hi, mid)) swap(a, hi, mid);
+            long ph = a[mid * 2];
+            long po = a[mid * 2 + 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i * 2] < ph || (a[i * 2] == ph && a[i * 2 + 1] < po)) i++;
+                while (a[j * 2] > ph || (a[j * 2] == ph && a[j * 2 + 1] > po)) j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (j - lo < hi - i) {
+                sortPairs(a, lo, j);
+                lo = i;
+            } else {
+                sortPairs(a, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(a, j, j - 1); j--) {
+                swap(a, j, j - 1);
+            }
+        }
+    }
+
+    private static boolean less(long[] a, int i, int j) {
+        return a[i * 2] < a[j * 2]
+                || (a[i * 2] == a[j * 2] && a[i * 2 + 1] < a[j * 2 + 1]);
+    }
+
+    private static void swap(long[] a, int i, int j) {
+        long h = a[i * 2];
+        long o = a[i * 2 + 1];
+        a[i * 2] = a[j * 2];
+        a[i * 2 + 1] = a[j * 2 + 1];
+        a[j * 2] = h;
+        a[j * 2 + 1] = o;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        ByteBuffer buffer;
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
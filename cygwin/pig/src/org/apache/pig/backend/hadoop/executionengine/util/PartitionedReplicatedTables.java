@@ -0,0 +1,428 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.backend.hadoop.executionengine.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * The hash tables of the replicated inputs of a fragment replicate join,
+ * for when they may not fit in memory. Keys are hashed to one of a few
+ * partitions, each with a hash map per replicated input. When the
+ * estimated size of the maps goes over the memory budget, the largest
+ * partition is written to a local file and its later tuples go straight to
+ * the file. Fragment tuples whose key falls in a written partition are
+ * written to a file of the partition too, to be joined once the fragment
+ * input has been read: see {@link #nextPartition()}.
+ * <p>
+ * A written partition that does not fit in memory either is split again,
+ * on other bits of the key hash. After a few levels it is taken to hold a
+ * skewed key that no split would spread, and kept in memory whatever its
+ * size.
+ */
+public class PartitionedReplicatedTables {
+
+    private static final Log log = LogFactory.getLog(PartitionedReplicatedTables.class);
+
+    /**
+     * Makes fragment replicate joins write partitions of their replicated
+     * inputs to disk when they do not fit in memory
+     */
+    public static final String HYBRID_FRJOIN = "pig.frjoin.hybrid";
+
+    /**
+     * Fraction of the heap the replicated inputs may take before partitions
+     * are written to disk
+     */
+    public static final String MEMORY = "pig.frjoin.hybrid.memory";
+
+    public static final float DEFAULT_MEMORY = 0.3f;
+
+    // partitions the keys are hashed to at each level
+    private static final int FAN_OUT = 16;
+
+    // levels of partitions after which a partition is not split anymore
+    private static final int MAX_DEPTH = 3;
+
+    // one in this many tuples is measured to estimate the size of the maps
+    private static final int SAMPLE_RATE = 16;
+
+    // memory of a map entry and its list, besides the key and the value
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private final int inputs;
+
+    private final long maxMemory;
+
+    // level of the current partitions, 0 for the ones of the whole input
+    private int depth = 0;
+
+    private Partition[] partitions;
+
+    // tuples held in the maps of the current partitions
+    private long resident = 0;
+
+    private long added = 0;
+
+    private long sampledSize = 0;
+
+    private long sampled = 0;
+
+    // written partitions that are yet to be joined
+    private LinkedList<Partition> pending = new LinkedList<Partition>();
+
+    // the partition being joined and its fragment tuples
+    private Partition joining = null;
+
+    private DataInputStream probeIn = null;
+
+    private long spilledPartitions = 0;
+
+    private long spilledRecords = 0;
+
+    /**
+     * @param inputs number of inputs of the join, the fragment included
+     * @param maxMemory bytes the maps may take
+     */
+    public PartitionedReplicatedTables(int inputs, long maxMemory) {
+        this.inputs = inputs;
+        this.maxMemory = maxMemory;
+        partitions = newPartitions();
+    }
+
+    private Partition[] newPartitions() {
+        Partition[] p = new Partition[FAN_OUT];
+        for (int i = 0; i < FAN_OUT; i++) {
+            p[i] = new Partition(depth);
+        }
+        resident = 0;
+        return p;
+    }
+
+    /**
+     * Adds a tuple of a replicated input
+     */
+    public void add(int input, Tuple key, Tuple value) throws IOException {
+        Partition p = partitions[partition(key)];
+        if (p.spilled) {
+            p.writeBuild(input, key, value);
+            return;
+        }
+        p.add(input, key, value);
+        resident++;
+        if (added++ % SAMPLE_RATE == 0) {
+            sampledSize += key.getMemorySize() + value.getMemorySize();
+            sampled++;
+        }
+        if (depth < MAX_DEPTH) {
+            while (resident * (sampledSize / sampled + ENTRY_OVERHEAD) > maxMemory) {
+                if (!spillLargest()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean spillLargest() throws IOException {
+        Partition largest = null;
+        for (Partition p : partitions) {
+            if (!p.spilled && p.count > 0
+                    && (largest == null || p.count > largest.count)) {
+                largest = p;
+            }
+        }
+        if (largest == null) {
+            return false;
+        }
+        if (spilledPartitions == 0) {
+            log.info("Replicated inputs do not fit in " + maxMemory
+                    + " bytes, writing partitions of them to disk");
+        }
+        resident -= largest.count;
+        largest.spill();
+        spilledPartitions++;
+        return true;
+    }
+
+    /**
+     * @return whether the tuples with the key have been written to disk, in
+     * which case fragment tuples with it are to be given to
+     * {@link #addProbe(Tuple, Tuple)} instead of being looked up
+     */
+    public boolean isSpilled(Tuple key) {
+        return partitions[partition(key)].spilled;
+    }
+
+    /**
+     * @return the tuples of the replicated input with the key, or null if
+     * there are none
+     */
+    public List<Tuple> get(int input, Tuple key) {
+        return partitions[partition(key)].tables[input].get(key);
+    }
+
+    /**
+     * Writes a fragment tuple to be joined with the partition of its key
+     */
+    public void addProbe(Tuple key, Tuple tuple) throws IOException {
+        partitions[partition(key)].writeProbe(tuple);
+    }
+
+    /**
+     * Moves on to the next written partition that has fragment tuples,
+     * reading its replicated tuples back into memory. Its fragment tuples
+     * are then read with {@link #nextProbe()}, and those that fall in a
+     * partition written again are given back to
+     * {@link #addProbe(Tuple, Tuple)}.
+     * @return false if all the partitions have been joined
+     */
+    public boolean nextPartition() throws IOException {
+        if (partitions != null) {
+            List<Partition> spilled = new ArrayList<Partition>();
+            for (Partition p : partitions) {
+                if (p.spilled) {
+                    p.closeOutputs();
+                    spilled.add(p);
+                }
+            }
+            // the partitions split from one are joined before the others,
+            // so that few files are around at once
+            pending.addAll(0, spilled);
+            // the tuples still in memory have been joined
+            partitions = null;
+        }
+        finishJoining();
+
+        while (!pending.isEmpty()) {
+            Partition p = pending.removeFirst();
+            if (p.probeFile == null) {
+                // nothing of the fragment to join with
+                p.delete();
+                continue;
+            }
+            depth = p.depth + 1;
+            partitions = newPartitions();
+            DataInputStream in = open(p.buildFile);
+            try {
+                for (int input = in.read(); input != -1; input = in.read()) {
+                    Tuple key = (Tuple)sedes.readDatum(in);
+                    Tuple value = (Tuple)sedes.readDatum(in);
+                    add(input, key, value);
+                }
+            } finally {
+                in.close();
+            }
+            if (depth >= MAX_DEPTH) {
+                log.warn("Joining a partition of " + p.records + " tuples of the"
+                        + " replicated inputs in memory, its keys are too skewed"
+                        + " to split it further");
+            }
+            joining = p;
+            probeIn = open(p.probeFile);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next fragment tuple of the partition being joined, or
+     * null if there are no more
+     */
+    public Tuple nextProbe() throws IOException {
+        if (probeIn == null) {
+            return null;
+        }
+        int type = probeIn.read();
+        if (type == -1) {
+            return null;
+        }
+        return (Tuple)sedes.readDatum(probeIn, (byte)type);
+    }
+
+    private void finishJoining() throws IOException {
+        if (joining != null) {
+            probeIn.close();
+            probeIn = null;
+            joining.delete();
+            joining = null;
+        }
+    }
+
+    /**
+     * Deletes the files left
+     */
+    public void close() throws IOException {
+        finishJoining();
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                if (p.spilled) {
+                    p.closeOutputs();
+                    p.delete();
+                }
+            }
+        }
+        for (Partition p : pending) {
+            p.delete();
+        }
+        pending.clear();
+    }
+
+    /**
+     * @return the number of partitions written to disk
+     */
+    public long getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    /**
+     * @return the number of tuples of either side written to disk
+     */
+    public long getSpilledRecords() {
+        return spilledRecords;
+    }
+
+    private int partition(Tuple key) {
+        // each level mixes the hash differently, so that the keys of a
+        // partition spread over the ones split from it
+        int h = key.hashCode() + depth * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % FAN_OUT;
+    }
+
+    private static DataOutputStream create(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+    }
+
+    private static File createTempFile(String suffix) throws IOException {
+        File f = File.createTempFile("pigfrj", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private class Partition {
+        final int depth;
+        final Map<Tuple, List<Tuple>>[] tables;
+        long count = 0;
+        boolean spilled = false;
+        long records = 0;
+        File buildFile = null;
+        DataOutputStream buildOut = null;
+        File probeFile = null;
+        DataOutputStream probeOut = null;
+
+        @SuppressWarnings("unchecked")
+        Partition(int depth) {
+            this.depth = depth;
+            tables = new Map[inputs];
+            for (int i = 0; i < inputs; i++) {
+                tables[i] = new HashMap<Tuple, List<Tuple>>();
+            }
+        }
+
+        void add(int input, Tuple key, Tuple value) {
+            List<Tuple> values = tables[input].get(key);
+            if (values == null) {
+                values = new ArrayList<Tuple>(1);
+                tables[input].put(key, values);
+            }
+            values.add(value);
+            count++;
+        }
+
+        void spill() throws IOException {
+            buildFile = createTempFile(".build");
+            buildOut = create(buildFile);
+            spilled = true;
+            for (int i = 0; i < inputs; i++) {
+                for (Map.Entry<Tuple, List<Tuple>> e : tables[i].entrySet()) {
+                    for (Tuple value : e.getValue()) {
+                        writeBuild(i, e.getKey(), value);
+                    }
+                }
+                tables[i] = new HashMap<Tuple, List<Tuple>>();
+            }
+            count = 0;
+        }
+
+        void writeBuild(int input, Tuple key, Tuple value) throws IOException {
+            buildOut.write(input);
+            sedes.writeDatum(buildOut, key);
+            sedes.writeDatum(buildOut, value);
+            records++;
+            spilledRecords++;
+        }
+
+        void writeProbe(Tuple tuple) throws IOException {
+            if (probeOut == null) {
+                probeFile = createTempFile(".probe");
+                probeOut = create(probeFile);
+            }
+            sedes.writeDatum(probeOut, tuple);
+            spilledRecords++;
+        }
+
+        void closeOutputs() throws IOException {
+            if (buildOut != null) {
+                buildOut.close();
+                buildOut = null;
+            }
+            if (probeOut != null) {
+                probeOut.close();
+                probeOut = null;
+            }
+        }
+
+        void delete() {
+            if (buildFile != null) {
+                buildFile.delete();
+            }
+            if (probeFile != null) {
+                probeFile.delete();
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Vector;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.data.DataBag;
@@ -43,7 +44,7 @@ import org.apache.pig.impl.logicalLayer.schema.Schema;
 * D = foreach B generate group,COR(A.$0,A.$1,A.$2);<br/>
 */
 
-public class COR extends EvalFunc<DataBag> implements Algebraic {
+public class COR extends EvalFunc<DataBag> implements Algebraic, Accumulator<DataBag> {
     //name of the schemas. Initialize when user use define
     protected Vector<String>schemaName = new Vector<String>();
     //flag to indicate if define is called or not. 
@@ -101,7 +102,82 @@ public class COR extends EvalFunc<DataBag> implements Algebraic {
 
         return output;
     }
-    
+
+    /* Accumulator interface implementation */
+    private int accumulatedInputs = 0;
+    // for each pair of data sets, the number of tuples and the sums of computeAll
+    private double[][] accumulated = null;
+
+    @Override
+    public void accumulate(Tuple input) throws IOException {
+        if (input == null || input.size() == 0)
+            return;
+        if (accumulated == null) {
+            accumulatedInputs = input.size();
+            accumulated = new double[accumulatedInputs * (accumulatedInputs - 1) / 2][6];
+        }
+        int pair = 0;
+        for(int i=0;i<input.size();i++){
+            for(int j=i+1;j<input.size();j++){
+                DataBag first = (DataBag)input.get(i);
+                Tuple r = computeAll(first, (DataBag)input.get(j));
+                double[] acc = accumulated[pair++];
+                // the chunks of the bag cannot tell their size
+                for (Iterator<Tuple> it = first.iterator(); it.hasNext(); it.next()) {
+                    acc[0]++;
+                }
+                acc[1] += (Double)r.get(0);
+                acc[2] += (Double)r.get(1);
+                acc[3] += (Double)r.get(2);
+                acc[4] += (Double)r.get(3);
+                acc[5] += (Double)r.get(4);
+            }
+        }
+    }
+
+    @Override
+    public DataBag getValue() {
+        if (accumulated == null)
+            return null;
+        DataBag output = DefaultBagFactory.getInstance().newDefaultBag();
+        int pair = 0;
+        try{
+            for(int i=0;i<accumulatedInputs;i++){
+                for(int j=i+1;j<accumulatedInputs;j++){
+                    Tuple temp = TupleFactory.getInstance().newTuple(3);
+                    if(flag){
+                        temp.set(0, schemaName.elementAt(i));
+                        temp.set(1, schemaName.elementAt(j));
+                    }
+                    else{
+                        temp.set(0, "var"+i);
+                        temp.set(1, "var"+j);
+                    }
+                    double[] acc = accumulated[pair++];
+                    double size = acc[0];
+                    double sum_x_y = acc[1];
+                    double sum_x = acc[2];
+                    double sum_y = acc[3];
+                    double sum_x_square = acc[4];
+                    double sum_y_square = acc[5];
+                    double result = (size*sum_x_y - sum_x*sum_y)/Math.sqrt((size*sum_x_square-sum_x*sum_x)*(size*sum_y_square-sum_y*sum_y));
+                    temp.set(2, result);
+                    output.add(temp);
+                }
+            }
+        }catch(Exception e){
+            System.err.println("Failed to process input; error - " + e.getMessage());
+            return null;
+        }
+        return output;
+    }
+
+    @Override
+    public void cleanup() {
+        accumulatedInputs = 0;
+        accumulated = null;
+    }
+
    //used to pass schema name to Final class constructor 
     /**
      * Function to return argument of constructor as string. It append ( and ) at starting and end or argument respectively. 
@@ -22,6 +22,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -40,9 +41,12 @@ import org.apache.pig.data.TupleFactory;
  * The implementation assumes that both bags being passed to this function will
  * fit entirely into memory simultaneously.  If that is not the case the UDF
  * will still function, but it will be <strong>very</strong> slow.
- * 
+ * <p>
+ * DIFF implements the {@link org.apache.pig.Accumulator} interface as well,
+ * so that the bags do not have to be put together first, though the
+ * distinct tuples of both are still kept in memory.
  */
-public class DIFF extends EvalFunc<DataBag> {
+public class DIFF extends EvalFunc<DataBag> implements Accumulator<DataBag> {
     TupleFactory mTupleFactory = TupleFactory.getInstance();
     BagFactory mBagFactory = BagFactory.getInstance();
 
@@ -94,10 +98,64 @@ public class DIFF extends EvalFunc<DataBag> {
         Iterator<Tuple> i2 = bag2.iterator();
         while (i2.hasNext()) s2.add(i2.next());
 
+        emitDiff(s1, s2, emitTo);
+    }
+
+    private void emitDiff(Set<Tuple> s1, Set<Tuple> s2, DataBag emitTo) {
         for (Tuple t : s1) if (!s2.contains(t)) emitTo.add(t);
         for (Tuple t : s2) if (!s1.contains(t)) emitTo.add(t);
-
     }
     
-    
+    /* Accumulator interface implementation */
+    private Set<Tuple> accumulated1 = null;
+    private Set<Tuple> accumulated2 = null;
+    // the input, if the fields are not bags
+    private Tuple accumulatedFields = null;
+
+    @Override
+    public void accumulate(Tuple input) throws IOException {
+        if (input.size() != 2) {
+            int errCode = 2107;
+            String msg = "DIFF expected two inputs but received " + input.size() + " inputs.";
+            throw new ExecException(msg, errCode, PigException.BUG);
+        }
+        Object o1 = input.get(0);
+        if (o1 instanceof DataBag) {
+            if (accumulated1 == null) {
+                accumulated1 = new HashSet<Tuple>();
+                accumulated2 = new HashSet<Tuple>();
+            }
+            for (Tuple t : (DataBag)o1) accumulated1.add(t);
+            for (Tuple t : (DataBag)input.get(1)) accumulated2.add(t);
+        } else {
+            accumulatedFields = input;
+        }
+    }
+
+    @Override
+    public DataBag getValue() {
+        DataBag output = mBagFactory.newDefaultBag();
+        if (accumulated1 != null) {
+            emitDiff(accumulated1, accumulated2, output);
+        } else if (accumulatedFields != null) {
+            try {
+                Object d1 = accumulatedFields.get(0);
+                Object d2 = accumulatedFields.get(1);
+                if (!d1.equals(d2)) {
+                    output.add(mTupleFactory.newTuple(d1));
+                    output.add(mTupleFactory.newTuple(d2));
+                }
+            } catch (ExecException e) {
+                throw new RuntimeException("Error while computing DIFF", e);
+            }
+        }
+        return output;
+    }
+
+    @Override
+    public void cleanup() {
+        accumulated1 = null;
+        accumulated2 = null;
+        accumulatedFields = null;
+    }
 }
@@ -20,6 +20,7 @@ package org.apache.pig.builtin;
 
 import java.io.IOException;
 
+import org.apache.pig.Accumulator;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.backend.executionengine.ExecException;
@@ -27,6 +28,7 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce
 import org.apache.pig.data.BagFactory;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.InternalDistinctBag;
+import org.apache.pig.data.OffHeapSortedBag;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
 
@@ -34,8 +36,10 @@ import org.apache.pig.data.TupleFactory;
  * Find the distinct set of tuples in a bag.
  * This is a blocking operator. All the input is put in the hashset implemented
  * in DistinctDataBag which also provides the other DataBag interfaces.
+ * Distinct also implements the {@link org.apache.pig.Accumulator} interface,
+ * for when the combiner cannot be used.
  */
-public class Distinct  extends EvalFunc<DataBag> implements Algebraic {
+public class Distinct  extends EvalFunc<DataBag> implements Algebraic, Accumulator<DataBag> {
 
     private static BagFactory bagFactory = BagFactory.getInstance();
     private static TupleFactory tupleFactory = TupleFactory.getInstance();
@@ -117,11 +121,12 @@ public class Distinct  extends EvalFunc<DataBag> implements Algebraic {
     	// by default, we create InternalSortedBag, unless user configures
 		// explicitly to use old bag
     	String bagType = null;
-        if (PigMapReduce.sJobConf != null) {     
-   			bagType = PigMapReduce.sJobConf.get("pig.cachedbag.distinct.type");       			
+        if (PigMapReduce.getJobConf() != null) {     
+   			bagType = PigMapReduce.getJobConf().get("pig.cachedbag.distinct.type");       			
    	    }
                       
-    	if (bagType != null && bagType.equalsIgnoreCase("default")) {        	    	
+    	if ((bagType != null && bagType.equalsIgnoreCase("default"))
+    	        || OffHeapSortedBag.isEnabled()) {
         	return BagFactory.getInstance().newDistinctBag();    			
    	    } else {   	    	
    	    	return new InternalDistinctBag(3);
@@ -169,4 +174,31 @@ public class Distinct  extends EvalFunc<DataBag> implements Algebraic {
         }
     }
 
+    /* Accumulator interface implementation */
+    private DataBag accumulated = null;
+
+    @Override
+    public void accumulate(Tuple input) throws IOException {
+        if (accumulated == null) {
+            accumulated = createDataBag();
+        }
+        long progressCounter = 0;
+        for (Tuple tuple : (DataBag)input.get(0)) {
+            accumulated.add(tuple);
+            ++progressCounter;
+            if ((progressCounter % 1000) == 0) {
+                progress();
+            }
+        }
+    }
+
+    @Override
+    public DataBag getValue() {
+        return accumulated == null ? createDataBag() : accumulated;
+    }
+
+    @Override
+    public void cleanup() {
+        accumulated = null;
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.builtin;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+import org.apache.pig.data.DataByteArray;
+
+/**
+ * The fields of a tuple loaded by {@link PigStorage}, kept as slices of the
+ * bytes of the line they were read from. A field is turned into a
+ * {@link DataByteArray} the first time it is read, so fields that are never
+ * looked at are never copied. The list is handed to
+ * {@link org.apache.pig.data.TupleFactory#newTupleNoCopy(java.util.List)}
+ * and can be modified like any other list backing a tuple.
+ */
+class LazyFieldList extends AbstractList<Object> implements RandomAccess,
+        Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // marks a field that has not been materialized yet
+    private static final Object UNREAD = new Object();
+
+    private byte[] buf;
+
+    // start and end offset in buf of each field
+    private int[] bounds;
+
+    private Object[] values;
+
+    private int size;
+
+    /**
+     * @param buf the bytes of the line, which must not be overwritten as
+     *          long as the list is in use
+     * @param bounds start and end offset of each field in buf, a field
+     *          whose start equals its end is null
+     * @param size the number of fields
+     */
+    LazyFieldList(byte[] buf, int[] bounds, int size) {
+        this.buf = buf;
+        this.bounds = bounds;
+        this.size = size;
+        values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (bounds[2 * i] == bounds[2 * i + 1]) ? null : UNREAD;
+        }
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex(index);
+        Object value = values[index];
+        if (value == UNREAD) {
+            value = new DataByteArray(buf, bounds[2 * index],
+                    bounds[2 * index + 1]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        Object old = get(index);
+        values[index] = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + size);
+        }
+        if (size == values.length) {
+            Object[] newValues = new Object[size * 2 + 1];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+            int[] newBounds = new int[newValues.length * 2];
+            System.arraycopy(bounds, 0, newBounds, 0, 2 * size);
+            bounds = newBounds;
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        System.arraycopy(bounds, 2 * index, bounds, 2 * index + 2,
+                2 * (size - index));
+        values[index] = element;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object old = get(index);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        System.arraycopy(bounds, 2 * index + 2, bounds, 2 * index,
+                2 * (size - index - 1));
+        values[--size] = null;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tuples are serialized with all of their fields read, there is no
+     * point in shipping the line along with them
+     */
+    private Object writeReplace() {
+        return new ArrayList<Object>(this);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + size);
+        }
+    }
+}
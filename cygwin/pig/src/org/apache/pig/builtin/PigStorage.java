@@ -25,6 +25,7 @@ import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.compress.BZip2Codec;
@@ -76,6 +77,21 @@ LoadPushDown {
     private TupleFactory mTupleFactory = TupleFactory.getInstance();
     private String loadLocation;
     
+    /**
+     * Property that turns on lazy loading. Each line is then copied into a
+     * buffer owned by the loader and its fields are only turned into
+     * {@link DataByteArray}s when they are read.
+     */
+    public static final String LAZY_LOAD = "pig.storage.lazy";
+    
+    // size of the buffers lines are copied into when loading lazily
+    private static final int LINE_BUFFER_SIZE = 64 * 1024;
+    
+    private boolean mLazy = false;
+    private byte[] mLineBuffer = null;
+    private int mLineBufferPos = 0;
+    private int mLastNumFields = 8;
+    
     public PigStorage() {
     }
     
@@ -97,12 +113,13 @@ LoadPushDown {
 
     @Override
     public Tuple getNext() throws IOException {
-        mProtoTuple = new ArrayList<Object>();
         if (!mRequiredColumnsInitialized) {
             if (signature!=null) {
                 Properties p = UDFContext.getUDFContext().getUDFProperties(this.getClass());
                 mRequiredColumns = (boolean[])ObjectSerializer.deserialize(p.getProperty(signature));
             }
+            Configuration conf = UDFContext.getUDFContext().getJobConf();
+            mLazy = conf != null && conf.getBoolean(LAZY_LOAD, false);
             mRequiredColumnsInitialized = true;
         }
         try {
@@ -111,6 +128,10 @@ LoadPushDown {
                 return null;
             }                                                                                           
             Text value = (Text) in.getCurrentValue();
+            if (mLazy) {
+                return getNextLazy(value);
+            }
+            mProtoTuple = new ArrayList<Object>();
             byte[] buf = value.getBytes();
             int len = value.getLength();
             int start = 0;
@@ -138,6 +159,46 @@ LoadPushDown {
       
     }
 
+    /**
+     * Copies the line into the line buffer and returns a tuple whose fields
+     * point into it. The buffer is never overwritten, a new one is started
+     * when it is full, so the tuple stays valid after the next call.
+     */
+    private Tuple getNextLazy(Text value) {
+        int len = value.getLength();
+        if (mLineBuffer == null || mLineBufferPos + len > mLineBuffer.length) {
+            mLineBuffer = new byte[Math.max(LINE_BUFFER_SIZE, len)];
+            mLineBufferPos = 0;
+        }
+        byte[] buf = mLineBuffer;
+        int offset = mLineBufferPos;
+        System.arraycopy(value.getBytes(), 0, buf, offset, len);
+        mLineBufferPos += len;
+
+        int end = offset + len;
+        // lines usually have as many fields as the one before
+        int[] bounds = new int[2 * mLastNumFields];
+        int numFields = 0;
+        int start = offset;
+        int fieldID = 0;
+        for (int i = offset; i <= end; i++) {
+            if (i == end || buf[i] == fieldDel) {
+                if (mRequiredColumns==null || (mRequiredColumns.length>fieldID && mRequiredColumns[fieldID])) {
+                    if (2 * numFields == bounds.length) {
+                        bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                    }
+                    bounds[2 * numFields] = start;
+                    bounds[2 * numFields + 1] = i;
+                    numFields++;
+                }
+                start = i + 1;
+                fieldID++;
+            }
+        }
+        mLastNumFields = Math.max(numFields, 1);
+        return mTupleFactory.newTupleNoCopy(new LazyFieldList(buf, bounds, numFields));
+    }
+
     @Override
     public void putNext(Tuple f) throws IOException {
         try {
@@ -27,6 +27,7 @@ import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.pig.Accumulator;
 import org.apache.pig.Algebraic;
 import org.apache.pig.EvalFunc;
 import org.apache.pig.FuncSpec;
@@ -61,8 +62,11 @@ import org.apache.pig.impl.logicalLayer.schema.Schema.FieldSchema;
  *          result = Top(10, 2, C); // and retain top 10 occurrences of 'second' in first 
  *          GENERATE FLATTEN(result); 
  *  }
+ * 
+ * TOP implements the {@link org.apache.pig.Accumulator} interface as well,
+ * keeping the priority queue between the chunks of the bag.
  */
-public class TOP extends EvalFunc<DataBag> implements Algebraic{
+public class TOP extends EvalFunc<DataBag> implements Algebraic, Accumulator<DataBag>{
     private static final Log log = LogFactory.getLog(TOP.class);
     static BagFactory mBagFactory = BagFactory.getInstance();
     static TupleFactory mTupleFactory = TupleFactory.getInstance();
@@ -134,6 +138,40 @@ public class TOP extends EvalFunc<DataBag> implements Algebraic{
         }
     }
 
+    /* Accumulator interface implementation */
+    private PriorityQueue<Tuple> accumulatedStore = null;
+
+    @Override
+    public void accumulate(Tuple tuple) throws IOException {
+        if (tuple == null || tuple.size() < 3) {
+            return;
+        }
+        int n = (Integer) tuple.get(0);
+        if (accumulatedStore == null) {
+            int fieldNum = (Integer) tuple.get(1);
+            accumulatedStore = new PriorityQueue<Tuple>(n + 1,
+                    new TupleComparator(fieldNum));
+        }
+        updateTop(accumulatedStore, n, (DataBag) tuple.get(2));
+    }
+
+    @Override
+    public DataBag getValue() {
+        if (accumulatedStore == null) {
+            return null;
+        }
+        DataBag outputBag = mBagFactory.newDefaultBag();
+        for (Tuple t : accumulatedStore) {
+            outputBag.add(t);
+        }
+        return outputBag;
+    }
+
+    @Override
+    public void cleanup() {
+        accumulatedStore = null;
+    }
+
     protected static void updateTop(PriorityQueue<Tuple> store, int limit, DataBag inputBag) {
         Iterator<Tuple> itr = inputBag.iterator();
         while (itr.hasNext()) {
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.builtin;
+
+/**
+ * Parses numbers straight from utf8 encoded bytes, without making a String
+ * first. Only plain decimal numbers are handled: an optional sign, digits
+ * and, for floating point numbers, a fraction and an exponent. They are
+ * parsed to exactly the value Integer.valueOf, Long.valueOf, Float.valueOf
+ * and Double.valueOf would give, as long as that can be done with exact
+ * arithmetic. Anything else, including malformed input, is reported as not
+ * parsed so that the caller can fall back on the String based conversions.
+ */
+public final class Utf8NumberParser {
+
+    /**
+     * Returned by {@link #parseInt} and {@link #parseLong} when the bytes
+     * could not be parsed. Floating point numbers that could not be parsed
+     * are returned as NaN.
+     */
+    public static final long NOT_PARSED = Long.MIN_VALUE;
+
+    // the powers of ten that are exact as doubles
+    private static final double[] DOUBLE_POW10 = new double[23];
+
+    // the powers of ten that are exact as floats
+    private static final float[] FLOAT_POW10 = new float[11];
+
+    static {
+        double d = 1;
+        for (int i = 0; i < DOUBLE_POW10.length; i++) {
+            DOUBLE_POW10[i] = d;
+            d *= 10;
+        }
+        float f = 1;
+        for (int i = 0; i < FLOAT_POW10.length; i++) {
+            FLOAT_POW10[i] = f;
+            f *= 10;
+        }
+    }
+
+    // a mantissa of up to this many digits does not overflow a long
+    private static final int MAX_DIGITS = 18;
+
+    private Utf8NumberParser() {
+    }
+
+    /**
+     * @return the int value of the bytes, or {@link #NOT_PARSED}
+     */
+    public static long parseInt(byte[] b, int off, int len) {
+        // the longest int is -2147483648
+        if (len > 11) {
+            return NOT_PARSED;
+        }
+        long v = parseLong(b, off, len);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            return NOT_PARSED;
+        }
+        return v;
+    }
+
+    /**
+     * @return the long value of the bytes, or {@link #NOT_PARSED}
+     */
+    public static long parseLong(byte[] b, int off, int len) {
+        int i = off;
+        int end = off + len;
+        if (len <= 0) {
+            return NOT_PARSED;
+        }
+        boolean negative = false;
+        if (b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > MAX_DIGITS) {
+            return NOT_PARSED;
+        }
+        long v = 0;
+        for (; i < end; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return NOT_PARSED;
+            }
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * @return the double value of the bytes, or NaN
+     */
+    public static double parseDouble(byte[] b, int off, int len) {
+        return parseDecimal(b, off, len, false);
+    }
+
+    /**
+     * @return the float value of the bytes, or NaN
+     */
+    public static float parseFloat(byte[] b, int off, int len) {
+        return (float)parseDecimal(b, off, len, true);
+    }
+
+    private static double parseDecimal(byte[] b, int off, int len,
+            boolean toFloat) {
+        int i = off;
+        int end = off + len;
+        if (len <= 0) {
+            return Double.NaN;
+        }
+        boolean negative = false;
+        if (b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        boolean seenDigit = false;
+        for (; i < end; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                if (b[i] == '.' && !fraction) {
+                    fraction = true;
+                    continue;
+                }
+                break;
+            }
+            seenDigit = true;
+            // leading zeros do not count
+            if ((mantissa != 0 || d != 0) && ++digits > MAX_DIGITS) {
+                return Double.NaN;
+            }
+            mantissa = mantissa * 10 + d;
+            if (fraction) {
+                scale--;
+            }
+        }
+        if (!seenDigit) {
+            return Double.NaN;
+        }
+        if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExp = b[i] == '-';
+                i++;
+            }
+            if (i == end || end - i > 3) {
+                return Double.NaN;
+            }
+            int exp = 0;
+            for (; i < end; i++) {
+                int d = b[i] - '0';
+                if (d < 0 || d > 9) {
+                    return Double.NaN;
+                }
+                exp = exp * 10 + d;
+            }
+            scale += negativeExp ? -exp : exp;
+        }
+        if (i != end) {
+            // trailing type suffixes and anything else
+            return Double.NaN;
+        }
+
+        // an exact mantissa and power of ten give a correctly rounded
+        // result with a single multiplication or division
+        if (toFloat) {
+            if (mantissa > (1L << 24) || scale < -10 || scale > 10) {
+                return Double.NaN;
+            }
+            float f = (float)mantissa;
+            f = scale >= 0 ? f * FLOAT_POW10[scale] : f / FLOAT_POW10[-scale];
+            return negative ? -f : f;
+        }
+        if (mantissa > (1L << 53) || scale < -22 || scale > 22) {
+            return Double.NaN;
+        }
+        double v = (double)mantissa;
+        v = scale >= 0 ? v * DOUBLE_POW10[scale] : v / DOUBLE_POW10[-scale];
+        return negative ? -v : v;
+    }
+}
@@ -32,6 +32,7 @@ import org.apache.pig.LoadStoreCaster;
 import org.apache.pig.PigWarning;
 import org.apache.pig.ResourceSchema.ResourceFieldSchema;
 import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.CharArrayInterner;
 import org.apache.pig.data.DataBag;
 import org.apache.pig.data.DataByteArray;
 import org.apache.pig.data.DataType;
@@ -310,6 +311,9 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public String bytesToCharArray(byte[] b) throws IOException {
         if(b == null)
             return null;
+        if (CharArrayInterner.isEnabled()) {
+            return CharArrayInterner.intern(b, 0, b.length);
+        }
         return new String(b, "UTF-8");
     }
 
@@ -317,6 +321,10 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public Double bytesToDouble(byte[] b) {
         if(b == null)
             return null;
+        double v = Utf8NumberParser.parseDouble(b, 0, b.length);
+        if (!Double.isNaN(v)) {
+            return Double.valueOf(v);
+        }
         try {
             return Double.valueOf(new String(b));
         } catch (NumberFormatException nfe) {
@@ -332,12 +340,15 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public Float bytesToFloat(byte[] b) throws IOException {
         if(b == null)
             return null;
-        String s;
-        if (b.length > 0 && (b[b.length - 1] == 'F' || b[b.length - 1] == 'f')) {
-            s = new String(b, 0, b.length - 1);
-        } else {
-            s = new String(b);
+        int len = b.length;
+        if (len > 0 && (b[len - 1] == 'F' || b[len - 1] == 'f')) {
+            len--;
+        }
+        float v = Utf8NumberParser.parseFloat(b, 0, len);
+        if (!Float.isNaN(v)) {
+            return Float.valueOf(v);
         }
+        String s = new String(b, 0, len);
 
         try {
             return Float.valueOf(s);
@@ -367,6 +378,10 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public Integer bytesToInteger(byte[] b) throws IOException {
         if(b == null)
             return null;
+        long v = Utf8NumberParser.parseInt(b, 0, b.length);
+        if (v != Utf8NumberParser.NOT_PARSED) {
+            return Integer.valueOf((int)v);
+        }
         String s = new String(b);
         try {
             return Integer.valueOf(s);
@@ -399,12 +414,15 @@ public class Utf8StorageConverter implements LoadStoreCaster {
     public Long bytesToLong(byte[] b) throws IOException {
         if (b == null)
             return null;
-        String s;
-        if (b.length > 0 && (b[b.length - 1] == 'L' || b[b.length - 1] == 'l')) {
-            s = new String(b, 0, b.length - 1);
-        } else {
-            s = new String(b);
+        int len = b.length;
+        if (len > 0 && (b[len - 1] == 'L' || b[len - 1] == 'l')) {
+            len--;
+        }
+        long v = Utf8NumberParser.parseLong(b, 0, len);
+        if (v != Utf8NumberParser.NOT_PARSED) {
+            return Long.valueOf(v);
         }
+        String s = new String(b, 0, len);
         
         try {
             return Long.valueOf(s);
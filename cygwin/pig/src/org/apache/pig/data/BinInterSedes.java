@@ -24,8 +24,10 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -96,24 +98,139 @@ public class BinInterSedes implements InterSedes {
 
     public static final byte NULL = 27;
 
+    // a bag whose repeated chararrays are written as references to the
+    // first one, followed by the bag as usual
+    public static final byte DICTIONARY_BAG = 28;
+    public static final byte CHARARRAY_REF_INBYTE = 29;
+    public static final byte CHARARRAY_REF_INSHORT = 30;
+
     private static TupleFactory mTupleFactory = TupleFactory.getInstance();
     private static BagFactory mBagFactory = BagFactory.getInstance();
     static final int UNSIGNED_SHORT_MAX = 65535;
     static final int UNSIGNED_BYTE_MAX = 255;
     public static final String UTF8 = "UTF-8";
 
-    private Tuple readTuple(DataInput in, byte type) throws IOException {
+    // chararrays of a bag that may be referred to
+    static final int MAX_DICTIONARY_SIZE = UNSIGNED_SHORT_MAX + 1;
+
+    private Tuple readTuple(DataInput in, byte type, ReadDictionary dict) throws IOException {
         // Read the size.
         int sz = getTupleSize(in, type);
 
+        if (PrimitiveTuple.isEnabled()) {
+            return readPrimitiveTuple(in, sz, dict);
+        }
         Tuple t = mTupleFactory.newTuple(sz);
         for (int i = 0; i < sz; i++) {
-            t.set(i, readDatum(in));
+            t.set(i, readDatum(in, dict));
         }
         return t;
 
     }
 
+    /**
+     * Reads the fields of a tuple into a {@link PrimitiveTuple} without
+     * boxing them, chararrays are kept as they were written where possible
+     */
+    private Tuple readPrimitiveTuple(DataInput in, int sz, ReadDictionary dict) throws IOException {
+        PrimitiveTuple t = new PrimitiveTuple(sz);
+        for (int i = 0; i < sz; i++) {
+            byte type = in.readByte();
+            switch (type) {
+            case INTEGER_0:
+                t.setInt(i, 0);
+                break;
+            case INTEGER_1:
+                t.setInt(i, 1);
+                break;
+            case INTEGER_INBYTE:
+                t.setInt(i, in.readByte());
+                break;
+            case INTEGER_INSHORT:
+                t.setInt(i, in.readShort());
+                break;
+            case INTEGER:
+                t.setInt(i, in.readInt());
+                break;
+            case LONG:
+                t.setLong(i, in.readLong());
+                break;
+            case FLOAT:
+                t.setFloat(i, in.readFloat());
+                break;
+            case DOUBLE:
+                t.setDouble(i, in.readDouble());
+                break;
+            case BOOLEAN_TRUE:
+                t.setBoolean(i, true);
+                break;
+            case BOOLEAN_FALSE:
+                t.setBoolean(i, false);
+                break;
+            case NULL:
+                break;
+            case SMALLCHARARRAY: {
+                int size = in.readUnsignedShort();
+                byte[] ba = new byte[size];
+                in.readFully(ba);
+                if (isStandardUtf8(ba)) {
+                    t.setCharArray(i, ba);
+                    if (dict != null) dict.add(ba);
+                } else {
+                    String str = decodeModifiedUtf8(ba);
+                    t.set(i, str);
+                    if (dict != null) dict.add(str);
+                }
+                break;
+            }
+            case CHARARRAY: {
+                int size = in.readInt();
+                byte[] ba = new byte[size];
+                in.readFully(ba);
+                t.setCharArray(i, ba);
+                if (dict != null) dict.add(ba);
+                break;
+            }
+            case CHARARRAY_REF_INBYTE:
+            case CHARARRAY_REF_INSHORT: {
+                Object word = dict.words.get(readReference(in, type, dict));
+                if (word instanceof byte[]) {
+                    t.setCharArray(i, (byte[]) word);
+                } else {
+                    t.set(i, word);
+                }
+                break;
+            }
+            default:
+                t.set(i, readDatum(in, type, dict));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return false if the bytes written by DataOutput.writeUTF contain a
+     *         null character or a surrogate, which are encoded differently
+     *         in standard UTF-8
+     */
+    private static boolean isStandardUtf8(byte[] ba) {
+        for (int i = 0; i < ba.length; i++) {
+            if (ba[i] == (byte)0xC0
+                    || (ba[i] == (byte)0xED && i + 1 < ba.length && (ba[i + 1] & 0xE0) == 0xA0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decodeModifiedUtf8(byte[] ba) throws IOException {
+        byte[] withLength = new byte[ba.length + 2];
+        withLength[0] = (byte)(ba.length >>> 8);
+        withLength[1] = (byte)ba.length;
+        System.arraycopy(ba, 0, withLength, 2, ba.length);
+        return new DataInputStream(new ByteArrayInputStream(withLength)).readUTF();
+    }
+
     private int getTupleSize(DataInput in, byte type) throws IOException {
         int sz;
         switch (type) {
@@ -139,7 +256,7 @@ public class BinInterSedes implements InterSedes {
         return sz;
     }
 
-    private DataBag readBag(DataInput in, byte type) throws IOException {
+    private DataBag readBag(DataInput in, byte type, ReadDictionary dict) throws IOException {
         DataBag bag = mBagFactory.newDefaultBag();
         long size;
         // determine size of bag
@@ -161,7 +278,7 @@ public class BinInterSedes implements InterSedes {
 
         for (long i = 0; i < size; i++) {
             try {
-                Object o = readDatum(in);
+                Object o = readDatum(in, dict);
                 bag.add((Tuple) o);
             } catch (ExecException ee) {
                 throw ee;
@@ -170,7 +287,7 @@ public class BinInterSedes implements InterSedes {
         return bag;
     }
 
-    private Map<String, Object> readMap(DataInput in, byte type) throws IOException {
+    private Map<String, Object> readMap(DataInput in, byte type, ReadDictionary dict) throws IOException {
         int size;
         switch (type) {
         case TINYMAP:
@@ -190,23 +307,32 @@ public class BinInterSedes implements InterSedes {
         }
         Map<String, Object> m = new HashMap<String, Object>(size);
         for (int i = 0; i < size; i++) {
-            String key = (String) readDatum(in);
-            m.put(key, readDatum(in));
+            String key = (String) readDatum(in, dict);
+            m.put(key, readDatum(in, dict));
         }
         return m;
     }
 
-    private InternalMap readInternalMap(DataInput in) throws IOException {
+    private InternalMap readInternalMap(DataInput in, ReadDictionary dict) throws IOException {
         int size = in.readInt();
         InternalMap m = new InternalMap(size);
         for (int i = 0; i < size; i++) {
-            Object key = readDatum(in);
-            m.put(key, readDatum(in));
+            Object key = readDatum(in, dict);
+            m.put(key, readDatum(in, dict));
         }
         return m;
     }
 
     private static String readCharArray(DataInput in) throws IOException {
+        if (CharArrayInterner.isEnabled()) {
+            int size = in.readUnsignedShort();
+            byte[] ba = new byte[size];
+            in.readFully(ba);
+            if (isStandardUtf8(ba)) {
+                return CharArrayInterner.intern(ba, 0, size);
+            }
+            return decodeModifiedUtf8(ba);
+        }
         return in.readUTF();
     }
 
@@ -217,8 +343,22 @@ public class BinInterSedes implements InterSedes {
         return new String(ba, UTF8);
     }
 
-    private WritableComparable readWritable(DataInput in) throws IOException {
-        String className = (String) readDatum(in);
+    /**
+     * @return the index in the dictionary of the chararray a reference
+     *         refers to
+     */
+    private static int readReference(DataInput in, byte type, ReadDictionary dict) throws IOException {
+        int id = (type == CHARARRAY_REF_INBYTE) ? in.readUnsignedByte() : in.readUnsignedShort();
+        if (dict == null || id >= dict.words.size()) {
+            int errCode = 2268;
+            String msg = "Unexpected reference to chararray " + id + " while reading bag from binary file.";
+            throw new ExecException(msg, errCode, PigException.BUG);
+        }
+        return id;
+    }
+
+    private WritableComparable readWritable(DataInput in, ReadDictionary dict) throws IOException {
+        String className = (String) readDatum(in, dict);
         // create the writeable class . It needs to have a default constructor
         Class<?> objClass = null;
         try {
@@ -246,9 +386,13 @@ public class BinInterSedes implements InterSedes {
      * @see org.apache.pig.data.InterSedes#readDatum(java.io.DataInput)
      */
     public Object readDatum(DataInput in) throws IOException, ExecException {
+        return readDatum(in, (ReadDictionary) null);
+    }
+
+    private Object readDatum(DataInput in, ReadDictionary dict) throws IOException {
         // Read the data type
         byte b = in.readByte();
-        return readDatum(in, b);
+        return readDatum(in, b, dict);
     }
 
     private static Object readBytes(DataInput in, int size) throws IOException {
@@ -263,24 +407,35 @@ public class BinInterSedes implements InterSedes {
      * @see org.apache.pig.data.InterSedes#readDatum(java.io.DataInput, byte)
      */
     public Object readDatum(DataInput in, byte type) throws IOException, ExecException {
+        return readDatum(in, type, null);
+    }
+
+    /**
+     * @param dict the chararrays read so far in the bag being read, if it
+     *        was written with references to them
+     */
+    private Object readDatum(DataInput in, byte type, ReadDictionary dict) throws IOException {
         switch (type) {
         case TUPLE:
         case TINYTUPLE:
         case SMALLTUPLE:
-            return readTuple(in, type);
+            return readTuple(in, type, dict);
 
         case BAG:
         case TINYBAG:
         case SMALLBAG:
-            return readBag(in, type);
+            return readBag(in, type, dict);
+
+        case DICTIONARY_BAG:
+            return readBag(in, in.readByte(), new ReadDictionary());
 
         case MAP:
         case TINYMAP:
         case SMALLMAP:
-            return readMap(in, type);
+            return readMap(in, type, dict);
 
         case INTERNALMAP:
-            return readInternalMap(in);
+            return readInternalMap(in, dict);
 
         case INTEGER_0:
             return Integer.valueOf(0);
@@ -326,14 +481,24 @@ public class BinInterSedes implements InterSedes {
             return readBytes(in, size);
         }
 
-        case CHARARRAY:
-            return readBigCharArray(in);
+        case CHARARRAY: {
+            String s = readBigCharArray(in);
+            if (dict != null) dict.add(s);
+            return s;
+        }
+
+        case SMALLCHARARRAY: {
+            String s = readCharArray(in);
+            if (dict != null) dict.add(s);
+            return s;
+        }
 
-        case SMALLCHARARRAY:
-            return readCharArray(in);
+        case CHARARRAY_REF_INBYTE:
+        case CHARARRAY_REF_INSHORT:
+            return dict.getString(readReference(in, type, dict));
 
         case GENERIC_WRITABLECOMPARABLE:
-            return readWritable(in);
+            return readWritable(in, dict);
 
         case NULL:
             return null;
@@ -348,21 +513,29 @@ public class BinInterSedes implements InterSedes {
      * 
      * @see org.apache.pig.data.InterSedes#writeDatum(java.io.DataOutput, java.lang.Object)
      */
-    @SuppressWarnings("unchecked")
     public void writeDatum(DataOutput out, Object val) throws IOException {
+        writeDatum(out, val, null);
+    }
+
+    /**
+     * @param dict the chararrays written so far in the bag being written,
+     *        if their repeats are to be written as references
+     */
+    @SuppressWarnings("unchecked")
+    private void writeDatum(DataOutput out, Object val, WriteDictionary dict) throws IOException {
         // Read the data type
         byte type = DataType.findType(val);
         switch (type) {
         case DataType.TUPLE:
-            writeTuple(out, (Tuple) val);
+            writeTuple(out, (Tuple) val, dict);
             break;
 
         case DataType.BAG:
-            writeBag(out, (DataBag) val);
+            writeBag(out, (DataBag) val, dict);
             break;
 
         case DataType.MAP: {
-            writeMap(out, (Map<String, Object>) val);
+            writeMap(out, (Map<String, Object>) val, dict);
 
             break;
         }
@@ -374,29 +547,14 @@ public class BinInterSedes implements InterSedes {
             Iterator<Map.Entry<Object, Object>> i = m.entrySet().iterator();
             while (i.hasNext()) {
                 Map.Entry<Object, Object> entry = i.next();
-                writeDatum(out, entry.getKey());
-                writeDatum(out, entry.getValue());
+                writeDatum(out, entry.getKey(), dict);
+                writeDatum(out, entry.getValue(), dict);
             }
             break;
         }
 
         case DataType.INTEGER:
-            int i = (Integer) val;
-            if (i == 0) {
-                out.writeByte(INTEGER_0);
-            } else if (i == 1) {
-                out.writeByte(INTEGER_1);
-            } else if (Byte.MIN_VALUE <= i && i <= Byte.MAX_VALUE) {
-                out.writeByte(INTEGER_INBYTE);
-                out.writeByte(i);
-            } else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE) {
-                out.writeByte(INTEGER_INSHORT);
-                out.writeShort(i);
-            } else {
-                out.writeByte(INTEGER);
-                out.writeInt(i);
-            }
-
+            writeInteger(out, (Integer) val);
             break;
 
         case DataType.LONG:
@@ -447,6 +605,9 @@ public class BinInterSedes implements InterSedes {
 
         case DataType.CHARARRAY: {
             String s = (String) val;
+            if (dict != null && dict.writeReference(out, s)) {
+                break;
+            }
             // a char can take up to 3 bytes in the modified utf8 encoding
             // used by DataOutput.writeUTF, so use UNSIGNED_SHORT_MAX/3
             if (s.length() < UNSIGNED_SHORT_MAX / 3) {
@@ -465,7 +626,7 @@ public class BinInterSedes implements InterSedes {
         case DataType.GENERIC_WRITABLECOMPARABLE:
             out.writeByte(GENERIC_WRITABLECOMPARABLE);
             // store the class name, so we know the class to create on read
-            writeDatum(out, val.getClass().getName());
+            writeDatum(out, val.getClass().getName(), dict);
             Writable writable = (Writable) val;
             writable.write(out);
             break;
@@ -479,7 +640,55 @@ public class BinInterSedes implements InterSedes {
         }
     }
 
-    private void writeMap(DataOutput out, Map<String, Object> m) throws IOException {
+    private static void writeInteger(DataOutput out, int i) throws IOException {
+        if (i == 0) {
+            out.writeByte(INTEGER_0);
+        } else if (i == 1) {
+            out.writeByte(INTEGER_1);
+        } else if (Byte.MIN_VALUE <= i && i <= Byte.MAX_VALUE) {
+            out.writeByte(INTEGER_INBYTE);
+            out.writeByte(i);
+        } else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE) {
+            out.writeByte(INTEGER_INSHORT);
+            out.writeShort(i);
+        } else {
+            out.writeByte(INTEGER);
+            out.writeInt(i);
+        }
+    }
+
+    /**
+     * Writes a chararray given as UTF-8 bytes exactly like writeDatum
+     * writes the String they encode
+     */
+    private void writeCharArray(DataOutput out, byte[] utf8, WriteDictionary dict) throws IOException {
+        if (dict != null && dict.writeReference(out, new DataByteArray(utf8))) {
+            return;
+        }
+        int chars = 0;
+        for (int i = 0; i < utf8.length; i++) {
+            byte b = utf8[i];
+            if (b == 0 || (b & 0xF8) == 0xF0) {
+                // a null character or a surrogate pair, which writeUTF
+                // encodes differently
+                writeDatum(out, new String(utf8, UTF8));
+                return;
+            }
+            if ((b & 0xC0) != 0x80) {
+                chars++;
+            }
+        }
+        if (chars < UNSIGNED_SHORT_MAX / 3) {
+            out.writeByte(SMALLCHARARRAY);
+            out.writeShort(utf8.length);
+        } else {
+            out.writeByte(CHARARRAY);
+            out.writeInt(utf8.length);
+        }
+        out.write(utf8);
+    }
+
+    private void writeMap(DataOutput out, Map<String, Object> m, WriteDictionary dict) throws IOException {
 
         final int sz = m.size();
         if (sz < UNSIGNED_BYTE_MAX) {
@@ -495,17 +704,22 @@ public class BinInterSedes implements InterSedes {
         Iterator<Map.Entry<String, Object>> i = m.entrySet().iterator();
         while (i.hasNext()) {
             Map.Entry<String, Object> entry = i.next();
-            writeDatum(out, entry.getKey());
-            writeDatum(out, entry.getValue());
+            writeDatum(out, entry.getKey(), dict);
+            writeDatum(out, entry.getValue(), dict);
         }
     }
 
-    private void writeBag(DataOutput out, DataBag bag) throws IOException {
+    private void writeBag(DataOutput out, DataBag bag, WriteDictionary dict) throws IOException {
         // We don't care whether this bag was sorted or distinct because
         // using the iterator to write it will guarantee those things come
         // correctly. And on the other end there'll be no reason to waste
         // time re-sorting or re-applying distinct.
         final long sz = bag.size();
+        if (dict == null && sz > 1 && CharArrayInterner.isEnabled()) {
+            // the bags nested in this one share its dictionary
+            out.writeByte(DICTIONARY_BAG);
+            dict = new WriteDictionary();
+        }
         if (sz < UNSIGNED_BYTE_MAX) {
             out.writeByte(TINYBAG);
             out.writeByte((int) sz);
@@ -519,12 +733,12 @@ public class BinInterSedes implements InterSedes {
 
         Iterator<Tuple> it = bag.iterator();
         while (it.hasNext()) {
-            writeTuple(out, it.next());
+            writeTuple(out, it.next(), dict);
         }
 
     }
 
-    private void writeTuple(DataOutput out, Tuple t) throws IOException {
+    private void writeTuple(DataOutput out, Tuple t, WriteDictionary dict) throws IOException {
         final int sz = t.size();
         if (sz < UNSIGNED_BYTE_MAX) {
             out.writeByte(TINYTUPLE);
@@ -537,8 +751,107 @@ public class BinInterSedes implements InterSedes {
             out.writeInt(sz);
         }
 
+        if (t instanceof PrimitiveTuple) {
+            writePrimitiveFields(out, (PrimitiveTuple) t, sz, dict);
+            return;
+        }
         for (int i = 0; i < sz; i++) {
-            writeDatum(out, t.get(i));
+            writeDatum(out, t.get(i), dict);
+        }
+    }
+
+    private void writePrimitiveFields(DataOutput out, PrimitiveTuple t, int sz, WriteDictionary dict) throws IOException {
+        for (int i = 0; i < sz; i++) {
+            long v = t.getPrimitive(i);
+            switch (t.getType(i)) {
+            case DataType.NULL:
+                out.writeByte(NULL);
+                break;
+            case DataType.INTEGER:
+                writeInteger(out, (int) v);
+                break;
+            case DataType.LONG:
+                out.writeByte(LONG);
+                out.writeLong(v);
+                break;
+            case DataType.FLOAT:
+                out.writeByte(FLOAT);
+                out.writeFloat(Float.intBitsToFloat((int) v));
+                break;
+            case DataType.DOUBLE:
+                out.writeByte(DOUBLE);
+                out.writeDouble(Double.longBitsToDouble(v));
+                break;
+            case DataType.BOOLEAN:
+                out.writeByte(v != 0 ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+                break;
+            case DataType.CHARARRAY:
+                writeCharArray(out, (byte[]) t.getObject(i), dict);
+                break;
+            default:
+                writeDatum(out, t.getObject(i), dict);
+            }
+        }
+    }
+
+    /**
+     * The chararrays written in a {@link #DICTIONARY_BAG}, numbered in the
+     * order they were first written. Each chararray written as is takes
+     * the next number, until there are {@link #MAX_DICTIONARY_SIZE}.
+     */
+    private static class WriteDictionary {
+        // chararrays are kept as Strings or as the UTF-8 bytes of
+        // primitive tuples, the same chararray may get a number for each
+        final Map<Object, Integer> ids = new HashMap<Object, Integer>();
+
+        int size = 0;
+
+        /**
+         * @return true if the chararray was written before, and a reference
+         *         to it has been written, false if it is to be written as
+         *         is
+         */
+        boolean writeReference(DataOutput out, Object word) throws IOException {
+            Integer id = ids.get(word);
+            if (id != null) {
+                if (id < UNSIGNED_BYTE_MAX + 1) {
+                    out.writeByte(CHARARRAY_REF_INBYTE);
+                    out.writeByte(id);
+                } else {
+                    out.writeByte(CHARARRAY_REF_INSHORT);
+                    out.writeShort(id);
+                }
+                return true;
+            }
+            if (size < MAX_DICTIONARY_SIZE) {
+                ids.put(word, size++);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The chararrays read so far in a {@link #DICTIONARY_BAG}, numbered
+     * like {@link WriteDictionary} numbers them
+     */
+    private static class ReadDictionary {
+        // Strings, or the UTF-8 bytes of fields of primitive tuples
+        final List<Object> words = new ArrayList<Object>();
+
+        void add(Object word) {
+            if (words.size() < MAX_DICTIONARY_SIZE) {
+                words.add(word);
+            }
+        }
+
+        String getString(int id) {
+            Object word = words.get(id);
+            if (word instanceof byte[]) {
+                // the later references share the String
+                word = new String((byte[]) word, PrimitiveTuple.UTF8);
+                words.set(id, word);
+            }
+            return (String) word;
         }
     }
 
@@ -832,7 +1145,8 @@ public class BinInterSedes implements InterSedes {
             }
             case BinInterSedes.TINYBAG:
             case BinInterSedes.SMALLBAG:
-            case BinInterSedes.BAG: {
+            case BinInterSedes.BAG:
+            case BinInterSedes.DICTIONARY_BAG: {
                 type1 = DataType.BAG;
                 type2 = getGeneralizedDataType(dt2);
                 if (type1 == type2)
@@ -965,9 +1279,10 @@ public class BinInterSedes implements InterSedes {
             int s2 = bb2.position();
             int l1 = bb1.remaining();
             int l2 = bb2.remaining();
-            // first compare sizes
-            int bsz1 = readSize(bb1, dt1);
-            int bsz2 = readSize(bb2, dt2);
+            // first compare sizes, a dictionary bag is followed by the type
+            // of the bag
+            int bsz1 = readSize(bb1, dt1 == BinInterSedes.DICTIONARY_BAG ? bb1.get() : dt1);
+            int bsz2 = readSize(bb2, dt2 == BinInterSedes.DICTIONARY_BAG ? bb2.get() : dt2);
             if (bsz1 > bsz2)
                 return 1;
             else if (bsz1 < bsz2)
@@ -1039,6 +1354,8 @@ public class BinInterSedes implements InterSedes {
                 return DataType.BYTEARRAY;
             case BinInterSedes.SMALLCHARARRAY:
             case BinInterSedes.CHARARRAY:
+            case BinInterSedes.CHARARRAY_REF_INBYTE:
+            case BinInterSedes.CHARARRAY_REF_INSHORT:
                 return DataType.CHARARRAY;
             case BinInterSedes.TUPLE:
             case BinInterSedes.TINYTUPLE:
@@ -1047,6 +1364,7 @@ public class BinInterSedes implements InterSedes {
             case BinInterSedes.BAG:
             case BinInterSedes.TINYBAG:
             case BinInterSedes.SMALLBAG:
+            case BinInterSedes.DICTIONARY_BAG:
                 return DataType.BAG;
             case BinInterSedes.MAP:
             case BinInterSedes.TINYMAP:
@@ -61,6 +61,24 @@ public class BinSedesTupleFactory extends TupleFactory {
         return t;
     }
 
+    /**
+     * Returns a {@link PrimitiveTuple} if it is enabled and keeps all the
+     * given types unboxed
+     */
+    @Override
+    public Tuple newTupleForSchema(byte[] types) {
+        if (PrimitiveTuple.isEnabled()) {
+            boolean primitive = true;
+            for (byte type : types) {
+                primitive &= PrimitiveTuple.isPrimitive(type);
+            }
+            if (primitive) {
+                return new PrimitiveTuple(types.length);
+            }
+        }
+        return newTuple(types.length);
+    }
+
     public Class<? extends Tuple> tupleClass() {
         return BinSedesTuple.class;
     }
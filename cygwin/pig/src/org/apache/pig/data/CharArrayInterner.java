@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * A bounded table of the chararrays decoded by a task, so that codes and
+ * names repeated over many records are held by one String instead of one
+ * per record. The table is direct mapped: the UTF-8 bytes of a chararray
+ * are hashed to a single slot, which keeps the last String decoded there.
+ * A lookup costs a hash and a comparison of the bytes, and a miss replaces
+ * the slot, so the table never grows and needs no locking.
+ * <p>
+ * The table is also used by {@link BinInterSedes}, which writes the
+ * chararrays repeated within a bag as references to their first
+ * occurrence when {@link #INTERN} is set.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class CharArrayInterner {
+
+    /**
+     * Set to true to share repeated chararrays within tasks
+     */
+    public static final String INTERN = "pig.data.intern.chararrays";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // a power of two
+    private static final int SIZE = 8192;
+
+    // longer chararrays are seldom repeated, and costly to compare
+    private static final int MAX_LENGTH = 64;
+
+    private static final Entry[] table = new Entry[SIZE];
+
+    // the configuration the flag was last read from and the flag, replaced
+    // as a whole since tasks may run on several threads
+    private static volatile Pair<Configuration, Boolean> lastFlag =
+        new Pair<Configuration, Boolean>(null, false);
+
+    private CharArrayInterner() {
+    }
+
+    /**
+     * @return true if {@link #INTERN} is set in the configuration of the
+     *         running task
+     */
+    public static boolean isEnabled() {
+        Configuration conf = PigMapReduce.getJobConf();
+        Pair<Configuration, Boolean> flag = lastFlag;
+        if (conf != flag.first) {
+            flag = new Pair<Configuration, Boolean>(conf, conf != null
+                    && conf.getBoolean(INTERN, false));
+            lastFlag = flag;
+        }
+        return flag.second;
+    }
+
+    /**
+     * @return the String the UTF-8 bytes encode, the one returned the last
+     *         time they were given if it is still in the table
+     */
+    public static String intern(byte[] b, int off, int len) {
+        if (len > MAX_LENGTH) {
+            return new String(b, off, len, UTF8);
+        }
+        int h = 1;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + b[i];
+        }
+        h ^= h >>> 16;
+        int slot = h & (SIZE - 1);
+        // entries are immutable, so a slot read while another thread
+        // replaces it is either the old entry or the new one
+        Entry e = table[slot];
+        if (e != null && e.hash == h && e.matches(b, off, len)) {
+            return e.value;
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(b, off, copy, 0, len);
+        String s = new String(copy, UTF8);
+        table[slot] = new Entry(h, copy, s);
+        return s;
+    }
+
+    private static class Entry {
+        final int hash;
+        final byte[] bytes;
+        final String value;
+
+        Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        boolean matches(byte[] b, int off, int len) {
+            if (bytes.length != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (bytes[i] != b[off + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigHadoopLogger;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigLogger;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigProgressable;
 import org.apache.pig.impl.util.BagFormat;
 import org.apache.pig.impl.util.Spillable;
 import org.apache.pig.tools.pigstats.PigStatusReporter;
@@ -365,8 +366,9 @@ public abstract class DefaultAbstractBag implements DataBag {
      * Report progress to HDFS.
      */
     protected void reportProgress() {
-        if (PhysicalOperator.reporter != null) {
-            PhysicalOperator.reporter.progress();
+        PigProgressable reporter = PhysicalOperator.getReporter();
+        if (reporter != null) {
+            reporter.progress();
         }
     }
 
@@ -53,7 +53,8 @@ public class DefaultBagFactory extends BagFactory {
      * If null, default comparator will be used.
      */
     public DataBag newSortedBag(Comparator<Tuple> comp) {
-        DataBag b = new SortedDataBag(comp);
+        DataBag b = OffHeapSortedBag.isEnabled()
+                ? new OffHeapSortedBag(comp, false) : new SortedDataBag(comp);
         registerBag(b);
         return b;
     }
@@ -62,7 +63,8 @@ public class DefaultBagFactory extends BagFactory {
      * Get a distinct data bag.
      */
     public DataBag newDistinctBag() {
-        DataBag b = new DistinctDataBag();
+        DataBag b = OffHeapSortedBag.isEnabled()
+                ? new OffHeapSortedBag(null, true) : new DistinctDataBag();
         registerBag(b);
         return b;
     }
@@ -226,7 +226,7 @@ public class DefaultTuple implements Tuple {
      * @param i
      * @return i rounded to a equal of higher multiple of 8
      */
-    private long roundToEight(long i) {
+    static long roundToEight(long i) {
         return 8 * ((i + 7) / 8); // integer division rounds the result down
     }
 
@@ -564,8 +564,13 @@ public class DefaultTuple implements Tuple {
         }
     }
 
+    /**
+     * @param o a field of a tuple
+     * @return the estimated memory taken by the field, including its
+     *         reference from the tuple
+     */
     @SuppressWarnings("unchecked")
-    private long getFieldMemorySize(Object o) {
+    public static long getFieldMemorySize(Object o) {
         // 12 is added to each to account for the object overhead and the
         // pointer in the tuple.
         switch (DataType.findType(o)) {
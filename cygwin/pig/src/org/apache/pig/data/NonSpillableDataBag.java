@@ -26,6 +26,7 @@ import java.util.List;
 
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PigProgressable;
 
 
 /**
@@ -114,8 +115,9 @@ public class NonSpillableDataBag implements DataBag {
      * Report progress to HDFS.
      */
     protected void reportProgress() {
-        if (PhysicalOperator.reporter != null) {
-            PhysicalOperator.reporter.progress();
+        PigProgressable reporter = PhysicalOperator.getReporter();
+        if (reporter != null) {
+            reporter.progress();
         }
     }
 
@@ -0,0 +1,853 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.pig.PigCounters;
+import org.apache.pig.PigWarning;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.impl.util.Pair;
+
+/**
+ * A sorted or distinct bag that keeps its tuples serialized in direct
+ * buffers, outside of the java heap. The heap only holds two longs per
+ * tuple: a prefix of its sort key and where it is stored. The buffers
+ * start small and double in size, and those under
+ * {@link #MIN_DIRECT_CHUNK_SIZE} bytes are kept on the heap, so that the
+ * many small bags of a distinct or of a group do not each hold on to
+ * direct memory. Sorting orders
+ * these by prefix and only deserializes the tuples whose prefixes are
+ * equal. When the buffers reach pig.data.offheap.sort.buffer bytes, or the
+ * bag is asked to spill, the sorted run is copied to a spill file as is.
+ * Runs are merged when the bag is read, at most {@link #MAX_SPILL_FILES}
+ * files at a time.
+ * <p>
+ * Key prefixes are only used for the natural order of tuples, which is
+ * also the order of a distinct bag. With a user defined comparator all the
+ * tuples of a run are deserialized to sort it.
+ * <p>
+ * Like the other sorted bags, tuples cannot be added once the bag is read.
+ */
+public class OffHeapSortedBag extends DefaultAbstractBag {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(OffHeapSortedBag.class);
+
+    /**
+     * Makes {@link DefaultBagFactory} create off heap sorted and distinct
+     * bags
+     */
+    public static final String OFF_HEAP_SORT = "pig.data.offheap.sort";
+
+    /**
+     * Bytes of serialized tuples a bag keeps in memory before it writes a
+     * run to disk
+     */
+    public static final String BUFFER_SIZE = "pig.data.offheap.sort.buffer";
+
+    private static final long DEFAULT_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    /**
+     * Size of the first buffer of a bag allocated outside of the heap
+     */
+    public static final int MIN_DIRECT_CHUNK_SIZE = 64 * 1024;
+
+    private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_INDEX_SIZE = 2 * 64;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    // the configuration the flag was last read from and the flag, replaced
+    // as a whole since tasks may run on several threads
+    private static volatile Pair<Configuration, Boolean> lastFlag =
+        new Pair<Configuration, Boolean>(null, false);
+
+    // null for the natural order of tuples
+    private transient Comparator<Tuple> mComp;
+
+    private transient boolean mDistinct;
+
+    private transient long mBufferSize;
+
+    private transient ArrayList<ByteBuffer> mChunks = new ArrayList<ByteBuffer>();
+
+    // the chunk tuples are added to
+    private transient int mChunk = 0;
+
+    // bytes used in the chunks
+    private transient long mBuffered = 0;
+
+    // key prefix and location of the tuples in memory, two entries per tuple
+    private transient long[] mIndex = new long[MIN_INDEX_SIZE];
+
+    private transient int mCount = 0;
+
+    // number of tuples at the start of mIndex that are sorted
+    private transient int mSorted = 0;
+
+    private transient long mDistinctSize = -1;
+
+    private transient boolean mReadStarted = false;
+
+    private transient boolean mSpilledProactively = false;
+
+    private transient DataOutputBuffer mSerBuffer = new DataOutputBuffer();
+
+    private transient byte[] mCopyBuffer = new byte[1024];
+
+    /**
+     * @param comp comparator to sort with, null for the natural order
+     * @param distinct whether to drop duplicate tuples, a distinct bag
+     * always uses the natural order
+     */
+    public OffHeapSortedBag(Comparator<Tuple> comp, boolean distinct) {
+        this(comp, distinct, -1);
+    }
+
+    /**
+     * @param comp comparator to sort with, null for the natural order
+     * @param distinct whether to drop duplicate tuples, a distinct bag
+     * always uses the natural order
+     * @param bufferSize bytes of tuples to keep in memory, negative to use
+     * {@link #BUFFER_SIZE}
+     */
+    public OffHeapSortedBag(Comparator<Tuple> comp, boolean distinct,
+            long bufferSize) {
+        mComp = distinct ? null : comp;
+        mDistinct = distinct;
+        if (bufferSize < 0) {
+            bufferSize = DEFAULT_BUFFER_SIZE;
+            if (PigMapReduce.getJobConf() != null) {
+                bufferSize = PigMapReduce.getJobConf().getLong(BUFFER_SIZE,
+                        DEFAULT_BUFFER_SIZE);
+            }
+        }
+        mBufferSize = bufferSize;
+        // only used as a lock, and by the methods of the parent that are
+        // not overridden
+        mContents = new ArrayList<Tuple>(0);
+    }
+
+    /**
+     * @return true if {@link #OFF_HEAP_SORT} is set in the configuration of
+     *         the running task
+     */
+    public static boolean isEnabled() {
+        Configuration conf = PigMapReduce.getJobConf();
+        Pair<Configuration, Boolean> flag = lastFlag;
+        if (conf != flag.first) {
+            flag = new Pair<Configuration, Boolean>(conf, conf != null
+                    && conf.getBoolean(OFF_HEAP_SORT, false));
+            lastFlag = flag;
+        }
+        return flag.second;
+    }
+
+    public boolean isSorted() {
+        return !mDistinct;
+    }
+
+    public boolean isDistinct() {
+        return mDistinct;
+    }
+
+    @Override
+    public long size() {
+        if (!mDistinct) {
+            return mSize;
+        }
+        synchronized (mContents) {
+            if (mDistinctSize < 0) {
+                // duplicates are only dropped when the tuples are sorted,
+                // so count them the way they would be read
+                MergeIterator it = new MergeIterator(true);
+                long count = 0;
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+                mDistinctSize = count;
+            }
+            return mDistinctSize;
+        }
+    }
+
+    @Override
+    public void add(Tuple t) {
+        synchronized (mContents) {
+            if (mReadStarted) {
+                throw new IllegalStateException(
+                        "OffHeapSortedBag is closed for adding new tuples");
+            }
+            mSerBuffer.reset();
+            try {
+                sedes.writeDatum(mSerBuffer, t);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            int len = mSerBuffer.getLength();
+            if (mCount > 0 && mBuffered + len + 4 > mBufferSize) {
+                if (writeRun() > 0) {
+                    if (!mSpilledProactively) {
+                        incSpillCount(PigCounters.PROACTIVE_SPILL_COUNT_BAGS);
+                        mSpilledProactively = true;
+                    }
+                }
+            }
+            ByteBuffer chunk;
+            try {
+                chunk = chunkFor(len + 4);
+            } catch (OutOfMemoryError e) {
+                // out of direct memory, reuse the chunks we have
+                if (mCount == 0 || writeRun() == 0) {
+                    throw e;
+                }
+                chunk = chunkFor(len + 4);
+            }
+            long location = ((long)mChunk << 32) | chunk.position();
+            chunk.putInt(len);
+            chunk.put(mSerBuffer.getData(), 0, len);
+            mBuffered += len + 4;
+
+            if (mCount * 2 == mIndex.length) {
+                mIndex = Arrays.copyOf(mIndex, mIndex.length * 2);
+            }
+            mIndex[mCount * 2] = (mComp == null) ? keyPrefix(t) : 0;
+            mIndex[mCount * 2 + 1] = location;
+            mCount++;
+            mSize++;
+            mDistinctSize = -1;
+        }
+    }
+
+    @Override
+    public void addAll(DataBag b) {
+        Iterator<Tuple> i = b.iterator();
+        while (i.hasNext()) {
+            add(i.next());
+        }
+    }
+
+    @Override
+    public void addAll(Collection<Tuple> c) {
+        Iterator<Tuple> i = c.iterator();
+        while (i.hasNext()) {
+            add(i.next());
+        }
+    }
+
+    /**
+     * Only the part kept on the heap counts, the serialized tuples in
+     * direct buffers are bounded by pig.data.offheap.sort.buffer.
+     */
+    @Override
+    public long getMemorySize() {
+        synchronized (mContents) {
+            long used = 8 /* object header */ + 16 * 8 /* fields */
+                    + DefaultTuple.roundToEight(16 + mIndex.length * 8)
+                    + DefaultTuple.roundToEight(16 + mChunks.size() * 4)
+                    + mChunks.size() * 64 /* buffer objects */;
+            for (ByteBuffer chunk : mChunks) {
+                if (!chunk.isDirect()) {
+                    used += DefaultTuple.roundToEight(16 + chunk.capacity());
+                }
+            }
+            if (mSpillFiles != null) {
+                used += DefaultTuple.roundToEight(36 + mSpillFiles.size() * 4);
+                if (mSpillFiles.size() > 0) {
+                    used += mSpillFiles.size() *
+                        DefaultTuple.roundToEight(mSpillFiles.get(0).toString().length() * 2 + 38);
+                }
+            }
+            mMemSize = used;
+            return used;
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mContents) {
+            super.clear();
+            resetMemory();
+            mDistinctSize = -1;
+            mReadStarted = false;
+        }
+    }
+
+    public Iterator<Tuple> iterator() {
+        synchronized (mContents) {
+            mReadStarted = true;
+            return new MergeIterator(true);
+        }
+    }
+
+    /**
+     * Writes the tuples in memory to disk, unless the bag is being read
+     */
+    public long spill() {
+        long spilled;
+        synchronized (mContents) {
+            // The iterators read the buffers directly, so once reading has
+            // started the tuples stay where they are; they are not on the
+            // heap anyway.
+            if (mReadStarted || mCount == 0) {
+                return 0;
+            }
+            spilled = writeRun();
+        }
+        if (spilled > 0) {
+            incSpillCount(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_COUNT);
+        }
+        return spilled;
+    }
+
+    /**
+     * Sorts the tuples in memory and writes them to a new spill file.
+     * Assumes the lock is held.
+     * @return the number of tuples written
+     */
+    private long writeRun() {
+        sortMemory();
+        DataOutputStream out = null;
+        try {
+            out = getSpillFile();
+        } catch (IOException ioe) {
+            warn("Unable to create tmp file to spill to disk",
+                    PigWarning.UNABLE_TO_CREATE_FILE_TO_SPILL, ioe);
+            return 0;
+        }
+        long spilled = 0;
+        try {
+            for (int i = 0; i < mCount; i++) {
+                long location = mIndex[i * 2 + 1];
+                ByteBuffer chunk = mChunks.get((int)(location >>> 32)).duplicate();
+                int pos = (int)location;
+                int len = chunk.getInt(pos);
+                if (len > mCopyBuffer.length) {
+                    mCopyBuffer = new byte[len];
+                }
+                chunk.position(pos + 4);
+                chunk.get(mCopyBuffer, 0, len);
+                out.write(mCopyBuffer, 0, len);
+                spilled++;
+                // This will spill every 16383 records.
+                if ((spilled & 0x3fff) == 0) reportProgress();
+            }
+            out.flush();
+        } catch (IOException ioe) {
+            // Remove the last file from the spilled array, since we failed to
+            // write to it.
+            mSpillFiles.remove(mSpillFiles.size() - 1);
+            warn("Unable to spill contents to disk", PigWarning.UNABLE_TO_SPILL, ioe);
+            return 0;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                warn("Error closing spill", PigWarning.UNABLE_TO_CLOSE_SPILL_FILE, e);
+            }
+        }
+        if (mSpilledProactively) {
+            incSpillCount(PigCounters.PROACTIVE_SPILL_COUNT_RECS, spilled);
+        }
+        resetMemory();
+        return spilled;
+    }
+
+    /**
+     * Empties the buffers, keeping them to be filled again
+     */
+    private void resetMemory() {
+        for (ByteBuffer chunk : mChunks) {
+            chunk.clear();
+        }
+        mChunk = 0;
+        mBuffered = 0;
+        mCount = 0;
+        mSorted = 0;
+        if (mIndex.length > MIN_INDEX_SIZE * 64) {
+            mIndex = new long[MIN_INDEX_SIZE];
+        }
+    }
+
+    /**
+     * @return a chunk with room for the given number of bytes at its
+     * position, which becomes mChunk
+     */
+    private ByteBuffer chunkFor(int needed) {
+        while (mChunk < mChunks.size()) {
+            ByteBuffer chunk = mChunks.get(mChunk);
+            if (chunk.remaining() >= needed) {
+                return chunk;
+            }
+            mChunk++;
+        }
+        int size = mChunks.isEmpty() ? MIN_CHUNK_SIZE : Math.min(
+                MAX_CHUNK_SIZE, mChunks.get(mChunks.size() - 1).capacity() * 2);
+        size = Math.max(size, needed);
+        ByteBuffer chunk = (size < MIN_DIRECT_CHUNK_SIZE) ? ByteBuffer
+                .allocate(size) : ByteBuffer.allocateDirect(size);
+        mChunks.add(chunk);
+        return chunk;
+    }
+
+    /**
+     * Sorts the tuples in memory, dropping duplicates for a distinct bag.
+     * Assumes the lock is held.
+     */
+    private void sortMemory() {
+        if (mSorted == mCount) {
+            return;
+        }
+        sortIndex(mIndex, 0, mCount - 1);
+        // Tuples with the same prefix are ordered by deserializing them.
+        TupleReader reader = new TupleReader();
+        int kept = 0;
+        int i = 0;
+        while (i < mCount) {
+            int j = i + 1;
+            while (j < mCount && mIndex[j * 2] == mIndex[i * 2]) {
+                j++;
+            }
+            if (j - i == 1) {
+                mIndex[kept * 2] = mIndex[i * 2];
+                mIndex[kept * 2 + 1] = mIndex[i * 2 + 1];
+                kept++;
+            } else {
+                Entry[] entries = new Entry[j - i];
+                for (int k = i; k < j; k++) {
+                    entries[k - i] = new Entry(reader.read(mIndex[k * 2 + 1]),
+                            mIndex[k * 2 + 1]);
+                }
+                Arrays.sort(entries);
+                long prefix = mIndex[i * 2];
+                for (int k = 0; k < entries.length; k++) {
+                    if (mDistinct && k > 0
+                            && compare(entries[k - 1].tuple, entries[k].tuple) == 0) {
+                        continue;
+                    }
+                    mIndex[kept * 2] = prefix;
+                    mIndex[kept * 2 + 1] = entries[k].location;
+                    kept++;
+                }
+            }
+            i = j;
+        }
+        mCount = kept;
+        mSorted = kept;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Tuple t1, Tuple t2) {
+        return (mComp == null) ? t1.compareTo(t2) : mComp.compare(t1, t2);
+    }
+
+    /**
+     * A deserialized tuple with the same prefix as others
+     */
+    private class Entry implements Comparable<Entry> {
+        Tuple tuple;
+        long location;
+
+        Entry(Tuple tuple, long location) {
+            this.tuple = tuple;
+            this.location = location;
+        }
+
+        public int compareTo(Entry other) {
+            return compare(tuple, other.tuple);
+        }
+    }
+
+    /**
+     * Quick sort of the (prefix, location) pairs of index by prefix
+     */
+    private static void sortIndex(long[] index, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            // median of three as the pivot
+            if (index[mid * 2] < index[lo * 2]) swap(index, mid, lo);
+            if (index[hi * 2] < index[lo * 2]) swap(index, hi, lo);
+            if (index[hi * 2] < index[mid * 2]) swap(index, hi, mid);
+            long pivot = index[mid * 2];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (index[i * 2] < pivot) i++;
+                while (index[j * 2] > pivot) j--;
+                if (i <= j) {
+                    swap(index, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse on the smaller part
+            if (j - lo < hi - i) {
+                sortIndex(index, lo, j);
+                lo = i;
+            } else {
+                sortIndex(index, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && index[j * 2] < index[(j - 1) * 2]; j--) {
+                swap(index, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(long[] index, int i, int j) {
+        long p = index[i * 2];
+        long l = index[i * 2 + 1];
+        index[i * 2] = index[j * 2];
+        index[i * 2 + 1] = index[j * 2 + 1];
+        index[j * 2] = p;
+        index[j * 2 + 1] = l;
+    }
+
+    /**
+     * Computes a prefix of the natural sort key of a tuple, such that if
+     * the prefix of t1 is less than the one of t2 (as signed longs), t1 is
+     * less than t2. The top byte is the size of the tuple, the next one the
+     * type of its first field, and the lower six bytes the start of its
+     * value.
+     */
+    static long keyPrefix(Tuple t) {
+        int size = t.size();
+        long prefix = (long)Math.min(size, 255) << 56;
+        if (size > 0) {
+            Object o;
+            try {
+                o = t.get(0);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+            byte type = DataType.findType(o);
+            prefix |= (long)((type + 128) & 0xff) << 48;
+            prefix |= valuePrefix(o, type);
+        }
+        // flip the sign bit so that comparing signed longs gives the
+        // unsigned order
+        return prefix ^ Long.MIN_VALUE;
+    }
+
+    private static long valuePrefix(Object o, byte type) {
+        switch (type) {
+        case DataType.BOOLEAN:
+            return ((Boolean)o).booleanValue() ? 1 : 0;
+        case DataType.BYTE:
+            return ((Byte)o).byteValue() + 128;
+        case DataType.INTEGER:
+            return ((((Integer)o).intValue() ^ Integer.MIN_VALUE) & 0xffffffffL) << 16;
+        case DataType.LONG:
+            return (((Long)o).longValue() ^ Long.MIN_VALUE) >>> 16;
+        case DataType.FLOAT: {
+            int bits = Float.floatToIntBits((Float)o);
+            bits = (bits < 0) ? ~bits : bits ^ Integer.MIN_VALUE;
+            return (bits & 0xffffffffL) << 16;
+        }
+        case DataType.DOUBLE: {
+            long bits = Double.doubleToLongBits((Double)o);
+            bits = (bits < 0) ? ~bits : bits ^ Long.MIN_VALUE;
+            return bits >>> 16;
+        }
+        case DataType.CHARARRAY: {
+            String s = (String)o;
+            long v = 0;
+            for (int i = 0; i < 3; i++) {
+                v = (v << 16) | ((i < s.length()) ? s.charAt(i) : 0);
+            }
+            return v;
+        }
+        case DataType.BYTEARRAY: {
+            byte[] b = ((DataByteArray)o).get();
+            long v = 0;
+            for (int i = 0; i < 6; i++) {
+                // the bytes are compared signed
+                v = (v << 8) | ((i < b.length) ? (b[i] + 128) : 0);
+            }
+            return v;
+        }
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Reads serialized tuples out of the chunks
+     */
+    private class TupleReader {
+        private ByteBufferInputStream mStream = new ByteBufferInputStream();
+        private DataInputStream mIn = new DataInputStream(mStream);
+
+        Tuple read(long location) {
+            ByteBuffer chunk = mChunks.get((int)(location >>> 32)).duplicate();
+            int pos = (int)location;
+            int len = chunk.getInt(pos);
+            chunk.limit(pos + 4 + len);
+            chunk.position(pos + 4);
+            mStream.buffer = chunk;
+            try {
+                return (Tuple)sedes.readDatum(mIn);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read tuple from memory", e);
+            }
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        ByteBuffer buffer;
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * The next tuple of a spill file or of memory, in a merge
+     */
+    private class Head implements Comparable<Head> {
+        Tuple tuple;
+        long prefix;
+        // index of the stream, -1 for memory
+        int source;
+
+        public int compareTo(Head other) {
+            if (prefix != other.prefix) {
+                return (prefix < other.prefix) ? -1 : 1;
+            }
+            return compare(tuple, other.tuple);
+        }
+    }
+
+    /**
+     * Merges the spill files and the tuples in memory. For a distinct bag
+     * the tuples equal to the previous one are skipped.
+     */
+    private class MergeIterator implements Iterator<Tuple> {
+        private PriorityQueue<Head> mMergeQ;
+        private ArrayList<DataInputStream> mStreams;
+        private TupleReader mReader = new TupleReader();
+        private int mMemoryPtr = 0;
+        private boolean mWithMemory;
+        private Tuple mLast = null;
+        private Tuple mBuf = null;
+        private int mCntr = 0;
+
+        /**
+         * @param withMemory whether to merge the tuples in memory too;
+         * otherwise only the spill files are merged. Assumes the lock is
+         * held.
+         */
+        MergeIterator(boolean withMemory) {
+            mWithMemory = withMemory;
+            if (withMemory) {
+                sortMemory();
+                preMerge();
+            }
+            List<File> files = (mSpillFiles == null) ? new ArrayList<File>()
+                    : new ArrayList<File>(mSpillFiles);
+            open(files);
+        }
+
+        /**
+         * Merges the given files only
+         */
+        MergeIterator(List<File> files) {
+            mWithMemory = false;
+            open(files);
+        }
+
+        private void open(List<File> files) {
+            mMergeQ = new PriorityQueue<Head>(files.size() + 1);
+            mStreams = new ArrayList<DataInputStream>(files.size());
+            for (File f : files) {
+                try {
+                    mStreams.add(new DataInputStream(new BufferedInputStream(
+                            new FileInputStream(f))));
+                } catch (IOException e) {
+                    // We can't find our own spill file?  That should never
+                    // happen.
+                    String msg = "Unable to find our spill file.";
+                    log.fatal(msg, e);
+                    throw new RuntimeException(msg, e);
+                }
+                advance(new Head(), mStreams.size() - 1);
+            }
+            if (mWithMemory) {
+                advance(new Head(), -1);
+            }
+        }
+
+        public boolean hasNext() {
+            if (mBuf == null) {
+                mBuf = readNext();
+            }
+            return mBuf != null;
+        }
+
+        public Tuple next() {
+            // This will report progress every 1024 times through next.
+            if ((mCntr++ & 0x3ff) == 0) reportProgress();
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = mBuf;
+            mBuf = null;
+            return t;
+        }
+
+        /**
+         * Not implemented.
+         */
+        public void remove() {}
+
+        private Tuple readNext() {
+            while (true) {
+                Head h = mMergeQ.poll();
+                if (h == null) {
+                    return null;
+                }
+                Tuple t = h.tuple;
+                advance(h, h.source);
+                // duplicates within one source were dropped already
+                if (mDistinct && mLast != null && mStreams.size() > 0
+                        && compare(mLast, t) == 0) {
+                    continue;
+                }
+                mLast = t;
+                return t;
+            }
+        }
+
+        /**
+         * Puts the next tuple of a source in the queue, if there is one
+         */
+        private void advance(Head h, int source) {
+            h.source = source;
+            if (source == -1) {
+                if (mMemoryPtr >= mCount) {
+                    return;
+                }
+                long location = mIndex[mMemoryPtr * 2 + 1];
+                h.prefix = mIndex[mMemoryPtr * 2];
+                mMemoryPtr++;
+                h.tuple = mReader.read(location);
+                mMergeQ.add(h);
+                return;
+            }
+            DataInputStream in = mStreams.get(source);
+            if (in == null) {
+                return;
+            }
+            try {
+                h.tuple = (Tuple)sedes.readDatum(in);
+                h.prefix = (mComp == null) ? keyPrefix(h.tuple) : 0;
+                mMergeQ.add(h);
+            } catch (EOFException eof) {
+                // Out of tuples in this file.
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close spill file.", e);
+                }
+                mStreams.set(source, null);
+            } catch (IOException ioe) {
+                String msg = "Unable to find our spill file.";
+                log.fatal(msg, ioe);
+                throw new RuntimeException(msg, ioe);
+            }
+        }
+    }
+
+    /**
+     * Merges the oldest {@link #MAX_SPILL_FILES} spill files into one until
+     * there are no more than that, so that the final merge does not open
+     * too many files. Assumes the lock is held.
+     */
+    private void preMerge() {
+        if (mSpillFiles == null || mSpillFiles.size() <= MAX_SPILL_FILES) {
+            return;
+        }
+        List<File> filesToDelete = new ArrayList<File>();
+        while (mSpillFiles.size() > MAX_SPILL_FILES) {
+            List<File> toMerge = new ArrayList<File>(
+                    mSpillFiles.subList(0, MAX_SPILL_FILES));
+            MergeIterator it = new MergeIterator(toMerge);
+            // Get a new spill file. This adds it to the end of mSpillFiles.
+            try {
+                DataOutputStream out = getSpillFile();
+                while (it.hasNext()) {
+                    sedes.writeDatum(out, it.next());
+                }
+                out.flush();
+                out.close();
+            } catch (IOException ioe) {
+                String msg = "Unable to find our spill file.";
+                log.fatal(msg, ioe);
+                throw new RuntimeException(msg, ioe);
+            }
+            mSpillFiles.subList(0, MAX_SPILL_FILES).clear();
+            filesToDelete.addAll(toMerge);
+        }
+        // delete files that have been merged into new files
+        for (File f : filesToDelete) {
+            if (f.delete() == false) {
+                log.warn("Failed to delete spill file: " + f.getPath());
+            }
+        }
+    }
+}
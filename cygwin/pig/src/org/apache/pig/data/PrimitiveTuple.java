@@ -0,0 +1,570 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.impl.util.Pair;
+import org.apache.pig.impl.util.TupleFormat;
+
+/**
+ * A tuple that keeps int, long, float, double and boolean fields in a
+ * primitive array rather than as boxed objects, and chararray fields as
+ * their UTF-8 bytes. Fields of any other type are kept as they are.
+ * <p>
+ * The tuple is created by {@link BinSedesTupleFactory#newTupleForSchema(byte[])}
+ * for fields of known types, and by {@link BinInterSedes} when reading
+ * tuples, if {@link #PRIMITIVE_TUPLES} is set. It is serialized in the same
+ * format as {@link BinSedesTuple}, so the raw comparators of that format
+ * work on it unchanged.
+ */
+@InterfaceAudience.Private
+public class PrimitiveTuple implements Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Set to true to use primitive tuples for intermediate data
+     */
+    public static final String PRIMITIVE_TUPLES = "pig.data.primitive.tuples";
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    // the configuration the flag was last read from and the flag, replaced
+    // as a whole since tasks may run on several threads
+    private static volatile Pair<Configuration, Boolean> lastFlag =
+        new Pair<Configuration, Boolean>(null, false);
+
+    private boolean isNull = false;
+
+    // the type of each field, DataType.NULL for null fields
+    private byte[] types;
+
+    // the int, long and boolean fields, and the bits of float and double
+    // fields
+    private long[] values;
+
+    // the UTF-8 bytes of chararray fields and the other fields, only
+    // allocated once there is such a field
+    private Object[] objects;
+
+    private int size;
+
+    /**
+     * Default constructor. Public so that hadoop can call it directly.
+     */
+    public PrimitiveTuple() {
+        this(0);
+    }
+
+    /**
+     * Construct a tuple with a known number of fields, all null.
+     * @param size Number of fields to allocate in the tuple.
+     */
+    PrimitiveTuple(int size) {
+        types = new byte[size];
+        values = new long[size];
+        this.size = size;
+        for (int i = 0; i < size; i++) {
+            types[i] = DataType.NULL;
+        }
+    }
+
+    /**
+     * @return true if {@link #PRIMITIVE_TUPLES} is set in the configuration
+     *         of the running task
+     */
+    static boolean isEnabled() {
+        Configuration conf = PigMapReduce.getJobConf();
+        Pair<Configuration, Boolean> flag = lastFlag;
+        if (conf != flag.first) {
+            flag = new Pair<Configuration, Boolean>(conf, conf != null
+                    && conf.getBoolean(PRIMITIVE_TUPLES, false));
+            lastFlag = flag;
+        }
+        return flag.second;
+    }
+
+    /**
+     * @return true if a field of the given type is kept unboxed
+     */
+    static boolean isPrimitive(byte type) {
+        switch (type) {
+        case DataType.INTEGER:
+        case DataType.LONG:
+        case DataType.FLOAT:
+        case DataType.DOUBLE:
+        case DataType.BOOLEAN:
+        case DataType.CHARARRAY:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public void reference(Tuple t) {
+        try {
+            int sz = t.size();
+            ensureCapacity(sz);
+            for (int i = sz; i < size; i++) {
+                clear(i);
+            }
+            size = sz;
+            for (int i = 0; i < sz; i++) {
+                set(i, t.get(i));
+            }
+        } catch (ExecException e) {
+            throw new RuntimeException("Unable to reference tuple", e);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int fieldNum) throws ExecException {
+        checkIndex(fieldNum);
+        return types[fieldNum] == DataType.NULL;
+    }
+
+    public byte getType(int fieldNum) throws ExecException {
+        checkIndex(fieldNum);
+        return types[fieldNum];
+    }
+
+    public Object get(int fieldNum) throws ExecException {
+        checkIndex(fieldNum);
+        long v = values[fieldNum];
+        switch (types[fieldNum]) {
+        case DataType.NULL:
+            return null;
+        case DataType.INTEGER:
+            return Integer.valueOf((int)v);
+        case DataType.LONG:
+            return Long.valueOf(v);
+        case DataType.FLOAT:
+            return Float.valueOf(Float.intBitsToFloat((int)v));
+        case DataType.DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(v));
+        case DataType.BOOLEAN:
+            return Boolean.valueOf(v != 0);
+        case DataType.CHARARRAY:
+            return new String((byte[])objects[fieldNum], UTF8);
+        default:
+            return objects[fieldNum];
+        }
+    }
+
+    /**
+     * Get all of the fields in the tuple as a list. The list is a view of
+     * the tuple, changes to it change the tuple.
+     */
+    public List<Object> getAll() {
+        return new FieldList();
+    }
+
+    public void set(int fieldNum, Object val) throws ExecException {
+        checkIndex(fieldNum);
+        byte type = DataType.findType(val);
+        switch (type) {
+        case DataType.NULL:
+            clear(fieldNum);
+            return;
+        case DataType.INTEGER:
+            setInt(fieldNum, (Integer)val);
+            return;
+        case DataType.LONG:
+            setLong(fieldNum, (Long)val);
+            return;
+        case DataType.FLOAT:
+            setFloat(fieldNum, (Float)val);
+            return;
+        case DataType.DOUBLE:
+            setDouble(fieldNum, (Double)val);
+            return;
+        case DataType.BOOLEAN:
+            setBoolean(fieldNum, (Boolean)val);
+            return;
+        case DataType.CHARARRAY:
+            setCharArray(fieldNum, ((String)val).getBytes(UTF8));
+            return;
+        default:
+            setObject(fieldNum, type, val);
+        }
+    }
+
+    public void append(Object val) {
+        ensureCapacity(size + 1);
+        types[size] = DataType.NULL;
+        size++;
+        try {
+            set(size - 1, val);
+        } catch (ExecException e) {
+            // the field was just added
+            throw new RuntimeException(e);
+        }
+    }
+
+    void setInt(int fieldNum, int val) {
+        setPrimitive(fieldNum, DataType.INTEGER, val);
+    }
+
+    void setLong(int fieldNum, long val) {
+        setPrimitive(fieldNum, DataType.LONG, val);
+    }
+
+    void setFloat(int fieldNum, float val) {
+        setPrimitive(fieldNum, DataType.FLOAT, Float.floatToRawIntBits(val));
+    }
+
+    void setDouble(int fieldNum, double val) {
+        setPrimitive(fieldNum, DataType.DOUBLE, Double.doubleToRawLongBits(val));
+    }
+
+    void setBoolean(int fieldNum, boolean val) {
+        setPrimitive(fieldNum, DataType.BOOLEAN, val ? 1 : 0);
+    }
+
+    /**
+     * Sets a chararray field to the given UTF-8 bytes, which are kept
+     */
+    void setCharArray(int fieldNum, byte[] utf8) {
+        setObject(fieldNum, DataType.CHARARRAY, utf8);
+    }
+
+    /**
+     * @return the value of an int, long or boolean field, or the bits of a
+     *         float or double field
+     */
+    long getPrimitive(int fieldNum) {
+        return values[fieldNum];
+    }
+
+    /**
+     * @return the UTF-8 bytes of a chararray field, or the value of a field
+     *         of any other type that is not kept unboxed
+     */
+    Object getObject(int fieldNum) {
+        return objects[fieldNum];
+    }
+
+    private void setPrimitive(int fieldNum, byte type, long val) {
+        types[fieldNum] = type;
+        values[fieldNum] = val;
+        if (objects != null) {
+            objects[fieldNum] = null;
+        }
+    }
+
+    private void setObject(int fieldNum, byte type, Object val) {
+        if (objects == null) {
+            objects = new Object[types.length];
+        }
+        types[fieldNum] = type;
+        values[fieldNum] = 0;
+        objects[fieldNum] = val;
+    }
+
+    private void clear(int fieldNum) {
+        types[fieldNum] = DataType.NULL;
+        values[fieldNum] = 0;
+        if (objects != null) {
+            objects[fieldNum] = null;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= types.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, types.length * 3 / 2 + 1);
+        byte[] newTypes = new byte[newLength];
+        System.arraycopy(types, 0, newTypes, 0, size);
+        types = newTypes;
+        long[] newValues = new long[newLength];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+        if (objects != null) {
+            Object[] newObjects = new Object[newLength];
+            System.arraycopy(objects, 0, newObjects, 0, size);
+            objects = newObjects;
+        }
+    }
+
+    private void checkIndex(int fieldNum) {
+        if (fieldNum < 0 || fieldNum >= size) {
+            throw new IndexOutOfBoundsException("Index: " + fieldNum
+                    + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Inserts a field, moving the fields from fieldNum on one to the right
+     */
+    private void insert(int fieldNum, Object val) throws ExecException {
+        if (fieldNum < 0 || fieldNum > size) {
+            throw new IndexOutOfBoundsException("Index: " + fieldNum
+                    + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(types, fieldNum, types, fieldNum + 1, size - fieldNum);
+        System.arraycopy(values, fieldNum, values, fieldNum + 1, size - fieldNum);
+        if (objects != null) {
+            System.arraycopy(objects, fieldNum, objects, fieldNum + 1, size - fieldNum);
+        }
+        size++;
+        clear(fieldNum);
+        set(fieldNum, val);
+    }
+
+    /**
+     * Removes a field, moving the fields after it one to the left
+     */
+    private Object remove(int fieldNum) throws ExecException {
+        Object old = get(fieldNum);
+        int moved = size - fieldNum - 1;
+        System.arraycopy(types, fieldNum + 1, types, fieldNum, moved);
+        System.arraycopy(values, fieldNum + 1, values, fieldNum, moved);
+        if (objects != null) {
+            System.arraycopy(objects, fieldNum + 1, objects, fieldNum, moved);
+        }
+        size--;
+        clear(size);
+        return old;
+    }
+
+    /**
+     * Determine the size of tuple in memory. This is used by data bags to
+     * determine their memory size. This need not be exact, but it should be
+     * a decent estimation.
+     */
+    public long getMemorySize() {
+        long sum = 8 /* tuple object header */
+            + 8 /* isNull and size */
+            + 16 /* references to the arrays */
+            + DefaultTuple.roundToEight(12 + types.length)
+            + DefaultTuple.roundToEight(12 + 8 * values.length);
+        if (objects != null) {
+            sum += DefaultTuple.roundToEight(12 + 4 * objects.length);
+            for (int i = 0; i < size; i++) {
+                if (types[i] == DataType.CHARARRAY) {
+                    sum += DefaultTuple.roundToEight(12 + ((byte[])objects[i]).length);
+                } else if (objects[i] != null) {
+                    sum += DefaultTuple.getFieldMemorySize(objects[i]);
+                }
+            }
+        }
+        return sum;
+    }
+
+    public String toDelimitedString(String delim) throws ExecException {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            Object field = get(i);
+            buf.append(field == null ? "" : field.toString());
+            if (i < size - 1)
+                buf.append(delim);
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public String toString() {
+        return TupleFormat.format(this);
+    }
+
+    public int compareTo(Object other) {
+        if (other instanceof Tuple) {
+            Tuple t = (Tuple) other;
+            int tSz = t.size();
+            if (tSz < size) {
+                return 1;
+            } else if (tSz > size) {
+                return -1;
+            }
+            PrimitiveTuple pt = (t instanceof PrimitiveTuple) ? (PrimitiveTuple)t : null;
+            for (int i = 0; i < size; i++) {
+                try {
+                    int c;
+                    if (pt != null && types[i] == pt.types[i]
+                            && types[i] != DataType.CHARARRAY
+                            && isPrimitive(types[i])) {
+                        c = comparePrimitive(types[i], values[i], pt.values[i]);
+                    } else {
+                        c = DataType.compare(get(i), t.get(i));
+                    }
+                    if (c != 0) {
+                        return c;
+                    }
+                } catch (ExecException e) {
+                    throw new RuntimeException("Unable to compare tuples", e);
+                }
+            }
+            return 0;
+        } else {
+            return DataType.compare(this, other);
+        }
+    }
+
+    /**
+     * Compares two fields of the same type the way their boxed values
+     * compare
+     */
+    private static int comparePrimitive(byte type, long v1, long v2) {
+        switch (type) {
+        case DataType.FLOAT:
+            return Float.compare(Float.intBitsToFloat((int)v1),
+                    Float.intBitsToFloat((int)v2));
+        case DataType.DOUBLE:
+            return Double.compare(Double.longBitsToDouble(v1),
+                    Double.longBitsToDouble(v2));
+        default:
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return (compareTo(other) == 0);
+    }
+
+    /**
+     * The same hash code as a {@link DefaultTuple} with the same fields
+     */
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            long v = values[i];
+            switch (types[i]) {
+            case DataType.NULL:
+                break;
+            case DataType.INTEGER:
+                hash = 31 * hash + (int)v;
+                break;
+            case DataType.LONG:
+                hash = 31 * hash + (int)(v ^ (v >>> 32));
+                break;
+            case DataType.DOUBLE:
+                // Double.hashCode works on the canonical NaN
+                v = Double.doubleToLongBits(Double.longBitsToDouble(v));
+                hash = 31 * hash + (int)(v ^ (v >>> 32));
+                break;
+            case DataType.FLOAT:
+                hash = 31 * hash + Float.floatToIntBits(Float.intBitsToFloat((int)v));
+                break;
+            case DataType.BOOLEAN:
+                hash = 31 * hash + (v != 0 ? 1231 : 1237);
+                break;
+            default:
+                try {
+                    hash = 31 * hash + get(i).hashCode();
+                } catch (ExecException e) {
+                    // the field exists
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return hash;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        sedes.writeDatum(out, this);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        // Clear our fields, in case we're being reused.
+        for (int i = 0; i < size; i++) {
+            clear(i);
+        }
+        size = 0;
+        sedes.addColsToTuple(in, this);
+    }
+
+    public boolean isNull() {
+        return isNull;
+    }
+
+    public void setNull(boolean isNull) {
+        this.isNull = isNull;
+    }
+
+    /**
+     * The list returned by {@link #getAll()}
+     */
+    private class FieldList extends AbstractList<Object> implements RandomAccess {
+
+        @Override
+        public Object get(int index) {
+            try {
+                return PrimitiveTuple.this.get(index);
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+            try {
+                Object old = PrimitiveTuple.this.get(index);
+                PrimitiveTuple.this.set(index, element);
+                return old;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void add(int index, Object element) {
+            try {
+                insert(index, element);
+                modCount++;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Object remove(int index) {
+            try {
+                Object old = PrimitiveTuple.this.remove(index);
+                modCount++;
+                return old;
+            } catch (ExecException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
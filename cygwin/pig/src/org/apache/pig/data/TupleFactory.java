@@ -124,6 +124,19 @@ public abstract class TupleFactory {
      */
     public abstract Tuple newTuple(Object datum);
 
+    /**
+     * Create a tuple for fields of the given types, which is then filled in
+     * with Tuple.set(x, object).  Factories that have a tuple specialized
+     * for the types may return it, the default is the same as
+     * {@link #newTuple(int)}.  The tuple must still accept values of other
+     * types, including null.
+     * @param types Types of the fields, as defined in {@link DataType}.
+     * @return Tuple with types.length fields
+     */
+    public Tuple newTupleForSchema(byte[] types) {
+        return newTuple(types.length);
+    }
+
     /**
      * Return the actual class representing a tuple that the implementing
      * factory will be returning.  This is needed because Hadoop needs
@@ -177,6 +177,7 @@ public class PigContext implements Serializable {
         switch (execType) {
             case LOCAL:
             case MAPREDUCE:
+            case THREADED:
             {
                 executionEngine = new HExecutionEngine (this);
 
@@ -557,6 +558,7 @@ public class PigContext implements Serializable {
         switch (execType) {
             case LOCAL:
             case MAPREDUCE: 
+            case THREADED:
             {
                 executableManager = new HadoopExecutableManager();
             }
@@ -607,7 +609,7 @@ public class PigContext implements Serializable {
      * @return error source
      */
     public byte getErrorSource() {
-        if(execType == ExecType.LOCAL || execType == ExecType.MAPREDUCE) {
+        if(execType.isLocal() || execType == ExecType.MAPREDUCE) {
             return PigException.REMOTE_ENVIRONMENT;
         } else {
             return PigException.BUG;
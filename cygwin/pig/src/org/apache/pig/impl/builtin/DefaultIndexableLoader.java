@@ -37,6 +37,7 @@ import org.apache.pig.LoadFunc;
 import org.apache.pig.PigException;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MergeJoinIndexCache;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
@@ -58,7 +59,9 @@ import org.apache.pig.impl.util.ObjectSerializer;
  * consisting of sorted tuples of the form
  * (key1,key2..., position,splitIndex) as input. For key given in seekNear(Tuple)
  * finds the splitIndex that can contain the key and initializes ReadToEndLoader
- * to read from that splitIndex onwards , in the sequence of splits in the index
+ * to read from that splitIndex onwards , in the sequence of splits in the index.
+ * The index is either the output of the indexing job of this script or one
+ * kept by {@link MergeJoinIndexCache} from an earlier run on the same input.
  */
 public class DefaultIndexableLoader extends LoadFunc implements IndexableLoadFunc{
 
@@ -194,7 +197,7 @@ public class DefaultIndexableLoader extends LoadFunc implements IndexableLoadFun
     
     private void initRightLoader(int [] splitsToBeRead) throws IOException{
         PigContext pc = (PigContext) ObjectSerializer
-                .deserialize(PigMapReduce.sJobConf.get("pig.pigContext"));
+                .deserialize(PigMapReduce.getJobConf().get("pig.pigContext"));
         
         Configuration conf = ConfigurationUtil.toConfiguration(pc.getProperties());
         
@@ -61,6 +61,11 @@ public class BufferedPositionedInputStream extends InputStream {
         return read;
     }
 
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
     @Override
     public long skip(long n) throws IOException {
         long rc = in.skip(n);
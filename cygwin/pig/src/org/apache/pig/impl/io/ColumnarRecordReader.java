@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * A record reader used to read data written using
+ * {@link ColumnarRecordWriter}. A split reads the row groups whose sync
+ * marker starts in it. If only some columns are required, the chunks of
+ * the others are skipped without being decoded, and their fields are left
+ * null.
+ */
+public class ColumnarRecordReader extends RecordReader<Text, Tuple> {
+
+    private static final int HEADER_SIZE =
+        ColumnarRecordWriter.MAGIC.length + 1 + ColumnarRecordWriter.SYNC_SIZE;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private static TupleFactory mTupleFactory = TupleFactory.getInstance();
+
+    private long start;
+    private long end;
+    private BufferedPositionedInputStream in;
+    private DataInputStream inData = null;
+    private byte[] sync;
+    private boolean[] requiredColumns = null;
+    private Inflater inflater = new Inflater();
+
+    private Tuple[] rowGroup = null;
+    private int next = 0;
+    private Tuple value = null;
+
+    /**
+     * @param requiredColumns the columns to read, null for all
+     */
+    public void setRequiredColumns(boolean[] requiredColumns) {
+        this.requiredColumns = requiredColumns;
+    }
+
+    public void initialize(InputSplit genericSplit,
+                           TaskAttemptContext context) throws IOException {
+        FileSplit split = (FileSplit) genericSplit;
+        Configuration job = context.getConfiguration();
+        start = split.getStart();
+        end = start + split.getLength();
+        final Path file = split.getPath();
+
+        FileSystem fs = file.getFileSystem(job);
+        FSDataInputStream fileIn = fs.open(file);
+        byte[] magic = new byte[ColumnarRecordWriter.MAGIC.length];
+        fileIn.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarRecordWriter.MAGIC)) {
+            throw new IOException(file + " is not a columnar file");
+        }
+        byte version = fileIn.readByte();
+        if (version != ColumnarRecordWriter.VERSION) {
+            throw new IOException("Unsupported columnar file version " + version
+                    + " in " + file);
+        }
+        sync = new byte[ColumnarRecordWriter.SYNC_SIZE];
+        fileIn.readFully(sync);
+
+        // seek to the start of the split, past the sync marker of the header
+        long pos = Math.max(start, HEADER_SIZE);
+        fileIn.seek(pos);
+        in = new BufferedPositionedInputStream(fileIn, pos);
+        inData = new DataInputStream(in);
+    }
+
+    public boolean nextKeyValue() throws IOException {
+        while (rowGroup == null || next >= rowGroup.length) {
+            if (!readRowGroup()) {
+                value = null;
+                return false;
+            }
+        }
+        value = rowGroup[next];
+        rowGroup[next++] = null;
+        return true;
+    }
+
+    /**
+     * Moves past the next sync marker.
+     * @return false if there is no sync marker left that starts in the split
+     */
+    private boolean findSync() throws IOException {
+        byte[] last = new byte[sync.length];
+        int seen = 0;
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                return false;
+            }
+            last[seen % sync.length] = (byte)b;
+            seen++;
+            // a marker that starts at the end of the split belongs to the next
+            if (seen >= sync.length && matchesSync(last, seen)) {
+                return in.getPosition() - sync.length < end;
+            }
+            if (in.getPosition() - sync.length >= end) {
+                return false;
+            }
+        }
+    }
+
+    private boolean matchesSync(byte[] last, int seen) {
+        for (int i = 0; i < sync.length; i++) {
+            if (last[(seen + i) % sync.length] != sync[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean readRowGroup() throws IOException {
+        if (in == null || !findSync()) {
+            return false;
+        }
+        int rows = WritableUtils.readVInt(inData);
+        int columns = WritableUtils.readVInt(inData);
+
+        Object[] widthChunk = readChunk(rows);
+        int[] widths = new int[rows];
+        Tuple[] tuples = new Tuple[rows];
+        for (int r = 0; r < rows; r++) {
+            widths[r] = (Integer)widthChunk[r];
+            tuples[r] = mTupleFactory.newTuple(widths[r]);
+        }
+        for (int c = 0; c < columns; c++) {
+            if (requiredColumns != null
+                    && (c >= requiredColumns.length || !requiredColumns[c])) {
+                skipChunk();
+                continue;
+            }
+            int count = 0;
+            for (int w : widths) {
+                if (w > c) count++;
+            }
+            Object[] values = readChunk(count);
+            int i = 0;
+            for (int r = 0; r < rows; r++) {
+                if (widths[r] > c) {
+                    tuples[r].set(c, values[i++]);
+                }
+            }
+        }
+        rowGroup = tuples;
+        next = 0;
+        return true;
+    }
+
+    private void skipChunk() throws IOException {
+        inData.readByte();
+        inData.readBoolean();
+        WritableUtils.readVInt(inData);
+        int length = WritableUtils.readVInt(inData);
+        while (length > 0) {
+            int skipped = inData.skipBytes(length);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of columnar file");
+            }
+            length -= skipped;
+        }
+    }
+
+    private Object[] readChunk(int n) throws IOException {
+        byte encoding = inData.readByte();
+        boolean compressed = inData.readBoolean();
+        int rawLength = WritableUtils.readVInt(inData);
+        int length = WritableUtils.readVInt(inData);
+        byte[] stored = new byte[length];
+        inData.readFully(stored);
+        byte[] raw = stored;
+        if (compressed) {
+            raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(stored);
+            try {
+                int off = 0;
+                while (off < rawLength) {
+                    int inflated = inflater.inflate(raw, off, rawLength - off);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated column in columnar file");
+                    }
+                    off += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+        return decode(encoding, n,
+                new DataInputStream(new ByteArrayInputStream(raw)));
+    }
+
+    private Object[] decode(byte encoding, int n, DataInputStream di)
+            throws IOException {
+        Object[] values = new Object[n];
+        switch (encoding) {
+        case ColumnarRecordWriter.PLAIN:
+            for (int i = 0; i < n; i++) {
+                values[i] = sedes.readDatum(di);
+            }
+            break;
+        case ColumnarRecordWriter.RUN_LENGTH:
+            for (int i = 0; i < n;) {
+                int run = WritableUtils.readVInt(di);
+                Object v = sedes.readDatum(di);
+                for (int j = 0; j < run; j++) {
+                    values[i++] = v;
+                }
+            }
+            break;
+        case ColumnarRecordWriter.DELTA:
+            byte type = di.readByte();
+            long last = 0;
+            for (int i = 0; i < n; i++) {
+                long zz = WritableUtils.readVLong(di);
+                last += (zz >>> 1) ^ -(zz & 1);
+                values[i] = type == DataType.INTEGER ? (Object)(int)last
+                        : (Object)last;
+            }
+            break;
+        case ColumnarRecordWriter.DICTIONARY:
+            Object[] words = new Object[WritableUtils.readVInt(di) + 1];
+            for (int i = 1; i < words.length; i++) {
+                words[i] = sedes.readDatum(di);
+            }
+            for (int i = 0; i < n; i++) {
+                values[i] = words[WritableUtils.readVInt(di)];
+            }
+            break;
+        default:
+            throw new IOException("Unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    @Override
+    public Text getCurrentKey() {
+        // the key is always null since we don't really have a key for each
+        // input record
+        return null;
+    }
+
+    @Override
+    public Tuple getCurrentValue() {
+        return value;
+    }
+
+    /**
+     * Get the progress within the split
+     */
+    public float getProgress() throws IOException {
+        if (start == end || in == null) {
+            return 0.0f;
+        } else {
+            return Math.min(1.0f, (in.getPosition() - start) / (float)(end - start));
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+        inflater.end();
+    }
+}
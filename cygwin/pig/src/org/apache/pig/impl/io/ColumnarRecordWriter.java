@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.impl.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.Tuple;
+
+/**
+ * A record writer used to write data for {@link ColumnarRecordReader}.
+ * <p>
+ * The file starts with a header holding a sync marker. Tuples are then
+ * kept until they take about the row group size, and written as a row
+ * group: the sync marker, the number of rows and of columns, a chunk with
+ * the width of each tuple and a chunk for each column, holding the values
+ * of the tuples wide enough to have it. Each chunk is encoded as
+ * <ul>
+ * <li>run length, if its values repeat a lot</li>
+ * <li>delta, if it only has ints or only longs, such as timestamps</li>
+ * <li>dictionary, if it only has chararrays, most of them repeated</li>
+ * <li>plain, using the default InterSedes, otherwise</li>
+ * </ul>
+ * and then deflated, unless that does not make it smaller.
+ */
+public class ColumnarRecordWriter extends
+        RecordWriter<org.apache.hadoop.io.WritableComparable, Tuple> {
+
+    static final byte[] MAGIC = { 'P', 'C', 'O', 'L' };
+    static final byte VERSION = 1;
+    static final int SYNC_SIZE = 16;
+
+    // column encodings
+    static final byte PLAIN = 0;
+    static final byte RUN_LENGTH = 1;
+    static final byte DICTIONARY = 2;
+    static final byte DELTA = 3;
+
+    public static final long DEFAULT_ROW_GROUP_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    // bounds the arrays of a row group whatever the size of its tuples
+    private static final int MAX_ROWS = 100000;
+
+    // one in this many tuples is measured to estimate the row group size
+    private static final int SAMPLE_RATE = 100;
+
+    private static InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private DataOutputStream out;
+    private byte[] sync;
+    private long rowGroupSize;
+    private Deflater deflater = null;
+
+    private List<Tuple> rows = new ArrayList<Tuple>();
+    private int maxWidth = 0;
+    private long sampledSize = 0;
+    private int sampled = 0;
+
+    private ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private byte[] deflateBuf = new byte[64 * 1024];
+
+    /**
+     * @param out the output stream to write on
+     * @param rowGroupSize approximate size of the tuples of a row group
+     * @param compressionLevel deflate level, 0 for no compression
+     */
+    public ColumnarRecordWriter(DataOutputStream out, long rowGroupSize,
+            int compressionLevel) throws IOException {
+        this.out = out;
+        this.rowGroupSize = rowGroupSize;
+        if (compressionLevel != 0) {
+            deflater = new Deflater(compressionLevel);
+        }
+        UUID uuid = UUID.randomUUID();
+        DataOutputStream syncOut = new DataOutputStream(encoded);
+        syncOut.writeLong(uuid.getMostSignificantBits());
+        syncOut.writeLong(uuid.getLeastSignificantBits());
+        sync = encoded.toByteArray();
+        encoded.reset();
+
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.write(sync);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.hadoop.mapreduce.RecordWriter#write(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public void write(WritableComparable wc, Tuple t) throws IOException,
+            InterruptedException {
+        rows.add(t);
+        maxWidth = Math.max(maxWidth, t.size());
+        if (rows.size() % SAMPLE_RATE == 1) {
+            sampledSize += t.getMemorySize();
+            sampled++;
+        }
+        if (rows.size() >= MAX_ROWS
+                || sampledSize / sampled * rows.size() >= rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.hadoop.mapreduce.RecordWriter#close(org.apache.hadoop.mapreduce.TaskAttemptContext)
+     */
+    @Override
+    public void close(TaskAttemptContext arg0) throws IOException,
+            InterruptedException {
+        writeRowGroup();
+        out.close();
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        out.write(sync);
+        WritableUtils.writeVInt(out, rows.size());
+        WritableUtils.writeVInt(out, maxWidth);
+
+        List<Object> values = new ArrayList<Object>(rows.size());
+        for (Tuple t : rows) {
+            values.add(t.size());
+        }
+        writeChunk(values);
+        for (int c = 0; c < maxWidth; c++) {
+            values.clear();
+            for (Tuple t : rows) {
+                if (t.size() > c) {
+                    values.add(t.get(c));
+                }
+            }
+            writeChunk(values);
+        }
+
+        rows.clear();
+        maxWidth = 0;
+        sampledSize = 0;
+        sampled = 0;
+    }
+
+    private void writeChunk(List<Object> values) throws IOException {
+        encoded.reset();
+        byte encoding = encode(values, new DataOutputStream(encoded));
+        byte[] raw = encoded.toByteArray();
+        byte[] stored = raw;
+        if (deflater != null) {
+            compressed.reset();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(deflateBuf);
+                compressed.write(deflateBuf, 0, n);
+            }
+            if (compressed.size() < raw.length) {
+                stored = compressed.toByteArray();
+            }
+        }
+        out.writeByte(encoding);
+        out.writeBoolean(stored != raw);
+        WritableUtils.writeVInt(out, raw.length);
+        WritableUtils.writeVInt(out, stored.length);
+        out.write(stored);
+    }
+
+    private byte encode(List<Object> values, DataOutputStream eo)
+            throws IOException {
+        int n = values.size();
+        int runs = 0;
+        Object prev = null;
+        byte type = DataType.UNKNOWN;
+        boolean mixed = false;
+        boolean hasNull = false;
+        for (Object v : values) {
+            // complex values always start a run, comparing them costs too much
+            if (runs == 0 || !sameAtom(v, prev)) {
+                runs++;
+            }
+            prev = v;
+            if (v == null) {
+                hasNull = true;
+                continue;
+            }
+            byte t = DataType.findType(v);
+            if (type == DataType.UNKNOWN) {
+                type = t;
+            } else if (t != type) {
+                mixed = true;
+            }
+        }
+
+        if (runs * 4 <= n) {
+            prev = null;
+            int run = 0;
+            for (Object v : values) {
+                if (run > 0 && !sameAtom(v, prev)) {
+                    WritableUtils.writeVInt(eo, run);
+                    sedes.writeDatum(eo, prev);
+                    run = 0;
+                }
+                prev = v;
+                run++;
+            }
+            if (run > 0) {
+                WritableUtils.writeVInt(eo, run);
+                sedes.writeDatum(eo, prev);
+            }
+            return RUN_LENGTH;
+        }
+
+        if (!mixed && !hasNull
+                && (type == DataType.INTEGER || type == DataType.LONG)) {
+            eo.writeByte(type);
+            long last = 0;
+            for (Object v : values) {
+                long x = ((Number)v).longValue();
+                long delta = x - last;
+                // zig zag, so small negative deltas stay short
+                WritableUtils.writeVLong(eo, (delta << 1) ^ (delta >> 63));
+                last = x;
+            }
+            return DELTA;
+        }
+
+        if (!mixed && type == DataType.CHARARRAY) {
+            Map<Object, Integer> dict = new HashMap<Object, Integer>();
+            List<Object> words = new ArrayList<Object>();
+            for (Object v : values) {
+                if (v != null && !dict.containsKey(v)) {
+                    dict.put(v, words.size() + 1);
+                    words.add(v);
+                }
+            }
+            if (words.size() * 2 <= n) {
+                WritableUtils.writeVInt(eo, words.size());
+                for (Object w : words) {
+                    sedes.writeDatum(eo, w);
+                }
+                for (Object v : values) {
+                    WritableUtils.writeVInt(eo, v == null ? 0 : dict.get(v));
+                }
+                return DICTIONARY;
+            }
+        }
+
+        for (Object v : values) {
+            sedes.writeDatum(eo, v);
+        }
+        return PLAIN;
+    }
+
+    private boolean sameAtom(Object v, Object prev) {
+        if (v == null || prev == null) {
+            return v == prev;
+        }
+        if (!DataType.isAtomic(v)) {
+            return false;
+        }
+        return v.getClass() == prev.getClass() && v.equals(prev);
+    }
+}
@@ -146,7 +146,7 @@ public class FileLocalizer {
     static String checkDefaultPrefix(ExecType execType, String fileSpec) {
         if (fileSpec.startsWith(LOCAL_PREFIX))
             return fileSpec;
-        return (execType == ExecType.LOCAL ? LOCAL_PREFIX : "") + fileSpec;
+        return (execType.isLocal() ? LOCAL_PREFIX : "") + fileSpec;
     }
 
     /**
@@ -156,7 +156,7 @@ public class FileLocalizer {
      * @throws IOException
      */
     public static InputStream openDFSFile(String fileName) throws IOException {
-        Configuration conf = PigMapReduce.sJobConf;
+        Configuration conf = PigMapReduce.getJobConf();
         if (conf == null) {
             throw new RuntimeException(
                     "can't open DFS file while executing locally");
@@ -173,7 +173,7 @@ public class FileLocalizer {
     }
     
     public static long getSize(String fileName) throws IOException {
-    	Configuration conf = PigMapReduce.sJobConf;
+    	Configuration conf = PigMapReduce.getJobConf();
 
     	if (conf == null) {
     		throw new RuntimeException(
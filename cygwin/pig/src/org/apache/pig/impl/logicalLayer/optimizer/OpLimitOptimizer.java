@@ -239,7 +239,7 @@ public class OpLimitOptimizer extends LogicalTransformer {
             // Limit can be merged into LOSort, result a "limited sort"
             else if (predecessor instanceof LOSort)
             {
-                if(mode == ExecType.LOCAL) {
+                if(mode.isLocal()) {
                     //We don't need this optimisation to happen in the local mode.
                     //so we do nothing here.
                 } else {
@@ -272,7 +272,7 @@ public class OpLimitOptimizer extends LogicalTransformer {
             }
             // Limit and OrderBy (LOSort) can be separated by split
             else if (predecessor instanceof LOSplitOutput) {               
-                if(mode == ExecType.LOCAL) {
+                if(mode.isLocal()) {
                     //We don't need this optimisation to happen in the local mode.
                     //so we do nothing here.
                 } else {
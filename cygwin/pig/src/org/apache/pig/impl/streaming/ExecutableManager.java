@@ -90,6 +90,9 @@ public class ExecutableManager {
     protected volatile Throwable outerrThreadsError;
     private POStream poStream;
     private ProcessInputThread fileInputThread;
+
+    // Maximum number of tuples handed to or from the process at once
+    private int batchSize = 1;
     
     /**
      * Create a new {@link ExecutableManager}.
@@ -107,6 +110,7 @@ public class ExecutableManager {
     public void configure(POStream stream) throws IOException, ExecException {
         this.poStream = stream;
         this.command = stream.getCommand();
+        this.batchSize = stream.getBatchSize();
         String[] argv = this.command.getCommandArgs();
         argvAsString = "";
         for (String arg : argv) {
@@ -332,27 +336,37 @@ public class ExecutableManager {
 
         public void run() {
             try {
+                List<Result> batch = new ArrayList<Result>(batchSize);
+                List<Tuple> tuples = new ArrayList<Tuple>(batchSize);
                 // Read tuples from the previous operator in the pipeline
                 // and pass it to the executable
                 while (true) {
-                    Result inp = null;
-                    inp = binaryInputQueue.take();
+                    batch.clear();
+                    batch.add(binaryInputQueue.take());
+                    // take whatever else is already waiting, so that the
+                    // batch is written at once
+                    if (batchSize > 1) {
+                        binaryInputQueue.drainTo(batch, batchSize - 1);
+                    }
                     synchronized (poStream) {
                         // notify waiting producer
-                        // the if check is to keep "findbugs" 
-                        // happy 
-                        if(inp != null)
-                            poStream.notifyAll();
+                        poStream.notifyAll();
                     }
                     // We should receive an EOP only when *ALL* input
                     // for this process has already been sent and no
                     // more input is expected
-                    if (inp != null && inp.returnStatus == POStatus.STATUS_EOP) {
-                        // signal cleanup in ExecutableManager
-                        close();
-                        return;
+                    boolean endOfInput = false;
+                    tuples.clear();
+                    for (Result inp : batch) {
+                        if (inp.returnStatus == POStatus.STATUS_EOP) {
+                            endOfInput = true;
+                            break;
+                        }
+                        if (inp.returnStatus == POStatus.STATUS_OK) {
+                            tuples.add((Tuple) inp.result);
+                        }
                     }
-                    if (inp != null && inp.returnStatus == POStatus.STATUS_OK) {
+                    if (!tuples.isEmpty()) {
                         // Check if there was a problem with the managed process
                         if (outerrThreadsError != null) {
                             throw new IOException(
@@ -360,12 +374,14 @@ public class ExecutableManager {
                                             + outerrThreadsError);
                         }
 
-                        // Pass the serialized tuple to the executable via the
+                        // Pass the serialized tuples to the executable via the
                         // InputHandler
-                        Tuple t = null;
                         try {
-                            t = (Tuple) inp.result;
-                            inputHandler.putNext(t);                            
+                            if (tuples.size() == 1) {
+                                inputHandler.putNext(tuples.get(0));
+                            } else {
+                                inputHandler.putNext(tuples);
+                            }
                         } catch (IOException e) {
                             // if input type is synchronous then it could
                             // be related to the process terminating
@@ -397,8 +413,15 @@ public class ExecutableManager {
                                 throw e;
                             }
                         }
-                        inputBytes += t.getMemorySize();
-                        inputRecords++;
+                        for (Tuple t : tuples) {
+                            inputBytes += t.getMemorySize();
+                        }
+                        inputRecords += tuples.size();
+                    }
+                    if (endOfInput) {
+                        // signal cleanup in ExecutableManager
+                        close();
+                        return;
                     }
                 }
             } catch (Throwable t) {
@@ -452,10 +475,18 @@ public class ExecutableManager {
             try {
                 // Read tuples from the executable and send it to
                 // Queue of POStream
-                Tuple tuple = null;
-                while ((tuple = outputHandler.getNext()) != null) {
-                    processOutput(tuple);
-                    outputBytes += tuple.getMemorySize();
+                if (batchSize > 1) {
+                    List<Tuple> batch = new ArrayList<Tuple>(batchSize);
+                    while (outputHandler.getNext(batch, batchSize) > 0) {
+                        processOutputBatch(batch);
+                        batch.clear();
+                    }
+                } else {
+                    Tuple tuple = null;
+                    while ((tuple = outputHandler.getNext()) != null) {
+                        processOutput(tuple);
+                        outputBytes += tuple.getMemorySize();
+                    }
                 }
                 // output from binary is done
                 processOutput(null);
@@ -479,6 +510,27 @@ public class ExecutableManager {
             }
         }
 
+        /**
+         * Hands a batch of output tuples to POStream, only waking it up
+         * once the batch is queued or the queue is full
+         */
+        void processOutputBatch(List<Tuple> tuples) throws InterruptedException {
+            for (Tuple t : tuples) {
+                Result res = new Result(POStatus.STATUS_OK, t);
+                if (!binaryOutputQueue.offer(res)) {
+                    synchronized (poStream) {
+                        poStream.notifyAll();
+                    }
+                    binaryOutputQueue.put(res);
+                }
+                outputRecords++;
+                outputBytes += t.getMemorySize();
+            }
+            synchronized (poStream) {
+                poStream.notifyAll();
+            }
+        }
+
         void processOutput(Tuple t) {
             Result res = new Result();
             
@@ -17,8 +17,10 @@
  */
 package org.apache.pig.impl.streaming;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 
 import org.apache.pig.PigToStream;
 import org.apache.pig.data.Tuple;
@@ -47,6 +49,11 @@ public abstract class InputHandler {
     
     private OutputStream out;
     
+    private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+    
+    // buffer batches of tuples are serialized into
+    private ByteArrayOutputStream batchBuffer = null;
+    
     // flag to mark if close() has already been called
     protected boolean alreadyClosed = false;
     
@@ -66,6 +73,24 @@ public abstract class InputHandler {
         out.write(serializer.serialize(t));
     }
     
+    /**
+     * Send the given input <code>Tuple</code>s to the managed executable.
+     * They are serialized into one buffer which is written at once.
+     * 
+     * @param tuples input <code>Tuple</code>s
+     * @throws IOException
+     */
+    public void putNext(List<Tuple> tuples) throws IOException {
+        if (batchBuffer == null) {
+            batchBuffer = new ByteArrayOutputStream(BATCH_BUFFER_SIZE);
+        }
+        batchBuffer.reset();
+        for (Tuple t : tuples) {
+            batchBuffer.write(serializer.serialize(t));
+        }
+        batchBuffer.writeTo(out);
+    }
+    
     /**
      * Close the <code>InputHandler</code> since there is no more input
      * to be sent to the managed process.
@@ -18,6 +18,7 @@
 package org.apache.pig.impl.streaming;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.LineReader;
@@ -92,6 +93,30 @@ public abstract class OutputHandler {
         return deserializer.deserialize(value.getBytes());
     }
     
+    /**
+     * Get the next output <code>Tuple</code>s of the managed process, up
+     * to <code>max</code> of them. Only the first one is waited for, the
+     * others are read as long as the process has more output ready.
+     * 
+     * @param tuples list the <code>Tuple</code>s are added to
+     * @param max maximum number of <code>Tuple</code>s to read
+     * @return the number of <code>Tuple</code>s read, 0 once all the output
+     *         of the managed process has been read
+     * @throws IOException
+     */
+    public int getNext(List<Tuple> tuples, int max) throws IOException {
+        int n = 0;
+        while (n < max && (n == 0 || istream.available() > 0)) {
+            Tuple t = getNext();
+            if (t == null) {
+                break;
+            }
+            tuples.add(t);
+            n++;
+        }
+        return n;
+    }
+    
     /**
      * Close the <code>OutputHandler</code>.
      * @throws IOException
@@ -21,14 +21,14 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryNotificationInfo;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import javax.management.ListenerNotFoundException;
 import javax.management.Notification;
 import javax.management.NotificationEmitter;
 import javax.management.NotificationListener;
@@ -36,6 +36,9 @@ import javax.management.openmbean.CompositeData;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.pig.PigCounters;
+import org.apache.pig.tools.pigstats.PigStatusReporter;
 
 /**
  * This class Tracks the tenured pool and a list of Spillable objects. When memory gets low, this
@@ -44,13 +47,33 @@ import org.apache.commons.logging.LogFactory;
  * Low memory is defined as more than 50% of the tenured pool being allocated. Spillable objects are
  * tracked using WeakReferences so that the objects can be GCed even though this class has a reference
  * to them. 
+ * <p>
+ * Spillables are kept in buckets by the power of two of their last known memory size. Registering
+ * a spillable only adds it to a lock free queue. The memory notifications only hand the amount to
+ * free to a background thread, which updates the buckets and spills the spillables of the largest
+ * buckets first. The thread also watches how fast the live data in the tenured pool grows and
+ * spills early when it would go over the collection threshold soon.
  *
  */
 public class SpillableMemoryManager implements NotificationListener {
     
     private final Log log = LogFactory.getLog(getClass());
     
-    LinkedList<WeakReference<Spillable>> spillables = new LinkedList<WeakReference<Spillable>>();
+    public static final String PROACTIVE_LOOKAHEAD = "pig.spill.proactive.lookahead";
+    
+    public static final String POLL_INTERVAL = "pig.spill.poll.interval";
+    
+    // bucket i holds the spillables whose size was in [2^i, 2^(i+1)) when they
+    // were last looked at, bucket 0 also holds the empty ones
+    private static final int NUM_BUCKETS = 64;
+    
+    // spillables registered since the buckets were last updated
+    private final ConcurrentLinkedQueue<WeakReference<Spillable>> newSpillables =
+        new ConcurrentLinkedQueue<WeakReference<Spillable>>();
+    
+    // only used while holding the lock of this object
+    private final List<List<WeakReference<Spillable>>> buckets =
+        new ArrayList<List<WeakReference<Spillable>>>(NUM_BUCKETS);
     
     // if we freed at least this much, invoke GC 
     // (default 40 MB - this can be overridden by user supplied property)
@@ -71,6 +94,14 @@ public class SpillableMemoryManager implements NotificationListener {
     // fraction of biggest heap for which we want to get
     // "collection threshold exceeded" notifications
     private static double collectionMemoryThresholdFraction = 0.5;
+    
+    // spill early if the live data is expected to go over the collection
+    // threshold within this many milliseconds, 0 turns it off
+    // (default 2s - this can be overridden by user supplied property)
+    private static volatile long proactiveLookahead = 2000L;
+    
+    // how often the spill thread looks at the growth of the live data
+    private static volatile long pollInterval = 500L;
         
     // log notification on usage threshold exceeded only the first time
     private boolean firstUsageThreshExceededLogged = false;
@@ -78,7 +109,34 @@ public class SpillableMemoryManager implements NotificationListener {
     // log notification on collection threshold exceeded only the first time
     private boolean firstCollectionThreshExceededLogged = false;
     
+    private final MemoryPoolMXBean tenuredHeap;
+    
+    private final long collectionThreshold;
+    
+    // largest amount asked to be freed since the spill thread last ran
+    private long pendingToFree = 0L;
+    
+    private final Object pendingLock = new Object();
+    
+    // live data size after the last collection that changed it, and when
+    // it was seen; used to estimate how fast the live data grows
+    private long lastLiveSize = -1L;
+    
+    private long lastLiveTime = 0L;
+    
+    // bytes per millisecond
+    private double liveGrowthRate = 0.0;
+    
+    private volatile long bytesSpilled = 0L;
+    
+    private volatile long objectsSpilled = 0L;
+    
+    private final Thread spillThread;
+    
     public SpillableMemoryManager() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.add(new ArrayList<WeakReference<Spillable>>());
+        }
         ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
         List<MemoryPoolMXBean> mpbeans = ManagementFactory.getMemoryPoolMXBeans();
         MemoryPoolMXBean biggestHeap = null;
@@ -102,6 +160,7 @@ public class SpillableMemoryManager implements NotificationListener {
         }
         log.debug("Selected heap to monitor (" +
             biggestHeap.getName() + ")");
+        tenuredHeap = biggestHeap;
         
         // we want to set both collection and usage threshold alerts to be 
         // safe. In some local tests after a point only collection threshold
@@ -113,11 +172,35 @@ public class SpillableMemoryManager implements NotificationListener {
         
         /* We set the threshold to be 50% of tenured since that is where
          * the GC starts to dominate CPU time according to Sun doc */
-        biggestHeap.setCollectionUsageThreshold((long)(biggestSize * collectionMemoryThresholdFraction));
+        collectionThreshold = (long)(biggestSize * collectionMemoryThresholdFraction);
+        biggestHeap.setCollectionUsageThreshold(collectionThreshold);
         // we set a higher threshold for usage threshold exceeded notification
         // since this is more likely to be effective sooner and we do not
         // want to be spilling too soon
         biggestHeap.setUsageThreshold((long)(biggestSize * memoryThresholdFraction));
+        
+        spillThread = new Thread(new SpillThread(), "SpillThread");
+        spillThread.setDaemon(true);
+        spillThread.start();
+    }
+    
+    /**
+     * Stops listening to memory notifications and stops the spill thread.
+     * The manager of the JVM is never shut down, this is for the managers
+     * made by tests.
+     */
+    public void shutdown() {
+        try {
+            ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        } catch (ListenerNotFoundException e) {
+            log.debug("Memory notification listener already removed", e);
+        }
+        spillThread.interrupt();
+        try {
+            spillThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     
     public static void configure(Properties properties) {
@@ -129,10 +212,17 @@ public class SpillableMemoryManager implements NotificationListener {
             
             gcActivationSize = Long.parseLong(
                     properties.getProperty("pig.spill.gc.activation.size") ) ;
+            
+            proactiveLookahead = Long.parseLong(
+                    properties.getProperty(PROACTIVE_LOOKAHEAD, "2000"));
+            
+            pollInterval = Math.max(1L, Long.parseLong(
+                    properties.getProperty(POLL_INTERVAL, "500")));
         } 
         catch (NumberFormatException  nfe) {
             throw new RuntimeException("Error while converting system configurations" +
-            		"spill.size.threshold, spill.gc.activation.size", nfe) ;
+            		"spill.size.threshold, spill.gc.activation.size, " +
+            		PROACTIVE_LOOKAHEAD + ", " + POLL_INTERVAL, nfe) ;
         }
     }
     
@@ -177,66 +267,55 @@ public class SpillableMemoryManager implements NotificationListener {
                 "because there is nothing to free");
             return;
         }
-        synchronized(spillables) {
-            // Walk the list first and remove nulls, otherwise the sort
-            // takes way too long.
-            Iterator<WeakReference<Spillable>> i;
-            for (i = spillables.iterator(); i.hasNext();) {
-                Spillable s = i.next().get();
-                if (s == null) {
-                    i.remove();
-                }
+        requestSpill(toFree);
+    }
+    
+    /**
+     * Asks the spill thread to free memory. Returns right away; if the
+     * thread is already busy the largest of the pending amounts is freed
+     * once it is done.
+     * @param toFree number of bytes to free
+     */
+    public void requestSpill(long toFree) {
+        synchronized (pendingLock) {
+            pendingToFree = Math.max(pendingToFree, toFree);
+            pendingLock.notifyAll();
+        }
+    }
+    
+    /**
+     * Spills the largest spillables on the calling thread until about toFree
+     * bytes are freed or the rest are smaller than pig.spill.size.threshold.
+     * This is what the spill thread runs.
+     * @param toFree number of bytes to free
+     * @return the estimated number of bytes freed
+     */
+    public synchronized long spill(long toFree) {
+        long start = System.currentTimeMillis();
+        updateBuckets();
+        long estimatedFreed = 0;
+        int numObjSpilled = 0;
+        boolean invokeGC = false;
+        boolean done = false;
+        // Everything in bucket i is smaller than 2^(i+1), so there is no
+        // need to look at the buckets below the threshold (the shift
+        // overflows for the top two buckets).
+        for (int b = NUM_BUCKETS - 1; b >= 0 && !done; b--) {
+            if (b < 62 && (1L << (b + 1)) <= spillFileSizeThreshold) {
+                log.debug("spilling small files - getting out of memory handler");
+                break;
             }
-            Collections.sort(spillables, new Comparator<WeakReference<Spillable>>() {
-
-                /**
-                 * We don't lock anything, so this sort may not be stable if a WeakReference suddenly
-                 * becomes null, but it will be close enough.
-                 * Also between the time we sort and we use these spillables, they
-                 * may actually change in size - so this is just best effort
-                 */    
-                public int compare(WeakReference<Spillable> o1Ref, WeakReference<Spillable> o2Ref) {
-                    Spillable o1 = o1Ref.get();
-                    Spillable o2 = o2Ref.get();
-                    if (o1 == null && o2 == null) {
-                        return 0;
-                    }
-                    if (o1 == null) {
-                        return 1;
-                    }
-                    if (o2 == null) {
-                        return -1;
-                    }
-                    long o1Size = o1.getMemorySize();
-                    long o2Size = o2.getMemorySize();
-                
-                    if (o1Size == o2Size) {
-                        return 0;
-                    }
-                    if (o1Size < o2Size) {
-                        return 1;
-                    }
-                    return -1;
-                }
-            });
-            long estimatedFreed = 0;
-            int numObjSpilled = 0;
-            boolean invokeGC = false;
-            for (i = spillables.iterator(); i.hasNext();) {
-                Spillable s = i.next().get();
-                // Still need to check for null here, even after we removed
-                // above, because the reference may have gone bad on us
-                // since the last check.
+            List<WeakReference<Spillable>> bucket = buckets.get(b);
+            for (int i = 0; i < bucket.size() && !done; i++) {
+                Spillable s = bucket.get(i).get();
+                // The reference may have gone bad since the buckets were updated.
                 if (s == null) {
-                    i.remove();
                     continue;
                 }
                 long toBeFreed = s.getMemorySize();
                 log.debug("Memorysize = "+toBeFreed+", spillFilesizethreshold = "+spillFileSizeThreshold+", gcactivationsize = "+gcActivationSize);
-                // Don't keep trying if the rest of files are too small
                 if (toBeFreed < spillFileSizeThreshold) {
-                    log.debug("spilling small files - getting out of memory handler");
-                    break ;
+                    continue;
                 }
                 s.spill();               
                 numObjSpilled++;
@@ -251,22 +330,28 @@ public class SpillableMemoryManager implements NotificationListener {
                 if (estimatedFreed > toFree) {
                     log.debug("Freed enough space - getting out of memory handler");
                     invokeGC = true;
-                    break;
+                    done = true;
                 }
-            }           
-            /* Poke the GC again to see if we successfully freed enough memory */
-            if(invokeGC) {
-                System.gc();
-                // now that we have invoked the GC, reset accumulatedFreeSize
-                accumulatedFreeSize = 0;
-            }
-            if(estimatedFreed > 0){
-                String msg = "Spilled an estimate of " + estimatedFreed +
-                " bytes from " + numObjSpilled + " objects. " + info.getUsage();;
-                log.info(msg);
             }
-
         }
+        /* Poke the GC again to see if we successfully freed enough memory */
+        if(invokeGC) {
+            System.gc();
+            // now that we have invoked the GC, reset accumulatedFreeSize
+            accumulatedFreeSize = 0;
+        }
+        if(estimatedFreed > 0){
+            long millis = System.currentTimeMillis() - start;
+            bytesSpilled += estimatedFreed;
+            objectsSpilled += numObjSpilled;
+            incCounter(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_BYTES, estimatedFreed);
+            incCounter(PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_MILLIS, millis);
+            String msg = "Spilled an estimate of " + estimatedFreed +
+            " bytes from " + numObjSpilled + " objects in " + millis +
+            " ms. " + tenuredHeap.getUsage();
+            log.info(msg);
+        }
+        return estimatedFreed;
     }
     
     /**
@@ -275,15 +360,148 @@ public class SpillableMemoryManager implements NotificationListener {
      * @param s the spillable to track.
      */
     public void registerSpillable(Spillable s) {
-        synchronized(spillables) {
-            // Cleaing the entire list is too expensive.  Just trim off the front while
-            // we can.
-            WeakReference<Spillable> first = spillables.peek();
-            while (first != null && first.get() == null) {
-                spillables.remove();
-                first = spillables.peek();
+        // Cleaing the entire queue is too expensive.  Just trim off the front while
+        // we can.
+        WeakReference<Spillable> first = newSpillables.peek();
+        while (first != null && first.get() == null) {
+            newSpillables.remove(first);
+            first = newSpillables.peek();
+        }
+        newSpillables.add(new WeakReference<Spillable>(s));
+    }
+    
+    /**
+     * @return the estimated number of bytes spilled so far
+     */
+    public long getBytesSpilled() {
+        return bytesSpilled;
+    }
+    
+    /**
+     * @return the number of spillables spilled so far
+     */
+    public long getObjectsSpilled() {
+        return objectsSpilled;
+    }
+    
+    /**
+     * Moves the spillables to the buckets of their current size and drops
+     * the ones that were GCed.
+     */
+    private void updateBuckets() {
+        // Going from the largest down, a spillable that grew is moved to a
+        // bucket that was already looked at.
+        for (int b = NUM_BUCKETS - 1; b >= 0; b--) {
+            List<WeakReference<Spillable>> bucket = buckets.get(b);
+            int i = 0;
+            while (i < bucket.size()) {
+                WeakReference<Spillable> ref = bucket.get(i);
+                Spillable s = ref.get();
+                int nb = (s == null) ? -1 : bucketOf(s.getMemorySize());
+                if (nb == b) {
+                    i++;
+                    continue;
+                }
+                // the order within a bucket does not matter, so fill the
+                // hole with the last one
+                int last = bucket.size() - 1;
+                bucket.set(i, bucket.get(last));
+                bucket.remove(last);
+                if (nb >= 0) {
+                    buckets.get(nb).add(ref);
+                }
+            }
+        }
+        WeakReference<Spillable> ref;
+        while ((ref = newSpillables.poll()) != null) {
+            Spillable s = ref.get();
+            if (s != null) {
+                buckets.get(bucketOf(s.getMemorySize())).add(ref);
+            }
+        }
+    }
+    
+    private static int bucketOf(long size) {
+        return (size <= 1) ? 0 : 63 - Long.numberOfLeadingZeros(size);
+    }
+    
+    /**
+     * Estimates how fast the live data in the tenured pool grows from its
+     * size after collections.
+     * @return the number of bytes to free now so that it stays under the
+     * collection threshold for the look ahead time, 0 if there is no need to
+     */
+    private long proactiveToFree() {
+        MemoryUsage usage = tenuredHeap.getCollectionUsage();
+        if (usage == null || proactiveLookahead <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long live = usage.getUsed();
+        if (live != lastLiveSize) {
+            if (lastLiveSize >= 0 && live > lastLiveSize && now > lastLiveTime) {
+                liveGrowthRate = (double)(live - lastLiveSize) / (now - lastLiveTime);
+            } else {
+                liveGrowthRate = 0.0;
+            }
+            lastLiveSize = live;
+            lastLiveTime = now;
+        }
+        // over the threshold the collection notifications take care of it
+        if (liveGrowthRate <= 0.0 || live >= collectionThreshold) {
+            return 0;
+        }
+        long projected = live + (long)(liveGrowthRate * proactiveLookahead);
+        if (projected <= collectionThreshold) {
+            return 0;
+        }
+        // the live size does not change until the next collection, so do
+        // not spill again for the same estimate
+        liveGrowthRate = 0.0;
+        log.debug("live data projected to reach " + projected + " bytes in "
+                + proactiveLookahead + " ms, spilling early");
+        return projected - collectionThreshold;
+    }
+    
+    private void incCounter(PigCounters counter, long value) {
+        PigStatusReporter reporter = PigStatusReporter.getInstance();
+        Counter c = (reporter == null) ? null : reporter.getCounter(counter);
+        if (c != null) {
+            c.increment(value);
+        }
+    }
+    
+    private class SpillThread implements Runnable {
+        public void run() {
+            while (true) {
+                long toFree;
+                try {
+                    synchronized (pendingLock) {
+                        if (pendingToFree <= 0) {
+                            if (proactiveLookahead > 0) {
+                                pendingLock.wait(pollInterval);
+                            } else {
+                                pendingLock.wait();
+                            }
+                        }
+                        toFree = pendingToFree;
+                        pendingToFree = 0;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (toFree <= 0) {
+                        toFree = proactiveToFree();
+                    }
+                    if (toFree > 0) {
+                        spill(toFree);
+                    }
+                } catch (Throwable t) {
+                    // keep the thread alive, the next notification may do better
+                    log.warn("Error while spilling", t);
+                }
             }
-            spillables.add(new WeakReference<Spillable>(s));
         }
     }
 }
@@ -20,6 +20,7 @@ package org.apache.pig.impl.util;
 import java.io.IOException;
 //import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.hadoop.conf.Configuration;
@@ -34,17 +35,52 @@ public class UDFContext {
     private static final String CLIENT_SYS_PROPS = "pig.client.sys.props";
     private static final String UDF_CONTEXT = "pig.udf.context"; 
     private static UDFContext self = null;
+    // the contexts of tasks run at once by threads of one JVM, see
+    // createTaskContext; other threads share self
+    private static final ThreadLocal<UDFContext> taskContext =
+        new ThreadLocal<UDFContext>();
     private UDFContext() {
         udfConfs = new HashMap<Integer, Properties>();
     }
 
     public static UDFContext getUDFContext() {
+        UDFContext context = taskContext.get();
+        if (context != null) {
+            return context;
+        }
         if (self == null) {
             self = new UDFContext();
         }
         return self;
     }
 
+    // internal pig use only - should NOT be called from user code
+    /**
+     * Gives the current thread a context of its own until
+     * {@link #removeTaskContext()} is called, so that tasks of different
+     * jobs can run at once in one JVM.
+     */
+    public static void createTaskContext() {
+        taskContext.set(new UDFContext());
+    }
+
+    // internal pig use only - should NOT be called from user code
+    /**
+     * Makes the current thread use the context of a task it works for
+     * until {@link #removeTaskContext()} is called
+     */
+    public static void setTaskContext(UDFContext context) {
+        taskContext.set(context);
+    }
+
+    // internal pig use only - should NOT be called from user code
+    /**
+     * Makes the current thread use the shared context again
+     */
+    public static void removeTaskContext() {
+        taskContext.remove();
+    }
+
     // internal pig use only - should NOT be called from user code
     public void setClientSystemProps() {
         clientSysProps = System.getProperties();        
@@ -177,6 +213,38 @@ public class UDFContext {
                 jconf.get(CLIENT_SYS_PROPS));
     }
     
+    /**
+     * Get a copy of the UDF specific information set so far.  This is
+     * intended for keeping it along with a plan that is compiled once on
+     * the front end and run several times, see {@link #addUDFProperties}.
+     * @return a copy of the properties of each UDF
+     */
+    public HashMap<Integer, Properties> getUDFPropertiesCopy() {
+        HashMap<Integer, Properties> copy = new HashMap<Integer, Properties>();
+        for (Map.Entry<Integer, Properties> e : udfConfs.entrySet()) {
+            Properties p = new Properties();
+            p.putAll(e.getValue());
+            copy.put(e.getKey(), p);
+        }
+        return copy;
+    }
+
+    /**
+     * Add UDF specific information copied by {@link #getUDFPropertiesCopy}
+     * to the information set so far.
+     * @param confs the properties of each UDF
+     */
+    public void addUDFProperties(Map<Integer, Properties> confs) {
+        for (Map.Entry<Integer, Properties> e : confs.entrySet()) {
+            Properties p = udfConfs.get(e.getKey());
+            if (p == null) {
+                p = new Properties();
+                udfConfs.put(e.getKey(), p);
+            }
+            p.putAll(e.getValue());
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private int generateKey(Class c) {
         return c.getName().hashCode();
@@ -35,6 +35,7 @@ import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.data.DataType;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.io.ColumnarStorage;
 import org.apache.pig.impl.io.InterStorage;
 import org.apache.pig.impl.io.ReadToEndLoader;
 import org.apache.pig.impl.io.TFileStorage;
@@ -148,6 +149,8 @@ public class Utils {
     public static String getTmpFileCompressorName(PigContext pigContext) {
         if (pigContext == null)
             return InterStorage.class.getName();
+        if (tmpFileColumnar(pigContext))
+            return ColumnarStorage.class.getName();
         boolean tmpFileCompression = pigContext.getProperties().getProperty("pig.tmpfilecompression", "false").equals("true");
         String codec = pigContext.getProperties().getProperty("pig.tmpfilecompression.codec", "");
         if (tmpFileCompression) {
@@ -159,10 +162,18 @@ public class Utils {
     }
 
     public static FileInputLoadFunc getTmpFileStorageObject(Configuration conf) throws IOException {
+        if (conf.getBoolean("pig.tmpfile.columnar", false))
+            return new ColumnarStorage();
         boolean tmpFileCompression = conf.getBoolean("pig.tmpfilecompression", false);
         return tmpFileCompression ? new TFileStorage() : new InterStorage();
     }
 
+    public static boolean tmpFileColumnar(PigContext pigContext) {
+        if (pigContext == null)
+            return false;
+        return pigContext.getProperties().getProperty("pig.tmpfile.columnar", "false").equals("true");
+    }
+
     public static boolean tmpFileCompression(PigContext pigContext) {
         if (pigContext == null)
             return false;
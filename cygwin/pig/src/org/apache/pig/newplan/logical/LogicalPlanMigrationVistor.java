@@ -174,6 +174,9 @@ public class LogicalPlanMigrationVistor extends LOVisitor {
             }        
         }
         
+        if (loj.isPinnedOption(LOJoin.OPTION_JOIN)) {
+            join.pinJoinType();
+        }
         join.setAlias(loj.getAlias());
         join.setRequestedParallelism(loj.getRequestedParallelism());
         join.setCustomPartitioner(join.getCustomPartitioner());
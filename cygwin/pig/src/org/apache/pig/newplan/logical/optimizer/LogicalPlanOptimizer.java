@@ -25,6 +25,7 @@ import java.util.Set;
 import org.apache.pig.newplan.OperatorPlan;
 import org.apache.pig.newplan.logical.rules.AddForEach;
 import org.apache.pig.newplan.logical.rules.ColumnMapKeyPrune;
+import org.apache.pig.newplan.logical.rules.CostBasedJoinOptimizer;
 import org.apache.pig.newplan.logical.rules.DuplicateForEachColumnRewrite;
 import org.apache.pig.newplan.logical.rules.FilterAboveForeach;
 import org.apache.pig.newplan.logical.rules.GroupByConstParallelSetter;
@@ -101,6 +102,14 @@ public class LogicalPlanOptimizer extends PlanOptimizer {
         if (!s.isEmpty())
             ls.add(s);
 
+        // Join type set
+        // This set of rules chooses the join algorithm from the size of the inputs
+        s = new HashSet<Rule>();
+        r = new CostBasedJoinOptimizer("CostBasedJoinOptimizer");
+        checkAndAddRule(s, r);
+        if (!s.isEmpty())
+            ls.add(s);
+
         // Limit Set
         // This set of rules push up limit
         s = new HashSet<Rule>();
@@ -55,6 +55,8 @@ public class LOJoin extends LogicalRelationalOperator {
     // indicator for each input whether it is inner
     private boolean[] mInnerFlags;
     private JOINTYPE mJoinType; // Retains the type of the join
+    // whether the type of the join was given in the script
+    private boolean mJoinTypePinned = false;
     
     public LOJoin(LogicalPlan plan) {
         super("LOJoin", plan);     
@@ -81,6 +83,22 @@ public class LOJoin extends LogicalRelationalOperator {
     public JOINTYPE getJoinType() {
         return mJoinType;
     }
+
+    public void setJoinType(JOINTYPE jt) {
+        mJoinType = jt;
+    }
+
+    /**
+     * Marks the type of the join as given in the script, so that the
+     * optimizer does not choose another one.
+     */
+    public void pinJoinType() {
+        mJoinTypePinned = true;
+    }
+
+    public boolean isJoinTypePinned() {
+        return mJoinTypePinned;
+    }
     
     public Collection<LogicalExpressionPlan> getJoinPlan(int inputIndex) {
         return mJoinPlans.get(inputIndex);
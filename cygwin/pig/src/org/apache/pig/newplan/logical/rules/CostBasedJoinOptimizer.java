@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.pig.newplan.logical.rules;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.LoadFunc;
+import org.apache.pig.LoadMetadata;
+import org.apache.pig.ResourceStatistics;
+import org.apache.pig.impl.logicalLayer.FrontendException;
+import org.apache.pig.impl.util.MultiMap;
+import org.apache.pig.impl.util.Pair;
+import org.apache.pig.newplan.Operator;
+import org.apache.pig.newplan.OperatorPlan;
+import org.apache.pig.newplan.logical.expression.LogicalExpressionPlan;
+import org.apache.pig.newplan.logical.expression.ProjectExpression;
+import org.apache.pig.newplan.logical.relational.LODistinct;
+import org.apache.pig.newplan.logical.relational.LOFilter;
+import org.apache.pig.newplan.logical.relational.LOForEach;
+import org.apache.pig.newplan.logical.relational.LOGenerate;
+import org.apache.pig.newplan.logical.relational.LOInnerLoad;
+import org.apache.pig.newplan.logical.relational.LOJoin;
+import org.apache.pig.newplan.logical.relational.LOLimit;
+import org.apache.pig.newplan.logical.relational.LOLoad;
+import org.apache.pig.newplan.logical.relational.LOSort;
+import org.apache.pig.newplan.logical.relational.LOSplit;
+import org.apache.pig.newplan.logical.relational.LOSplitOutput;
+import org.apache.pig.newplan.logical.relational.LOUnion;
+import org.apache.pig.newplan.logical.relational.LogicalPlan;
+import org.apache.pig.newplan.logical.relational.LogicalRelationalOperator;
+import org.apache.pig.newplan.logical.relational.LogicalSchema;
+import org.apache.pig.newplan.optimizer.Rule;
+import org.apache.pig.newplan.optimizer.Transformer;
+
+/**
+ * Turns joins whose type is not given in the script into fragment
+ * replicate joins when all the inputs but one are small enough to be held
+ * in memory.  The size of an input is estimated from the inputs it is
+ * loaded from, using {@link LoadMetadata#getStatistics} when the loader
+ * provides the size or the number of records, and the length of the files
+ * otherwise.  Filters, projections, limits and the like are assumed not to
+ * grow their input; an input computed by any other operator has an
+ * unknown size.
+ * <p>
+ * The largest input, or the one of unknown size, becomes the fragment.
+ * When it is not the first input of the join, the inputs are reordered and
+ * a foreach restores the order of the columns after the join.  An outer
+ * join is only replicated when the input padded with nulls is the small
+ * one, since that is the input a replicated join replicates.
+ * <p>
+ * The rule is on when opt.join.costbased is set to true, inputs up to
+ * opt.join.costbased.replicated.maxbytes bytes in all are replicated.
+ */
+public class CostBasedJoinOptimizer extends Rule {
+
+    public static final String COST_BASED_JOIN = "opt.join.costbased";
+
+    public static final String REPLICATED_MAX_BYTES = "opt.join.costbased.replicated.maxbytes";
+
+    public static final long DEFAULT_REPLICATED_MAX_BYTES = 10L * 1024 * 1024;
+
+    public CostBasedJoinOptimizer(String name) {
+        super(name, false);
+    }
+
+    @Override
+    protected OperatorPlan buildPattern() {
+        LogicalPlan plan = new LogicalPlan();
+        LogicalRelationalOperator join = new LOJoin(plan);
+        plan.add(join);
+        return plan;
+    }
+
+    @Override
+    public Transformer getNewTransformer() {
+        return new CostBasedJoinTransformer();
+    }
+
+    public class CostBasedJoinTransformer extends Transformer {
+
+        private LOJoin join;
+
+        // the input to replicate the others to
+        private int fragment;
+
+        @Override
+        public boolean check(OperatorPlan matched) throws FrontendException {
+            join = (LOJoin)matched.getSources().get(0);
+            if (join.getJoinType() != LOJoin.JOINTYPE.HASH
+                    || join.isJoinTypePinned()
+                    || join.getCustomPartitioner() != null) {
+                return false;
+            }
+            List<Operator> inputs = currentPlan.getPredecessors(join);
+            if (inputs == null || inputs.size() < 2) {
+                return false;
+            }
+            Configuration conf = findConfiguration(join);
+            if (conf == null || !conf.getBoolean(COST_BASED_JOIN, false)) {
+                return false;
+            }
+            long maxBytes = conf.getLong(REPLICATED_MAX_BYTES,
+                    DEFAULT_REPLICATED_MAX_BYTES);
+
+            long[] sizes = new long[inputs.size()];
+            fragment = -1;
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = estimateSize((LogicalRelationalOperator)inputs.get(i));
+                if (sizes[i] < 0) {
+                    // only the fragment may be of unknown size
+                    if (fragment != -1 && sizes[fragment] < 0) {
+                        return false;
+                    }
+                    fragment = i;
+                } else if (fragment == -1
+                        || (sizes[fragment] >= 0 && sizes[i] > sizes[fragment])) {
+                    fragment = i;
+                }
+            }
+
+            boolean[] innerFlags = join.getInnerFlags();
+            if (!innerFlags[0] && !innerFlags[1]) {
+                // full outer
+                return false;
+            } else if (!innerFlags[0] || !innerFlags[1]) {
+                // the input padded with nulls has to be replicated, the
+                // other one is the fragment whatever the sizes
+                fragment = innerFlags[0] ? 0 : 1;
+                if (sizes[1 - fragment] < 0) {
+                    return false;
+                }
+            }
+
+            long replicated = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                if (i != fragment) {
+                    replicated += sizes[i];
+                }
+            }
+            if (replicated > maxBytes) {
+                return false;
+            }
+            if (fragment != 0) {
+                // the columns can only be put back in order when the
+                // schemas of the inputs are known
+                for (Operator input : inputs) {
+                    if (((LogicalRelationalOperator)input).getSchema() == null) {
+                        return false;
+                    }
+                }
+            } else if (!innerFlags[1]
+                    && ((LogicalRelationalOperator)inputs.get(1)).getSchema() == null) {
+                // a left outer replicated join needs the schema of the
+                // right input to pad with nulls
+                return false;
+            }
+            log.info("Using a replicated join for " + join.getAlias()
+                    + ", replicating " + replicated + " bytes");
+            return true;
+        }
+
+        @Override
+        public void transform(OperatorPlan matched) throws FrontendException {
+            if (fragment != 0) {
+                moveToFront(fragment);
+            }
+            join.setJoinType(LOJoin.JOINTYPE.REPLICATED);
+        }
+
+        @Override
+        public OperatorPlan reportChanges() {
+            return currentPlan;
+        }
+
+        private void moveToFront(int input) throws FrontendException {
+            List<Operator> inputs = new ArrayList<Operator>(
+                    currentPlan.getPredecessors(join));
+            int n = inputs.size();
+
+            // new position of each input
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = (i == input) ? 0 : ((i < input) ? i + 1 : i);
+            }
+
+            // where the columns of the join are after reordering
+            LogicalSchema schema = join.getSchema();
+            int[] width = new int[n];
+            for (int i = 0; i < n; i++) {
+                width[i] = ((LogicalRelationalOperator)inputs.get(i)).getSchema().size();
+            }
+            int[] columns = new int[schema.size()];
+            for (int i = 0, c = 0; i < n; i++) {
+                int start = 0;
+                for (int j = 0; j < n; j++) {
+                    if (order[j] < order[i]) {
+                        start += width[j];
+                    }
+                }
+                for (int j = 0; j < width[i]; j++) {
+                    columns[c++] = start + j;
+                }
+            }
+
+            Operator[] reordered = new Operator[n];
+            int[] fromPos = new int[n];
+            for (int i = 0; i < n; i++) {
+                Pair<Integer, Integer> pos = currentPlan.disconnect(inputs.get(i), join);
+                reordered[order[i]] = inputs.get(i);
+                fromPos[order[i]] = pos.first;
+            }
+            for (int i = 0; i < n; i++) {
+                currentPlan.connect(reordered[i], fromPos[i], join, i);
+            }
+
+            MultiMap<Integer, LogicalExpressionPlan> plans = join.getExpressionPlans();
+            MultiMap<Integer, LogicalExpressionPlan> reorderedPlans =
+                new MultiMap<Integer, LogicalExpressionPlan>();
+            for (int i = 0; i < n; i++) {
+                Collection<LogicalExpressionPlan> inputPlans = plans.get(i);
+                for (LogicalExpressionPlan exp : inputPlans) {
+                    Iterator<Operator> iter = exp.getOperators();
+                    while (iter.hasNext()) {
+                        Operator op = iter.next();
+                        if (op instanceof ProjectExpression) {
+                            ((ProjectExpression)op).setInputNum(order[i]);
+                        }
+                    }
+                }
+                reorderedPlans.put(order[i], inputPlans);
+            }
+            plans.clear();
+            for (int i = 0; i < n; i++) {
+                plans.put(i, reorderedPlans.get(i));
+            }
+
+            boolean[] innerFlags = join.getInnerFlags();
+            boolean[] flags = innerFlags.clone();
+            for (int i = 0; i < n; i++) {
+                innerFlags[order[i]] = flags[i];
+            }
+
+            join.resetSchema();
+            addForEachAfter(columns);
+        }
+
+        // puts the columns of the join back in the order of the script
+        private void addForEachAfter(int[] columns) throws FrontendException {
+            LogicalPlan plan = (LogicalPlan)currentPlan;
+            LOForEach foreach = new LOForEach(plan);
+            foreach.setAlias(join.getAlias());
+            plan.add(foreach);
+            List<Operator> next = plan.getSuccessors(join);
+            if (next != null) {
+                next = new ArrayList<Operator>(next);
+                for (int i = 0; i < next.size(); i++) {
+                    Pair<Integer, Integer> pos = plan.disconnect(join, next.get(i));
+                    plan.connect(foreach, i, next.get(i), pos.second);
+                }
+            }
+            plan.connect(join, foreach);
+
+            LogicalPlan innerPlan = new LogicalPlan();
+            foreach.setInnerPlan(innerPlan);
+            List<LogicalExpressionPlan> exps = new ArrayList<LogicalExpressionPlan>();
+            LOGenerate gen = new LOGenerate(innerPlan, exps, new boolean[columns.length]);
+            innerPlan.add(gen);
+            for (int i = 0; i < columns.length; i++) {
+                LOInnerLoad innerLoad = new LOInnerLoad(innerPlan, foreach, columns[i]);
+                innerPlan.add(innerLoad);
+                innerPlan.connect(innerLoad, gen);
+
+                LogicalExpressionPlan exp = new LogicalExpressionPlan();
+                ProjectExpression prj = new ProjectExpression(exp, i, -1, gen);
+                exp.add(prj);
+                exps.add(exp);
+            }
+        }
+
+        private Configuration findConfiguration(LogicalRelationalOperator op) {
+            if (op instanceof LOLoad) {
+                return ((LOLoad)op).getConfiguration();
+            }
+            List<Operator> preds = currentPlan.getPredecessors(op);
+            if (preds != null) {
+                for (Operator pred : preds) {
+                    Configuration conf = findConfiguration((LogicalRelationalOperator)pred);
+                    if (conf != null) {
+                        return conf;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the estimated size in bytes of the output of op, -1 when
+         * it is unknown
+         */
+        private long estimateSize(LogicalRelationalOperator op) throws FrontendException {
+            if (op instanceof LOLoad) {
+                return estimateSize((LOLoad)op);
+            }
+            if (op instanceof LOForEach) {
+                // flattening bags may multiply the rows
+                LOGenerate gen = (LOGenerate)((LOForEach)op).getInnerPlan().getSinks().get(0);
+                for (boolean flatten : gen.getFlattenFlags()) {
+                    if (flatten) {
+                        return -1;
+                    }
+                }
+            } else if (!(op instanceof LOFilter || op instanceof LOLimit
+                    || op instanceof LODistinct || op instanceof LOSort
+                    || op instanceof LOSplit || op instanceof LOSplitOutput
+                    || op instanceof LOUnion)) {
+                return -1;
+            }
+            long size = 0;
+            for (Operator pred : currentPlan.getPredecessors(op)) {
+                long predSize = estimateSize((LogicalRelationalOperator)pred);
+                if (predSize < 0) {
+                    return -1;
+                }
+                size += predSize;
+            }
+            return size;
+        }
+
+        private long estimateSize(LOLoad load) {
+            String location = load.getFileSpec().getFileName();
+            try {
+                LoadFunc loadFunc = load.getLoadFunc();
+                if (loadFunc instanceof LoadMetadata) {
+                    ResourceStatistics stats = null;
+                    try {
+                        stats = ((LoadMetadata)loadFunc).getStatistics(
+                                location, new Job(load.getConfiguration()));
+                    } catch (UnsupportedOperationException e) {
+                        // loaders such as BinStorage keep no statistics,
+                        // their files are measured instead
+                    }
+                    if (stats != null && stats.getmBytes() != null) {
+                        return stats.getmBytes() * 1024 * 1024;
+                    }
+                    if (stats != null && stats.getNumRecords() != null
+                            && stats.getAvgRecordSize() != null) {
+                        return stats.getNumRecords() * stats.getAvgRecordSize();
+                    }
+                }
+                long size = 0;
+                for (String name : LoadFunc.getPathStrings(location)) {
+                    Path path = new Path(name);
+                    FileSystem fs = path.getFileSystem(load.getConfiguration());
+                    FileStatus[] files = fs.globStatus(path);
+                    if (files == null || files.length == 0) {
+                        return -1;
+                    }
+                    for (FileStatus file : files) {
+                        size += fs.getContentSummary(file.getPath()).getLength();
+                    }
+                }
+                return size;
+            } catch (IOException e) {
+                log.debug("Unable to estimate the size of " + location, e);
+                return -1;
+            } catch (RuntimeException e) {
+                // locations that are not files, such as tables
+                log.debug("Unable to estimate the size of " + location, e);
+                return -1;
+            }
+        }
+    }
+}
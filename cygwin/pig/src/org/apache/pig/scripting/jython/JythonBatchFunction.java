@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.pig.scripting.jython;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pig.BatchEvalFunc;
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.scripting.jython.JythonUtils.FieldConverter;
+import org.python.core.Py;
+import org.python.core.PyException;
+import org.python.core.PyObject;
+import org.python.core.PySequence;
+import org.python.core.PyString;
+import org.python.core.PyTuple;
+import org.python.core.PyType;
+
+/**
+ * Python UDF decorated with batchFunction. The Python function takes a
+ * block of rows and returns a sequence with one result per row, in the
+ * same order:
+ * <pre>
+ * &#64;outputSchema("code:chararray")
+ * &#64;batchFunction
+ * def normalize(rows):
+ *     return [code.strip().upper() for (code,) in rows]
+ * </pre>
+ * Each row holds the arguments of the UDF for one input tuple. The rows
+ * are read only views of the input tuples, a field is converted to Python
+ * when the function reads it, so fields the function does not look at are
+ * never converted. The conversions are cached per argument and for the
+ * result, see {@link FieldConverter}.
+ * <p>
+ * The function gets whole batches when the map plan runs in batches, and a
+ * block of a single row otherwise.
+ */
+public class JythonBatchFunction extends JythonFunction implements BatchEvalFunc {
+
+    private FieldConverter[] argConverters = new FieldConverter[0];
+
+    private FieldConverter resultConverter = new FieldConverter();
+
+    private List<Tuple> single = new ArrayList<Tuple>(1);
+
+    private Object[] singleResult = new Object[1];
+
+    public JythonBatchFunction(String filename, String functionName)
+            throws IOException {
+        super(filename, functionName);
+        if (num_parameters != 1) {
+            throw new ExecException("Batch function " + functionName
+                    + " must take a single parameter, the block of rows");
+        }
+    }
+
+    @Override
+    public Object exec(Tuple tuple) throws IOException {
+        single.clear();
+        single.add(tuple);
+        execBatch(single, singleResult);
+        return singleResult[0];
+    }
+
+    public void execBatch(List<Tuple> input, Object[] output) throws IOException {
+        if (input.isEmpty()) {
+            return;
+        }
+        try {
+            PyObject results = function.__call__(new Block(input));
+            PyObject iter = results.__iter__();
+            for (int i = 0; i < input.size(); i++) {
+                PyObject result = iter.__iternext__();
+                if (result == null) {
+                    throw new ExecException("Batch function returned " + i
+                            + " results for " + input.size() + " rows");
+                }
+                output[i] = resultConverter.toPig(result);
+            }
+            if (iter.__iternext__() != null) {
+                throw new ExecException("Batch function returned more than "
+                        + input.size() + " results for " + input.size() + " rows");
+            }
+        } catch (PyException e) {
+            throw new ExecException("Error executing function: " + e);
+        }
+    }
+
+    private FieldConverter getArgConverter(int i) {
+        if (i >= argConverters.length) {
+            FieldConverter[] converters = new FieldConverter[i + 1];
+            System.arraycopy(argConverters, 0, converters, 0, argConverters.length);
+            for (int j = argConverters.length; j < converters.length; j++) {
+                converters[j] = new FieldConverter();
+            }
+            argConverters = converters;
+        }
+        return argConverters[i];
+    }
+
+    /**
+     * The rows passed to the Python function, a sequence of {@link Row}s
+     */
+    private class Block extends PySequence {
+
+        private final List<Tuple> tuples;
+
+        Block(List<Tuple> tuples) {
+            super(PyType.fromClass(Block.class));
+            this.tuples = tuples;
+        }
+
+        @Override
+        public int __len__() {
+            return tuples.size();
+        }
+
+        @Override
+        protected PyObject pyget(int i) {
+            Tuple t = tuples.get(i);
+            return (t == null) ? Py.None : new Row(t);
+        }
+
+        @Override
+        protected PyObject getslice(int start, int stop, int step) {
+            PyObject[] rows = new PyObject[sliceLength(start, stop, step)];
+            for (int i = 0, j = start; i < rows.length; i++, j += step) {
+                rows[i] = pyget(j);
+            }
+            return new PyTuple(rows);
+        }
+
+        @Override
+        protected PyObject repeat(int count) {
+            throw Py.TypeError("can't multiply a block of rows");
+        }
+    }
+
+    /**
+     * A read only view of an input tuple that converts its fields to
+     * Python when they are read
+     */
+    private class Row extends PySequence {
+
+        private final Tuple tuple;
+
+        private final PyObject[] fields;
+
+        Row(Tuple tuple) {
+            super(PyType.fromClass(Row.class));
+            this.tuple = tuple;
+            fields = new PyObject[tuple.size()];
+        }
+
+        @Override
+        public int __len__() {
+            return fields.length;
+        }
+
+        @Override
+        protected PyObject pyget(int i) {
+            if (fields[i] == null) {
+                try {
+                    fields[i] = getArgConverter(i).toPython(tuple.get(i));
+                } catch (ExecException e) {
+                    throw Py.JavaError(e);
+                }
+            }
+            return fields[i];
+        }
+
+        @Override
+        protected PyObject getslice(int start, int stop, int step) {
+            PyObject[] slice = new PyObject[sliceLength(start, stop, step)];
+            for (int i = 0, j = start; i < slice.length; i++, j += step) {
+                slice[i] = pyget(j);
+            }
+            return new PyTuple(slice);
+        }
+
+        @Override
+        protected PyObject repeat(int count) {
+            return getslice(0, fields.length, 1).__mul__(Py.newInteger(count));
+        }
+
+        @Override
+        public PyString __repr__() {
+            return getslice(0, fields.length, 1).__repr__();
+        }
+    }
+}
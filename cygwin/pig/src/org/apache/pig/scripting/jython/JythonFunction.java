@@ -39,9 +39,9 @@ import org.python.core.PyObject;
  * data structures
  */
 public class JythonFunction extends EvalFunc<Object> {
-    private PyFunction function;
+    protected PyFunction function;
     private Schema schema;
-    private int num_parameters;
+    protected int num_parameters;
     private String scriptFilePath;
     private String outputSchemaFunc;
     
@@ -46,6 +46,7 @@ public class JythonScriptEngine extends ScriptEngine {
     // "schemaFunction"
     // "outputSchema"
     // "outputSchemaFunction"
+    // "batchFunction"
     
     /**
      * Language Interpreter Uses static holder pattern
@@ -75,6 +76,10 @@ public class JythonScriptEngine extends ScriptEngine {
                         + "         return func\n"
                         + "     return decorator\n\n");
 
+                interpreter.exec("def batchFunction(func):\n"
+                        + "    func.batchFunction = True\n"
+                        + "    return func\n\n");
+
                 InputStream is = null;
                 File file = new File(path);
                 if (file.exists()) {
@@ -121,13 +126,18 @@ public class JythonScriptEngine extends ScriptEngine {
                 if (!key.startsWith("__") && !key.equals("schemaFunction")
                         && !key.equals("outputSchema")
                         && !key.equals("outputSchemaFunction")
+                        && !key.equals("batchFunction")
                         && (value instanceof PyFunction)
                         && (((PyFunction)value).__findattr__("schemaFunction".intern())== null)) {
                     PyObject obj = ((PyFunction)value).__findattr__("outputSchema".intern());
                     if(obj != null) {
                         Utils.getSchemaFromString(obj.toString());
                     }
-                    funcspec = new FuncSpec(JythonFunction.class.getCanonicalName() + "('"
+                    Class<?> funcClass = JythonFunction.class;
+                    if (((PyFunction)value).__findattr__("batchFunction".intern()) != null) {
+                        funcClass = JythonBatchFunction.class;
+                    }
+                    funcspec = new FuncSpec(funcClass.getCanonicalName() + "('"
                             + path + "','" + key +"')");
                     pigContext.registerFunction(namespace + key, funcspec);
                 }
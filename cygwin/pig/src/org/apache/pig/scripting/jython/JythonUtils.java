@@ -40,6 +40,7 @@ import org.python.core.PyNone;
 import org.python.core.PyObject;
 import org.python.core.PyString;
 import org.python.core.PyTuple;
+import org.python.core.PyUnicode;
 
 public class JythonUtils {
 
@@ -138,5 +139,73 @@ public class JythonUtils {
         return new PyTuple(pyTuple);
     }
 
+    /**
+     * Converts the values of one field between Pig and Python. The
+     * conversion is looked up for the class of a value and reused for the
+     * following values of the same class, which is all of them when the
+     * field has a type. Atomic values are converted directly, everything
+     * else goes through {@link JythonUtils#pigToPython(Object)} and
+     * {@link JythonUtils#pythonToPig(PyObject)}.
+     */
+    public static class FieldConverter {
+
+        private Class<?> pigClass = null;
+
+        private byte pigType = DataType.UNKNOWN;
+
+        private Class<?> pyClass = null;
+
+        private byte pyType = DataType.UNKNOWN;
+
+        public PyObject toPython(Object object) {
+            if (object == null) {
+                return Py.None;
+            }
+            if (object.getClass() != pigClass) {
+                pigClass = object.getClass();
+                pigType = DataType.findType(object);
+            }
+            switch (pigType) {
+            case DataType.CHARARRAY:
+                return Py.newUnicode((String)object);
+            case DataType.INTEGER:
+                return Py.newInteger((Integer)object);
+            case DataType.LONG:
+                return Py.newLong((Long)object);
+            case DataType.DOUBLE:
+                return Py.newFloat((Double)object);
+            case DataType.FLOAT:
+                return Py.newFloat((Float)object);
+            default:
+                return pigToPython(object);
+            }
+        }
+
+        public Object toPig(PyObject pyObject) throws ExecException {
+            if (pyObject.getClass() != pyClass) {
+                pyClass = pyObject.getClass();
+                // subclasses such as PyBoolean take the generic way
+                if (pyClass == PyUnicode.class || pyClass == PyString.class) {
+                    pyType = DataType.CHARARRAY;
+                } else if (pyClass == PyInteger.class) {
+                    pyType = DataType.INTEGER;
+                } else if (pyClass == PyFloat.class) {
+                    pyType = DataType.DOUBLE;
+                } else {
+                    pyType = DataType.UNKNOWN;
+                }
+            }
+            switch (pyType) {
+            case DataType.CHARARRAY:
+                return ((PyString)pyObject).toString();
+            case DataType.INTEGER:
+                return Integer.valueOf(((PyInteger)pyObject).getValue());
+            case DataType.DOUBLE:
+                return Double.valueOf(((PyFloat)pyObject).getValue());
+            default:
+                return pythonToPig(pyObject);
+            }
+        }
+    }
 }
 
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.tools.pigstats;
+
+import org.apache.pig.classification.InterfaceAudience;
+import org.apache.pig.classification.InterfaceStability;
+
+/**
+ * A {@link PigProgressNotificationListener} that is also told about the
+ * progress of each running MR job, for the execution types that run
+ * several MR jobs at once.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface JobProgressNotificationListener extends PigProgressNotificationListener {
+
+    /**
+     * Invoked when the progress of a running MR job changes.
+     * 
+     * @param assignedJobId the MR job id
+     * @param progress the percentage of the MR job that is done
+     */
+    public void jobProgressNotification(String assignedJobId, int progress);
+}
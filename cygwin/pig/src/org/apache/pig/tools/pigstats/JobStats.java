@@ -18,15 +18,20 @@
 
 package org.apache.pig.tools.pigstats;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,7 +48,10 @@ import org.apache.hadoop.mapred.Counters.Counter;
 import org.apache.pig.PigCounters;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.JobControlCompiler;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
 import org.apache.pig.classification.InterfaceAudience;
 import org.apache.pig.classification.InterfaceStability;
 import org.apache.pig.newplan.Operator;
@@ -118,6 +126,11 @@ public final class JobStats extends Operator {
     private long spillCount = 0;
     private long activeSpillCountObj = 0;
     private long activeSpillCountRecs = 0;
+    private long spillBytes = 0;
+    private long spillMillis = 0;
+    private long partialAggInput = 0;
+    private long partialAggOutput = 0;
+    private long partialAggEvictions = 0;
     
     private HashMap<String, Long> multiStoreCounters 
             = new HashMap<String, Long>();
@@ -127,6 +140,15 @@ public final class JobStats extends Operator {
         
     @SuppressWarnings("deprecation")
     private Counters counters = null;
+
+    private MapReduceOper mro = null;
+
+    private Map<String, OperatorProfile> profiles =
+        Collections.emptyMap();
+
+    // the key at the end of the name of an operator in an explained plan
+    private static final Pattern OPERATOR_KEY =
+        Pattern.compile(" - (\\S+-\\d+)\\s*$");
     
     JobStats(String name, JobGraph plan) {
         super(name, plan);
@@ -176,6 +198,16 @@ public final class JobStats extends Operator {
     
     public long getProactiveSpillCountRecs() { return activeSpillCountRecs; }
     
+    public long getSMMSpillBytes() { return spillBytes; }
+    
+    public long getSMMSpillMillis() { return spillMillis; }
+    
+    public long getPartialAggInputRecords() { return partialAggInput; }
+    
+    public long getPartialAggOutputRecords() { return partialAggOutput; }
+    
+    public long getPartialAggEvictions() { return partialAggEvictions; }
+    
     public long getHdfsBytesWritten() { return hdfsBytesWritten; }
     
     @SuppressWarnings("deprecation")
@@ -192,6 +224,61 @@ public final class JobStats extends Operator {
     public Map<String, Long> getMultiStoreCounters() {
         return Collections.unmodifiableMap(multiStoreCounters);
     }
+
+    /**
+     * Returns the runtime profiles of the physical operators of this job,
+     * by operator key. The profile of the load functions is under
+     * {@link OperatorProfiler#LOAD}. Empty unless the job was run with
+     * {@link OperatorProfiler#PROFILE} set.
+     */
+    public Map<String, OperatorProfile> getOperatorProfiles() {
+        return Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     * Returns the map and reduce plans of this job as explain prints them,
+     * with the profile of each operator at the end of its line, or null
+     * if the job was not profiled. The operators that are not part of the
+     * plans, the load functions and the package of the reduce, come first.
+     */
+    public String getProfiledPlan() {
+        if (profiles.isEmpty() || mro == null) {
+            return null;
+        }
+        Set<String> shown = new HashSet<String>();
+        StringBuilder plans = new StringBuilder();
+        appendProfiledPlan(plans, "Map Plan", mro.mapPlan, shown);
+        if (!mro.reducePlan.isEmpty()) {
+            appendProfiledPlan(plans, "Reduce Plan", mro.reducePlan, shown);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (OperatorProfile profile : profiles.values()) {
+            if (!shown.contains(profile.getKey())) {
+                sb.append(profile.getName()).append("\t[").append(profile)
+                        .append("]\n");
+            }
+        }
+        return sb.append(plans).toString();
+    }
+
+    private void appendProfiledPlan(StringBuilder sb, String title,
+            PhysicalPlan plan, Set<String> shown) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        plan.explain(baos);
+        sb.append(title).append("\n");
+        for (String line : baos.toString().split("\n")) {
+            sb.append(line);
+            Matcher m = OPERATOR_KEY.matcher(line);
+            if (m.find()) {
+                OperatorProfile profile = profiles.get(m.group(1));
+                if (profile != null) {
+                    sb.append("\t[").append(profile).append("]");
+                    shown.add(profile.getKey());
+                }
+            }
+            sb.append("\n");
+        }
+    }
        
     public String getAlias() {
         return (String)getAnnotation(ALIAS);
@@ -329,6 +416,11 @@ public final class JobStats extends Operator {
                 LOG.warn("Unable to get job counters", e);
             }
         }
+        addCounters(counters);
+    }
+
+    @SuppressWarnings("deprecation")
+    void addCounters(Counters counters) {
         if (counters != null) {
             Counters.Group taskgroup = counters
                     .getGroup(PigStatsUtil.TASK_COUNTER_GROUP);
@@ -358,6 +450,16 @@ public final class JobStats extends Operator {
                     PigCounters.PROACTIVE_SPILL_COUNT_BAGS).getCounter();
             activeSpillCountRecs = counters.findCounter(
                     PigCounters.PROACTIVE_SPILL_COUNT_RECS).getCounter();
+            spillBytes = counters.findCounter(
+                    PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_BYTES).getCounter();
+            spillMillis = counters.findCounter(
+                    PigCounters.SPILLABLE_MEMORY_MANAGER_SPILL_MILLIS).getCounter();
+            partialAggInput = counters.findCounter(
+                    PigCounters.PARTIAL_AGG_INPUT_RECORDS).getCounter();
+            partialAggOutput = counters.findCounter(
+                    PigCounters.PARTIAL_AGG_OUTPUT_RECORDS).getCounter();
+            partialAggEvictions = counters.findCounter(
+                    PigCounters.PARTIAL_AGG_EVICTIONS).getCounter();
 
             Iterator<Counter> iter = multistoregroup.iterator();
             while (iter.hasNext()) {
@@ -420,6 +522,18 @@ public final class JobStats extends Operator {
     void setAlias(MapReduceOper mro) {       
         annotate(ALIAS, ScriptState.get().getAlias(mro));             
         annotate(FEATURE, ScriptState.get().getPigFeature(mro));
+        this.mro = mro;
+    }
+
+    void addOperatorProfiles() {
+        if (conf == null) {
+            return;
+        }
+        try {
+            profiles = OperatorProfiler.read(conf);
+        } catch (IOException e) {
+            LOG.warn("Failed to read the profiles of the operators", e);
+        }
     }
     
     void addOutputStatistics() {
@@ -17,6 +17,9 @@
  */
 package org.apache.pig.tools.pigstats;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -42,6 +45,8 @@ import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOpe
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.NativeMapReduceOper;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROpPlanVisitor;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
 import org.apache.pig.classification.InterfaceAudience;
 import org.apache.pig.classification.InterfaceStability;
 import org.apache.pig.impl.PigContext;
@@ -68,6 +73,12 @@ public final class PigStats {
     private static final Log LOG = LogFactory.getLog(PigStats.class);
     
     private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";  
+
+    /**
+     * The columns of the file {@link OperatorProfiler#OUTPUT} names
+     */
+    public static final String OPERATOR_PROFILE_HEADER = "JobId\tOperator\t"
+            + "Calls\tRecordsIn\tRecordsOut\tTimeNanos\tBytes\tName";
     
     private static ThreadLocal<PigStats> tps = new ThreadLocal<PigStats>();
     
@@ -366,6 +377,83 @@ public final class PigStats {
         return ret;
     }
     
+    /**
+     * Returns the total bytes spilled by {@link SpillableMemoryManager}.
+     */
+    public long getSMMSpillBytes() {
+        Iterator<JobStats> it = jobPlan.iterator();
+        long ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().getSMMSpillBytes();
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the total time in milliseconds {@link SpillableMemoryManager}
+     * spent spilling.
+     */
+    public long getSMMSpillMillis() {
+        Iterator<JobStats> it = jobPlan.iterator();
+        long ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().getSMMSpillMillis();
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the total number of records read by map side partial
+     * aggregation.
+     */
+    public long getPartialAggInputRecords() {
+        Iterator<JobStats> it = jobPlan.iterator();
+        long ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().getPartialAggInputRecords();
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the total number of records of aggregated partials written
+     * by map side partial aggregation.
+     */
+    public long getPartialAggOutputRecords() {
+        Iterator<JobStats> it = jobPlan.iterator();
+        long ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().getPartialAggOutputRecords();
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the number of times a partial aggregation table was full
+     * and emptied before the end of its input.
+     */
+    public long getPartialAggEvictions() {
+        Iterator<JobStats> it = jobPlan.iterator();
+        long ret = 0;
+        while (it.hasNext()) {
+            ret += it.next().getPartialAggEvictions();
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns the fraction of the records read by map side partial
+     * aggregation that were aggregated into the partials of an earlier
+     * record, 0 if there was no partial aggregation.
+     */
+    public double getPartialAggHitRate() {
+        long input = getPartialAggInputRecords();
+        if (input == 0) {
+            return 0;
+        }
+        return 1 - (double)getPartialAggOutputRecords() / input;
+    }
+    
     /**
      * Returns the total number of bags that spilled proactively
      */
@@ -567,7 +655,7 @@ public final class PigStats {
  
         // currently counters are not working in local mode - see PIG-1286
         ExecType execType = pigContext.getExecType();
-        if (execType == ExecType.LOCAL) {
+        if (execType.isLocal()) {
             LOG.info("Detected Local mode. Stats reported below may be incomplete");
         }
         
@@ -592,16 +680,27 @@ public final class PigStats {
         if (returnCode == ReturnCode.SUCCESS 
                 || returnCode == ReturnCode.PARTIAL_FAILURE) {            
             sb.append("Job Stats (time in seconds):\n");
-            if (execType == ExecType.LOCAL) {
+            if (execType.isLocal()) {
                 sb.append(JobStats.SUCCESS_HEADER_LOCAL).append("\n");
             } else {
                 sb.append(JobStats.SUCCESS_HEADER).append("\n");
             }
             List<JobStats> arr = jobPlan.getSuccessfulJobs();
             for (JobStats js : arr) {                
-                sb.append(js.getDisplayString(execType == ExecType.LOCAL));
+                sb.append(js.getDisplayString(execType.isLocal()));
             }
             sb.append("\n");
+            boolean profiled = false;
+            for (JobStats js : arr) {
+                String plan = js.getProfiledPlan();
+                if (plan != null) {
+                    if (!profiled) {
+                        sb.append("Operator Profiles (self time, estimated from sampled records):\n");
+                        profiled = true;
+                    }
+                    sb.append(js.getJobId()).append(":\n").append(plan).append("\n");
+                }
+            }
         }
         if (returnCode == ReturnCode.FAILURE
                 || returnCode == ReturnCode.PARTIAL_FAILURE) {
@@ -609,30 +708,44 @@ public final class PigStats {
             sb.append(JobStats.FAILURE_HEADER).append("\n");
             List<JobStats> arr = jobPlan.getFailedJobs();
             for (JobStats js : arr) {   
-                sb.append(js.getDisplayString(execType == ExecType.LOCAL));
+                sb.append(js.getDisplayString(execType.isLocal()));
             }
             sb.append("\n");
         }
         sb.append("Input(s):\n");
         for (InputStats is : getInputStats()) {
-            sb.append(is.getDisplayString(execType == ExecType.LOCAL));
+            sb.append(is.getDisplayString(execType.isLocal()));
         }
         sb.append("\n");
         sb.append("Output(s):\n");
         for (OutputStats ds : getOutputStats()) {
-            sb.append(ds.getDisplayString(execType == ExecType.LOCAL));
+            sb.append(ds.getDisplayString(execType.isLocal()));
         }
         
-        if (execType != ExecType.LOCAL) {
+        if (!execType.isLocal()) {
             sb.append("\nCounters:\n");
             sb.append("Total records written : " + getRecordWritten()).append("\n");
             sb.append("Total bytes written : " + getBytesWritten()).append("\n");
             sb.append("Spillable Memory Manager spill count : "
                     + getSMMSpillCount()).append("\n");
+            sb.append("Spillable Memory Manager bytes spilled : "
+                    + getSMMSpillBytes()).append("\n");
+            sb.append("Spillable Memory Manager spill time (ms) : "
+                    + getSMMSpillMillis()).append("\n");
             sb.append("Total bags proactively spilled: " 
                     + getProactiveSpillCountObjects()).append("\n");
             sb.append("Total records proactively spilled: " 
                     + getProactiveSpillCountRecords()).append("\n");
+            if (getPartialAggInputRecords() > 0) {
+                sb.append("Partial aggregation records read : "
+                        + getPartialAggInputRecords()).append("\n");
+                sb.append("Partial aggregation records written : "
+                        + getPartialAggOutputRecords()).append("\n");
+                sb.append("Partial aggregation hit rate : "
+                        + String.format("%.3f", getPartialAggHitRate())).append("\n");
+                sb.append("Partial aggregation tables emptied : "
+                        + getPartialAggEvictions()).append("\n");
+            }
         }
         
         sb.append("\nJob DAG:\n").append(jobPlan.toString());
@@ -640,6 +753,41 @@ public final class PigStats {
         LOG.info("Script Statistics: \n" + sb.toString());
     }
     
+    /**
+     * Writes the profiles of the operators of the jobs that succeeded to
+     * the file {@link OperatorProfiler#OUTPUT} names, if any, one operator
+     * per line
+     */
+    void writeOperatorProfiles() {
+        String file = (pigContext == null) ? null : pigContext
+                .getProperties().getProperty(OperatorProfiler.OUTPUT);
+        if (file == null) {
+            return;
+        }
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new FileWriter(file));
+            out.println(OPERATOR_PROFILE_HEADER);
+            for (JobStats js : jobPlan.getSuccessfulJobs()) {
+                for (OperatorProfile profile : js.getOperatorProfiles().values()) {
+                    out.println(js.getJobId() + "\t" + profile.getKey() + "\t"
+                            + profile.getCalls() + "\t"
+                            + profile.getRecordsIn() + "\t"
+                            + profile.getRecordsOut() + "\t"
+                            + profile.getNanos() + "\t"
+                            + profile.getBytes() + "\t" + profile.getName());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write the profiles of the operators to "
+                    + file, e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
     @SuppressWarnings("deprecation")
     void mapMROperToJob(MapReduceOper mro, Job job) {
         if (mro == null) {
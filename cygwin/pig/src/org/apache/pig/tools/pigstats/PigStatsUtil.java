@@ -21,6 +21,7 @@ package org.apache.pig.tools.pigstats;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -186,6 +187,7 @@ public abstract class PigStatsUtil {
         }
         ScriptState.get().emitLaunchCompletedNotification(
                 ps.getNumberSuccessfulJobs());
+        ps.writeOperatorProfiles();
         if (display) ps.display();
     }
     
@@ -239,17 +241,33 @@ public abstract class PigStatsUtil {
      * @param jc the job control
      */
     public static void accumulateStats(JobControl jc) {
+        accumulateStats(jc.getSuccessfulJobs(), jc.getFailedJobs(), null);
+    }
+    
+    /**
+     * Updates the statistics after a patch of jobs is done. Used when the
+     * jobs did not run on a job tracker, which could not be asked for 
+     * their counters.
+     * 
+     * @param succeededJobs the jobs that succeeded
+     * @param failedJobs the jobs that failed
+     * @param counters the counters of the succeeded jobs, or null to get 
+     *          them from the job client
+     */
+    public static void accumulateStats(List<Job> succeededJobs,
+            List<Job> failedJobs, Map<Job, Counters> counters) {
         PigStats ps = PigStats.get();
         ScriptState ss = ScriptState.get();
         
-        for (Job job : jc.getSuccessfulJobs()) {            
-            JobStats js = accumulateSuccessStatistics(ps, job);
+        for (Job job : succeededJobs) {            
+            JobStats js = accumulateSuccessStatistics(ps, job,
+                    (counters == null) ? null : counters.get(job));
             if (js != null) {
                 ss.emitjobFinishedNotification(js);
             }
         }
         
-        for (Job job : jc.getFailedJobs()) {                      
+        for (Job job : failedJobs) {                      
             JobStats js = addFailedJobStats(ps, job);
             if (js != null) {
                 js.setErrorMsg(job.getMessage());    
@@ -287,6 +305,7 @@ public abstract class PigStatsUtil {
             js.setSuccessful(false);
             js.addOutputStatistics();
             js.addInputStatistics();
+            js.addOperatorProfiles();
         }
         return js;
     }
@@ -309,10 +328,20 @@ public abstract class PigStatsUtil {
         return js;
     }    
     
-    private static JobStats accumulateSuccessStatistics(PigStats ps, Job job) {
+    @SuppressWarnings("deprecation")
+    private static JobStats accumulateSuccessStatistics(PigStats ps, Job job,
+            Counters counters) {
         JobStats js = ps.addJobStats(job);
         if (js == null) {
             LOG.warn("unable to add job stats");
+        } else if (counters != null) {
+            js.setSuccessful(true);
+            
+            js.addCounters(counters);
+            
+            js.addOutputStatistics();
+            
+            js.addInputStatistics();
         } else {                
             js.setSuccessful(true);
                            
@@ -336,6 +365,9 @@ public abstract class PigStatsUtil {
             
             js.addInputStatistics();
         }
+        if (js != null) {
+            js.addOperatorProfiles();
+        }
         return js;
     }
 
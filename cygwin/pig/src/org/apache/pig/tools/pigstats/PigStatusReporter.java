@@ -32,10 +32,19 @@ public class PigStatusReporter extends StatusReporter implements Progressable {
 
     private TaskInputOutputContext context;
     private static PigStatusReporter reporter = null;
+    // the reporter of the task run by the current thread, as tasks of
+    // several jobs may run at once in one JVM
+    private static final ThreadLocal<PigStatusReporter> taskReporter =
+        new ThreadLocal<PigStatusReporter>();
     /**
-     * Get singleton instance of the context
+     * Get singleton instance of the context, the one of the task run by
+     * the current thread if there is one
      */
     public static PigStatusReporter getInstance() {
+        PigStatusReporter rep = taskReporter.get();
+        if (rep != null) {
+            return rep;
+        }
         if (reporter == null) {
             reporter = new PigStatusReporter(null);
         }
@@ -44,6 +53,23 @@ public class PigStatusReporter extends StatusReporter implements Progressable {
     
     public static void setContext(TaskInputOutputContext context) {
         reporter = new PigStatusReporter(context);
+        taskReporter.set(reporter);
+    }
+
+    /**
+     * Makes the current thread report to the reporter of a task it works
+     * for. Internal pig use only.
+     */
+    public static void setInstance(PigStatusReporter rep) {
+        taskReporter.set(rep);
+    }
+
+    /**
+     * Forgets the context of the task run by the current thread, once the
+     * task is done. Internal pig use only.
+     */
+    public static void removeContext() {
+        taskReporter.remove();
     }
     
     private PigStatusReporter(TaskInputOutputContext context) {
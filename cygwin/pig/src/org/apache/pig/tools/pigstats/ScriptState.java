@@ -224,6 +224,15 @@ public class ScriptState {
         }
     }
     
+    public void emitJobProgressNotification(String assignedJobId, int progress) {
+        for (PigProgressNotificationListener listener: listeners) {
+            if (listener instanceof JobProgressNotificationListener) {
+                ((JobProgressNotificationListener)listener)
+                        .jobProgressNotification(assignedJobId, progress);
+            }
+        }
+    }
+    
     public void emitjobFinishedNotification(JobStats jobStats) {
         for (PigProgressNotificationListener listener: listeners) {
             listener.jobFinishedNotification(jobStats);
@@ -330,11 +339,27 @@ public class ScriptState {
         } catch (VisitorException e) {
             LOG.warn("unable to get script feature", e);
         }
-        scriptFeatures = bitSetToLong(bs);        
+        setScriptFeatures(bitSetToLong(bs));
+    }
+
+    /**
+     * Sets the features of a script whose logical plan is not compiled,
+     * such as a script whose map reduce plan is cached.
+     * @param features the features found by {@link #setScriptFeatures(LogicalPlan)}
+     */
+    public void setScriptFeatures(long features) {
+        scriptFeatures = features;
         
         LOG.info("Pig features used in the script: "
                 + featureLongToString(scriptFeatures));
     }
+
+    /**
+     * @return the features of the script as a bit mask
+     */
+    public long getScriptFeatureBits() {
+        return scriptFeatures;
+    }
     
     public String getHadoopVersion() {
         if (hodoopVersion == null) {
@@ -72,10 +72,18 @@ public void print(PrintStream out)
     out.println(".");
 }
 
+/**
+ * @return total time the timer ran, in nanoseconds.
+ */
+public long getNanos()
+{
+    return mNanosecs;
+}
+
 /**
  * @param name Name of this timer.
  */
-PerformanceTimer(String name)
+public PerformanceTimer(String name)
 {
     mNanosecs = 0;
     mStarts = 0;
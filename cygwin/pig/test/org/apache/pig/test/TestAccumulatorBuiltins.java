@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.Accumulator;
+import org.apache.pig.EvalFunc;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POAccumulativePackage;
+import org.apache.pig.builtin.BagSize;
+import org.apache.pig.builtin.COR;
+import org.apache.pig.builtin.COV;
+import org.apache.pig.builtin.DIFF;
+import org.apache.pig.builtin.Distinct;
+import org.apache.pig.builtin.TOP;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+/**
+ * Checks that the built-in functions give the same results in
+ * accumulative mode, whatever the chunks the tuples of a group come in.
+ */
+public class TestAccumulatorBuiltins extends TestCase {
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private BagFactory bf = BagFactory.getInstance();
+
+    private Tuple tuple(Object... fields) throws Exception {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    /**
+     * Gives the bags of the input to the function in chunks of chunk
+     * tuples, as an accumulative reduce would
+     */
+    @SuppressWarnings("unchecked")
+    private Object accumulate(EvalFunc<?> func, Tuple input, int chunk)
+            throws Exception {
+        Accumulator<Object> acc = (Accumulator<Object>)func;
+        int longest = 0;
+        for (Object o : input.getAll()) {
+            if (o instanceof DataBag) {
+                longest = Math.max(longest, (int)((DataBag)o).size());
+            }
+        }
+        for (int start = 0; start == 0 || start < longest; start += chunk) {
+            Tuple part = tf.newTuple(input.size());
+            for (int i = 0; i < input.size(); i++) {
+                Object o = input.get(i);
+                if (o instanceof DataBag) {
+                    DataBag b = bf.newDefaultBag();
+                    int n = 0;
+                    for (Tuple t : (DataBag)o) {
+                        if (n >= start && n < start + chunk) {
+                            b.add(t);
+                        }
+                        n++;
+                    }
+                    o = b;
+                }
+                part.set(i, o);
+            }
+            acc.accumulate(part);
+        }
+        Object result = acc.getValue();
+        acc.cleanup();
+        return result;
+    }
+
+    private void check(EvalFunc<?> func, Tuple input) throws Exception {
+        Object expected = func.exec(input);
+        for (int chunk : new int[] { 1, 3, 1000 }) {
+            assertEquals(expected, accumulate(func, input, chunk));
+        }
+        // state does not carry over to the next group
+        assertEquals(expected, accumulate(func, input, 2));
+    }
+
+    private DataBag bag(Object... values) throws Exception {
+        DataBag b = bf.newDefaultBag();
+        for (Object v : values) {
+            b.add(tuple(v));
+        }
+        return b;
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        check(new DIFF(), tuple(bag(1, 2, 3, 4, 5, 6), bag(2, 4, 7)));
+        check(new DIFF(), tuple(bag(), bag(1)));
+        check(new DIFF(), tuple("a", "b"));
+        check(new DIFF(), tuple("a", "a"));
+    }
+
+    @Test
+    public void testDistinct() throws Exception {
+        check(new Distinct(), tuple(bag(1, 2, 1, 3, 2, 1, 5)));
+        check(new Distinct(), tuple(bag()));
+    }
+
+    @Test
+    public void testTop() throws Exception {
+        DataBag b = bf.newDefaultBag();
+        for (int i = 0; i < 20; i++) {
+            b.add(tuple("k" + i, (i * 7) % 13));
+        }
+        TOP top = new TOP();
+        Tuple input = tuple(4, 1, b);
+        DataBag expected = top.exec(input);
+        for (int chunk : new int[] { 1, 3, 1000 }) {
+            // ties may come out in any order
+            assertEquals(sorted(expected), sorted((DataBag)accumulate(top, input, chunk)));
+        }
+    }
+
+    private List<Tuple> sorted(DataBag b) {
+        List<Tuple> l = new ArrayList<Tuple>();
+        for (Tuple t : b) {
+            l.add(t);
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    @Test
+    public void testSize() throws Exception {
+        check(new BagSize(), tuple(bag(1, 2, 3, 4, 5, 6, 7)));
+        check(new BagSize(), tuple(bag()));
+    }
+
+    @Test
+    public void testCovCor() throws Exception {
+        Tuple input = tuple(bag(1.0, 2.0, 4.0, 7.0, 3.0),
+                bag(2.0, 1.0, 8.0, 6.0, 5.0), bag(0.5, 1.5, 1.0, 3.0, 2.5));
+        check(new COV(), input);
+        check(new COR(), input);
+    }
+
+    private List<String> run(boolean accumulative, String batchSize, File f)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty("opt.accumulator", Boolean.toString(accumulative));
+        props.setProperty(POAccumulativePackage.BATCH_SIZE, batchSize);
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '" + Util.encodeEscape(f.getAbsolutePath())
+                + "' as (k:int, x:double, y:double);");
+        pigServer.registerQuery("define Dist org.apache.pig.builtin.Distinct();");
+        pigServer.registerQuery("B = group A by k;");
+        pigServer.registerQuery("C = foreach B generate group, SIZE(A), "
+                + "COV(A.x, A.y), COR(A.x, A.y), TOP(2, 1, A);");
+        pigServer.registerQuery("D = foreach B generate group, "
+                + "DIFF(A.x, A.y), Dist(A.k);");
+        List<String> results = new ArrayList<String>();
+        for (String alias : new String[] { "C", "D" }) {
+            Iterator<Tuple> iter = pigServer.openIterator(alias);
+            while (iter.hasNext()) {
+                results.add(alias + iter.next().toString());
+            }
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    @Test
+    public void testAccumulativeReduce() throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < 500; i++) {
+            pw.println((i % 5) + "\t" + i + "\t" + ((i * 37) % 101));
+        }
+        pw.close();
+        f.deleteOnExit();
+        List<String> expected = run(false, "20000", f);
+        assertEquals(10, expected.size());
+        assertEquals(expected, run(true, "20000", f));
+        assertEquals(expected, run(true, "7", f));
+    }
+}
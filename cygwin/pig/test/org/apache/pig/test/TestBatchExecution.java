@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapBase;
+import org.apache.pig.data.Tuple;
+import org.junit.Test;
+
+/**
+ * Checks that map plans run a batch of tuples at a time produce the same
+ * results as when they are run a tuple at a time.
+ */
+public class TestBatchExecution extends TestCase {
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> run(String batchSize, String[] queries, String alias)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PigMapBase.BATCH_SIZE, batchSize);
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        for (String query : queries) {
+            pigServer.registerQuery(query);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    private void compare(String[] queries, String alias) throws Exception {
+        List<String> expected = run("0", queries, alias);
+        // a batch size that does not divide the input evenly
+        List<String> actual = run("7", queries, alias);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    private File createData() throws Exception {
+        String[] data = new String[100];
+        for (int i = 0; i < data.length; i++) {
+            // every 10th row has an empty num, every 13th a zero den
+            data[i] = "k" + (i % 5) + "\t" + ((i % 10 == 0) ? "" : i) + "\t"
+                    + (i % 13) + "\t" + (i * 1.5);
+        }
+        return createFile(data);
+    }
+
+    private String load(File f) {
+        return "a = load '" + Util.encodeEscape(f.getAbsolutePath())
+                + "' as (name:chararray, num:int, den:long, d:double);";
+    }
+
+    @Test
+    public void testFilterForEach() throws Exception {
+        File f = createData();
+        compare(new String[] {
+                load(f),
+                "b = filter a by num >= 20;",
+                "c = foreach b generate name, num + 1, num - den, num * d, "
+                        + "num / den, num % (den + 1L), d / 2.0;",
+                "d = filter c by $1 != 50;" }, "d");
+    }
+
+    @Test
+    public void testComparisons() throws Exception {
+        File f = createData();
+        String[] conditions = new String[] { "num > den", "num <= 90",
+                "d >= 20.0", "name != 'k2'", "den < 12L", "name == 'k3'" };
+        for (String condition : conditions) {
+            compare(new String[] {
+                    load(f),
+                    "b = filter a by " + condition + ";" }, "b");
+        }
+    }
+
+    @Test
+    public void testMalformedCasts() throws Exception {
+        // malformed numbers are cast to null, not failed on
+        File f = createFile(new String[] { "k1\t12\t2.5", "k2\tabc\tx1",
+                "k3\t\t7", "k4\t1.5e\t-3" });
+        compare(new String[] {
+                "a = load '" + Util.encodeEscape(f.getAbsolutePath())
+                        + "' as (name:chararray, s:chararray, t:chararray);",
+                "b = foreach a generate name, (int)s as i, (long)s as l, "
+                        + "(double)t as d, (float)t as f;" }, "b");
+        List<String> actual = run("7", new String[] {
+                "a = load '" + Util.encodeEscape(f.getAbsolutePath())
+                        + "' as (name:chararray, s:chararray);",
+                "b = foreach a generate name, (int)s;" }, "b");
+        assertEquals("[(k1,12), (k2,), (k3,), (k4,)]", actual.toString());
+    }
+
+    @Test
+    public void testUnsupportedOperatorsAndReduce() throws Exception {
+        File f = createData();
+        // the and is not evaluated a batch at a time, the group consumes
+        // the output of the batch part of the plan one tuple at a time
+        compare(new String[] {
+                load(f),
+                "b = foreach a generate name, num * 2 as n;",
+                "c = filter b by n > 10 and n < 150;",
+                "d = group c by name;",
+                "e = foreach d generate group, COUNT(c), SUM(c.n);" }, "e");
+    }
+}
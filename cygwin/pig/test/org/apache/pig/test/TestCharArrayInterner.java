@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.builtin.Utf8StorageConverter;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.BinInterSedes;
+import org.apache.pig.data.CharArrayInterner;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.PrimitiveTuple;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the sharing of repeated chararrays, and the bags written with
+ * references to their repeated chararrays.
+ */
+public class TestCharArrayInterner extends TestCase {
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private BagFactory bf = BagFactory.getInstance();
+
+    private InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private Configuration savedConf;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        savedConf = PigMapReduce.sJobConf;
+        setConf(true, false);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        PigMapReduce.sJobConf = savedConf;
+    }
+
+    private void setConf(boolean intern, boolean primitive) {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(CharArrayInterner.INTERN, intern);
+        conf.setBoolean(PrimitiveTuple.PRIMITIVE_TUPLES, primitive);
+        PigMapReduce.sJobConf = conf;
+    }
+
+    private Tuple tuple(Object... fields) throws Exception {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    private byte[] serialize(Object o) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        sedes.writeDatum(new DataOutputStream(bos), o);
+        return bos.toByteArray();
+    }
+
+    private Object deserialize(byte[] b) throws Exception {
+        return sedes.readDatum(new DataInputStream(new ByteArrayInputStream(b)));
+    }
+
+    @Test
+    public void testIntern() throws Exception {
+        byte[] b = "xxDPC-0401yy".getBytes("UTF-8");
+        String s = CharArrayInterner.intern(b, 2, 8);
+        assertEquals("DPC-0401", s);
+        assertSame(s, CharArrayInterner.intern("DPC-0401".getBytes("UTF-8"), 0, 8));
+        assertEquals("DPC-0402", CharArrayInterner.intern("DPC-0402".getBytes("UTF-8"), 0, 8));
+        assertEquals("", CharArrayInterner.intern(new byte[0], 0, 0));
+        byte[] jp = "病院コード".getBytes("UTF-8");
+        assertEquals("病院コード", CharArrayInterner.intern(jp, 0, jp.length));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append((char)('a' + i % 26));
+        }
+        byte[] longer = sb.toString().getBytes("UTF-8");
+        assertEquals(sb.toString(), CharArrayInterner.intern(longer, 0, longer.length));
+    }
+
+    @Test
+    public void testLoadCaster() throws Exception {
+        Utf8StorageConverter caster = new Utf8StorageConverter();
+        String s1 = caster.bytesToCharArray("H0142".getBytes("UTF-8"));
+        String s2 = caster.bytesToCharArray("H0142".getBytes("UTF-8"));
+        assertEquals("H0142", s1);
+        assertSame(s1, s2);
+        setConf(false, false);
+        s2 = caster.bytesToCharArray("H0142".getBytes("UTF-8"));
+        assertEquals(s1, s2);
+        assertNotSame(s1, s2);
+    }
+
+    private DataBag createBag(int rows, int words) throws Exception {
+        DataBag bag = bf.newDefaultBag();
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> m = new HashMap<String, Object>();
+            m.put("ward", "W" + (i % 3));
+            DataBag inner = bf.newDefaultBag();
+            inner.add(tuple("code" + (i % words), i));
+            inner.add(tuple("code" + (i % words), "K\u0000" + (i % 2)));
+            bag.add(tuple("H" + (i % words), i, m, inner, null, "H" + (i % words)));
+        }
+        return bag;
+    }
+
+    @Test
+    public void testDictionaryBag() throws Exception {
+        for (int words : new int[] { 5, 500 }) {
+            DataBag bag = createBag(1000, words);
+            byte[] encoded = serialize(bag);
+            assertEquals(BinInterSedes.DICTIONARY_BAG, encoded[0]);
+            Object read = deserialize(encoded);
+            assertEquals(bag, read);
+            Iterator<Tuple> it = ((DataBag)read).iterator();
+            Tuple t1 = it.next();
+            // repeats within the bag are shared
+            assertSame(t1.get(0), t1.get(5));
+
+            setConf(false, false);
+            byte[] plain = serialize(bag);
+            assertEquals(BinInterSedes.SMALLBAG, plain[0]);
+            assertEquals(bag, deserialize(plain));
+            // bags written with references can be read by any task
+            assertEquals(bag, deserialize(encoded));
+            assertTrue(encoded.length < plain.length);
+            setConf(true, false);
+        }
+    }
+
+    @Test
+    public void testPrimitiveTuples() throws Exception {
+        setConf(true, true);
+        byte[] types = { DataType.CHARARRAY, DataType.INTEGER, DataType.CHARARRAY };
+        DataBag bag = bf.newDefaultBag();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = tf.newTupleForSchema(types);
+            t.set(0, "DPC" + (i % 4));
+            t.set(1, i);
+            t.set(2, "K\u0000" + (i % 2));
+            bag.add(t);
+            bag.add(tuple("DPC" + (i % 4), i, "K\u0000" + (i % 2)));
+        }
+        byte[] encoded = serialize(bag);
+        assertEquals(BinInterSedes.DICTIONARY_BAG, encoded[0]);
+        assertEquals(bag, deserialize(encoded));
+        setConf(true, false);
+        assertEquals(bag, deserialize(encoded));
+    }
+
+    @Test
+    public void testRawComparator() throws Exception {
+        BinInterSedes.BinInterSedesTupleRawComparator comparator =
+            new BinInterSedes.BinInterSedesTupleRawComparator();
+        comparator.setConf(new JobConf());
+        Tuple[] tuples = {
+                tuple("a", createBag(10, 3)),
+                tuple("a", createBag(10, 4)),
+                tuple("a", createBag(11, 3)),
+                tuple("b", createBag(10, 3)),
+                tuple("a", bf.newDefaultBag()) };
+        for (Tuple t1 : tuples) {
+            for (Tuple t2 : tuples) {
+                byte[] b1 = serialize(t1);
+                byte[] b2 = serialize(t2);
+                assertEquals(Math.signum(t1.compareTo(t2)), Math.signum(
+                        comparator.compare(b1, 0, b1.length, b2, 0, b2.length)));
+            }
+        }
+    }
+}
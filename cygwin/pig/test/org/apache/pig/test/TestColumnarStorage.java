@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.ColumnarRecordReader;
+import org.apache.pig.impl.io.ColumnarRecordWriter;
+import org.junit.Test;
+
+/**
+ * Checks that tuples written with {@link ColumnarRecordWriter} are read back
+ * unchanged, whole or by column, and that scripts give the same results
+ * with columnar temp files.
+ */
+public class TestColumnarStorage extends TestCase {
+
+    private static TupleFactory tf = TupleFactory.getInstance();
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("columnar", "");
+        file.deleteOnExit();
+    }
+
+    private List<Tuple> makeTuples(int n) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            // the width varies, and the last columns only come now and then
+            Tuple t = tf.newTuple(i % 7 == 0 ? 7 : 5);
+            t.set(0, i % 3 == 0 ? null : i);                    // plain
+            t.set(1, 1290000000000L + i * 1000L);               // delta
+            t.set(2, "cat" + (i % 10));                         // dictionary
+            t.set(3, i / 500);                                  // run length
+            t.set(4, new DataByteArray("b" + i));
+            if (t.size() > 5) {
+                DataBag bag = BagFactory.getInstance().newDefaultBag();
+                bag.add(tf.newTuple((Object)("x" + i)));
+                t.set(5, bag);
+                Map<String, Object> m = new HashMap<String, Object>();
+                m.put("k", i);
+                t.set(6, m);
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private void write(List<Tuple> tuples, long rowGroupSize) throws Exception {
+        ColumnarRecordWriter writer = new ColumnarRecordWriter(
+                new DataOutputStream(new FileOutputStream(file)), rowGroupSize, 1);
+        for (Tuple t : tuples) {
+            writer.write(null, t);
+        }
+        writer.close(null);
+    }
+
+    private List<Tuple> read(long start, long length, boolean[] required)
+            throws Exception {
+        Configuration conf = new Configuration();
+        TaskAttemptContext ctx = new TaskAttemptContext(conf, new TaskAttemptID());
+        ColumnarRecordReader reader = new ColumnarRecordReader();
+        reader.setRequiredColumns(required);
+        reader.initialize(new FileSplit(new Path(file.toURI().toString()), start, length,
+                null), ctx);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (reader.nextKeyValue()) {
+            tuples.add(reader.getCurrentValue());
+        }
+        reader.close();
+        return tuples;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Tuple> tuples = makeTuples(5000);
+        write(tuples, 64 * 1024);
+        assertEquals(tuples, read(0, file.length(), null));
+    }
+
+    @Test
+    public void testSplits() throws Exception {
+        List<Tuple> tuples = makeTuples(5000);
+        write(tuples, 32 * 1024);
+        // every row group is read by exactly one of the splits
+        List<Tuple> all = new ArrayList<Tuple>();
+        long len = file.length();
+        long step = len / 5 + 1;
+        for (long start = 0; start < len; start += step) {
+            all.addAll(read(start, Math.min(step, len - start), null));
+        }
+        assertEquals(tuples, all);
+    }
+
+    @Test
+    public void testRequiredColumns() throws Exception {
+        List<Tuple> tuples = makeTuples(2000);
+        write(tuples, 64 * 1024);
+        List<Tuple> read = read(0, file.length(), new boolean[] { false, true, false, true });
+        assertEquals(tuples.size(), read.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple expected = tuples.get(i);
+            Tuple t = read.get(i);
+            assertEquals(expected.size(), t.size());
+            for (int c = 0; c < t.size(); c++) {
+                if (c == 1 || c == 3) {
+                    assertEquals(expected.get(c), t.get(c));
+                } else {
+                    assertNull(t.get(c));
+                }
+            }
+        }
+    }
+
+    private List<String> run(boolean columnar, File input) throws Exception {
+        Properties props = new Properties();
+        props.setProperty("pig.tmpfile.columnar", Boolean.toString(columnar));
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '" + Util.encodeEscape(input.getAbsolutePath())
+                + "' as (k:chararray, v:int, s:chararray);");
+        pigServer.registerQuery("B = group A by k;");
+        pigServer.registerQuery("C = foreach B generate group, SUM(A.v), COUNT(A), MAX(A.s);");
+        pigServer.registerQuery("B2 = group A by s;");
+        pigServer.registerQuery("C2 = foreach B2 generate group, SUM(A.v), COUNT(A), MAX(A.k);");
+        pigServer.registerQuery("D = union C, C2;");
+        pigServer.registerQuery("E = foreach D generate $0, $2;");
+        pigServer.registerQuery("F = order E by $0;");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pigServer.explain("F", new PrintStream(baos));
+        String plan = baos.toString();
+        assertEquals(plan, columnar, plan.contains("ColumnarStorage"));
+        // the union only reads the columns the foreach projects
+        assertEquals(plan, columnar, plan.contains("ColumnarStorage('0,2')"));
+
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator("F");
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        return results;
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        File input = File.createTempFile("columnarin", "");
+        input.deleteOnExit();
+        PrintWriter pw = new PrintWriter(input);
+        for (int i = 0; i < 3000; i++) {
+            pw.println("k" + (i % 113) + "\t" + i + "\ts" + (i % 4));
+        }
+        pw.close();
+        List<String> expected = run(false, input);
+        assertEquals(117, expected.size());
+        assertEquals(expected, run(true, input));
+    }
+}
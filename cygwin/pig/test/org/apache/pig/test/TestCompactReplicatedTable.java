@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.util.CompactReplicatedTable;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+/**
+ * Checks the compact tables used for the replicated inputs of fragment
+ * replicate joins, and that joins give the same results with them.
+ */
+public class TestCompactReplicatedTable extends TestCase {
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        cacheDir = File.createTempFile("frjoincache", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    private Tuple tuple(Object... fields) throws Exception {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        File f = new File(cacheDir, "table");
+        CompactReplicatedTable.Builder builder = new CompactReplicatedTable.Builder(f);
+        for (int i = 0; i < 10000; i++) {
+            // every key but 0 has i % 3 + 1 values
+            builder.add(tuple(i % 1000 * 3), tuple("v" + i, i));
+        }
+        builder.add(tuple("a"), tuple("x"));
+        builder.add(tuple(tuple(1, "b")), tuple("y"));
+        CompactReplicatedTable table = builder.finish();
+        assertEquals(1002, table.getNumKeys());
+
+        List<Tuple> values = table.get(tuple(21));
+        assertEquals(10, values.size());
+        for (int i = 0; i < values.size(); i++) {
+            // in the order they were added
+            assertEquals(tuple("v" + (7 + 1000 * i), 7 + 1000 * i), values.get(i));
+        }
+        // asked twice in a row
+        assertEquals(values, table.get(tuple(21)));
+        assertNull(table.get(tuple(22)));
+        assertNull(table.get(tuple(21L)));
+        assertEquals(tuple("x"), table.get(tuple("a")).get(0));
+        assertEquals(tuple("y"), table.get(tuple(tuple(1, "b"))).get(0));
+
+        // reopened from disk
+        table = CompactReplicatedTable.open(f);
+        assertEquals(10, table.get(tuple(2997)).size());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        File f = new File(cacheDir, "empty");
+        CompactReplicatedTable table = new CompactReplicatedTable.Builder(f).finish();
+        assertEquals(0, table.getNumKeys());
+        assertNull(table.get(tuple(1)));
+    }
+
+    @Test
+    public void testCacheFile() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(CompactReplicatedTable.CACHE_DIR, cacheDir.getPath());
+        File input = File.createTempFile("repl", "");
+        input.deleteOnExit();
+        PrintWriter pw = new PrintWriter(input);
+        pw.println("1\ta");
+        pw.close();
+
+        String source = CompactReplicatedTable.getSource(conf,
+                input.getPath(), "load");
+        File f1 = CompactReplicatedTable.getCacheFile(conf, source, "$0");
+        assertEquals(cacheDir, f1.getParentFile());
+        assertEquals(f1, CompactReplicatedTable.getCacheFile(conf,
+                CompactReplicatedTable.getSource(conf,
+                        "file:" + input.getAbsolutePath(), "load"), "$0"));
+        assertFalse(f1.equals(CompactReplicatedTable.getCacheFile(conf,
+                source, "$1")));
+        assertFalse(f1.equals(CompactReplicatedTable.getCacheFile(conf,
+                CompactReplicatedTable.getSource(conf, input.getPath(),
+                        "load, filter"), "$0")));
+
+        pw = new PrintWriter(input);
+        pw.println("1\ta");
+        pw.println("2\tb");
+        pw.close();
+        assertFalse(f1.equals(CompactReplicatedTable.getCacheFile(conf,
+                CompactReplicatedTable.getSource(conf, input.getPath(),
+                        "load"), "$0")));
+
+        assertNull(CompactReplicatedTable.getSource(conf,
+                input.getPath() + ".missing", "load"));
+    }
+
+    @Test
+    public void testTrimCache() throws Exception {
+        Configuration conf = new Configuration();
+        conf.set(CompactReplicatedTable.CACHE_DIR, cacheDir.getPath());
+        conf.setLong(CompactReplicatedTable.CACHE_SIZE, 250);
+        long now = System.currentTimeMillis();
+        File[] tables = new File[4];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = new File(cacheDir, "repl-" + i + ".tbl");
+            RandomAccessFile raf = new RandomAccessFile(tables[i], "rw");
+            raf.setLength(100);
+            raf.close();
+            // the first is the most recently used
+            tables[i].setLastModified(now - i * 10000);
+        }
+        File other = new File(cacheDir, "other");
+        other.createNewFile();
+
+        // the oldest table is kept when it was just built
+        CompactReplicatedTable.trimCache(conf, tables[3]);
+        assertTrue(tables[0].exists());
+        assertFalse(tables[1].exists());
+        assertFalse(tables[2].exists());
+        assertTrue(tables[3].exists());
+        assertTrue(other.exists());
+
+        CompactReplicatedTable.touch(tables[3]);
+        CompactReplicatedTable.trimCache(conf, null);
+        assertTrue(tables[3].exists());
+        assertTrue(tables[0].exists());
+        conf.setLong(CompactReplicatedTable.CACHE_SIZE, 150);
+        CompactReplicatedTable.trimCache(conf, null);
+        assertTrue(tables[3].exists());
+        assertFalse(tables[0].exists());
+    }
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> join(boolean compact, File left, File right)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(CompactReplicatedTable.COMPACT_FRJOIN,
+                Boolean.toString(compact));
+        props.setProperty(CompactReplicatedTable.CACHE_DIR, cacheDir.getPath());
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '" + Util.encodeEscape(left.getAbsolutePath())
+                + "' as (k:int, v:chararray);");
+        pigServer.registerQuery("B = load '" + Util.encodeEscape(right.getAbsolutePath())
+                + "' as (k:int, w:chararray);");
+        pigServer.registerQuery("C = join A by k, B by k using \"replicated\";");
+        // the replicated input is a temp file written by another job
+        pigServer.registerQuery("G = group B by k;");
+        pigServer.registerQuery("H = foreach G generate group as k, COUNT(B) as n;");
+        pigServer.registerQuery("E = join A by k, H by k using \"replicated\";");
+        pigServer.registerQuery("D = join A by k left outer, B by k using \"replicated\";");
+        List<String> results = new ArrayList<String>();
+        for (String alias : new String[] { "C", "D", "E" }) {
+            Iterator<Tuple> iter = pigServer.openIterator(alias);
+            while (iter.hasNext()) {
+                results.add(alias + iter.next().toString());
+            }
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        String[] left = new String[50];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = ((i % 7 == 0) ? "" : Integer.toString(i % 20)) + "\tl" + i;
+        }
+        String[] right = new String[30];
+        for (int i = 0; i < right.length; i++) {
+            right[i] = ((i % 11 == 0) ? "" : Integer.toString(i % 15)) + "\tr" + i;
+        }
+        File l = createFile(left);
+        File r = createFile(right);
+        List<String> expected = join(false, l, r);
+        assertEquals(0, cacheDir.list().length);
+        assertFalse(expected.isEmpty());
+        // the table of B is cached after the load it is copied from, the
+        // output of the group by is not
+        assertEquals(expected, join(true, l, r));
+        assertEquals(1, cacheDir.list().length);
+        File table = cacheDir.listFiles()[0];
+        long used = table.lastModified() - 10000;
+        table.setLastModified(used);
+        assertEquals(expected, join(true, l, r));
+        assertEquals(1, cacheDir.list().length);
+        assertTrue(table.lastModified() > used);
+
+        // a changed input gets another table
+        right[0] = "1\tr0";
+        PrintWriter pw = new PrintWriter(r);
+        for (String row : right) {
+            pw.println(row);
+        }
+        pw.close();
+        r.setLastModified(r.lastModified() + 2000);
+        expected = join(false, l, r);
+        assertEquals(expected, join(true, l, r));
+        assertEquals(2, cacheDir.list().length);
+    }
+}
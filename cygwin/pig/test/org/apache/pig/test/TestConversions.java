@@ -17,6 +17,7 @@
  */
 package org.apache.pig.test;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.Map;
@@ -25,6 +26,7 @@ import java.io.IOException;
 import org.apache.pig.ResourceSchema;
 import org.apache.pig.ResourceSchema.ResourceFieldSchema;
 import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.builtin.Utf8NumberParser;
 import org.apache.pig.builtin.Utf8StorageConverter;
 import org.apache.pig.test.utils.GenRandomData;
 import org.apache.pig.test.utils.TestHelper;
@@ -414,4 +416,66 @@ public class TestConversions extends TestCase {
         convertedTuple = ps.getLoadCaster().bytesToTuple(tuple.toString().getBytes(), rfs);
         assertNull("Invalid cast to long: " + tuple.get(0) + " -> " + convertedTuple.get(0), convertedTuple.get(0));
     }
+
+    @Test
+    public void testFastNumberParsing() throws IOException {
+        // the byte level parser either gives what the String based
+        // conversions give or leaves the value to them
+        String[] a = {"0", "-0", "+7", "12", "-2345", "2147483647", "-2147483648",
+                "2147483648", "-2147483649", "99999999999", "123456789012345678",
+                "1234567890123456789", "9223372036854775807", "0.5", ".5", "5.",
+                "-0.0", "1e10", "1E-5", "-2.5e+3", "3.4028235e38", "1.4e-45",
+                "4.9e-324", "1.7976931348623157e308", "0.1", "0.30000000000000004",
+                "123.456", "1.0000001", "16777217", "9007199254740993",
+                "", "-", "+", ".", "e5", "1e", "1e+", "1.2.3", "1-2", " 1", "1 ",
+                "1d", "1f", "1L", "0x10", "NaN", "Infinity", "-Infinity", "abc"};
+        for (int i = 0; i < 1000; i++) {
+            a = Arrays.copyOf(a, a.length + 3);
+            a[a.length - 3] = Integer.toString(r.nextInt());
+            a[a.length - 2] = Double.toString(r.nextDouble() * Math.pow(10, r.nextInt(40) - 20));
+            a[a.length - 1] = Float.toString(r.nextFloat() * r.nextInt(100000));
+        }
+        int parsed = 0;
+        for (String s : a) {
+            byte[] b = s.getBytes();
+            long l = Utf8NumberParser.parseInt(b, 0, b.length);
+            if (l != Utf8NumberParser.NOT_PARSED) {
+                assertEquals(s, Integer.valueOf(s).longValue(), l);
+                parsed++;
+            }
+            l = Utf8NumberParser.parseLong(b, 0, b.length);
+            if (l != Utf8NumberParser.NOT_PARSED) {
+                assertEquals(s, Long.valueOf(s).longValue(), l);
+            }
+            float f = Utf8NumberParser.parseFloat(b, 0, b.length);
+            if (!Float.isNaN(f)) {
+                assertEquals(s, Float.floatToIntBits(Float.valueOf(s)),
+                        Float.floatToIntBits(f));
+            }
+            double d = Utf8NumberParser.parseDouble(b, 0, b.length);
+            if (!Double.isNaN(d)) {
+                assertEquals(s, Double.doubleToLongBits(Double.valueOf(s)),
+                        Double.doubleToLongBits(d));
+                parsed++;
+            }
+
+            Double expected;
+            try {
+                expected = Double.valueOf(s);
+            } catch (NumberFormatException e) {
+                expected = null;
+            }
+            assertEquals(s, expected, ps.getLoadCaster().bytesToDouble(b));
+        }
+        // the common cases are not left to the String based conversions
+        assertTrue(parsed > a.length);
+        assertEquals(Long.valueOf(123456789012345678L),
+                ps.getLoadCaster().bytesToLong("123456789012345678L".getBytes()));
+        assertEquals(Float.valueOf(2.5f),
+                ps.getLoadCaster().bytesToFloat("2.5f".getBytes()));
+        assertEquals(Integer.valueOf(-12),
+                ps.getLoadCaster().bytesToInteger("-12.75".getBytes()));
+        assertNull(ps.getLoadCaster().bytesToInteger("12a".getBytes()));
+        assertNull(ps.getLoadCaster().bytesToLong("-".getBytes()));
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.newplan.logical.rules.CostBasedJoinOptimizer;
+import org.junit.Test;
+
+/**
+ * Checks that joins of a small input with a large one are turned into
+ * replicated joins, with the columns in the order of the script.
+ */
+public class TestCostBasedJoinOptimizer extends TestCase {
+
+    private File master;
+
+    private File facts;
+
+    @Override
+    protected void setUp() throws Exception {
+        // a small master and a larger file of facts referring to it
+        String[] rows = new String[10];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = "h" + i + "\thospital" + i;
+        }
+        master = createFile(rows);
+        rows = new String[500];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = "p" + i + "\th" + (i % 12) + "\t" + i;
+        }
+        facts = createFile(rows);
+    }
+
+    private File createFile(String[] rows) throws Exception {
+        File f = File.createTempFile("costjoin", "");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f);
+        for (String row : rows) {
+            pw.println(row);
+        }
+        pw.close();
+        return f;
+    }
+
+    private PigServer createServer(boolean costBased, long maxBytes)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(CostBasedJoinOptimizer.COST_BASED_JOIN,
+                String.valueOf(costBased));
+        props.setProperty(CostBasedJoinOptimizer.REPLICATED_MAX_BYTES,
+                String.valueOf(maxBytes));
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("m = load '"
+                + Util.encodeEscape(master.getAbsolutePath())
+                + "' as (code:chararray, name:chararray);");
+        pigServer.registerQuery("f = load '"
+                + Util.encodeEscape(facts.getAbsolutePath())
+                + "' as (patient:chararray, code:chararray, n:int);");
+        return pigServer;
+    }
+
+    private boolean isReplicated(PigServer pigServer, String alias)
+            throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        pigServer.explain(alias, new PrintStream(bos));
+        return bos.toString().contains("FRJoin");
+    }
+
+    private List<String> run(PigServer pigServer, String alias)
+            throws Exception {
+        List<String> results = new ArrayList<String>();
+        Iterator<?> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private void register(PigServer pigServer, String join) throws Exception {
+        for (String statement : join.split(";")) {
+            pigServer.registerQuery(statement + ";");
+        }
+        pigServer.registerQuery("r = filter j by n < 200;");
+    }
+
+    private void checkJoin(String join, long maxBytes, boolean replicated)
+            throws Exception {
+        PigServer pigServer = createServer(false, maxBytes);
+        register(pigServer, join);
+        assertFalse(isReplicated(pigServer, "r"));
+        List<String> expected = run(pigServer, "r");
+        pigServer.shutdown();
+        assertFalse(expected.isEmpty());
+
+        pigServer = createServer(true, maxBytes);
+        register(pigServer, join);
+        assertEquals(replicated, isReplicated(pigServer, "r"));
+        assertEquals(expected, run(pigServer, "r"));
+        pigServer.shutdown();
+    }
+
+    @Test
+    public void testInnerJoin() throws Exception {
+        long maxBytes = master.length();
+        // the small input first, the inputs are swapped
+        checkJoin("j = join m by code, f by code;", maxBytes, true);
+        checkJoin("j = join f by code, m by code;", maxBytes, true);
+        // both inputs are too large
+        checkJoin("j = join m by code, f by code;", maxBytes - 1, false);
+        // the join type is given
+        checkJoin("j = join f by code, m by code using 'hash';", maxBytes, false);
+    }
+
+    @Test
+    public void testOuterJoin() throws Exception {
+        long maxBytes = master.length();
+        checkJoin("j = join f by code left outer, m by code;", maxBytes, true);
+        checkJoin("j = join m by code right outer, f by code;", maxBytes, true);
+        // the facts would have to be replicated
+        checkJoin("j = join m by code left outer, f by code;", maxBytes, false);
+        checkJoin("j = join m by code full outer, f by code;", maxBytes, false);
+    }
+
+    @Test
+    public void testDerivedInputs() throws Exception {
+        long maxBytes = master.length();
+        // filters and projections do not grow their input
+        checkJoin("m2 = filter m by code != 'h3'; j = join m2 by code, f by code;",
+                maxBytes, true);
+        // the size of a group is not known, it can only be the fragment
+        String counts = "g = group f by code; f2 = foreach g generate "
+                + "group as code, COUNT(f) as n;";
+        checkJoin(counts + "j = join f2 by code, m by code;", maxBytes, true);
+        checkJoin(counts + "j = join m by code, f2 by code;", maxBytes, true);
+        checkJoin(counts + "f3 = foreach f generate patient, code;"
+                + "j = join f2 by code, f3 by code;", maxBytes, false);
+    }
+
+    @Test
+    public void testBinStorageInput() throws Exception {
+        // BinStorage keeps no statistics, the size of its files is used
+        File bin = File.createTempFile("costjoinbin", "");
+        bin.delete();
+        try {
+            PigServer pigServer = createServer(false, 0);
+            pigServer.store("m", bin.getAbsolutePath(), "BinStorage()");
+            pigServer.shutdown();
+            long maxBytes = 0;
+            for (File part : bin.listFiles()) {
+                if (part.getName().startsWith("part-")) {
+                    maxBytes += part.length();
+                }
+            }
+            assertTrue(maxBytes < facts.length());
+            String load = "b = load '" + Util.encodeEscape(bin.getAbsolutePath())
+                    + "' using BinStorage() as (code:chararray, name:chararray);";
+            checkJoin(load + "j = join f by code, b by code;", maxBytes, true);
+        } finally {
+            Util.deleteDirectory(bin);
+        }
+    }
+}
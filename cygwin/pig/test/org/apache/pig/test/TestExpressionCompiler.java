@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Add;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.CompiledExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionCompiler;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ExpressionOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.junit.Test;
+
+/**
+ * Checks that compiled expressions evaluate to the same values as the
+ * interpreted expression plans.
+ */
+public class TestExpressionCompiler extends TestCase {
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> run(boolean compile, String[] queries, String alias)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ExpressionCompiler.COMPILE_EXPRESSIONS,
+                Boolean.toString(compile));
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        for (String query : queries) {
+            pigServer.registerQuery(query);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    private void compare(String[] queries, String alias) throws Exception {
+        List<String> expected = run(false, queries, alias);
+        List<String> actual = run(true, queries, alias);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    private String load() throws Exception {
+        String[] data = new String[100];
+        for (int i = 0; i < data.length; i++) {
+            // every 10th row has an empty num, every 13th a zero den, every
+            // 7th an empty name
+            data[i] = ((i % 7 == 0) ? "" : "k" + (i % 5)) + "\t"
+                    + ((i % 10 == 0) ? "" : i) + "\t" + (i % 13) + "\t"
+                    + (i * 1.5) + "\t" + (i % 3);
+        }
+        File f = createFile(data);
+        return "a = load '" + Util.encodeEscape(f.getAbsolutePath())
+                + "' as (name:chararray, num:int, den:long, d:double, raw);";
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        // $0 + 5 > 10
+        POProject prj = new POProject(new OperatorKey("", 1L), -1, 0);
+        prj.setResultType(DataType.INTEGER);
+        ConstantExpression five = new ConstantExpression(new OperatorKey("", 2L));
+        five.setValue(5);
+        five.setResultType(DataType.INTEGER);
+        Add add = new Add(new OperatorKey("", 3L));
+        add.setLhs(prj);
+        add.setRhs(five);
+        add.setResultType(DataType.INTEGER);
+        ConstantExpression ten = new ConstantExpression(new OperatorKey("", 4L));
+        ten.setValue(10);
+        ten.setResultType(DataType.INTEGER);
+        GreaterThanExpr gt = new GreaterThanExpr(new OperatorKey("", 5L));
+        gt.setLhs(add);
+        gt.setRhs(ten);
+        gt.setOperandType(DataType.INTEGER);
+        gt.setResultType(DataType.BOOLEAN);
+
+        List<ExpressionOperator> roots = new ArrayList<ExpressionOperator>();
+        roots.add(gt);
+        roots.add(add);
+        roots.add(null);
+        CompiledExpression[] compiled = new ExpressionCompiler().compile(roots);
+        assertEquals(3, compiled.length);
+        assertNotNull(compiled[0]);
+        assertNotNull(compiled[1]);
+        assertNull(compiled[2]);
+
+        TupleFactory tf = TupleFactory.getInstance();
+        Tuple t = tf.newTuple(1);
+        t.set(0, 6);
+        assertEquals(Boolean.TRUE, compiled[0].evaluate(t));
+        assertEquals(11, compiled[1].evaluate(t));
+        t.set(0, 5);
+        assertEquals(Boolean.FALSE, compiled[0].evaluate(t));
+        t.set(0, null);
+        assertNull(compiled[0].evaluate(t));
+        assertNull(compiled[1].evaluate(t));
+    }
+
+    @Test
+    public void testArithmeticAndCasts() throws Exception {
+        compare(new String[] {
+                load(),
+                "b = foreach a generate name, num + 1, num - den, num * d, "
+                        + "num / den, num % (den + 1L), -d, (chararray)num, "
+                        + "(int)d, (double)raw + 1.0, (chararray)raw;" }, "b");
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        String[] conditions = new String[] { "num > den", "num <= 90",
+                "d >= 20.0", "name != 'k2'", "name is null", "num is not null",
+                "(num > 50 and den < 5L) or name == 'k3'",
+                "not (num > 50 or den < 5L)", "raw == '1'", "(int)raw > 0",
+                "num / den > 2" };
+        String load = load();
+        for (String condition : conditions) {
+            compare(new String[] {
+                    load,
+                    "b = filter a by " + condition + ";" }, "b");
+        }
+    }
+
+    @Test
+    public void testUdfsAndNestedPlans() throws Exception {
+        // the UDFs are interpreted from within the compiled expressions
+        compare(new String[] {
+                load(),
+                "b = foreach a generate name, SIZE(name) + num, "
+                        + "CONCAT(name, 'x');",
+                "c = filter b by $1 > 20 or SIZE($2) > 2;",
+                "d = group c by $0;",
+                "e = foreach d { f = filter c by $1 > 30; "
+                        + "generate group, COUNT(f) + 1, SUM(c.$1) * 2; };" },
+                "e");
+    }
+}
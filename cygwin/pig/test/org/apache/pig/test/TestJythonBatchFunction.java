@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapBase;
+import org.apache.pig.data.BagFactory;
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.scripting.jython.JythonUtils;
+import org.apache.pig.scripting.jython.JythonUtils.FieldConverter;
+import org.junit.Test;
+import org.python.core.PyObject;
+import org.python.util.PythonInterpreter;
+
+/**
+ * Checks Python UDFs that process a block of rows per call.
+ */
+public class TestJythonBatchFunction extends TestCase {
+
+    private static final String[] SCRIPT = {
+            "@outputSchema(\"code:chararray\")",
+            "@batchFunction",
+            "def normalize(rows):",
+            "    return [code.strip().upper() + '-' + str(n) for (code, n) in rows]",
+            "",
+            "@outputSchema(\"size:int\")",
+            "@batchFunction",
+            "def blocksize(rows):",
+            "    return [len(rows)] * len(rows)",
+            "",
+            "@outputSchema(\"code:chararray\")",
+            "def plain(code, n):",
+            "    return code.strip().upper() + '-' + str(n)",
+            "",
+            "@batchFunction",
+            "def short(rows):",
+            "    return [1]"
+    };
+
+    private static final int ROWS = 250;
+
+    private File createFile(String[] data, String suffix) throws Exception {
+        File f = File.createTempFile("tmp", suffix);
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private File createData() throws Exception {
+        String[] data = new String[ROWS];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = " dpc" + (i % 7) + " \t" + i;
+        }
+        return createFile(data, "");
+    }
+
+    private List<String> run(String batchSize, File script, File data,
+            String query) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PigMapBase.BATCH_SIZE, batchSize);
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerCode(script.getAbsolutePath(), "jython", "py");
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(data.getAbsolutePath())
+                + "' as (code:chararray, n:int);");
+        pigServer.registerQuery(query);
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator("b");
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        File script = createFile(SCRIPT, ".py");
+        File data = createData();
+        List<String> expected = run("0", script, data,
+                "b = foreach a generate py.plain(code, n), n;");
+        assertEquals(ROWS, expected.size());
+        assertEquals(expected, run("0", script, data,
+                "b = foreach a generate py.normalize(code, n), n;"));
+        assertEquals(expected, run("100", script, data,
+                "b = foreach a generate py.normalize(code, n), n;"));
+
+        // a row at a time unless the map plan runs in batches
+        List<String> sizes = run("0", script, data,
+                "b = foreach a generate py.blocksize(n);");
+        assertEquals(Collections.nCopies(ROWS, "(1)"), sizes);
+        sizes = run("100", script, data,
+                "b = foreach a generate py.blocksize(n);");
+        List<String> expectedSizes = new ArrayList<String>();
+        expectedSizes.addAll(Collections.nCopies(200, "(100)"));
+        expectedSizes.addAll(Collections.nCopies(50, "(50)"));
+        assertEquals(expectedSizes, sizes);
+    }
+
+    @Test
+    public void testWrongResultCount() throws Exception {
+        File script = createFile(SCRIPT, ".py");
+        File data = createData();
+        try {
+            run("100", script, data, "b = foreach a generate py.short(n);");
+            fail("expected the short result to fail");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFieldConverter() throws Exception {
+        new PythonInterpreter();
+        TupleFactory tf = TupleFactory.getInstance();
+        DataBag bag = BagFactory.getInstance().newDefaultBag();
+        bag.add(tf.newTuple("病院"));
+        Object[] values = { "DPC-0401", "病院コード", 7, 8L, 2.5, 1.5f, null,
+                bag, tf.newTuple(9), "DPC-0402", 12 };
+        FieldConverter converter = new FieldConverter();
+        for (Object value : values) {
+            PyObject py = converter.toPython(value);
+            Object expected = (value instanceof Float) ? Double.valueOf(1.5)
+                    : value;
+            assertEquals(expected, converter.toPig(py));
+            if (value != null) {
+                assertEquals(JythonUtils.pigToPython(value), py);
+            }
+        }
+    }
+}
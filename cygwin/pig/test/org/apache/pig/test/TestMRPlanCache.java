@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRPlanCache;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MergeJoinIndexCache;
+import org.apache.pig.tools.pigstats.ScriptState;
+import org.junit.Test;
+
+/**
+ * Checks that compiled plans are reused for scripts that differ only in
+ * their inputs, and recompiled when the script or the inputs change.
+ */
+public class TestMRPlanCache extends TestCase {
+
+    private File cacheDir;
+
+    private File outDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        cacheDir = File.createTempFile("plancache", "");
+        cacheDir.delete();
+        outDir = File.createTempFile("plancacheout", "");
+        outDir.delete();
+        outDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteDirectory(cacheDir);
+        Util.deleteDirectory(outDir);
+    }
+
+    private File createInput(int offset) throws Exception {
+        File f = File.createTempFile("plancachein", "");
+        f.deleteOnExit();
+        writeInput(f, offset);
+        return f;
+    }
+
+    private void writeInput(File f, int offset) throws Exception {
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < 20; i++) {
+            pw.println("h" + (i % 4) + "\t" + (i + offset));
+        }
+        pw.close();
+    }
+
+    private int cachedPlans() {
+        String[] plans = cacheDir.list();
+        return (plans == null) ? 0 : plans.length;
+    }
+
+    private List<String> run(File input, String schema, String space)
+            throws Exception {
+        return run(input, schema, space, new Properties());
+    }
+
+    private List<String> run(File input, String schema, String space,
+            Properties extra) throws Exception {
+        File out = new File(outDir, "out");
+        Util.deleteDirectory(out);
+        Properties props = new Properties();
+        props.putAll(extra);
+        props.setProperty(MRPlanCache.CACHE_DIR, cacheDir.getAbsolutePath());
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.setBatchOn();
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(input.getAbsolutePath()) + "'" + space
+                + "as " + schema + ";");
+        pigServer.registerQuery("b = group a by code;");
+        pigServer.registerQuery("c = foreach b generate group, SUM(a.n) as s;");
+        // order by samples into a temporary file
+        pigServer.registerQuery("d = order c by s;");
+        pigServer.registerQuery("store d into '"
+                + Util.encodeEscape(out.getAbsolutePath()) + "';");
+        pigServer.executeBatch();
+        pigServer.shutdown();
+
+        List<String> results = new ArrayList<String>();
+        for (File part : out.listFiles()) {
+            if (part.getName().startsWith("part-")) {
+                BufferedReader br = new BufferedReader(new FileReader(part));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    results.add(line);
+                }
+                br.close();
+            }
+        }
+        return results;
+    }
+
+    private List<String> cogroup(File left, File right) throws Exception {
+        File out = new File(outDir, "out");
+        Util.deleteDirectory(out);
+        Properties props = new Properties();
+        props.setProperty(MRPlanCache.CACHE_DIR, cacheDir.getAbsolutePath());
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.setBatchOn();
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(left.getAbsolutePath()) + "' as (code, n:int);");
+        pigServer.registerQuery("b = load '"
+                + Util.encodeEscape(right.getAbsolutePath()) + "' as (code, n:int);");
+        pigServer.registerQuery("c = cogroup a by code, b by code;");
+        pigServer.registerQuery("d = foreach c generate group, SUM(a.n), SUM(b.n);");
+        pigServer.registerQuery("store d into '"
+                + Util.encodeEscape(out.getAbsolutePath()) + "';");
+        pigServer.executeBatch();
+        pigServer.shutdown();
+
+        List<String> results = new ArrayList<String>();
+        for (File part : out.listFiles()) {
+            if (part.getName().startsWith("part-")) {
+                BufferedReader br = new BufferedReader(new FileReader(part));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    results.add(line);
+                }
+                br.close();
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private List<String> expected(int leftOffset, int rightOffset) {
+        List<String> left = expected(leftOffset);
+        List<String> right = expected(rightOffset);
+        List<String> results = new ArrayList<String>();
+        for (int i = 0; i < left.size(); i++) {
+            results.add(left.get(i) + "\t" + right.get(i).split("\t")[1]);
+        }
+        return results;
+    }
+
+    private List<String> expected(int offset) {
+        List<String> results = new ArrayList<String>();
+        for (int code = 0; code < 4; code++) {
+            long sum = 0;
+            for (int i = code; i < 20; i += 4) {
+                sum += i + offset;
+            }
+            results.add("h" + code + "\t" + sum);
+        }
+        return results;
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        File in1 = createInput(0);
+        File in2 = createInput(100);
+        assertEquals(expected(0), run(in1, "(code, n:int)", " "));
+        assertEquals(1, cachedPlans());
+
+        // only the input changes, the cached plan is moved to it
+        assertEquals(expected(100), run(in2, "(code, n:int)", " "));
+        assertEquals(1, cachedPlans());
+        assertEquals(expected(0), run(in1, "(code, n:int)", "\n  "));
+        assertEquals(1, cachedPlans());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        File in = createInput(0);
+        assertEquals(expected(0), run(in, "(code, n:int)", " "));
+        assertEquals(1, cachedPlans());
+
+        // the schema of the input changes
+        assertEquals(expected(0), run(in, "(code:chararray, n:int)", " "));
+        assertEquals(2, cachedPlans());
+
+        // a damaged entry is compiled again
+        for (File plan : cacheDir.listFiles()) {
+            PrintWriter pw = new PrintWriter(plan);
+            pw.println("not a plan");
+            pw.close();
+        }
+        assertEquals(expected(0), run(in, "(code, n:int)", " "));
+        assertEquals(2, cachedPlans());
+        assertEquals(expected(0), run(in, "(code, n:int)", " "));
+    }
+
+    @Test
+    public void testSameLocation() throws Exception {
+        File in1 = createInput(0);
+        File in2 = createInput(100);
+        // a location loaded twice cannot be told apart when relocating
+        assertEquals(expected(0, 0), cogroup(in1, in1));
+        assertEquals(0, cachedPlans());
+
+        assertEquals(expected(0, 100), cogroup(in1, in2));
+        assertEquals(1, cachedPlans());
+        assertEquals(expected(100, 0), cogroup(in2, in1));
+        assertEquals(expected(100, 100), cogroup(in2, in2));
+        assertEquals(1, cachedPlans());
+    }
+
+    @Test
+    public void testSystemProperties() throws Exception {
+        // the command line merges the system properties, some of which
+        // change from run to run
+        File in = createInput(0);
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        props.setProperty("sun.java.command", "Main script1.pig");
+        assertEquals(expected(0), run(in, "(code, n:int)", " ", props));
+        assertEquals(1, cachedPlans());
+        props.setProperty("sun.java.command", "Main script2.pig");
+        assertEquals(expected(0), run(in, "(code, n:int)", " ", props));
+        assertEquals(1, cachedPlans());
+
+        // Pig properties still change the key
+        props.setProperty("pig.exec.reducers.max", "7");
+        assertEquals(expected(0), run(in, "(code, n:int)", " ", props));
+        assertEquals(2, cachedPlans());
+    }
+
+    @Test
+    public void testChangedInput() throws Exception {
+        // merge joins reuse the index of unchanged inputs
+        Properties props = new Properties();
+        props.setProperty(MergeJoinIndexCache.CACHE, "true");
+        File in1 = createInput(0);
+        File in2 = createInput(100);
+        assertEquals(expected(0), run(in1, "(code, n:int)", " ", props));
+        assertEquals(1, cachedPlans());
+        long features = ScriptState.get().getScriptFeatureBits();
+        assertTrue(features != 0);
+
+        // the features of a cached plan are those of the script
+        ScriptState.get().setScriptFeatures(0);
+        assertEquals(expected(0), run(in1, "(code, n:int)", " ", props));
+        assertEquals(1, cachedPlans());
+        assertEquals(features, ScriptState.get().getScriptFeatureBits());
+
+        // another input, or the same one changed, is compiled again
+        assertEquals(expected(100), run(in2, "(code, n:int)", " ", props));
+        assertEquals(2, cachedPlans());
+        writeInput(in1, 200);
+        in1.setLastModified(in1.lastModified() + 2000);
+        assertEquals(expected(200), run(in1, "(code, n:int)", " ", props));
+        assertEquals(3, cachedPlans());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MergeJoinIndexCache;
+import org.apache.pig.data.Tuple;
+import org.junit.Test;
+
+/**
+ * Checks that merge joins reuse the cached index of an unchanged right
+ * input, and index it again once it changes.
+ */
+public class TestMergeJoinIndexCache extends TestCase {
+
+    private File left;
+
+    private File right;
+
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        left = File.createTempFile("mjleft", "");
+        left.deleteOnExit();
+        right = File.createTempFile("mjright", "");
+        right.deleteOnExit();
+        cacheDir = File.createTempFile("mjcache", "");
+        cacheDir.delete();
+        cacheDir.mkdir();
+        cacheDir.deleteOnExit();
+        writeSorted(left, 300, 3);
+        writeSorted(right, 200, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Util.deleteDirectory(cacheDir);
+    }
+
+    private void writeSorted(File f, int n, int step) throws Exception {
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < n; i++) {
+            pw.println((i * step) + "\t" + f.getName() + i);
+        }
+        pw.close();
+    }
+
+    private List<String> run(boolean cache, boolean expectIndexJob)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(MergeJoinIndexCache.CACHE, Boolean.toString(cache));
+        props.setProperty(MergeJoinIndexCache.CACHE_DIR, cacheDir.getAbsolutePath());
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '" + Util.encodeEscape(left.getAbsolutePath())
+                + "' as (k:int, v:chararray);");
+        pigServer.registerQuery("B = load '" + Util.encodeEscape(right.getAbsolutePath())
+                + "' as (k:int, v:chararray);");
+        pigServer.registerQuery("C = join A by k, B by k using 'merge';");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(baos));
+        String plan = baos.toString();
+        assertEquals(plan, expectIndexJob, plan.contains("MergeJoinIndexer"));
+
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator("C");
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    private int cachedIndexes() {
+        int n = 0;
+        for (String name : cacheDir.list()) {
+            if (name.startsWith("idx-")) n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void testReuseIndex() throws Exception {
+        List<String> expected = run(false, true);
+        assertEquals(67, expected.size());
+        assertEquals(0, cachedIndexes());
+
+        // the first run indexes the right input and caches the index
+        assertEquals(expected, run(true, true));
+        assertEquals(1, cachedIndexes());
+
+        // the second run reads the cached index
+        assertEquals(expected, run(true, false));
+        assertEquals(1, cachedIndexes());
+    }
+
+    @Test
+    public void testChangedInput() throws Exception {
+        run(true, true);
+        assertEquals(1, cachedIndexes());
+
+        // a changed input is indexed again
+        writeSorted(right, 150, 4);
+        right.setLastModified(right.lastModified() + 2000);
+        List<String> results = run(true, true);
+        assertEquals(run(false, true), results);
+        assertEquals(2, cachedIndexes());
+        assertEquals(results, run(true, false));
+    }
+}
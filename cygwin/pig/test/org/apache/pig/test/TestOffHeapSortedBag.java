@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.OffHeapSortedBag;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.Test;
+
+/**
+ * Checks that {@link OffHeapSortedBag} returns the same tuples in the same
+ * order as sorting them on the heap, whether or not it spills.
+ */
+public class TestOffHeapSortedBag extends TestCase {
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private static class ReverseComparator implements Comparator<Tuple> {
+        @SuppressWarnings("unchecked")
+        public int compare(Tuple t1, Tuple t2) {
+            return t2.compareTo(t1);
+        }
+    }
+
+    private List<Tuple> randomTuples(int n, long seed) throws Exception {
+        Random r = new Random(seed);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = tf.newTuple(r.nextInt(8) == 0 ? 1 : 2);
+            Object first;
+            switch (r.nextInt(8)) {
+            case 0: first = null; break;
+            case 1: first = r.nextInt(20) - 10; break;
+            case 2: first = (long)r.nextInt(20) * (r.nextBoolean() ? 1L : 1L << 40); break;
+            case 3: first = (r.nextInt(20) - 10) / 4.0; break;
+            case 4: first = (float)(r.nextInt(20) - 10) / 4; break;
+            case 5: first = "abcd".substring(r.nextInt(4)) + r.nextInt(3); break;
+            case 6: first = new DataByteArray(new byte[] {
+                        (byte)r.nextInt(256), 1, 2, 3, 4, 5, (byte)r.nextInt(3) });
+                    break;
+            default: first = r.nextBoolean(); break;
+            }
+            t.set(0, first);
+            if (t.size() > 1) {
+                t.set(1, r.nextInt(4));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private List<Tuple> read(OffHeapSortedBag bag) {
+        List<Tuple> result = new ArrayList<Tuple>();
+        Iterator<Tuple> it = bag.iterator();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Tuple> distinct(List<Tuple> sorted) {
+        List<Tuple> result = new ArrayList<Tuple>();
+        for (Tuple t : sorted) {
+            if (result.isEmpty() || result.get(result.size() - 1).compareTo(t) != 0) {
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    private void checkSorted(long bufferSize, boolean spill) throws Exception {
+        List<Tuple> tuples = randomTuples(5000, bufferSize);
+        OffHeapSortedBag bag = new OffHeapSortedBag(null, false, bufferSize);
+        for (int i = 0; i < tuples.size(); i++) {
+            bag.add(tuples.get(i));
+            if (spill && i % 700 == 0) {
+                bag.spill();
+            }
+        }
+        Collections.sort(tuples);
+        assertEquals(tuples.size(), bag.size());
+        assertEquals(tuples, read(bag));
+    }
+
+    @Test
+    public void testSortedInMemory() throws Exception {
+        checkSorted(1L << 30, false);
+    }
+
+    @Test
+    public void testSortedSpilled() throws Exception {
+        checkSorted(1L << 30, true);
+    }
+
+    @Test
+    public void testSortedManyRuns() throws Exception {
+        // about 250 runs, so some have to be merged first
+        checkSorted(400, false);
+    }
+
+    @Test
+    public void testDistinct() throws Exception {
+        for (long bufferSize : new long[] { 1L << 30, 2000, 400 }) {
+            List<Tuple> tuples = randomTuples(5000, bufferSize);
+            OffHeapSortedBag bag = new OffHeapSortedBag(null, true, bufferSize);
+            for (int i = 0; i < tuples.size(); i++) {
+                bag.add(tuples.get(i));
+                if (i == 2500) {
+                    // counting does not stop the bag from taking more
+                    assertEquals(distinct(sorted(tuples.subList(0, 2501))).size(),
+                            bag.size());
+                }
+            }
+            List<Tuple> expected = distinct(sorted(tuples));
+            assertEquals(expected.size(), bag.size());
+            assertEquals(expected, read(bag));
+        }
+    }
+
+    @Test
+    public void testComparator() throws Exception {
+        List<Tuple> tuples = randomTuples(3000, 7);
+        OffHeapSortedBag bag = new OffHeapSortedBag(new ReverseComparator(),
+                false, 3000);
+        for (Tuple t : tuples) {
+            bag.add(t);
+        }
+        Collections.sort(tuples, new ReverseComparator());
+        assertEquals(tuples, read(bag));
+    }
+
+    @Test
+    public void testAddAfterRead() throws Exception {
+        OffHeapSortedBag bag = new OffHeapSortedBag(null, false, 1000);
+        bag.add(tf.newTuple(1));
+        bag.iterator();
+        try {
+            bag.add(tf.newTuple(1));
+            fail("adding after reading should fail");
+        } catch (IllegalStateException e) {
+        }
+        // spilling while being read does nothing
+        assertEquals(0, bag.spill());
+    }
+
+    private long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory
+                .getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testSmallBagsOnHeap() throws Exception {
+        // one bag per group, as in a distinct of every group
+        long before = directMemoryUsed();
+        List<OffHeapSortedBag> bags = new ArrayList<OffHeapSortedBag>();
+        List<List<Tuple>> contents = new ArrayList<List<Tuple>>();
+        for (int i = 0; i < 2000; i++) {
+            List<Tuple> tuples = randomTuples(5, i);
+            OffHeapSortedBag bag = new OffHeapSortedBag(null, true, 1L << 30);
+            for (Tuple t : tuples) {
+                bag.add(t);
+            }
+            bags.add(bag);
+            contents.add(tuples);
+        }
+        assertTrue(directMemoryUsed() - before
+                < 10 * OffHeapSortedBag.MIN_DIRECT_CHUNK_SIZE);
+        for (int i = 0; i < bags.size(); i++) {
+            assertEquals(distinct(sorted(contents.get(i))), read(bags.get(i)));
+        }
+
+        // a large bag goes on to direct buffers
+        before = directMemoryUsed();
+        OffHeapSortedBag bag = new OffHeapSortedBag(null, false, 1L << 30);
+        List<Tuple> tuples = randomTuples(20000, 3);
+        for (Tuple t : tuples) {
+            bag.add(t);
+        }
+        assertTrue(directMemoryUsed() - before
+                >= OffHeapSortedBag.MIN_DIRECT_CHUNK_SIZE);
+        assertEquals(sorted(tuples), read(bag));
+    }
+
+    private List<Tuple> sorted(List<Tuple> tuples) {
+        List<Tuple> copy = new ArrayList<Tuple>(tuples);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfile;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.util.OperatorProfiler;
+import org.apache.pig.tools.pigstats.JobStats;
+import org.apache.pig.tools.pigstats.PigStats;
+import org.junit.Test;
+
+/**
+ * Checks the profiles of the physical operators of profiled jobs.
+ */
+public class TestOperatorProfiler extends TestCase {
+
+    private static final int ROWS = 300;
+
+    private File createInput() throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < ROWS; i++) {
+            pw.println("k" + (i % 7) + "\t" + i);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> readLines(File f) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(f));
+        String line;
+        while ((line = br.readLine()) != null) {
+            lines.add(line);
+        }
+        br.close();
+        return lines;
+    }
+
+    private OperatorProfile find(Map<String, OperatorProfile> profiles,
+            String name) {
+        for (OperatorProfile profile : profiles.values()) {
+            if (profile.getName().contains(name)) {
+                return profile;
+            }
+        }
+        fail("no profile of " + name + " in " + profiles.keySet());
+        return null;
+    }
+
+    private void checkProfiles(ExecType execType) throws Exception {
+        File input = createInput();
+        File output = File.createTempFile("profile", "");
+        File result = File.createTempFile("out", "");
+        result.delete();
+        Properties props = new Properties();
+        props.setProperty(OperatorProfiler.PROFILE, "true");
+        props.setProperty(OperatorProfiler.SAMPLE_RATE, "1");
+        props.setProperty(OperatorProfiler.OUTPUT, output.getAbsolutePath());
+        PigServer pigServer = new PigServer(execType, props);
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(input.getAbsolutePath())
+                + "' as (name:chararray, num:int);");
+        pigServer.registerQuery("b = filter a by num % 3 == 0;");
+        pigServer.registerQuery("c = foreach b generate name, SIZE(name) as len, num;");
+        pigServer.registerQuery("d = group c by name;");
+        pigServer.registerQuery("e = foreach d generate group, SUM(c.num);");
+        ExecJob job = pigServer.store("e", Util.encodeEscape(result
+                .getAbsolutePath()));
+        assertEquals(ExecJob.JOB_STATUS.COMPLETED, job.getStatus());
+        PigStats stats = job.getStatistics();
+        pigServer.shutdown();
+
+        JobStats js = stats.getJobGraph().iterator().next();
+        Map<String, OperatorProfile> profiles = js.getOperatorProfiles();
+        OperatorProfile load = profiles.get(OperatorProfiler.LOAD);
+        assertNotNull(load);
+        assertEquals(ROWS, load.getRecordsOut());
+        OperatorProfile filter = find(profiles, "Filter");
+        assertEquals(ROWS, filter.getRecordsIn());
+        assertEquals(ROWS / 3, filter.getRecordsOut());
+        OperatorProfile size = find(profiles, "StringSize");
+        assertEquals(ROWS / 3, size.getRecordsOut());
+        assertTrue(size.getBytes() > 0);
+        OperatorProfile pack = find(profiles, "Package");
+        assertEquals(7, pack.getRecordsOut());
+        long nanos = 0;
+        for (OperatorProfile profile : profiles.values()) {
+            assertTrue(profile.getNanos() >= 0);
+            nanos += profile.getNanos();
+        }
+        assertTrue(nanos > 0);
+
+        String plan = js.getProfiledPlan();
+        assertTrue(plan, plan.contains("Map Plan"));
+        assertTrue(plan, plan.contains("Reduce Plan"));
+        assertTrue(plan, plan.contains("[" + filter + "]"));
+        assertTrue(plan, plan.contains("Load\t[" + load + "]\n"));
+
+        List<String> lines = readLines(output);
+        assertEquals(PigStats.OPERATOR_PROFILE_HEADER, lines.get(0));
+        assertEquals(profiles.size() + 1, lines.size());
+        assertTrue(lines.get(1).startsWith(js.getJobId() + "\t"));
+        output.delete();
+        Util.deleteDirectory(result);
+    }
+
+    @Test
+    public void testLocal() throws Exception {
+        checkProfiles(ExecType.LOCAL);
+    }
+
+    @Test
+    public void testThreaded() throws Exception {
+        checkProfiles(ExecType.THREADED);
+    }
+
+    @Test
+    public void testNotProfiled() throws Exception {
+        File input = createInput();
+        File result = File.createTempFile("out", "");
+        result.delete();
+        PigServer pigServer = new PigServer(ExecType.LOCAL, new Properties());
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(input.getAbsolutePath())
+                + "' as (name:chararray, num:int);");
+        pigServer.registerQuery("b = filter a by num % 3 == 0;");
+        ExecJob job = pigServer.store("b", Util.encodeEscape(result
+                .getAbsolutePath()));
+        JobStats js = job.getStatistics().getJobGraph().iterator().next();
+        pigServer.shutdown();
+        assertTrue(js.getOperatorProfiles().isEmpty());
+        assertNull(js.getProfiledPlan());
+        Util.deleteDirectory(result);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.bzip2r.Bzip2TextInputFormat;
+import org.apache.pig.data.Tuple;
+import org.apache.tools.bzip2r.CBZip2InputStream;
+import org.apache.tools.bzip2r.CBZip2OutputStream;
+import org.apache.tools.bzip2r.CBZip2ParallelInputStream;
+import org.junit.Test;
+
+/**
+ * Checks that bzip2 files decompressed on several threads read the same as
+ * when they are decompressed serially, as a whole and split.
+ */
+public class TestParallelBZip extends TestCase {
+
+    private static final int ROWS = 60000;
+
+    private List<String> lines = new ArrayList<String>();
+
+    private File createFile() throws Exception {
+        File f = File.createTempFile("parallel", ".bz2");
+        f.deleteOnExit();
+        Random r = new Random(42);
+        // the smallest blocks, so that the file has many of them
+        CBZip2OutputStream out = new CBZip2OutputStream(new FileOutputStream(f), 1);
+        lines.clear();
+        for (int i = 0; i < ROWS; i++) {
+            String line = "H" + r.nextInt(1000) + "\t" + r.nextLong() + "\t"
+                    + ((i % 11 == 0) ? "aaaaaaaaaaaaaaaaaaaaaaaa" : r.nextInt());
+            lines.add(line);
+            out.write((line + "\n").getBytes("UTF-8"));
+        }
+        out.close();
+        return f;
+    }
+
+    private byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1) {
+            bos.write(buf, 0, n);
+        }
+        in.close();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testWholeStream() throws Exception {
+        File f = createFile();
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path path = new Path(f.getAbsolutePath());
+        byte[] expected = readAll(new CBZip2InputStream(fs.open(path)));
+        for (int threads : new int[] { 1, 3 }) {
+            byte[] actual = readAll(new CBZip2ParallelInputStream(
+                    fs.open(path), Long.MAX_VALUE, threads));
+            assertEquals(expected.length, actual.length);
+            assertTrue(java.util.Arrays.equals(expected, actual));
+        }
+    }
+
+    private List<String> readSplits(File f, long splitSize, int threads)
+            throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(Bzip2TextInputFormat.DECOMPRESS_THREADS, threads);
+        TaskAttemptContext context = new TaskAttemptContext(conf,
+                new TaskAttemptID());
+        Bzip2TextInputFormat format = new Bzip2TextInputFormat();
+        List<String> result = new ArrayList<String>();
+        Path path = new Path(f.getAbsolutePath());
+        for (long start = 0; start < f.length(); start += splitSize) {
+            long length = Math.min(splitSize, f.length() - start);
+            FileSplit split = new FileSplit(path, start, length, null);
+            RecordReader<?, Text> reader = format.createRecordReader(split,
+                    context);
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+                result.add(reader.getCurrentValue().toString());
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    @Test
+    public void testSplits() throws Exception {
+        File f = createFile();
+        for (long splitSize : new long[] { f.length(), 50001, 17777 }) {
+            assertEquals(lines, readSplits(f, splitSize, 1));
+            assertEquals(lines, readSplits(f, splitSize, 4));
+        }
+    }
+
+    @Test
+    public void testThreadedLoad() throws Exception {
+        File f = createFile();
+        Properties props = new Properties();
+        props.setProperty(Bzip2TextInputFormat.DECOMPRESS_THREADS, "2");
+        // one map task for each 100000 compressed bytes
+        props.setProperty("mapred.max.split.size", "100000");
+        props.setProperty("pig.noSplitCombination", "true");
+        PigServer pigServer = new PigServer(ExecType.THREADED, props);
+        pigServer.registerQuery("a = load '"
+                + Util.encodeEscape(f.getAbsolutePath())
+                + "' as (code:chararray, l:long, s:chararray);");
+        pigServer.registerQuery("b = group a all;");
+        pigServer.registerQuery("c = foreach b generate COUNT(a), SUM(a.l);");
+        Iterator<Tuple> iter = pigServer.openIterator("c");
+        Tuple t = iter.next();
+        long sum = 0;
+        for (String line : lines) {
+            sum += Long.parseLong(line.split("\t")[1]);
+        }
+        assertEquals(Long.valueOf(ROWS), t.get(0));
+        assertEquals(Long.valueOf(sum), t.get(1));
+        assertFalse(iter.hasNext());
+        pigServer.shutdown();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigInputFormat;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigUnionRecordReader;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigUnionSplit;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ThreadedJobRunner;
+import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.tools.pigstats.InputStats;
+import org.junit.Test;
+
+/**
+ * Checks that unions give the same results when their inputs are read
+ * concurrently in local mode.
+ */
+public class TestParallelUnion extends TestCase {
+
+    private File[] inputs;
+
+    /**
+     * Adds the name of the thread that read each tuple
+     */
+    public static class ThreadNameLoader extends PigStorage {
+        @Override
+        public Tuple getNext() throws IOException {
+            Tuple t = super.getNext();
+            if (t == null) {
+                return null;
+            }
+            Tuple result = TupleFactory.getInstance().newTuple(t.getAll());
+            result.append(Thread.currentThread().getName());
+            return result;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        inputs = new File[4];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = File.createTempFile("union", "");
+            inputs[i].deleteOnExit();
+            PrintWriter pw = new PrintWriter(inputs[i]);
+            for (int j = 0; j < 500 * (i + 1); j++) {
+                pw.println(i + "\t" + (j % 13) + "\t" + (i * 1000 + j));
+            }
+            pw.close();
+        }
+    }
+
+    private PigServer pigServer(boolean parallel, Properties extra)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PigInputFormat.PARALLEL_UNION,
+                Boolean.toString(parallel));
+        if (extra != null) {
+            props.putAll(extra);
+        }
+        return new PigServer(ExecType.LOCAL, props);
+    }
+
+    private String union(String loader, String schema) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < inputs.length; i++) {
+            sb.append("I" + i + " = load '"
+                    + Util.encodeEscape(inputs[i].getAbsolutePath())
+                    + "' using " + loader + " as " + schema + ";\n");
+        }
+        sb.append("U = union I0, I1, I2, I3;\n");
+        return sb.toString();
+    }
+
+    private List<String> run(boolean parallel, Properties extra,
+            String query, String alias) throws Exception {
+        PigServer pigServer = pigServer(parallel, extra);
+        for (String q : query.split("\n")) {
+            pigServer.registerQuery(q);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    private void check(Properties extra, String query, String alias)
+            throws Exception {
+        List<String> expected = run(false, null, query, alias);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, run(true, extra, query, alias));
+    }
+
+    @Test
+    public void testUnionFilter() throws Exception {
+        check(null, union("PigStorage()", "(f:int, g:int, v:int)")
+                + "F = filter U by g > 3;\n"
+                + "G = foreach F generate f, v * 2;", "G");
+    }
+
+    @Test
+    public void testUnionGroup() throws Exception {
+        check(null, union("PigStorage()", "(f:int, g:int, v:int)")
+                + "G = group U by g;\n"
+                + "C = foreach G generate group, COUNT(U), SUM(U.v);", "C");
+    }
+
+    @Test
+    public void testSmallQueue() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PigUnionRecordReader.QUEUE_SIZE, "10");
+        props.setProperty(PigUnionRecordReader.THREADS, "2");
+        check(props, union("PigStorage()", "(f:int, g:int, v:int)")
+                + "G = group U by f;\n"
+                + "C = foreach G generate group, COUNT(U);", "C");
+    }
+
+    @Test
+    public void testReadConcurrently() throws Exception {
+        String loader = "org.apache.pig.test.TestParallelUnion$ThreadNameLoader()";
+        String query = union(loader, "(f:int, g:int, v:int, thread:chararray)")
+                + "T = foreach U generate thread;\n"
+                + "D = distinct T;";
+        for (String name : run(true, null, query, "D")) {
+            assertTrue(name, name.startsWith("(UnionReader-"));
+        }
+        for (String name : run(false, null, query, "D")) {
+            assertFalse(name, name.startsWith("(UnionReader-"));
+        }
+    }
+
+    @Test
+    public void testInputRecordCounts() throws Exception {
+        // the splits of each input are read at the same time by the map
+        // tasks of the threaded exectype, which unlike local mode keeps the
+        // counters of the jobs
+        Properties props = new Properties();
+        props.setProperty("pig.splitCombination", "false");
+        props.setProperty("mapred.max.split.size", "1024");
+        props.setProperty(ThreadedJobRunner.THREADS, "4");
+        PigServer pigServer = new PigServer(ExecType.THREADED, props);
+        for (String q : (union("PigStorage()", "(f:int, g:int, v:int)")
+                + "F = filter U by g > 3;").split("\n")) {
+            pigServer.registerQuery(q);
+        }
+        File out = File.createTempFile("union", "");
+        out.delete();
+        ExecJob job = pigServer.store("F", out.getAbsolutePath());
+        assertEquals(ExecJob.JOB_STATUS.COMPLETED, job.getStatus());
+        List<String> counts = new ArrayList<String>();
+        for (InputStats stats : job.getStatistics().getInputStats()) {
+            counts.add(new File(stats.getLocation()).getName() + " "
+                    + stats.getNumberRecords());
+        }
+        Collections.sort(counts);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < inputs.length; i++) {
+            expected.add(inputs[i].getName() + " " + 500 * (i + 1));
+        }
+        Collections.sort(expected);
+        assertEquals(expected, counts);
+        pigServer.shutdown();
+        Util.deleteDirectory(out);
+    }
+
+    @Test
+    public void testPartKey() throws Exception {
+        for (int i : new int[] { 0, 1, 255, 256, 70000 }) {
+            assertEquals(i, PigUnionSplit.getPartIndex(
+                    new Text(new byte[] {
+                            (byte)(i >>> 24), (byte)(i >>> 16),
+                            (byte)(i >>> 8), (byte)i })));
+        }
+    }
+}
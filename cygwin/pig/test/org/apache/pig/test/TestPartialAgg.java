@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.CombinerOptimizer;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPartialAgg;
+import org.apache.pig.data.Tuple;
+import org.junit.Test;
+
+/**
+ * Checks that aggregating the algebraic parts of a foreach in the map, when
+ * the other parts keep it from using the combiner, gives the same results.
+ */
+public class TestPartialAgg extends TestCase {
+
+    private File input;
+
+    @Override
+    protected void setUp() throws Exception {
+        input = File.createTempFile("partialagg", "");
+        input.deleteOnExit();
+        PrintWriter pw = new PrintWriter(input);
+        for (int i = 0; i < 20000; i++) {
+            pw.println((i % 37) + "\t" + i + "\ts" + (i % 5));
+        }
+        pw.close();
+    }
+
+    private List<String> run(Properties props, String generate,
+            boolean expectPartialAgg) throws Exception {
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '"
+                + Util.encodeEscape(input.getAbsolutePath())
+                + "' as (k:int, v:long, s:chararray);");
+        pigServer.registerQuery("B = group A by k;");
+        pigServer.registerQuery("C = foreach B generate " + generate + ";");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pigServer.explain("C", new PrintStream(baos));
+        String plan = baos.toString();
+        assertEquals(plan, expectPartialAgg, plan.contains("Partial Agg"));
+
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator("C");
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    private Properties partialAgg() {
+        Properties props = new Properties();
+        props.setProperty(CombinerOptimizer.PARTIAL_AGG, "true");
+        return props;
+    }
+
+    @Test
+    public void testSameResults() throws Exception {
+        String generate = "group, COUNT(A), SUM(A.v), MAX(A.v), SIZE(A.s)";
+        List<String> expected = run(new Properties(), generate, false);
+        assertEquals(37, expected.size());
+        assertEquals(expected, run(partialAgg(), generate, true));
+    }
+
+    @Test
+    public void testKeyNotProjected() throws Exception {
+        String generate = "SUM(A.v), SIZE(A.s), group";
+        List<String> expected = run(new Properties(), generate, false);
+        assertEquals(expected, run(partialAgg(), generate, true));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        // a table too small for a single key is emptied on every record
+        Properties props = partialAgg();
+        props.setProperty(POPartialAgg.MEMORY, "0.0000001");
+        String generate = "group, COUNT(A), SUM(A.v), SIZE(A.s)";
+        assertEquals(run(new Properties(), generate, false),
+                run(props, generate, true));
+    }
+
+    @Test
+    public void testTurnedOff() throws Exception {
+        // 37 keys in 10000 records are not reduction enough
+        Properties props = partialAgg();
+        props.setProperty(POPartialAgg.MIN_REDUCTION, "1000");
+        String generate = "group, SUM(A.v), SIZE(A.s)";
+        assertEquals(run(new Properties(), generate, false),
+                run(props, generate, true));
+    }
+
+    @Test
+    public void testNotFired() throws Exception {
+        // the algebraic part reads only columns that are passed through
+        // anyway, so there is nothing to gain
+        String generate = "group, MAX(A.s), A.s";
+        assertEquals(run(new Properties(), generate, false),
+                run(partialAgg(), generate, false));
+    }
+}
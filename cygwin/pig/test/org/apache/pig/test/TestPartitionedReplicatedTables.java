@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.util.PartitionedReplicatedTables;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.PigContext;
+import org.apache.pig.impl.logicalLayer.LogicalPlan;
+import org.apache.pig.test.utils.GenPhyOp;
+import org.apache.pig.test.utils.LogicalPlanTester;
+import org.junit.Test;
+
+/**
+ * Checks the tables of fragment replicate joins that write partitions of
+ * the replicated inputs to disk, and that joins give the same results
+ * with them.
+ */
+public class TestPartitionedReplicatedTables extends TestCase {
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private Tuple tuple(Object... fields) throws Exception {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    /**
+     * Probes the keys 0 to probes - 1 and checks each gets the values of
+     * input 1, which has values keys of key
+     */
+    private void checkProbes(PartitionedReplicatedTables tables, int probes,
+            int keys, int values) throws Exception {
+        int joined = 0;
+        for (int i = 0; i < probes; i++) {
+            Tuple key = tuple(i);
+            if (tables.isSpilled(key)) {
+                tables.addProbe(key, tuple(i, "p" + i));
+            } else {
+                checkValues(i, keys, values, tables.get(1, key));
+                joined++;
+            }
+        }
+        while (tables.nextPartition()) {
+            for (Tuple t = tables.nextProbe(); t != null; t = tables.nextProbe()) {
+                Tuple key = tuple(t.get(0));
+                if (tables.isSpilled(key)) {
+                    tables.addProbe(key, t);
+                } else {
+                    assertEquals("p" + t.get(0), t.get(1));
+                    checkValues((Integer)t.get(0), keys, values, tables.get(1, key));
+                    joined++;
+                }
+            }
+        }
+        assertEquals(probes, joined);
+        tables.close();
+    }
+
+    private void checkValues(int k, int keys, int values, List<Tuple> found)
+            throws Exception {
+        if (k >= keys) {
+            assertNull(found);
+            return;
+        }
+        List<Tuple> expected = new ArrayList<Tuple>();
+        for (int i = k; i < values; i += keys) {
+            expected.add(tuple("v" + i));
+        }
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        PartitionedReplicatedTables tables = new PartitionedReplicatedTables(2, 20000);
+        for (int i = 0; i < 5000; i++) {
+            tables.add(1, tuple(i % 500), tuple("v" + i));
+        }
+        assertTrue(tables.getSpilledPartitions() > 0);
+        checkProbes(tables, 1000, 500, 5000);
+        // some partitions were split again
+        assertTrue(tables.getSpilledPartitions() > 16);
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        PartitionedReplicatedTables tables =
+            new PartitionedReplicatedTables(2, 100 * 1024 * 1024);
+        for (int i = 0; i < 5000; i++) {
+            tables.add(1, tuple(i % 500), tuple("v" + i));
+        }
+        assertFalse(tables.isSpilled(tuple(7)));
+        assertEquals(0, tables.getSpilledPartitions());
+        checkProbes(tables, 1000, 500, 5000);
+    }
+
+    @Test
+    public void testSkewedKey() throws Exception {
+        PartitionedReplicatedTables tables = new PartitionedReplicatedTables(2, 2000);
+        for (int i = 0; i < 2000; i++) {
+            tables.add(1, tuple(0), tuple("v" + i));
+        }
+        // the one key cannot be split, it ends up in memory anyway
+        checkProbes(tables, 10, 1, 2000);
+    }
+
+    private int spillFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list();
+        int n = 0;
+        for (String name : files) {
+            if (name.startsWith("pigfrj")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        int before = spillFiles();
+        PartitionedReplicatedTables tables = new PartitionedReplicatedTables(2, 20000);
+        for (int i = 0; i < 5000; i++) {
+            tables.add(1, tuple(i % 500), tuple("v" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (tables.isSpilled(tuple(i))) {
+                tables.addProbe(tuple(i), tuple(i));
+            }
+        }
+        assertTrue(tables.nextPartition());
+        assertTrue(spillFiles() > before);
+        // the task ends before all the partitions are joined
+        tables.close();
+        assertEquals(before, spillFiles());
+    }
+
+    private boolean isEndOfAllInputSet(boolean hybrid, File left, File right)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PartitionedReplicatedTables.HYBRID_FRJOIN,
+                Boolean.toString(hybrid));
+        PigContext pc = new PigContext(ExecType.LOCAL, props);
+        pc.connect();
+        LogicalPlanTester planTester = new LogicalPlanTester(pc);
+        planTester.buildPlan("A = load '" + Util.encodeEscape(left.getAbsolutePath())
+                + "' as (k:int, v:chararray);");
+        planTester.buildPlan("B = load '" + Util.encodeEscape(right.getAbsolutePath())
+                + "' as (k:int, w:chararray);");
+        LogicalPlan lp = planTester.buildPlan(
+                "C = join A by k, B by k using \"replicated\";");
+        PhysicalPlan pp = Util.buildPhysicalPlan(lp, pc);
+        pp.addAsLeaf(GenPhyOp.dummyPigStorageOp());
+        MROperPlan mrPlan = Util.buildMRPlanWithOptimizer(pp, pc);
+        // the join is in the map of the last job
+        return mrPlan.getLeaves().get(0).isEndOfAllInputSetInMap();
+    }
+
+    @Test
+    public void testEndOfAllInput() throws Exception {
+        File l = createFile(new String[] { "1\tl" });
+        File r = createFile(new String[] { "1\tr" });
+        // only hybrid joins have more to join at the end of the input
+        assertTrue(isEndOfAllInputSet(true, l, r));
+        assertFalse(isEndOfAllInputSet(false, l, r));
+    }
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> join(boolean hybrid, File left, File right, File right2)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PartitionedReplicatedTables.HYBRID_FRJOIN,
+                Boolean.toString(hybrid));
+        // a few kilobytes
+        props.setProperty(PartitionedReplicatedTables.MEMORY, "0.00001");
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        pigServer.registerQuery("A = load '" + Util.encodeEscape(left.getAbsolutePath())
+                + "' as (k:int, v:chararray);");
+        pigServer.registerQuery("B = load '" + Util.encodeEscape(right.getAbsolutePath())
+                + "' as (k:int, w:chararray);");
+        pigServer.registerQuery("B2 = load '" + Util.encodeEscape(right2.getAbsolutePath())
+                + "' as (k:int, x:chararray);");
+        pigServer.registerQuery("C = join A by k, B by k using \"replicated\";");
+        pigServer.registerQuery("D = join A by k left outer, B by k using \"replicated\";");
+        pigServer.registerQuery("E = join A by k, B by k, B2 by k using \"replicated\";");
+        List<String> results = new ArrayList<String>();
+        for (String alias : new String[] { "C", "D", "E" }) {
+            Iterator<Tuple> iter = pigServer.openIterator(alias);
+            while (iter.hasNext()) {
+                results.add(alias + iter.next().toString());
+            }
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        String[] left = new String[2000];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = ((i % 7 == 0) ? "" : Integer.toString(i % 300)) + "\tl" + i;
+        }
+        String[] right = new String[1500];
+        for (int i = 0; i < right.length; i++) {
+            right[i] = ((i % 11 == 0) ? "" : Integer.toString(i % 250)) + "\tr" + i;
+        }
+        String[] right2 = new String[500];
+        for (int i = 0; i < right2.length; i++) {
+            right2[i] = Integer.toString(i % 100) + "\ts" + i;
+        }
+        File l = createFile(left);
+        File r = createFile(right);
+        File r2 = createFile(right2);
+        List<String> expected = join(false, l, r, r2);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, join(true, l, r, r2));
+    }
+}
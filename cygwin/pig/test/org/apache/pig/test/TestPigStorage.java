@@ -37,6 +37,7 @@ import org.apache.pig.ExecType;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.builtin.PigStorage;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.io.FileLocalizer;
 import org.junit.AfterClass;
@@ -151,4 +152,40 @@ public class TestPigStorage  {
                 
     }
 
+    /**
+     * Test that lazily loaded tuples give the same results as eagerly 
+     * loaded ones, also when columns are pruned, fields are empty and 
+     * the tuples are held on to across calls to getNext.
+     */
+    @Test
+    public void testLazyLoad() throws IOException {
+        String inputFileName = "TestPigStorage-testLazyLoad-input.txt";
+        Util.createLocalInputFile(
+                inputFileName, 
+                new String[] {"a\t1\t3", "b\t\t4", "a\t5", "c\t7\t8\t9"});
+        String script = "a = load '" + inputFileName + "' as (s:chararray, j:int, k:int);" +
+                "b = foreach a generate s, k;" +
+                "c = group b by s;" +
+                "d = foreach c generate group, SUM(b.k), b;";
+        String[] expected = null;
+        for (String lazy : new String[] {"false", "true"}) {
+            Properties props = new Properties();
+            props.setProperty(PigStorage.LAZY_LOAD, lazy);
+            PigServer ps = new PigServer(ExecType.LOCAL, props);
+            Util.registerMultiLineQuery(ps, script);
+            Iterator<Tuple> it = ps.openIterator("d");
+            String[] results = new String[3];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = it.next().toString();
+            }
+            assertFalse(it.hasNext());
+            if (expected == null) {
+                expected = results;
+            } else {
+                assertArrayEquals(expected, results);
+            }
+        }
+        assertEquals("(a,3,{(a,3),(a,)})", expected[0]);
+    }
+
 }
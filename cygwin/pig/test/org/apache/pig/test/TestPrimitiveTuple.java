@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.InterSedes;
+import org.apache.pig.data.InterSedesFactory;
+import org.apache.pig.data.PrimitiveTuple;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link PrimitiveTuple} behaves like the default tuple and is
+ * serialized the same way.
+ */
+public class TestPrimitiveTuple extends TestCase {
+
+    private static final byte[] TYPES = { DataType.INTEGER, DataType.LONG,
+            DataType.FLOAT, DataType.DOUBLE, DataType.BOOLEAN,
+            DataType.CHARARRAY };
+
+    private TupleFactory tf = TupleFactory.getInstance();
+
+    private InterSedes sedes = InterSedesFactory.getInterSedesInstance();
+
+    private Configuration savedConf;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        savedConf = PigMapReduce.sJobConf;
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(PrimitiveTuple.PRIMITIVE_TUPLES, true);
+        PigMapReduce.sJobConf = conf;
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        PigMapReduce.sJobConf = savedConf;
+    }
+
+    private Tuple newPrimitiveTuple(Object... fields) throws Exception {
+        Tuple t = tf.newTupleForSchema(TYPES);
+        assertTrue(t instanceof PrimitiveTuple);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    private Tuple newDefaultTuple(Object... fields) throws Exception {
+        Tuple t = tf.newTuple(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            t.set(i, fields[i]);
+        }
+        return t;
+    }
+
+    private byte[] serialize(Tuple t) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        sedes.writeDatum(new DataOutputStream(bos), t);
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testFields() throws Exception {
+        Object[] fields = { 7, 1L << 40, 1.5f, -2.25, true, "kéy" };
+        Tuple pt = newPrimitiveTuple(fields);
+        Tuple dt = newDefaultTuple(fields);
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(fields[i], pt.get(i));
+            assertEquals(TYPES[i], pt.getType(i));
+            assertFalse(pt.isNull(i));
+        }
+        assertEquals(dt.toString(), pt.toString());
+        assertEquals(dt.hashCode(), pt.hashCode());
+        assertEquals(0, pt.compareTo(dt));
+        assertEquals(0, dt.compareTo(pt));
+        assertEquals(dt.toDelimitedString(","), pt.toDelimitedString(","));
+
+        Tuple other = newPrimitiveTuple(7, 1L << 40, 1.5f, -2.25, true, "l");
+        assertTrue(pt.compareTo(other) < 0);
+        assertTrue(other.compareTo(pt) > 0);
+
+        // fields of other types and nulls
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("a", 1);
+        pt.set(0, map);
+        pt.set(1, null);
+        pt.set(5, 3);
+        assertEquals(map, pt.get(0));
+        assertEquals(DataType.MAP, pt.getType(0));
+        assertNull(pt.get(1));
+        assertTrue(pt.isNull(1));
+        assertEquals(3, pt.get(5));
+        dt.set(0, map);
+        dt.set(1, null);
+        dt.set(5, 3);
+        assertEquals(dt, pt);
+        assertEquals(dt.hashCode(), pt.hashCode());
+        assertTrue(pt.getMemorySize() > 0);
+    }
+
+    @Test
+    public void testGetAll() throws Exception {
+        Tuple pt = newPrimitiveTuple(1, 2L, 3.0f, 4.0, false, "five");
+        List<Object> fields = pt.getAll();
+        assertEquals(6, fields.size());
+        fields.remove(0);
+        assertEquals(5, pt.size());
+        assertEquals(2L, pt.get(0));
+        fields.add(0, "zero");
+        fields.set(1, 1);
+        pt.append(6);
+        assertEquals(newDefaultTuple("zero", 1, 3.0f, 4.0, false, "five", 6), pt);
+
+        Tuple copy = tf.newTuple();
+        copy.reference(pt);
+        assertEquals(pt, copy);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            longString.append((char)('a' + i % 26));
+        }
+        String[] strings = { "", "plain", "é漢", "nul\u0000char",
+                "pair😀", longString.toString() };
+        for (String s : strings) {
+            Object[] fields = { -100000, Long.MIN_VALUE, Float.NaN, 0.1, false, s };
+            Tuple pt = newPrimitiveTuple(fields);
+            byte[] bytes = serialize(pt);
+            // the same bytes as any other tuple, raw comparators rely on it
+            assertTrue(Arrays.equals(serialize(newDefaultTuple(fields)), bytes));
+
+            Object read = sedes.readDatum(new DataInputStream(
+                    new ByteArrayInputStream(bytes)));
+            assertTrue(read instanceof PrimitiveTuple);
+            assertEquals(pt, read);
+            assertEquals(s, ((Tuple)read).get(5));
+            assertTrue(Arrays.equals(bytes, serialize((Tuple)read)));
+        }
+    }
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> run(boolean primitive, String[] queries, String alias)
+            throws Exception {
+        Properties props = new Properties();
+        props.setProperty(PrimitiveTuple.PRIMITIVE_TUPLES,
+                Boolean.toString(primitive));
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        for (String query : queries) {
+            pigServer.registerQuery(query);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        String[] data = new String[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "k" + (i % 7) + "\t" + ((i % 10 == 0) ? "" : i) + "\t"
+                    + (i * 3L) + "\t" + (i / 4.0);
+        }
+        File f = createFile(data);
+        String[] queries = {
+                "a = load '" + Util.encodeEscape(f.getAbsolutePath())
+                        + "' as (name:chararray, num:int, big:long, d:double);",
+                "b = foreach a generate name, num, big, d;",
+                "c = group b by name;",
+                "d = foreach c generate group, COUNT(b), SUM(b.num), MAX(b.big), AVG(b.d);",
+                "e = join d by $0, b by name;",
+                "f = foreach e generate $0, $1, $2, $5;",
+                "g = order f by $3, $0;" };
+        // the configuration of the local jobs is left behind
+        PigMapReduce.sJobConf = null;
+        List<String> expected = run(false, queries, "g");
+        List<String> actual = run(true, queries, "g");
+        assertEquals(data.length, expected.size());
+        assertEquals(expected, actual);
+    }
+}
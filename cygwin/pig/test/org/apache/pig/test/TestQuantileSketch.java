@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigIntRawComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigMapReduce;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.QuantileSketch;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.partitioners.WeightedRangePartitioner;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.NullableIntWritable;
+import org.apache.pig.impl.util.ObjectSerializer;
+import org.junit.Test;
+
+/**
+ * Checks the quantile sketches and the order by that takes its partitions
+ * from them instead of from a sampling job.
+ */
+public class TestQuantileSketch extends TestCase {
+
+    private static TupleFactory tf = TupleFactory.getInstance();
+
+    private File input;
+
+    @Override
+    protected void setUp() throws Exception {
+        input = File.createTempFile("sketch", "");
+        input.deleteOnExit();
+        PrintWriter pw = new PrintWriter(input);
+        Random r = new Random(17);
+        for (int i = 0; i < 5000; i++) {
+            pw.println(r.nextInt(300) + "\t" + r.nextInt(10) + "\t"
+                    + "k" + r.nextInt(1000));
+        }
+        pw.close();
+    }
+
+    private static Tuple key(int i) {
+        return tf.newTuple(Integer.valueOf(i));
+    }
+
+    private static QuantileSketch sketch(int from, int to, boolean asc) {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_K,
+                new QuantileSketch.KeyComparator(new boolean[] { asc }));
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(from));
+        for (int i : keys) {
+            sketch.add(key(i));
+        }
+        return sketch;
+    }
+
+    private static byte[] write(QuantileSketch sketch) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        sketch.write(out);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void testMergedSketchRanks() throws Exception {
+        QuantileSketch merged = null;
+        for (int part = 0; part < 4; part++) {
+            QuantileSketch sketch = sketch(part * 25000, (part + 1) * 25000, true);
+            // merge what was written, as the partitioner does
+            QuantileSketch read = QuantileSketch.read(new DataInputStream(
+                    new ByteArrayInputStream(write(sketch))),
+                    new QuantileSketch.KeyComparator(new boolean[] { true }));
+            assertEquals(sketch.getCount(), read.getCount());
+            assertEquals(sketch.getRetained(), read.getRetained());
+            if (merged == null) {
+                merged = read;
+            } else {
+                merged.merge(read);
+            }
+        }
+        assertEquals(100000, merged.getCount());
+        assertTrue(merged.getRetained() < 2000);
+
+        List<Tuple> sample = merged.getSample(100);
+        assertEquals(100, sample.size());
+        for (int i = 0; i < sample.size(); i++) {
+            int expected = (int)((i + 0.5) * 1000);
+            int actual = (Integer)sample.get(i).get(0);
+            assertTrue(expected + " " + actual, Math.abs(expected - actual) < 3000);
+            if (i > 0) {
+                assertTrue((Integer)sample.get(i - 1).get(0) <= actual);
+            }
+        }
+    }
+
+    @Test
+    public void testDescendingSample() throws Exception {
+        List<Tuple> sample = sketch(0, 10000, false).getSample(10);
+        for (int i = 1; i < sample.size(); i++) {
+            assertTrue((Integer)sample.get(i - 1).get(0)
+                    > (Integer)sample.get(i).get(0));
+        }
+        assertTrue(sketch(0, 0, true).getSample(10).isEmpty());
+    }
+
+    @Test
+    public void testHeavyKeyRepeated() throws Exception {
+        QuantileSketch sketch = new QuantileSketch(50,
+                new QuantileSketch.KeyComparator(new boolean[] { true }));
+        for (int i = 0; i < 20000; i++) {
+            sketch.add(key(i % 2 == 0 ? 7 : i));
+        }
+        int sevens = 0;
+        for (Tuple t : sketch.getSample(100)) {
+            if ((Integer)t.get(0) == 7) sevens++;
+        }
+        assertTrue("" + sevens, sevens > 40 && sevens < 60);
+    }
+
+    @Test
+    public void testPartitioner() throws Exception {
+        File dir = File.createTempFile("sketches", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        for (int part = 0; part < 2; part++) {
+            File f = new File(dir, "task_" + part);
+            f.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(f);
+            out.write(write(sketch(part * 5000, (part + 1) * 5000, true)));
+            out.close();
+        }
+        // an unfinished sketch is not read
+        File tmp = new File(dir, "_task_2");
+        tmp.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        JobConf conf = new JobConf();
+        conf.set(WeightedRangePartitioner.QUANTILES_SKETCH, dir.getAbsolutePath());
+        conf.setNumReduceTasks(4);
+        conf.set("pig.reduce.key.type", Byte.toString(DataType.INTEGER));
+        conf.set("pig.sortOrder", ObjectSerializer.serialize(new boolean[] { true }));
+        conf.setOutputKeyComparatorClass(PigIntRawComparator.class);
+        PigMapReduce.sJobContext = new JobContext(conf, new JobID());
+
+        WeightedRangePartitioner partitioner = new WeightedRangePartitioner();
+        partitioner.setConf(conf);
+        int[] counts = new int[4];
+        int last = 0;
+        for (int i = 0; i < 10000; i++) {
+            int p = partitioner.getPartition(new NullableIntWritable(i), null, 4);
+            assertTrue(p >= last);
+            last = p;
+            counts[p]++;
+        }
+        for (int count : counts) {
+            assertTrue("" + count, count > 2000 && count < 3000);
+        }
+    }
+
+    private List<String> run(boolean sketch, String query, String alias,
+            String contains) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(MRCompiler.ORDER_SKETCH, Boolean.toString(sketch));
+        PigServer pigServer = new PigServer(ExecType.LOCAL, props);
+        for (String q : query.split("\n")) {
+            pigServer.registerQuery(q);
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pigServer.explain(alias, new PrintStream(baos));
+        String plan = baos.toString();
+        assertEquals(plan, sketch, plan.contains("QuantileSketch"));
+        assertEquals(plan, !sketch, plan.contains(contains));
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        return results;
+    }
+
+    private void check(String query) throws Exception {
+        query = "A = load '" + Util.encodeEscape(input.getAbsolutePath())
+                + "' as (v:int, g:int, s:chararray);\n" + query;
+        List<String> expected = run(false, query, "O", "FindQuantiles");
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, run(true, query, "O", "FindQuantiles"));
+    }
+
+    @Test
+    public void testOrderByAfterLoad() throws Exception {
+        check("O = order A by v, s, g;");
+    }
+
+    @Test
+    public void testOrderByDesc() throws Exception {
+        check("F = filter A by g > 2;\n"
+                + "O = order F by s desc, v desc, g desc;");
+    }
+
+    @Test
+    public void testOrderByMixed() throws Exception {
+        check("O = order A by g desc, s, v;");
+    }
+
+    @Test
+    public void testOrderByAfterGroup() throws Exception {
+        check("G = group A by s;\n"
+                + "C = foreach G generate group, COUNT(A) as c, SUM(A.v) as v;\n"
+                + "O = order C by c desc, v, group;");
+    }
+}
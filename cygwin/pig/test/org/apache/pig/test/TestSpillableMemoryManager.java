@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.impl.util.Spillable;
+import org.apache.pig.impl.util.SpillableMemoryManager;
+import org.junit.Test;
+
+/**
+ * Checks which spillables the {@link SpillableMemoryManager} spills.
+ */
+public class TestSpillableMemoryManager extends TestCase {
+
+    private static class TestSpillable implements Spillable {
+        long size;
+        int spills = 0;
+
+        TestSpillable(long size) {
+            this.size = size;
+        }
+
+        public synchronized long spill() {
+            spills++;
+            size = 0;
+            return 1;
+        }
+
+        public synchronized long getMemorySize() {
+            return size;
+        }
+    }
+
+    private List<SpillableMemoryManager> managers =
+        new ArrayList<SpillableMemoryManager>();
+
+    private SpillableMemoryManager newManager() {
+        SpillableMemoryManager mm = new SpillableMemoryManager();
+        managers.add(mm);
+        return mm;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("pig.spill.size.threshold", "1000");
+        // high enough that the tests do not invoke the GC
+        props.setProperty("pig.spill.gc.activation.size", "1000000000");
+        props.setProperty(SpillableMemoryManager.PROACTIVE_LOOKAHEAD, "0");
+        SpillableMemoryManager.configure(props);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (SpillableMemoryManager mm : managers) {
+            mm.shutdown();
+        }
+        managers.clear();
+        Properties props = new Properties();
+        props.setProperty("pig.spill.size.threshold", "5000000");
+        props.setProperty("pig.spill.gc.activation.size", "40000000");
+        SpillableMemoryManager.configure(props);
+    }
+
+    @Test
+    public void testLargestFirst() throws Exception {
+        SpillableMemoryManager mm = newManager();
+        List<TestSpillable> spillables = new ArrayList<TestSpillable>();
+        long[] sizes = { 2000, 500000, 10, 80000, 3000000, 999, 0, 40000 };
+        for (long size : sizes) {
+            TestSpillable s = new TestSpillable(size);
+            spillables.add(s);
+            mm.registerSpillable(s);
+        }
+        // the bags grow after they are registered
+        spillables.get(1).size = 6000000;
+
+        // enough to spill the two largest only
+        assertEquals(9000000, mm.spill(8000000));
+        assertEquals(1, spillables.get(1).spills);
+        assertEquals(1, spillables.get(4).spills);
+        for (int i : new int[] { 0, 2, 3, 5, 6, 7 }) {
+            assertEquals(0, spillables.get(i).spills);
+        }
+
+        // the rest down to the threshold
+        assertEquals(122000, mm.spill(Long.MAX_VALUE));
+        for (int i : new int[] { 0, 3, 7 }) {
+            assertEquals(1, spillables.get(i).spills);
+        }
+        for (int i : new int[] { 2, 5, 6 }) {
+            assertEquals(0, spillables.get(i).spills);
+        }
+        assertEquals(5, mm.getObjectsSpilled());
+        assertEquals(9122000, mm.getBytesSpilled());
+    }
+
+    @Test
+    public void testCollectedSpillables() throws Exception {
+        SpillableMemoryManager mm = newManager();
+        for (int i = 0; i < 1000; i++) {
+            mm.registerSpillable(new TestSpillable(100000));
+        }
+        TestSpillable kept = new TestSpillable(100000);
+        mm.registerSpillable(kept);
+        for (int i = 0; i < 10 && kept.spills == 0; i++) {
+            System.gc();
+            mm.spill(1);
+        }
+        assertEquals(1, kept.spills);
+    }
+
+    @Test
+    public void testSpillThread() throws Exception {
+        SpillableMemoryManager mm = newManager();
+        TestSpillable s = new TestSpillable(20000);
+        mm.registerSpillable(s);
+        mm.requestSpill(10000);
+        for (int i = 0; i < 100 && mm.getObjectsSpilled() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, mm.getObjectsSpilled());
+        assertEquals(1, s.spills);
+    }
+}
@@ -19,13 +19,17 @@ package org.apache.pig.test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
 
 import junit.framework.TestCase;
 
 import org.apache.pig.ExecType;
 import org.apache.pig.PigServer;
 import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStream;
 import org.apache.pig.builtin.PigStorage;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.data.TupleFactory;
@@ -321,6 +325,54 @@ public class TestStreamingLocal extends TestCase {
         Assert.assertTrue(count == 1);
     }
 
+    @Test
+    public void testBatchedStreaming() throws Exception {
+        ArrayList<String> list = new ArrayList<String>();
+        for (int i=0; i<10000; i++) {
+            list.add((char)('A' + i % 4) + "," + i);
+        }
+        File input = Util.createInputFile("tmp", "", list.toArray(new String[0]));
+
+        // the binaries drop and double lines so that the output runs behind
+        // and ahead of the input
+        String[] commands = { simpleEchoStreamingCommand,
+                "perl -ne 'print if /^[AB]/'",
+                "perl -ne 'print; print'" };
+        for (String command : commands) {
+            String query = "A = load 'file:" + Util.encodeEscape(input.toString()) + "' using " +
+                    PigStorage.class.getName() + "(',') as (a0:chararray, a1:int);\n"
+                    + "B = stream A through `" + command + "` as (b0:chararray, b1:int);\n"
+                    + "C = foreach B generate b0, b1 + 1;";
+            Properties props = new Properties();
+            props.setProperty(POStream.QUEUE_SIZE, "100");
+            props.setProperty(POStream.BATCH_SIZE, "32");
+            List<String> expected = runStreaming(new Properties(), query);
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(expected, runStreaming(props, query));
+
+            // batches larger than the queue
+            props.setProperty(POStream.QUEUE_SIZE, "4");
+            props.setProperty(POStream.BATCH_SIZE, "1000");
+            Assert.assertEquals(expected, runStreaming(props, query));
+        }
+    }
+
+    private List<String> runStreaming(Properties props, String query)
+    throws Exception {
+        PigServer pig = new PigServer(ExecType.LOCAL, props);
+        for (String q : query.split("\n")) {
+            pig.registerQuery(q);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pig.openIterator("C");
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pig.shutdown();
+        Collections.sort(results);
+        return results;
+    }
+
     @Test
     public void testLocalNegativeLoadStoreOptimization() throws Exception {
         testNegativeLoadStoreOptimization(ExecType.LOCAL);
@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.pig.ExecType;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ThreadedJobRunner;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ThreadedLocalLauncher;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.UDFContext;
+import org.junit.Test;
+
+/**
+ * Checks that the threaded execution type produces the same results as
+ * local mode.
+ */
+public class TestThreadedLocal extends TestCase {
+
+    private File createFile(String[] data) throws Exception {
+        File f = File.createTempFile("tmp", "");
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < data.length; i++) {
+            pw.println(data[i]);
+        }
+        pw.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<String> run(ExecType execType, Properties props,
+            String[] queries, String alias) throws Exception {
+        PigServer pigServer = new PigServer(execType, props);
+        for (String query : queries) {
+            pigServer.registerQuery(query);
+        }
+        List<String> results = new ArrayList<String>();
+        Iterator<Tuple> iter = pigServer.openIterator(alias);
+        while (iter.hasNext()) {
+            results.add(iter.next().toString());
+        }
+        pigServer.shutdown();
+        return results;
+    }
+
+    private void compare(String[] queries, String alias, boolean sorted)
+            throws Exception {
+        compare(queries, alias, sorted, new Properties());
+    }
+
+    private void compare(String[] queries, String alias, boolean sorted,
+            Properties props) throws Exception {
+        List<String> expected = run(ExecType.LOCAL, props, queries, alias);
+        props = (Properties)props.clone();
+        props.setProperty(ThreadedJobRunner.THREADS, "3");
+        // force sort buffers and the shuffle to spill
+        props.setProperty(ThreadedJobRunner.SORT_MB, "0");
+        props.setProperty(ThreadedJobRunner.SHUFFLE_MB, "0");
+        List<String> actual = run(ExecType.THREADED, props, queries, alias);
+        if (!sorted) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, actual);
+    }
+
+    private String load(File f, String alias) {
+        return alias + " = load '"
+                + Util.encodeEscape(f.getAbsolutePath())
+                + "' as (name:chararray, num:int);";
+    }
+
+    @Test
+    public void testGroupAndOrder() throws Exception {
+        String[] data = new String[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "k" + (i % 17) + "\t" + i;
+        }
+        File f = createFile(data);
+        compare(new String[] {
+                load(f, "a"),
+                "b = group a by name;",
+                "c = foreach b generate group, COUNT(a), SUM(a.num);",
+                "d = order c by $2 desc;" }, "d", true);
+    }
+
+    @Test
+    public void testMultipleSplits() throws Exception {
+        String[] data = new String[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "k" + (i % 23) + "\t" + i;
+        }
+        File f = createFile(data);
+        Properties props = new Properties();
+        // several map tasks combine their output at the same time
+        props.setProperty("pig.splitCombination", "false");
+        props.setProperty("mapred.max.split.size", "1024");
+        compare(new String[] {
+                load(f, "a"),
+                "b = group a by name;",
+                "c = foreach b generate group, COUNT(a), SUM(a.num), "
+                        + "MIN(a.num), MAX(a.num);" }, "c", false, props);
+    }
+
+    @Test
+    public void testJoinAndDistinct() throws Exception {
+        File f1 = createFile(new String[] { "a\t1", "b\t2", "a\t3", "c\t4" });
+        File f2 = createFile(new String[] { "a\t5", "c\t6", "c\t6", "d\t7" });
+        compare(new String[] {
+                load(f1, "a"),
+                load(f2, "b"),
+                "c = join a by name, b by name;",
+                "d = distinct c;" }, "d", false);
+    }
+
+    @Test
+    public void testMapOnly() throws Exception {
+        File f = createFile(new String[] { "a\t1", "b\t2", "c\t3" });
+        compare(new String[] {
+                load(f, "a"),
+                "b = filter a by num > 1;",
+                "c = foreach b generate name, num * 2;" }, "c", false);
+    }
+
+    private List<String> readOutput(File dir) throws Exception {
+        List<String> results = new ArrayList<String>();
+        for (File part : dir.listFiles()) {
+            if (!part.getName().startsWith("part")) {
+                continue;
+            }
+            BufferedReader br = new BufferedReader(new FileReader(part));
+            String line;
+            while ((line = br.readLine()) != null) {
+                results.add(line);
+            }
+            br.close();
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    private List<String> runBatch(String jobs, File f) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ThreadedJobRunner.THREADS, "2");
+        props.setProperty(ThreadedLocalLauncher.JOBS, jobs);
+        PigServer pigServer = new PigServer(ExecType.THREADED, props);
+        File out = File.createTempFile("out", "");
+        out.delete();
+        pigServer.setBatchOn();
+        pigServer.registerQuery(load(f, "a"));
+        pigServer.registerQuery("b = group a by name;");
+        pigServer.registerQuery("c = foreach b generate group, COUNT(a);");
+        pigServer.registerQuery("d = group a by num % 7;");
+        pigServer.registerQuery("e = foreach d generate group, SUM(a.num);");
+        pigServer.registerQuery("f = distinct a;");
+        // depends on the jobs of c and e
+        pigServer.registerQuery("g = join c by $1, e by $0;");
+        String[] aliases = { "c", "e", "f", "g" };
+        for (String alias : aliases) {
+            pigServer.registerQuery("store " + alias + " into '"
+                    + Util.encodeEscape(new File(out, alias).getAbsolutePath())
+                    + "';");
+        }
+        List<ExecJob> execJobs = pigServer.executeBatch();
+        for (ExecJob job : execJobs) {
+            assertEquals(ExecJob.JOB_STATUS.COMPLETED, job.getStatus());
+        }
+        pigServer.shutdown();
+        List<String> results = new ArrayList<String>();
+        for (String alias : aliases) {
+            for (String line : readOutput(new File(out, alias))) {
+                results.add(alias + "\t" + line);
+            }
+            Util.deleteDirectory(new File(out, alias));
+        }
+        out.delete();
+        return results;
+    }
+
+    private List<String> runEndOfInput(String jobs, File streamed,
+            File left, File right, File grouped, File script) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ThreadedJobRunner.THREADS, "2");
+        props.setProperty(ThreadedLocalLauncher.JOBS, jobs);
+        PigServer pigServer = new PigServer(ExecType.THREADED, props);
+        File out = File.createTempFile("out", "");
+        out.delete();
+        pigServer.setBatchOn();
+        pigServer.registerQuery("define CMD `sh "
+                + Util.encodeEscape(script.getAbsolutePath()) + "`;");
+        pigServer.registerQuery(load(streamed, "a"));
+        pigServer.registerQuery("b = stream a through CMD as (name:chararray, num:int);");
+        pigServer.registerQuery(load(left, "l"));
+        pigServer.registerQuery(load(right, "r"));
+        pigServer.registerQuery("j = join l by name, r by name using 'merge';");
+        pigServer.registerQuery(load(grouped, "c"));
+        pigServer.registerQuery("d = group c by num % 7;");
+        pigServer.registerQuery("e = foreach d generate group, COUNT(c);");
+        String[] aliases = { "b", "j", "e" };
+        for (String alias : aliases) {
+            pigServer.registerQuery("store " + alias + " into '"
+                    + Util.encodeEscape(new File(out, alias).getAbsolutePath())
+                    + "';");
+        }
+        List<ExecJob> execJobs = pigServer.executeBatch();
+        for (ExecJob job : execJobs) {
+            assertEquals(ExecJob.JOB_STATUS.COMPLETED, job.getStatus());
+        }
+        pigServer.shutdown();
+        List<String> results = new ArrayList<String>();
+        for (String alias : aliases) {
+            for (String line : readOutput(new File(out, alias))) {
+                results.add(alias + "\t" + line);
+            }
+            Util.deleteDirectory(new File(out, alias));
+        }
+        out.delete();
+        return results;
+    }
+
+    @Test
+    public void testConcurrentEndOfInput() throws Exception {
+        String[] data = new String[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = String.format("k%03d\t%d", i, i);
+        }
+        File streamed = createFile(data);
+        File left = createFile(data);
+        File grouped = createFile(data);
+        String[] rightData = new String[50];
+        for (int i = 0; i < rightData.length; i++) {
+            rightData[i] = String.format("k%03d\t%d", i * 4, i);
+        }
+        File right = createFile(rightData);
+        // the command only writes once its input is closed, which the
+        // stream does at the end of the input of its task, as does the
+        // merge join with the last keys, while tasks of the other jobs set
+        // their own flags
+        File script = createFile(new String[] { "sleep 1", "cat" });
+
+        List<String> expected = runEndOfInput("1", streamed, left, right,
+                grouped, script);
+        int streamedLines = 0;
+        int joinedLines = 0;
+        for (String line : expected) {
+            if (line.startsWith("b\t")) {
+                streamedLines++;
+            } else if (line.startsWith("j\t")) {
+                joinedLines++;
+            }
+        }
+        assertEquals(data.length, streamedLines);
+        assertEquals(rightData.length, joinedLines);
+        assertEquals(expected, runEndOfInput("3", streamed, left, right,
+                grouped, script));
+    }
+
+    @Test
+    public void testConcurrentJobs() throws Exception {
+        String[] data = new String[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = "k" + (i % 11) + "\t" + (i % 40);
+        }
+        File f = createFile(data);
+        List<String> expected = runBatch("1", f);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, runBatch("3", f));
+    }
+
+    @Test
+    public void testTaskStateNotInherited() throws Exception {
+        // threads started by a task, such as the spill thread, outlive it
+        UDFContext.createTaskContext();
+        try {
+            final UDFContext taskContext = UDFContext.getUDFContext();
+            final UDFContext[] seen = new UDFContext[1];
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    seen[0] = UDFContext.getUDFContext();
+                }
+            };
+            t.start();
+            t.join();
+            assertNotNull(seen[0]);
+            assertNotSame(taskContext, seen[0]);
+        } finally {
+            UDFContext.removeTaskContext();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.ExpressionCompilerVisitor;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.POStatus;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.Result;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.ConstantExpression;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.GreaterThanExpr;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.Multiply;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.expressionOperators.POProject;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POFilter;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POForEach;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.plan.OperatorKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A map plan of a filter followed by a foreach, run one tuple at a time the
+ * way PigMapBase does:
+ * <pre>
+ * b = filter a by $i > 2500;
+ * c = foreach b generate $0, $i * 2;
+ * </pre>
+ * where $i is the first int field of the records. The expressions are
+ * either interpreted or compiled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PipelineBenchmark {
+
+    static final int RECORDS = 10000;
+
+    @Param({ "EF", "D", "FF1" })
+    public String shape;
+
+    @Param({ "false", "true" })
+    public boolean compiled;
+
+    private Tuple[] tuples;
+
+    private POFilter filter;
+
+    private POForEach foreach;
+
+    private long nextId = 1;
+
+    private OperatorKey key() {
+        return new OperatorKey("bench", nextId++);
+    }
+
+    private POProject project(int col, byte type) {
+        POProject prj = new POProject(key(), -1, col);
+        prj.setResultType(type);
+        return prj;
+    }
+
+    private ConstantExpression constant(Object value) {
+        ConstantExpression c = new ConstantExpression(key());
+        c.setValue(value);
+        c.setResultType(DataType.findType(value));
+        return c;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticData data = new SyntheticData(SyntheticData.Shape.valueOf(shape),
+                RECORDS, 42);
+        List<Tuple> list = data.tuples();
+        tuples = list.toArray(new Tuple[list.size()]);
+        byte[] types = data.getShape().getTypes();
+        int col = 0;
+        while (types[col] != DataType.INTEGER) {
+            col++;
+        }
+
+        // filter a by $col > 2500
+        POProject lhs = project(col, DataType.INTEGER);
+        ConstantExpression rhs = constant(2500);
+        GreaterThanExpr gt = new GreaterThanExpr(key());
+        gt.setLhs(lhs);
+        gt.setRhs(rhs);
+        gt.setOperandType(DataType.INTEGER);
+        gt.setResultType(DataType.BOOLEAN);
+        PhysicalPlan cond = new PhysicalPlan();
+        cond.add(lhs);
+        cond.add(rhs);
+        cond.add(gt);
+        cond.connect(lhs, gt);
+        cond.connect(rhs, gt);
+        filter = new POFilter(key());
+        filter.setPlan(cond);
+
+        // foreach b generate $0, $col * 2
+        List<PhysicalPlan> plans = new ArrayList<PhysicalPlan>();
+        List<Boolean> flattens = new ArrayList<Boolean>();
+        PhysicalPlan first = new PhysicalPlan();
+        first.add(project(0, types[0]));
+        plans.add(first);
+        flattens.add(false);
+        POProject prj = project(col, DataType.INTEGER);
+        ConstantExpression two = constant(2);
+        Multiply mul = new Multiply(key());
+        mul.setLhs(prj);
+        mul.setRhs(two);
+        mul.setResultType(DataType.INTEGER);
+        PhysicalPlan second = new PhysicalPlan();
+        second.add(prj);
+        second.add(two);
+        second.add(mul);
+        second.connect(prj, mul);
+        second.connect(two, mul);
+        plans.add(second);
+        flattens.add(false);
+        foreach = new POForEach(key(), -1, plans, flattens);
+        foreach.setResultType(DataType.TUPLE);
+
+        PhysicalPlan plan = new PhysicalPlan();
+        plan.add(filter);
+        plan.add(foreach);
+        plan.connect(filter, foreach);
+        if (compiled) {
+            new ExpressionCompilerVisitor(plan).visit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void filterForEach(Blackhole bh) throws Exception {
+        Tuple dummy = null;
+        for (Tuple t : tuples) {
+            filter.attachInput(t);
+            while (true) {
+                Result res = foreach.getNext(dummy);
+                if (res.returnStatus == POStatus.STATUS_OK) {
+                    bh.consume(res.result);
+                    continue;
+                }
+                if (res.returnStatus == POStatus.STATUS_EOP) {
+                    break;
+                }
+                if (res.returnStatus == POStatus.STATUS_ERR) {
+                    throw new IllegalStateException("Error running the pipeline");
+                }
+            }
+        }
+    }
+}
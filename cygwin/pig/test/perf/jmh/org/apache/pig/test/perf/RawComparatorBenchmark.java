@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigIntRawComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTextRawComparator;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.PigTupleSortComparator;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.apache.pig.impl.io.NullableIntWritable;
+import org.apache.pig.impl.io.NullableText;
+import org.apache.pig.impl.io.NullableTuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The raw comparators the shuffle sorts map output keys with, on keys
+ * serialized the way map tasks write them. Adjacent keys are compared, as
+ * a merge sort mostly does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RawComparatorBenchmark {
+
+    static final int RECORDS = 10000;
+
+    @Param({ "EF", "D", "FF1" })
+    public String shape;
+
+    private PigTupleSortComparator tupleComparator = new PigTupleSortComparator();
+
+    private PigIntRawComparator intComparator = new PigIntRawComparator();
+
+    private PigTextRawComparator textComparator = new PigTextRawComparator();
+
+    // keys serialized one after the other, and where each one starts
+    private byte[] tupleKeys;
+    private int[] tupleStarts;
+
+    private byte[] intKeys;
+    private int[] intStarts;
+
+    private byte[] textKeys;
+    private int[] textStarts;
+
+    @Setup
+    public void setUp() throws IOException {
+        TupleFactory tf = TupleFactory.getInstance();
+        JobConf conf = new JobConf();
+        tupleComparator.setConf(conf);
+        intComparator.setConf(conf);
+        textComparator.setConf(conf);
+
+        SyntheticData data = new SyntheticData(SyntheticData.Shape.valueOf(shape),
+                RECORDS, 42);
+        List<Tuple> tuples = data.tuples();
+        byte[] types = data.getShape().getTypes();
+        // group keys made of the first three fields
+        int keySize = Math.min(3, types.length);
+        int textCol = -1;
+        for (int j = 0; j < types.length; j++) {
+            if (types[j] == DataType.CHARARRAY) {
+                textCol = j;
+                break;
+            }
+        }
+
+        DataOutputBuffer tupleOut = new DataOutputBuffer();
+        DataOutputBuffer intOut = new DataOutputBuffer();
+        DataOutputBuffer textOut = new DataOutputBuffer();
+        tupleStarts = new int[RECORDS + 1];
+        intStarts = new int[RECORDS + 1];
+        textStarts = new int[RECORDS + 1];
+        for (int i = 0; i < RECORDS; i++) {
+            Tuple t = tuples.get(i);
+            Tuple key = tf.newTuple(keySize);
+            for (int j = 0; j < keySize; j++) {
+                key.set(j, t.get(j));
+            }
+            tupleStarts[i] = tupleOut.getLength();
+            new NullableTuple(key).write(tupleOut);
+
+            intStarts[i] = intOut.getLength();
+            // the first field is an int or a long
+            new NullableIntWritable(((Number)t.get(0)).intValue()).write(intOut);
+
+            textStarts[i] = textOut.getLength();
+            String value = (String)t.get(textCol);
+            NullableText text = new NullableText(value == null ? "" : value);
+            text.setNull(value == null);
+            text.write(textOut);
+        }
+        tupleStarts[RECORDS] = tupleOut.getLength();
+        intStarts[RECORDS] = intOut.getLength();
+        textStarts[RECORDS] = textOut.getLength();
+        tupleKeys = copy(tupleOut);
+        intKeys = copy(intOut);
+        textKeys = copy(textOut);
+    }
+
+    private static byte[] copy(DataOutputBuffer out) {
+        byte[] b = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, b, 0, b.length);
+        return b;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS - 1)
+    public void tupleSortComparator(Blackhole bh) {
+        for (int i = 0; i < RECORDS - 1; i++) {
+            bh.consume(tupleComparator.compare(
+                    tupleKeys, tupleStarts[i], tupleStarts[i + 1] - tupleStarts[i],
+                    tupleKeys, tupleStarts[i + 1], tupleStarts[i + 2] - tupleStarts[i + 1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS - 1)
+    public void intRawComparator(Blackhole bh) {
+        for (int i = 0; i < RECORDS - 1; i++) {
+            bh.consume(intComparator.compare(
+                    intKeys, intStarts[i], intStarts[i + 1] - intStarts[i],
+                    intKeys, intStarts[i + 1], intStarts[i + 2] - intStarts[i + 1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS - 1)
+    public void textRawComparator(Blackhole bh) {
+        for (int i = 0; i < RECORDS - 1; i++) {
+            bh.consume(textComparator.compare(
+                    textKeys, textStarts[i], textStarts[i + 1] - textStarts[i],
+                    textKeys, textStarts[i + 1], textStarts[i + 2] - textStarts[i + 1]));
+        }
+    }
+}
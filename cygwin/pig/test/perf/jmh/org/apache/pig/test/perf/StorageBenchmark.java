@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.pig.builtin.PigStorage;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.impl.util.UDFContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * PigStorage splitting lines of text input into fields, eagerly or lazily.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StorageBenchmark {
+
+    static final int RECORDS = 10000;
+
+    @Param({ "EF", "D", "FF1" })
+    public String shape;
+
+    @Param({ "false", "true" })
+    public boolean lazy;
+
+    private List<byte[]> lines;
+
+    /**
+     * Hands out the same lines over and over
+     */
+    static class LineReader extends RecordReader<LongWritable, Text> {
+        private final List<byte[]> lines;
+        private final LongWritable key = new LongWritable();
+        private final Text value = new Text();
+        private int next = 0;
+
+        LineReader(List<byte[]> lines) {
+            this.lines = lines;
+        }
+
+        void rewind() {
+            next = 0;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) {
+        }
+
+        @Override
+        public boolean nextKeyValue() {
+            if (next == lines.size()) {
+                return false;
+            }
+            key.set(next);
+            value.set(lines.get(next++));
+            return true;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() {
+            return (float)next / lines.size();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private LineReader reader;
+
+    private PigStorage storage;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticData data = new SyntheticData(SyntheticData.Shape.valueOf(shape),
+                RECORDS, 42);
+        lines = data.lines();
+
+        Configuration conf = new Configuration();
+        conf.setBoolean(PigStorage.LAZY_LOAD, lazy);
+        UDFContext.getUDFContext().addJobConf(conf);
+        reader = new LineReader(lines);
+        storage = new PigStorage();
+        storage.prepareToRead(reader, null);
+    }
+
+    /**
+     * Reads every field of the tuples returned
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void pigStorageGetNext(Blackhole bh) throws IOException {
+        reader.rewind();
+        Tuple t;
+        while ((t = storage.getNext()) != null) {
+            for (int i = 0; i < t.size(); i++) {
+                bh.consume(t.get(i));
+            }
+        }
+    }
+}
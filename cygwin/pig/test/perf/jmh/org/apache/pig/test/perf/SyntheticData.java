@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pig.backend.executionengine.ExecException;
+import org.apache.pig.data.DataType;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+
+/**
+ * Generates the records the benchmarks run on. The data is synthetic but
+ * follows the layout of three kinds of DPC files, so that the benchmarks see
+ * realistic mixes of field types, widths and nulls:
+ * <ul>
+ * <li>EF, event files: narrow records of ids, timestamps, counts and
+ * measurements, mostly numeric and rarely null.</li>
+ * <li>D, dimension files: a key followed by a few long descriptive text
+ * fields.</li>
+ * <li>FF1, flat files: wide records of numbers and short codes with many
+ * empty fields.</li>
+ * </ul>
+ * Every field is also available as a typed value, so the same data can be
+ * used as text lines, as byte arrays to cast and as typed tuples. The data
+ * only depends on the shape, the number of records and the seed.
+ */
+public class SyntheticData {
+
+    public enum Shape {
+        EF(new byte[] { DataType.LONG, DataType.INTEGER, DataType.INTEGER,
+                DataType.CHARARRAY, DataType.INTEGER, DataType.DOUBLE,
+                DataType.DOUBLE, DataType.LONG, DataType.CHARARRAY,
+                DataType.INTEGER, DataType.DOUBLE, DataType.INTEGER },
+                0.01, 4),
+        D(new byte[] { DataType.INTEGER, DataType.CHARARRAY,
+                DataType.CHARARRAY, DataType.CHARARRAY, DataType.INTEGER,
+                DataType.CHARARRAY },
+                0.05, 40),
+        FF1(new byte[] { DataType.INTEGER, DataType.CHARARRAY,
+                DataType.INTEGER, DataType.DOUBLE, DataType.CHARARRAY,
+                DataType.LONG, DataType.INTEGER, DataType.CHARARRAY,
+                DataType.DOUBLE, DataType.INTEGER, DataType.CHARARRAY,
+                DataType.INTEGER, DataType.LONG, DataType.DOUBLE,
+                DataType.CHARARRAY, DataType.INTEGER, DataType.INTEGER,
+                DataType.CHARARRAY, DataType.DOUBLE, DataType.INTEGER,
+                DataType.CHARARRAY, DataType.LONG, DataType.INTEGER,
+                DataType.DOUBLE, DataType.CHARARRAY, DataType.INTEGER,
+                DataType.INTEGER, DataType.CHARARRAY, DataType.DOUBLE,
+                DataType.INTEGER },
+                0.2, 6);
+
+        private final byte[] types;
+
+        private final double nullRatio;
+
+        private final int textLength;
+
+        Shape(byte[] types, double nullRatio, int textLength) {
+            this.types = types;
+            this.nullRatio = nullRatio;
+            this.textLength = textLength;
+        }
+
+        /**
+         * @return the types of the fields, one of the {@link DataType}
+         * constants each
+         */
+        public byte[] getTypes() {
+            return types.clone();
+        }
+    }
+
+    private static final String ALPHABET =
+        "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+    private final Shape shape;
+
+    private final List<Object[]> records;
+
+    public SyntheticData(Shape shape, int numRecords, long seed) {
+        this.shape = shape;
+        Random r = new Random(seed);
+        records = new ArrayList<Object[]>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            Object[] fields = new Object[shape.types.length];
+            for (int j = 0; j < fields.length; j++) {
+                // the first field is a key and never null
+                if (j > 0 && r.nextDouble() < shape.nullRatio) {
+                    continue;
+                }
+                fields[j] = randomValue(shape.types[j], r, shape.textLength);
+            }
+            records.add(fields);
+        }
+    }
+
+    private static Object randomValue(byte type, Random r, int textLength) {
+        switch (type) {
+        case DataType.INTEGER:
+            // mostly small ids and counts, some large
+            return r.nextInt(8) == 0 ? r.nextInt() : r.nextInt(10000);
+        case DataType.LONG:
+            return 1262304000000L + (long)(r.nextDouble() * 315360000000L);
+        case DataType.DOUBLE:
+            return Math.round(r.nextGaussian() * 1000000) / 100.0;
+        default:
+            int len = 1 + r.nextInt(textLength * 2);
+            StringBuilder sb = new StringBuilder(len);
+            for (int i = 0; i < len; i++) {
+                sb.append(ALPHABET.charAt(r.nextInt(ALPHABET.length())));
+            }
+            return sb.toString();
+        }
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the records as tab delimited lines, as PigStorage reads them
+     */
+    public List<byte[]> lines() throws IOException {
+        List<byte[]> lines = new ArrayList<byte[]>(records.size());
+        for (Object[] fields : records) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < fields.length; j++) {
+                if (j > 0) {
+                    sb.append('\t');
+                }
+                if (fields[j] != null) {
+                    sb.append(fields[j]);
+                }
+            }
+            lines.add(sb.toString().getBytes("UTF-8"));
+        }
+        return lines;
+    }
+
+    /**
+     * @return the fields as text, column by column, with null for empty
+     * fields
+     */
+    public byte[][][] columns() throws IOException {
+        byte[][][] columns = new byte[shape.types.length][records.size()][];
+        for (int i = 0; i < records.size(); i++) {
+            Object[] fields = records.get(i);
+            for (int j = 0; j < fields.length; j++) {
+                if (fields[j] != null) {
+                    columns[j][i] = fields[j].toString().getBytes("UTF-8");
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return the records as tuples of typed fields
+     */
+    public List<Tuple> tuples() throws ExecException {
+        TupleFactory tf = TupleFactory.getInstance();
+        List<Tuple> tuples = new ArrayList<Tuple>(records.size());
+        for (Object[] fields : records) {
+            Tuple t = tf.newTuple(fields.length);
+            for (int j = 0; j < fields.length; j++) {
+                t.set(j, fields[j]);
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+}
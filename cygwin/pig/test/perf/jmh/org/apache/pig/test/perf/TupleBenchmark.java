@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.pig.data.BinInterSedes;
+import org.apache.pig.data.InternalCachedBag;
+import org.apache.pig.data.Tuple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Work done on every tuple in memory: hashing and comparing DefaultTuples,
+ * writing and reading them with BinInterSedes, and collecting them in an
+ * InternalCachedBag.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TupleBenchmark {
+
+    static final int RECORDS = 10000;
+
+    @Param({ "EF", "D", "FF1" })
+    public String shape;
+
+    private Tuple[] tuples;
+
+    // each tuple followed by one equal to it and one that differs
+    private Tuple[] others;
+
+    private BinInterSedes sedes = new BinInterSedes();
+
+    private DataOutputBuffer out = new DataOutputBuffer();
+
+    private DataInputBuffer in = new DataInputBuffer();
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticData data = new SyntheticData(SyntheticData.Shape.valueOf(shape),
+                RECORDS, 42);
+        List<Tuple> list = data.tuples();
+        tuples = list.toArray(new Tuple[list.size()]);
+        List<Tuple> copies = new SyntheticData(data.getShape(), RECORDS, 42).tuples();
+        others = new Tuple[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            // half equal, half compared against the next record
+            others[i] = (i % 2 == 0) ? copies.get(i) : copies.get((i + 1) % RECORDS);
+        }
+        out.reset();
+        for (Tuple t : tuples) {
+            sedes.writeDatum(out, t);
+        }
+        serialized = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, serialized, 0, serialized.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void tupleHashCode(Blackhole bh) {
+        for (Tuple t : tuples) {
+            bh.consume(t.hashCode());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    @SuppressWarnings("unchecked")
+    public void tupleCompareTo(Blackhole bh) {
+        for (int i = 0; i < tuples.length; i++) {
+            bh.consume(tuples[i].compareTo(others[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void interSedesWrite(Blackhole bh) throws IOException {
+        out.reset();
+        for (Tuple t : tuples) {
+            sedes.writeDatum(out, t);
+        }
+        bh.consume(out.getLength());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void interSedesRead(Blackhole bh) throws IOException {
+        in.reset(serialized, serialized.length);
+        for (int i = 0; i < RECORDS; i++) {
+            bh.consume(sedes.readDatum(in));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void internalCachedBagAdd(Blackhole bh) {
+        InternalCachedBag bag = new InternalCachedBag(1);
+        for (Tuple t : tuples) {
+            bag.add(t);
+        }
+        bh.consume(bag.size());
+        bag.clear();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.pig.test.perf;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.builtin.Utf8StorageConverter;
+import org.apache.pig.data.DataType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Utf8StorageConverter casting text fields to the types declared for them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Utf8CastBenchmark {
+
+    static final int RECORDS = 10000;
+
+    @Param({ "EF", "D", "FF1" })
+    public String shape;
+
+    private byte[][][] columns;
+
+    private byte[] types;
+
+    private Utf8StorageConverter converter = new Utf8StorageConverter();
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticData data = new SyntheticData(SyntheticData.Shape.valueOf(shape),
+                RECORDS, 42);
+        columns = data.columns();
+        types = data.getShape().getTypes();
+    }
+
+    /**
+     * bytesTo* for the type of every field
+     */
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void bytesToType(Blackhole bh) throws IOException {
+        for (int j = 0; j < columns.length; j++) {
+            byte[][] column = columns[j];
+            switch (types[j]) {
+            case DataType.INTEGER:
+                for (int i = 0; i < column.length; i++) {
+                    bh.consume(converter.bytesToInteger(column[i]));
+                }
+                break;
+            case DataType.LONG:
+                for (int i = 0; i < column.length; i++) {
+                    bh.consume(converter.bytesToLong(column[i]));
+                }
+                break;
+            case DataType.DOUBLE:
+                for (int i = 0; i < column.length; i++) {
+                    bh.consume(converter.bytesToDouble(column[i]));
+                }
+                break;
+            default:
+                for (int i = 0; i < column.length; i++) {
+                    bh.consume(converter.bytesToCharArray(column[i]));
+                }
+                break;
+            }
+        }
+    }
+}